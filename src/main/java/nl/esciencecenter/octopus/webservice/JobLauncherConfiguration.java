@@ -23,6 +23,7 @@ package nl.esciencecenter.octopus.webservice;
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 
+import nl.esciencecenter.octopus.webservice.callback.CallbackConfiguration;
 import nl.esciencecenter.octopus.webservice.job.OctopusConfiguration;
 import nl.esciencecenter.octopus.webservice.mac.MacCredential;
 
@@ -62,6 +63,14 @@ public class JobLauncherConfiguration extends Configuration {
     @JsonProperty
     private HttpClientConfiguration httpClient = new HttpClientConfiguration();
 
+    /**
+     * Delivery of status callbacks using the http client
+     */
+    @Valid
+    @NotNull
+    @JsonProperty("callback")
+    private CallbackConfiguration callbackConfiguration = new CallbackConfiguration();
+
     /**
      * Http Client can be configured so self signed ssl certificates work.
      */
@@ -126,13 +135,20 @@ public class JobLauncherConfiguration extends Configuration {
         return macs;
     }
 
+    /**
+     * @return Configuration of delivering status callbacks
+     */
+    public CallbackConfiguration getCallbackConfiguration() {
+        return callbackConfiguration;
+    }
+
     public Boolean isUseInsecureSSL() {
         return useInsecureSSL;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(macs, octopusConfiguration, httpClient);
+        return Objects.hashCode(macs, octopusConfiguration, httpClient, callbackConfiguration);
     }
 
     @Override
@@ -143,12 +159,13 @@ public class JobLauncherConfiguration extends Configuration {
             return false;
         JobLauncherConfiguration other = (JobLauncherConfiguration) obj;
         return Objects.equal(this.macs, other.macs) && Objects.equal(this.octopusConfiguration, other.octopusConfiguration)
-                && Objects.equal(this.httpClient, other.httpClient);
+                && Objects.equal(this.httpClient, other.httpClient)
+                && Objects.equal(this.callbackConfiguration, other.callbackConfiguration);
     }
 
     @Override
     public String toString() {
         return Objects.toStringHelper(this).addValue(this.macs).addValue(this.octopusConfiguration).addValue(this.httpClient)
-                .toString();
+                .addValue(this.callbackConfiguration).toString();
     }
 }
@@ -42,11 +42,16 @@ import org.apache.http.impl.client.AbstractHttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import nl.esciencecenter.octopus.webservice.callback.CallbackDispatcher;
+import nl.esciencecenter.octopus.webservice.callback.CallbackListener;
+import nl.esciencecenter.octopus.webservice.event.JobEventBus;
+import nl.esciencecenter.octopus.webservice.event.JobMetricsListener;
 import nl.esciencecenter.octopus.webservice.health.JobLauncherHealthCheck;
 import nl.esciencecenter.octopus.webservice.job.OctopusManager;
 import nl.esciencecenter.octopus.webservice.mac.MacCredential;
 import nl.esciencecenter.octopus.webservice.mac.MacScheme;
 import nl.esciencecenter.octopus.webservice.mac.MacSchemeFactory;
+import nl.esciencecenter.octopus.webservice.resources.JobBatchResource;
 import nl.esciencecenter.octopus.webservice.resources.JobResource;
 import nl.esciencecenter.octopus.webservice.resources.JobsResource;
 
@@ -83,8 +88,6 @@ public class JobLauncherService extends Service<JobLauncherConfiguration> {
 
     @Override
     public void run(JobLauncherConfiguration configuration, Environment environment) throws Exception {
-        OctopusManager octopus = new OctopusManager(configuration.getOctopusConfiguration());
-        environment.manage(octopus);
         HttpClient httpClient = new HttpClientBuilder().using(configuration.getHttpClientConfiguration()).build();
 
         httpClient = macifyHttpClient((AbstractHttpClient) httpClient, configuration.getMacs());
@@ -93,9 +96,22 @@ public class JobLauncherService extends Service<JobLauncherConfiguration> {
             useInsecureSSL(httpClient);
         }
 
+        CallbackDispatcher callbackDispatcher = new CallbackDispatcher(httpClient, configuration.getCallbackConfiguration());
+        JobEventBus eventBus = new JobEventBus();
+        eventBus.register(new CallbackListener(callbackDispatcher));
+        eventBus.register(new JobMetricsListener());
+        OctopusManager octopus = new OctopusManager(configuration.getOctopusConfiguration(), eventBus);
+        // jobs submitted before a restart are polled again and their callbacks resumed
+        octopus.recover(httpClient);
+        // managed objects are stopped in reverse order, so events and callbacks of the last committed states are still delivered
+        environment.manage(callbackDispatcher);
+        environment.manage(eventBus);
+        environment.manage(octopus);
+
         environment.addResource(new JobsResource(octopus, httpClient));
         environment.addResource(new JobResource(octopus));
-        environment.addHealthCheck(new JobLauncherHealthCheck("joblauncher"));
+        environment.addResource(new JobBatchResource(octopus, httpClient));
+        environment.addHealthCheck(new JobLauncherHealthCheck("joblauncher", octopus));
     }
 
     /**
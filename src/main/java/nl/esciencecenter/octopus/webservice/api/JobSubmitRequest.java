@@ -33,6 +33,7 @@ import nl.esciencecenter.octopus.files.FileSystem;
 import nl.esciencecenter.octopus.files.RelativePath;
 import nl.esciencecenter.octopus.jobs.JobDescription;
 import nl.esciencecenter.octopus.util.Sandbox;
+import nl.esciencecenter.octopus.webservice.staging.PrestageCache;
 
 import com.google.common.base.Objects;
 
@@ -134,19 +135,48 @@ public class JobSubmitRequest {
 
     public Sandbox toSandbox(Octopus octopus, AbsolutePath sandBoxRoot, String sandboxId) throws OctopusException,
             OctopusIOException {
+        return toSandbox(octopus, sandBoxRoot, sandboxId, null);
+    }
+
+    /**
+     * Convert requested job submission to sandbox, with prestaged files uploaded from a cache.
+     *
+     * @param octopus
+     * @param sandBoxRoot
+     * @param sandboxId
+     * @param prestageCache Cache prestaged files are put in before they are uploaded, when null they are uploaded directly.
+     *            The cached files are pinned, they must be released with {@link PrestageCache#release(Sandbox)} after upload.
+     * @return Sandbox
+     * @throws OctopusException
+     * @throws OctopusIOException
+     */
+    public Sandbox toSandbox(Octopus octopus, AbsolutePath sandBoxRoot, String sandboxId, PrestageCache prestageCache)
+            throws OctopusException, OctopusIOException {
         Sandbox sandbox = new Sandbox(octopus, sandBoxRoot, sandboxId);
         FileSystem localFS = sandBoxRoot.getFileSystem();
         // Upload files in request to sandbox
-        for (String prestage : prestaged) {
-            AbsolutePath src;
-            if (prestage.startsWith("/")) {
-                src = octopus.files().newPath(localFS, new RelativePath(prestage));
-            } else {
-                RelativePath rsrc = new RelativePath(new String[] { jobdir, prestage });
-                src = octopus.files().newPath(localFS, rsrc);
+        boolean staged = false;
+        try {
+            for (String prestage : prestaged) {
+                AbsolutePath src;
+                if (prestage.startsWith("/")) {
+                    src = octopus.files().newPath(localFS, new RelativePath(prestage));
+                } else {
+                    RelativePath rsrc = new RelativePath(new String[] { jobdir, prestage });
+                    src = octopus.files().newPath(localFS, rsrc);
+                }
+                String filename = src.getFileName();
+                if (prestageCache != null) {
+                    src = prestageCache.stage(src, localFS);
+                }
+                sandbox.addUploadFile(src, filename);
+            }
+            staged = true;
+        } finally {
+            if (!staged && prestageCache != null) {
+                // files staged before the failure will not be uploaded
+                prestageCache.release(sandbox);
             }
-            String filename = src.getFileName();
-            sandbox.addUploadFile(src, filename);
         }
         // Download files from sandbox to request.jobdir
         sandbox.addDownloadFile(stdout, octopus.files().newPath(localFS, new RelativePath(new String[] { jobdir, stdout })));
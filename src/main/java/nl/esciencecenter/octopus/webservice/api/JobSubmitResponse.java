@@ -0,0 +1,90 @@
+package nl.esciencecenter.octopus.webservice.api;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.net.URI;
+
+import com.google.common.base.Objects;
+
+/**
+ * Outcome of a single job request in a batch submission.
+ *
+ * @author verhoes
+ *
+ */
+public class JobSubmitResponse {
+    /**
+     * Http status code the request would have gotten when submitted on it's own.
+     */
+    private final int status;
+    /**
+     * URI of submitted job, null when job was not submitted.
+     */
+    private final URI location;
+    /**
+     * Reason why job was not submitted, null when job was submitted.
+     */
+    private final String error;
+
+    public JobSubmitResponse(int status, URI location, String error) {
+        super();
+        this.status = status;
+        this.location = location;
+        this.error = error;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public URI getLocation() {
+        return location;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(status, location, error);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        JobSubmitResponse other = (JobSubmitResponse) obj;
+        return Objects.equal(this.status, other.status) && Objects.equal(this.location, other.location)
+                && Objects.equal(this.error, other.error);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .addValue(this.status)
+                .addValue(this.location)
+                .addValue(this.error)
+                .toString();
+    }
+}
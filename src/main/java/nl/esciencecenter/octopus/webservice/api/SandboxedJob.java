@@ -23,6 +23,7 @@ package nl.esciencecenter.octopus.webservice.api;
 import java.io.IOException;
 import java.net.URI;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.ws.rs.core.UriBuilder;
 
@@ -32,13 +33,21 @@ import nl.esciencecenter.octopus.jobs.Job;
 import nl.esciencecenter.octopus.jobs.JobStatus;
 import nl.esciencecenter.octopus.util.CopyOption;
 import nl.esciencecenter.octopus.util.Sandbox;
+import nl.esciencecenter.octopus.webservice.event.JobEvent;
+import nl.esciencecenter.octopus.webservice.event.JobEventBus;
+import nl.esciencecenter.octopus.webservice.staging.OutputSync;
+import nl.esciencecenter.octopus.webservice.staging.SandboxPool;
+import nl.esciencecenter.octopus.webservice.staging.SandboxTransfers;
+import nl.esciencecenter.octopus.webservice.staging.StagingState;
 import nl.esciencecenter.octopus.webservice.resources.JobResource;
 
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -56,28 +65,89 @@ public class SandboxedJob {
     protected final static Logger logger = LoggerFactory.getLogger(SandboxedJob.class);
 
     private final JobSubmitRequest request;
-    private final Sandbox sandbox;
-    private final Job job;
+    /**
+     * Identifier assigned by the web service, when null the identifier of the Octopus job is used.
+     */
+    private final String identifier;
+    private volatile Sandbox sandbox;
+    private volatile Job job;
+    /**
+     * Name of scheduler backend job is routed to, null when job has not been routed yet.
+     */
+    private volatile String backend;
+    /**
+     * Wall clock time in milliseconds when job was submitted to the scheduler, 0 when job has not been submitted yet.
+     */
+    private volatile long submitted = 0;
     private final HttpClient httpClient;
+    /**
+     * Bus on which state changes and sandbox downloads are published, when null status callbacks are sent in the calling thread.
+     */
+    private final JobEventBus eventBus;
     private JobStatus status = null;
-    private int pollIterations = 0;
+    private final AtomicReference<StagingState> stagingState = new AtomicReference<StagingState>();
 
     public SandboxedJob(Sandbox sandbox, Job job, JobSubmitRequest request, HttpClient httpClient) {
+        this(sandbox, job, request, httpClient, null, null);
+    }
+
+    public SandboxedJob(Sandbox sandbox, Job job, JobSubmitRequest request, HttpClient httpClient, JobStatus status) {
+        this(sandbox, job, request, httpClient, status, null);
+    }
+
+    public SandboxedJob(Sandbox sandbox, Job job, JobSubmitRequest request, HttpClient httpClient, JobStatus status,
+            JobEventBus eventBus) {
         super();
+        this.identifier = null;
         this.sandbox = sandbox;
         this.job = job;
         this.request = request;
         this.httpClient = httpClient;
+        this.status = status;
+        this.eventBus = eventBus;
     }
 
-    public SandboxedJob(Sandbox sandbox, Job job, JobSubmitRequest request, HttpClient httpClient, JobStatus status, int pollIterations) {
+    /**
+     * Job recovered after a restart, which keeps the identifier it was assigned when it was submitted.
+     *
+     * @param identifier Identifier assigned by the web service
+     * @param sandbox
+     * @param job
+     * @param request
+     * @param httpClient
+     * @param status Last known status, can be null
+     * @param eventBus
+     */
+    public SandboxedJob(String identifier, Sandbox sandbox, Job job, JobSubmitRequest request, HttpClient httpClient,
+            JobStatus status, JobEventBus eventBus) {
         super();
+        this.identifier = identifier;
         this.sandbox = sandbox;
         this.job = job;
         this.request = request;
         this.httpClient = httpClient;
         this.status = status;
-        this.pollIterations = pollIterations;
+        this.eventBus = eventBus;
+    }
+
+    /**
+     * Job which has been accepted, but has not been staged and submitted yet.
+     *
+     * The sandbox and Octopus job are set when the job has been staged and submitted.
+     *
+     * @param identifier Identifier assigned by the web service
+     * @param request
+     * @param httpClient
+     * @param eventBus
+     */
+    public SandboxedJob(String identifier, JobSubmitRequest request, HttpClient httpClient, JobEventBus eventBus) {
+        super();
+        this.identifier = identifier;
+        this.sandbox = null;
+        this.job = null;
+        this.request = request;
+        this.httpClient = httpClient;
+        this.eventBus = eventBus;
     }
 
     @JsonIgnore
@@ -85,11 +155,46 @@ public class SandboxedJob {
         return sandbox;
     }
 
+    public void setSandbox(Sandbox sandbox) {
+        this.sandbox = sandbox;
+    }
+
+    /**
+     * @return Octopus job, null when job has not been submitted yet.
+     */
     @JsonIgnore
     public Job getJob() {
         return job;
     }
 
+    public void setJob(Job job) {
+        this.job = job;
+    }
+
+    /**
+     * @return Name of scheduler backend job is routed to, null when job has not been routed yet.
+     */
+    @JsonIgnore
+    public String getBackend() {
+        return backend;
+    }
+
+    public void setBackend(String backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * @return Wall clock time in milliseconds when job was submitted to the scheduler, 0 when job has not been submitted yet.
+     */
+    @JsonIgnore
+    public long getSubmitted() {
+        return submitted;
+    }
+
+    public void setSubmitted(long submitted) {
+        this.submitted = submitted;
+    }
+
     public JobSubmitRequest getRequest() {
         return request;
     }
@@ -109,25 +214,33 @@ public class SandboxedJob {
         return new JobStatusResponse(status);
     }
 
+    /**
+     * @return State of downloading and deleting sandbox, null when it has not been started.
+     */
     @JsonIgnore
-    public int getPollIterations() {
-        return pollIterations;
+    public StagingState getStagingState() {
+        return stagingState.get();
     }
 
-    public void setPollIterations(int polliterations) {
-        this.pollIterations = polliterations;
+    public void setStagingState(StagingState state) {
+        stagingState.set(state);
     }
 
     /**
-     * Increase poll iteration
+     * Atomically sets staging state when current state is as expected.
+     *
+     * @param expect
+     * @param update
+     * @return true when state was updated
      */
-    public void incrPollIterations() {
-        this.pollIterations++;
+    public boolean compareAndSetStagingState(StagingState expect, StagingState update) {
+        return stagingState.compareAndSet(expect, update);
     }
 
     /**
      * Sets status.
-     * If status has changed and callback is set then sends PUT request with {@link JobStatusResponse JobStatusResponse} as JSON to callback URL.
+     * If status has changed and an event bus is set then publishes a {@link JobEvent.Type#STATE_CHANGED state changed} event.
+     * Without event bus, if status has changed and callback is set then sends PUT request with {@link JobStatusResponse JobStatusResponse} as JSON to callback URL.
      *
      * @param status
      * @throws JsonProcessingException when job status can not be converted to JSON.
@@ -136,7 +249,11 @@ public class SandboxedJob {
     public void setStatus(JobStatus status) throws IOException {
         if (!status.equals(this.status)) {
             this.status = status;
-            putState2Callback();
+            if (eventBus != null) {
+                eventBus.publish(new JobEvent(JobEvent.Type.STATE_CHANGED, this, status));
+            } else {
+                putState2Callback();
+            }
         }
     }
 
@@ -146,23 +263,76 @@ public class SandboxedJob {
             HttpPut put = new HttpPut(request.status_callback_url);
             HttpEntity entity = new StringEntity(body, ContentType.APPLICATION_JSON);
             put.setEntity(entity);
-            httpClient.execute(put);
+            HttpResponse response = httpClient.execute(put);
+            if (response != null) {
+                // consume body so connection is returned to pool
+                EntityUtils.consume(response.getEntity());
+            }
         }
     }
 
     /**
      * Downloads sandbox and delete it's contents.
      *
-     * Only downloads sandbox when job status has no exception.
+     * Only downloads sandbox when job status has no exception, after download a sandbox downloaded event is published.
      *
      * @throws OctopusIOException
      * @throws UnsupportedOperationException
      */
     public void cleanSandbox() throws OctopusIOException, UnsupportedOperationException {
-        if (!status.hasException()) {
-            sandbox.download(CopyOption.REPLACE_EXISTING);
+        cleanSandbox(status, null, null, null);
+    }
+
+    /**
+     * Downloads sandbox using transfers and delete it's contents.
+     *
+     * @param transfers Transfers which download files of sandbox concurrently, when null sandbox downloads it's files itself.
+     * @throws OctopusIOException
+     * @throws UnsupportedOperationException
+     * @see #cleanSandbox()
+     */
+    public void cleanSandbox(SandboxTransfers transfers) throws OctopusIOException, UnsupportedOperationException {
+        cleanSandbox(status, transfers, null, null);
+    }
+
+    /**
+     * Downloads sandbox and returns it to a pool of sandbox directories or deletes it.
+     *
+     * The done status is passed in, because it is only set on the job after it's sandbox has been cleaned.
+     *
+     * @param doneStatus Status of job, sandbox is only downloaded when it has no exception. When null the current status is used.
+     * @param transfers Transfers which download files of sandbox concurrently, when null sandbox downloads it's files itself.
+     * @param outputSync Sync which copied output of job while it ran, requires transfers. Can be null.
+     * @param sandboxPool Pool to which wiped sandbox is returned.
+     *            When null, full or sandbox is outside it's root the sandbox is deleted.
+     * @throws OctopusIOException
+     * @throws UnsupportedOperationException
+     * @see #cleanSandbox()
+     */
+    public void cleanSandbox(JobStatus doneStatus, SandboxTransfers transfers, OutputSync outputSync, SandboxPool sandboxPool)
+            throws OctopusIOException, UnsupportedOperationException {
+        if (doneStatus == null) {
+            doneStatus = status;
+        }
+        boolean downloaded = false;
+        if (doneStatus == null || !doneStatus.hasException()) {
+            if (outputSync != null) {
+                transfers.download(outputSync.finish(this), CopyOption.REPLACE_EXISTING);
+            } else if (transfers == null) {
+                sandbox.download(CopyOption.REPLACE_EXISTING);
+            } else {
+                transfers.download(sandbox, CopyOption.REPLACE_EXISTING);
+            }
+            downloaded = true;
+        } else if (outputSync != null) {
+            outputSync.forget(this);
+        }
+        if (sandboxPool == null || !sandboxPool.reclaim(sandbox)) {
+            sandbox.delete();
+        }
+        if (downloaded && eventBus != null) {
+            eventBus.publish(new JobEvent(JobEvent.Type.SANDBOX_DOWNLOADED, this, doneStatus));
         }
-        sandbox.delete();
     }
 
     /**
@@ -171,6 +341,9 @@ public class SandboxedJob {
      */
     @JsonIgnore
     public String getIdentifier() {
+        if (identifier != null) {
+            return identifier;
+        }
         UUID uuid = job.getUUID();
         return uuid.toString();
     }
@@ -0,0 +1,111 @@
+package nl.esciencecenter.octopus.webservice.callback;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Objects;
+
+/**
+ * Configuration of delivering job status callbacks.
+ *
+ * @author verhoes
+ *
+ */
+public class CallbackConfiguration {
+    /**
+     * Number of threads sending callbacks.
+     * Default 4.
+     */
+    @JsonProperty
+    private int poolSize = 4;
+    /**
+     * Maximum number of callbacks waiting to be sent or being sent.
+     * When full new callbacks are dropped.
+     * Default 1000.
+     */
+    @JsonProperty
+    private int queueSize = 1000;
+    /**
+     * Maximum number of callbacks sent in parallel to the same host.
+     * Default 2.
+     */
+    @JsonProperty
+    private int maxPerHost = 2;
+
+    public CallbackConfiguration(int poolSize, int queueSize, int maxPerHost) {
+        super();
+        this.poolSize = poolSize;
+        this.queueSize = queueSize;
+        this.maxPerHost = maxPerHost;
+    }
+
+    public CallbackConfiguration() {
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public int getMaxPerHost() {
+        return maxPerHost;
+    }
+
+    public void setMaxPerHost(int maxPerHost) {
+        this.maxPerHost = maxPerHost;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(poolSize, queueSize, maxPerHost);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        CallbackConfiguration other = (CallbackConfiguration) obj;
+        return Objects.equal(this.poolSize, other.poolSize) && Objects.equal(this.queueSize, other.queueSize)
+                && Objects.equal(this.maxPerHost, other.maxPerHost);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .addValue(this.poolSize)
+                .addValue(this.queueSize)
+                .addValue(this.maxPerHost)
+                .toString();
+    }
+}
@@ -0,0 +1,263 @@
+package nl.esciencecenter.octopus.webservice.callback;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.yammer.dropwizard.lifecycle.Managed;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricsRegistry;
+
+/**
+ * Sends job status callbacks in a pool of threads, so committing a state never waits on the network.
+ *
+ * Callbacks wait in a bounded queue, when the queue is full new callbacks are dropped and counted.
+ * Each host has a limit on the number of callbacks sent in parallel, so one slow host can not occupy the whole pool.
+ * Callbacks to the same url are sent one at a time in the order they where dispatched.
+ *
+ * @author verhoes
+ *
+ */
+public class CallbackDispatcher implements Managed {
+    protected final static Logger logger = LoggerFactory.getLogger(CallbackDispatcher.class);
+
+    private final HttpClient httpClient;
+    private final CallbackConfiguration configuration;
+    private final ExecutorService executor;
+    private final Map<String, Host> hosts = new HashMap<String, Host>();
+    /**
+     * Number of callbacks pending or in flight.
+     */
+    private int size = 0;
+    private boolean stopping = false;
+    private final Counter dropped;
+
+    /**
+     * Callback to deliver.
+     */
+    static class Callback {
+        private final URI url;
+        private final String body;
+
+        Callback(URI url, String body) {
+            this.url = url;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Callbacks of a host.
+     */
+    static class Host {
+        private final LinkedList<Callback> pending = new LinkedList<Callback>();
+        private final Set<URI> inFlight = new HashSet<URI>();
+    }
+
+    /**
+     * Dispatcher which registers it's metrics in the default registry.
+     *
+     * @param httpClient
+     * @param configuration
+     */
+    public CallbackDispatcher(HttpClient httpClient, CallbackConfiguration configuration) {
+        this(httpClient, configuration, Executors.newFixedThreadPool(configuration.getPoolSize()),
+                Metrics.defaultRegistry());
+    }
+
+    public CallbackDispatcher(HttpClient httpClient, CallbackConfiguration configuration, ExecutorService executor,
+            MetricsRegistry registry) {
+        super();
+        this.httpClient = httpClient;
+        this.configuration = configuration;
+        this.executor = executor;
+        dropped = registry.newCounter(CallbackDispatcher.class, "dropped");
+    }
+
+    /**
+     * Queue a PUT request with a JSON body.
+     *
+     * @param url
+     * @param body JSON document
+     * @return false when queue is full or dispatcher is stopping and callback was dropped
+     */
+    public synchronized boolean put(URI url, String body) {
+        if (stopping) {
+            logger.warn("Dispatcher stopping, dropping callback to " + url);
+            dropped.inc();
+            return false;
+        }
+        if (size >= configuration.getQueueSize()) {
+            logger.warn("Callback queue full, dropping callback to " + url);
+            dropped.inc();
+            return false;
+        }
+        String key = url.getAuthority();
+        Host host = hosts.get(key);
+        if (host == null) {
+            host = new Host();
+            hosts.put(key, host);
+        }
+        host.pending.add(new Callback(url, body));
+        size++;
+        pump(key, host);
+        return true;
+    }
+
+    /**
+     * @return Number of callbacks waiting to be sent or being sent
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Start sending pending callbacks of host, up to the per host limit.
+     */
+    private void pump(final String key, final Host host) {
+        Callback next;
+        while (host.inFlight.size() < configuration.getMaxPerHost() && (next = nextSendable(host)) != null) {
+            final Callback callback = next;
+            host.inFlight.add(callback.url);
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            send(callback);
+                        } finally {
+                            completed(key, host, callback);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                logger.warn("Dispatcher stopped, dropping callback to " + callback.url);
+                host.inFlight.remove(callback.url);
+                size--;
+                dropped.inc();
+                notifyAll();
+            }
+        }
+        if (host.pending.isEmpty() && host.inFlight.isEmpty()) {
+            hosts.remove(key);
+        }
+    }
+
+    /**
+     * Removes first pending callback whose url has no callback in flight, to keep order of callbacks to same url.
+     */
+    private Callback nextSendable(Host host) {
+        Iterator<Callback> iterator = host.pending.iterator();
+        while (iterator.hasNext()) {
+            Callback callback = iterator.next();
+            if (!host.inFlight.contains(callback.url)) {
+                iterator.remove();
+                return callback;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void completed(String key, Host host, Callback callback) {
+        host.inFlight.remove(callback.url);
+        size--;
+        pump(key, host);
+        notifyAll();
+    }
+
+    /**
+     * Sends callback and releases the connection.
+     *
+     * @param callback
+     */
+    protected void send(Callback callback) {
+        HttpPut put = new HttpPut(callback.url);
+        put.setEntity(new StringEntity(callback.body, ContentType.APPLICATION_JSON));
+        try {
+            HttpResponse response = httpClient.execute(put);
+            if (response != null) {
+                if (response.getStatusLine().getStatusCode() >= 400) {
+                    logger.warn("Callback to " + callback.url + " failed with " + response.getStatusLine());
+                }
+                // consume body so connection is returned to pool
+                EntityUtils.consume(response.getEntity());
+            }
+        } catch (IOException e) {
+            put.abort();
+            logger.error("Callback to " + callback.url + " failed", e);
+        }
+    }
+
+    public void start() throws Exception {
+    }
+
+    /**
+     * Stops accepting callbacks and waits at most 1 minute for queued callbacks to be sent,
+     * including callbacks held back by the per host limit. Callbacks which are not sent by then are dropped.
+     */
+    public void stop() throws Exception {
+        long deadline = System.currentTimeMillis() + TimeUnit.MILLISECONDS.convert(1, TimeUnit.MINUTES);
+        synchronized (this) {
+            stopping = true;
+            long remaining = deadline - System.currentTimeMillis();
+            while (size > 0 && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            for (Host host : hosts.values()) {
+                if (!host.pending.isEmpty()) {
+                    logger.warn("Dispatcher stopped, dropping " + host.pending.size() + " callbacks");
+                    dropped.inc(host.pending.size());
+                    size -= host.pending.size();
+                    host.pending.clear();
+                }
+            }
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @return Number of callbacks dropped because the queue was full or the dispatcher stopped
+     */
+    public long getDropped() {
+        return dropped.count();
+    }
+}
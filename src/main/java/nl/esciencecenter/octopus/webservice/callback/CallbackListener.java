@@ -0,0 +1,66 @@
+package nl.esciencecenter.octopus.webservice.callback;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.net.URI;
+
+import nl.esciencecenter.octopus.webservice.api.JobStatusResponse;
+import nl.esciencecenter.octopus.webservice.api.JobSubmitRequest;
+import nl.esciencecenter.octopus.webservice.event.JobEvent;
+import nl.esciencecenter.octopus.webservice.event.JobEventListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+/**
+ * Sends {@link JobStatusResponse JobStatusResponse} as JSON to the status callback url of a job when it's state changes.
+ *
+ * @author verhoes
+ *
+ */
+public class CallbackListener implements JobEventListener {
+    protected final static Logger logger = LoggerFactory.getLogger(CallbackListener.class);
+
+    private final CallbackDispatcher dispatcher;
+
+    public CallbackListener(CallbackDispatcher dispatcher) {
+        super();
+        this.dispatcher = dispatcher;
+    }
+
+    public void onEvent(JobEvent event) {
+        if (event.getType() != JobEvent.Type.STATE_CHANGED) {
+            return;
+        }
+        JobSubmitRequest request = event.getJob().getRequest();
+        if (request == null || request.status_callback_url == null) {
+            return;
+        }
+        URI url = request.status_callback_url;
+        try {
+            dispatcher.put(url, new JobStatusResponse(event.getStatus()).toJson());
+        } catch (JsonProcessingException e) {
+            logger.error("Unable to convert status of job " + event.getJob().getIdentifier() + " to JSON", e);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package nl.esciencecenter.octopus.webservice.event;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import nl.esciencecenter.octopus.jobs.JobStatus;
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+
+import com.google.common.base.Objects;
+
+/**
+ * Event in the lifecycle of a job.
+ *
+ * @author verhoes
+ *
+ */
+public class JobEvent {
+    /**
+     * Type of event.
+     */
+    public enum Type {
+        /**
+         * Job has been submitted to scheduler
+         */
+        SUBMITTED,
+        /**
+         * State of job changed, status holds new status
+         */
+        STATE_CHANGED,
+        /**
+         * Sandbox of job has been downloaded to job directory
+         */
+        SANDBOX_DOWNLOADED,
+        /**
+         * Job has been removed from the launcher
+         */
+        DELETED
+    }
+
+    private final Type type;
+    private final SandboxedJob job;
+    private final JobStatus status;
+
+    public JobEvent(Type type, SandboxedJob job, JobStatus status) {
+        super();
+        this.type = type;
+        this.job = job;
+        this.status = status;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public SandboxedJob getJob() {
+        return job;
+    }
+
+    /**
+     * @return Status of job when event happened, can be null
+     */
+    public JobStatus getStatus() {
+        return status;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .addValue(type)
+                .addValue(job.getIdentifier())
+                .toString();
+    }
+}
@@ -0,0 +1,119 @@
+package nl.esciencecenter.octopus.webservice.event;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.yammer.dropwizard.lifecycle.Managed;
+
+/**
+ * Delivers job lifecycle events to registered listeners.
+ *
+ * Publishing does not wait for listeners, each listener has it's own thread which delivers events in the order they where published.
+ * A slow or failing listener does not affect the other listeners.
+ *
+ * @author verhoes
+ *
+ */
+public class JobEventBus implements Managed {
+    protected final static Logger logger = LoggerFactory.getLogger(JobEventBus.class);
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+
+    /**
+     * Listener with the executor delivering its events.
+     */
+    static class Subscription {
+        private final JobEventListener listener;
+        private final ExecutorService executor;
+
+        Subscription(JobEventListener listener, ExecutorService executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+    }
+
+    /**
+     * Register listener with it's own delivery thread.
+     *
+     * @param listener
+     */
+    public void register(JobEventListener listener) {
+        register(listener, Executors.newSingleThreadExecutor());
+    }
+
+    /**
+     * Register listener, events are delivered using executor.
+     * Executor must run tasks in submission order to keep events ordered.
+     *
+     * @param listener
+     * @param executor
+     */
+    public void register(JobEventListener listener, ExecutorService executor) {
+        subscriptions.add(new Subscription(listener, executor));
+    }
+
+    /**
+     * Queue event for delivery to all listeners.
+     *
+     * @param event
+     */
+    public void publish(final JobEvent event) {
+        for (final Subscription subscription : subscriptions) {
+            try {
+                subscription.executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            subscription.listener.onEvent(event);
+                        } catch (RuntimeException e) {
+                            logger.error("Listener failed on " + event, e);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                logger.debug("Event bus stopped, dropping " + event);
+            }
+        }
+    }
+
+    public void start() throws Exception {
+    }
+
+    /**
+     * Stops accepting events and waits at most 1 minute per listener for queued events to be delivered.
+     */
+    public void stop() throws Exception {
+        for (Subscription subscription : subscriptions) {
+            subscription.executor.shutdown();
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package nl.esciencecenter.octopus.webservice.event;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Listener of job lifecycle events, register it with a {@link JobEventBus job event bus}.
+ *
+ * @author verhoes
+ *
+ */
+public interface JobEventListener {
+    /**
+     * Called for each published event, in the order they where published.
+     * Called from a thread of the listener, so it can take it's time without delaying the publisher.
+     *
+     * @param event
+     */
+    void onEvent(JobEvent event);
+}
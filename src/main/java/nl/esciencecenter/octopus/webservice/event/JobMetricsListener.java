@@ -0,0 +1,58 @@
+package nl.esciencecenter.octopus.webservice.event;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricsRegistry;
+
+/**
+ * Counts job lifecycle events per type and done jobs per final state.
+ *
+ * @author verhoes
+ *
+ */
+public class JobMetricsListener implements JobEventListener {
+    private final MetricsRegistry registry;
+    private final Map<JobEvent.Type, Counter> counters = new EnumMap<JobEvent.Type, Counter>(JobEvent.Type.class);
+
+    public JobMetricsListener() {
+        this(Metrics.defaultRegistry());
+    }
+
+    public JobMetricsListener(MetricsRegistry registry) {
+        super();
+        this.registry = registry;
+        for (JobEvent.Type type : JobEvent.Type.values()) {
+            counters.put(type, registry.newCounter(JobMetricsListener.class, type.name().toLowerCase()));
+        }
+    }
+
+    public void onEvent(JobEvent event) {
+        counters.get(event.getType()).inc();
+        if (event.getType() == JobEvent.Type.STATE_CHANGED && event.getStatus() != null && event.getStatus().isDone()) {
+            registry.newCounter(JobMetricsListener.class, "done", event.getStatus().getState()).inc();
+        }
+    }
+}
@@ -20,18 +20,58 @@ package nl.esciencecenter.octopus.webservice.health;
  * #L%
  */
 
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import nl.esciencecenter.octopus.webservice.job.Backend;
+import nl.esciencecenter.octopus.webservice.job.OctopusManager;
+import nl.esciencecenter.octopus.webservice.job.SchedulerSession;
+
+import com.google.common.base.Joiner;
 import com.yammer.metrics.core.HealthCheck;
 
+/**
+ * Health of the job launcher, it is unhealthy when a session with a scheduler is not connected.
+ *
+ * @author verhoes
+ *
+ */
 public class JobLauncherHealthCheck extends HealthCheck {
+    private final OctopusManager manager;
 
     public JobLauncherHealthCheck(String name) {
+        this(name, null);
+    }
+
+    public JobLauncherHealthCheck(String name, OctopusManager manager) {
         super(name);
+        this.manager = manager;
     }
 
     @Override
     protected Result check() throws Exception {
-        // TODO test if broker is ok
-        return Result.healthy();
+        if (manager == null) {
+            return Result.healthy();
+        }
+        List<String> problems = new ArrayList<String>();
+        for (Backend backend : manager.getBackends()) {
+            SchedulerSession session = backend.getSession();
+            SchedulerSession.State state = session.getState();
+            if (state != SchedulerSession.State.CONNECTED) {
+                String problem = "Scheduler of backend " + backend.getName() + " is " + state + " since "
+                        + new Date(session.getSince());
+                Exception error = session.getLastError();
+                if (error != null) {
+                    problem += ": " + error.getMessage();
+                }
+                problems.add(problem);
+            }
+        }
+        if (problems.isEmpty()) {
+            return Result.healthy();
+        }
+        return Result.unhealthy(Joiner.on(", ").join(problems));
     }
 
 }
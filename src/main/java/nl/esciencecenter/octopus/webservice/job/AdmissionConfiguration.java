@@ -0,0 +1,110 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Objects;
+
+/**
+ * Configuration of per client admission control of job submissions.
+ *
+ * @author verhoes
+ *
+ */
+public class AdmissionConfiguration {
+    /**
+     * Number of jobs per second a client can submit on average, 0 is no rate limit.
+     * Default 0.
+     */
+    @JsonProperty
+    private double rate = 0;
+    /**
+     * Number of jobs a client can submit at once, before the rate limit applies.
+     * Default 10.
+     */
+    @JsonProperty
+    private int burst = 10;
+    /**
+     * Number of jobs of a client which can be not done at the same time, 0 is no quota.
+     * Default 0.
+     */
+    @JsonProperty
+    private int maxActiveJobs = 0;
+
+    public AdmissionConfiguration(double rate, int burst, int maxActiveJobs) {
+        super();
+        this.rate = rate;
+        this.burst = burst;
+        this.maxActiveJobs = maxActiveJobs;
+    }
+
+    public AdmissionConfiguration() {
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public void setBurst(int burst) {
+        this.burst = burst;
+    }
+
+    public int getMaxActiveJobs() {
+        return maxActiveJobs;
+    }
+
+    public void setMaxActiveJobs(int maxActiveJobs) {
+        this.maxActiveJobs = maxActiveJobs;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(rate, burst, maxActiveJobs);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        AdmissionConfiguration other = (AdmissionConfiguration) obj;
+        return Objects.equal(this.rate, other.rate) && Objects.equal(this.burst, other.burst)
+                && Objects.equal(this.maxActiveJobs, other.maxActiveJobs);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .addValue(this.rate)
+                .addValue(this.burst)
+                .addValue(this.maxActiveJobs)
+                .toString();
+    }
+}
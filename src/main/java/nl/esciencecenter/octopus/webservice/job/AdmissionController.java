@@ -0,0 +1,310 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nl.esciencecenter.octopus.webservice.api.JobSubmitRequest;
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+import nl.esciencecenter.octopus.webservice.event.JobEvent;
+import nl.esciencecenter.octopus.webservice.event.JobEventListener;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Clock;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricsRegistry;
+
+/**
+ * Admits job submissions of a client, when the client is within it's rate limit and quota of active jobs.
+ *
+ * The rate limit is a token bucket, stored as the time at which the bucket of the client is full again.
+ * Taking a token moves that time one interval forward, the submission is rejected when it would lie more than
+ * a burst of intervals in the future. The quota counts the admitted jobs of the client which are not done yet.
+ * Both are kept in atomics which are updated with compare and set, so admission never blocks.
+ *
+ * Admitted jobs release their place in the quota when they are done or deleted,
+ * the controller must be registered with the event bus for that.
+ *
+ * Clients without active jobs whose bucket is full again are swept away once a minute, so callers can not grow the
+ * controller without bound. A client is retired with a compare and set of it's active count, a submission holds a
+ * place while it takes a token so a client is never retired during it's admission.
+ *
+ * @author verhoes
+ *
+ */
+public class AdmissionController implements JobEventListener {
+    /**
+     * Client of requests without an identity and without a callback.
+     */
+    public static final String ANONYMOUS = "anonymous";
+    /**
+     * Active count of a client which has been swept away, a new client is made for it's next submission.
+     */
+    private static final int RETIRED = -1;
+    private static final long SWEEP_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * Limits of a single client.
+     */
+    static class Client {
+        /**
+         * Time in nanoseconds at which the token bucket is full again.
+         */
+        final AtomicLong full;
+        final AtomicInteger active = new AtomicInteger();
+
+        Client(long now) {
+            full = new AtomicLong(now);
+        }
+    }
+
+    private final int maxActiveJobs;
+    private final int burst;
+    /**
+     * Nanoseconds between tokens, 0 is no rate limit.
+     */
+    private final long interval;
+    private final Clock clock;
+    private final ConcurrentMap<String, Client> clients = new ConcurrentHashMap<String, Client>();
+    /**
+     * Client of each admitted job which counts towards a quota.
+     */
+    private final ConcurrentMap<String, Client> jobs = new ConcurrentHashMap<String, Client>();
+    private final Counter rateRejections;
+    private final Counter quotaRejections;
+    /**
+     * Time in nanoseconds at which idle clients are swept away next.
+     */
+    private final AtomicLong nextSweep;
+
+    public AdmissionController(AdmissionConfiguration configuration) {
+        this(configuration, Clock.defaultClock(), Metrics.defaultRegistry());
+    }
+
+    public AdmissionController(AdmissionConfiguration configuration, Clock clock, MetricsRegistry registry) {
+        super();
+        this.maxActiveJobs = configuration.getMaxActiveJobs();
+        this.burst = Math.max(1, configuration.getBurst());
+        if (configuration.getRate() > 0) {
+            this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / configuration.getRate());
+        } else {
+            this.interval = 0;
+        }
+        this.clock = clock;
+        nextSweep = new AtomicLong(clock.tick() + SWEEP_INTERVAL);
+        rateRejections = registry.newCounter(AdmissionController.class, "rate-rejections");
+        quotaRejections = registry.newCounter(AdmissionController.class, "quota-rejections");
+    }
+
+    /**
+     * Client a request is accounted to, the authenticated identity or else the host of the callback.
+     *
+     * @param identity Name of authenticated user, can be null
+     * @param request
+     * @return client
+     */
+    public static String clientOf(String identity, JobSubmitRequest request) {
+        if (identity != null) {
+            return identity;
+        }
+        URI callback = request == null ? null : request.getStatus_callback_url();
+        if (callback != null && callback.getHost() != null) {
+            return callback.getHost();
+        }
+        return ANONYMOUS;
+    }
+
+    /**
+     * Admit a submission of client, it takes a place in the quota and a token of the rate limit.
+     * When the submission does not result in a job the place must be {@link #release(String) released}.
+     *
+     * @param client
+     * @throws RejectedExecutionException when client has too many active jobs or exceeded it's rate
+     */
+    public void admit(String client) {
+        if (maxActiveJobs <= 0 && interval <= 0) {
+            return;
+        }
+        sweepIfDue();
+        Client state = takePlace(client);
+        if (state == null) {
+            quotaRejections.inc();
+            throw new RejectedExecutionException("Client " + client + " has " + maxActiveJobs + " active jobs");
+        }
+        boolean admitted = interval <= 0 || takeToken(state);
+        if (!admitted || maxActiveJobs <= 0) {
+            // without quota the place is only held while taking a token
+            state.active.decrementAndGet();
+        }
+        if (!admitted) {
+            rateRejections.inc();
+            throw new RejectedExecutionException("Client " + client + " exceeded it's submission rate");
+        }
+    }
+
+    /**
+     * Record admitted job, it's place in the quota is released when it is done.
+     *
+     * @param client
+     * @param job
+     */
+    public void admitted(String client, SandboxedJob job) {
+        if (maxActiveJobs <= 0) {
+            return;
+        }
+        Client state = client(client);
+        String identifier = job.getIdentifier();
+        jobs.put(identifier, state);
+        // job can be done before it was recorded, like a job whose asynchronous staging failed
+        if (job.getStatus() != null && job.getStatus().isDone() && jobs.remove(identifier, state)) {
+            state.active.decrementAndGet();
+        }
+    }
+
+    /**
+     * Release place of an admitted submission which did not result in a job.
+     *
+     * @param client
+     */
+    public void release(String client) {
+        if (maxActiveJobs <= 0) {
+            return;
+        }
+        client(client).active.decrementAndGet();
+    }
+
+    /**
+     * Releases place of done and deleted jobs.
+     */
+    public void onEvent(JobEvent event) {
+        boolean done = event.getType() == JobEvent.Type.STATE_CHANGED && event.getStatus() != null
+                && event.getStatus().isDone();
+        if (done || event.getType() == JobEvent.Type.DELETED) {
+            Client state = jobs.remove(event.getJob().getIdentifier());
+            if (state != null) {
+                state.active.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @param client
+     * @return Number of admitted jobs of client which are not done
+     */
+    public int getActiveJobs(String client) {
+        Client state = clients.get(client);
+        return state == null ? 0 : Math.max(0, state.active.get());
+    }
+
+    /**
+     * @return Number of clients being tracked
+     */
+    int getClientCount() {
+        return clients.size();
+    }
+
+    /**
+     * Sweep away idle clients when the sweep interval passed, only one thread sweeps.
+     */
+    private void sweepIfDue() {
+        long now = clock.tick();
+        long due = nextSweep.get();
+        if (now - due >= 0 && nextSweep.compareAndSet(due, now + SWEEP_INTERVAL)) {
+            sweep(now);
+        }
+    }
+
+    /**
+     * Remove clients without active jobs whose bucket is full again, they are in the same state as a new client.
+     *
+     * @param now Time in nanoseconds
+     */
+    void sweep(long now) {
+        for (Map.Entry<String, Client> entry : clients.entrySet()) {
+            Client state = entry.getValue();
+            if (state.full.get() - now <= 0 && state.active.compareAndSet(0, RETIRED)) {
+                if (state.full.get() - now <= 0) {
+                    clients.remove(entry.getKey(), state);
+                } else {
+                    // a token was taken between the check and the retirement
+                    state.active.set(0);
+                }
+            }
+        }
+    }
+
+    private Client client(String client) {
+        Client state = clients.get(client);
+        if (state == null) {
+            Client fresh = new Client(clock.tick());
+            state = clients.putIfAbsent(client, fresh);
+            if (state == null) {
+                state = fresh;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Take a place in the quota of client, also without quota so the client is not retired while it is admitted.
+     *
+     * @param client
+     * @return State of client, null when the quota of client is full
+     */
+    private Client takePlace(String client) {
+        while (true) {
+            Client state = client(client);
+            int active = state.active.get();
+            if (active == RETIRED) {
+                // being swept away, the sweeper removes it or restores it right after retiring it
+                Thread.yield();
+                continue;
+            }
+            if (maxActiveJobs > 0 && active >= maxActiveJobs) {
+                return null;
+            }
+            if (state.active.compareAndSet(active, active + 1)) {
+                return state;
+            }
+        }
+    }
+
+    private boolean takeToken(Client state) {
+        long now = clock.tick();
+        while (true) {
+            long full = state.full.get();
+            long next = Math.max(full, now) + interval;
+            if (next - now > interval * burst) {
+                return false;
+            }
+            if (state.full.compareAndSet(full, next)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Objects;
+
+/**
+ * Configuration of the archive of done jobs.
+ *
+ * @author verhoes
+ *
+ */
+public class ArchiveConfiguration {
+    /**
+     * When true done jobs are moved to the archive once their sandbox has been cleaned,
+     * when false they are kept whole until their delete timeout.
+     * Default true.
+     */
+    @JsonProperty
+    private boolean enabled = true;
+    /**
+     * Size in bytes of the off heap slabs archived jobs are packed into.
+     * Default 1Mb.
+     */
+    @JsonProperty
+    private int slabSize = 1024 * 1024;
+
+    public ArchiveConfiguration(boolean enabled, int slabSize) {
+        super();
+        this.enabled = enabled;
+        this.slabSize = slabSize;
+    }
+
+    public ArchiveConfiguration() {
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+    public void setSlabSize(int slabSize) {
+        this.slabSize = slabSize;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(enabled, slabSize);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        ArchiveConfiguration other = (ArchiveConfiguration) obj;
+        return Objects.equal(this.enabled, other.enabled) && Objects.equal(this.slabSize, other.slabSize);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .addValue(this.enabled)
+                .addValue(this.slabSize)
+                .toString();
+    }
+}
@@ -0,0 +1,286 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.esciencecenter.octopus.engine.jobs.JobImplementation;
+import nl.esciencecenter.octopus.exceptions.OctopusException;
+import nl.esciencecenter.octopus.jobs.Job;
+import nl.esciencecenter.octopus.jobs.Scheduler;
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+import nl.esciencecenter.octopus.webservice.event.JobEvent;
+import nl.esciencecenter.octopus.webservice.event.JobEventListener;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricsRegistry;
+
+/**
+ * Scheduler backend to which jobs are routed, with the live state used by the {@link BackendRouter router}.
+ *
+ * The queue depth of a backend is the number of it's jobs which are not done, plus the number of jobs routed to it
+ * which are still being staged. Jobs stop counting when the backend receives their done or deleted event. The latency is a moving average of the duration of submissions to the scheduler.
+ * After a number of consecutive failed submissions the backend is unhealthy for a cool down period.
+ *
+ * The scheduler is reached through a {@link SchedulerSession session},
+ * when the session reconnects the jobs of the backend are bound to the new scheduler.
+ *
+ * @author verhoes
+ *
+ */
+public class Backend implements JobEventListener {
+    /**
+     * Number of consecutive failed submissions after which backend is unhealthy.
+     */
+    public static final int FAILURE_THRESHOLD = 3;
+    /**
+     * Time in milliseconds an unhealthy backend is skipped by the router.
+     */
+    public static final long COOL_DOWN = TimeUnit.MILLISECONDS.convert(1, TimeUnit.MINUTES);
+    /**
+     * Weight of latest submission in moving average of latency.
+     */
+    private static final double LATENCY_ALPHA = 0.2;
+
+    private final BackendConfiguration configuration;
+    private final SchedulerSession session;
+    /**
+     * Jobs submitted to backend which are not done, done jobs are removed when their done or deleted event is received.
+     */
+    private final Set<SandboxedJob> jobs = Collections.newSetFromMap(new ConcurrentHashMap<SandboxedJob, Boolean>());
+    /**
+     * Number of jobs, kept apart so the depth can be read without counting the set.
+     */
+    private final AtomicInteger active = new AtomicInteger();
+    /**
+     * Jobs routed to backend which have not been submitted yet.
+     */
+    private final AtomicInteger reserved = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile double latency = 0;
+    private volatile long unhealthyUntil = 0;
+
+    /**
+     * Backend of an already created scheduler, which registers it's metrics in the default registry.
+     *
+     * @param configuration
+     * @param scheduler
+     */
+    public Backend(BackendConfiguration configuration, Scheduler scheduler) {
+        this(configuration, new SchedulerSession(scheduler), Metrics.defaultRegistry());
+    }
+
+    public Backend(BackendConfiguration configuration, Scheduler scheduler, MetricsRegistry registry) {
+        this(configuration, new SchedulerSession(scheduler), registry);
+    }
+
+    /**
+     * Backend which registers it's metrics in the default registry.
+     *
+     * @param configuration
+     * @param session
+     */
+    public Backend(BackendConfiguration configuration, SchedulerSession session) {
+        this(configuration, session, Metrics.defaultRegistry());
+    }
+
+    public Backend(BackendConfiguration configuration, SchedulerSession session, MetricsRegistry registry) {
+        super();
+        this.configuration = configuration;
+        this.session = session;
+        session.setListener(new SchedulerSession.Listener() {
+            public void reconnected(Scheduler scheduler) {
+                rebind(scheduler);
+            }
+        });
+        registry.newGauge(Backend.class, "depth", configuration.getName(), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return depth();
+            }
+        });
+        registry.newGauge(Backend.class, "latency", configuration.getName(), new Gauge<Double>() {
+            @Override
+            public Double value() {
+                return latency;
+            }
+        });
+    }
+
+    public BackendConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    public String getName() {
+        return configuration.getName();
+    }
+
+    /**
+     * @return Scheduler of session, waits when session is reconnecting
+     * @throws OctopusException when session is not connected
+     */
+    public Scheduler getScheduler() throws OctopusException {
+        return session.getScheduler();
+    }
+
+    public SchedulerSession getSession() {
+        return session;
+    }
+
+    /**
+     * Bind the submitted jobs of backend to a new scheduler, so they can be polled and canceled after a reconnect.
+     *
+     * @param scheduler
+     */
+    void rebind(Scheduler scheduler) {
+        for (SandboxedJob job : jobs) {
+            synchronized (job) {
+                Job old = job.getJob();
+                if (old != null) {
+                    job.setJob(new JobImplementation(old.getJobDescription(), scheduler, old.getUUID(), old.getIdentifier(),
+                            old.isInteractive(), old.isOnline()));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Number of jobs which are not done or not submitted yet
+     */
+    public int depth() {
+        return active.get() + reserved.get();
+    }
+
+    /**
+     * @return true when backend has a capacity and it's depth reached it
+     */
+    public boolean isFull() {
+        return configuration.getCapacity() > 0 && depth() >= configuration.getCapacity();
+    }
+
+    /**
+     * @param now Wall clock time in milliseconds
+     * @return false when backend is cooling down after failed submissions
+     */
+    public boolean isHealthy(long now) {
+        return now >= unhealthyUntil;
+    }
+
+    /**
+     * @return Moving average of duration of submissions in milliseconds
+     */
+    public double getLatency() {
+        return latency;
+    }
+
+    /**
+     * Expected cost of routing another job to backend, the queue depth weighted by latency and weight.
+     *
+     * @return cost, lower is better
+     */
+    public double cost() {
+        return (depth() + 1) * (latency + 1) / Math.max(1, configuration.getWeight());
+    }
+
+    /**
+     * Reserve a place for a job which is routed to backend and has yet to be submitted.
+     */
+    void reserve() {
+        reserved.incrementAndGet();
+    }
+
+    /**
+     * Release place of a routed job which will not be submitted, like a job whose staging or submission failed.
+     */
+    public void release() {
+        reserved.decrementAndGet();
+    }
+
+    /**
+     * Record a routed job which has been submitted, it counts towards the depth until it is done.
+     *
+     * @param job
+     */
+    public void submitted(SandboxedJob job) {
+        add(job);
+        reserved.decrementAndGet();
+    }
+
+    /**
+     * Record a job recovered after a restart, it counts towards the depth until it is done.
+     *
+     * @param job
+     */
+    public void recovered(SandboxedJob job) {
+        add(job);
+    }
+
+    private void add(SandboxedJob job) {
+        if (isDone(job)) {
+            // done before it was recorded, like a job canceled while it was submitted
+            return;
+        }
+        if (jobs.add(job)) {
+            active.incrementAndGet();
+        }
+    }
+
+    /**
+     * Releases place of done and deleted jobs.
+     */
+    public void onEvent(JobEvent event) {
+        boolean done = event.getType() == JobEvent.Type.STATE_CHANGED && event.getStatus() != null
+                && event.getStatus().isDone();
+        if ((done || event.getType() == JobEvent.Type.DELETED) && jobs.remove(event.getJob())) {
+            active.decrementAndGet();
+        }
+    }
+
+    private boolean isDone(SandboxedJob job) {
+        return job.getStatus() != null && job.getStatus().isDone();
+    }
+
+    /**
+     * Record successful call to the scheduler.
+     *
+     * @param duration Duration of call in milliseconds
+     */
+    public void succeeded(long duration) {
+        failures.set(0);
+        latency = latency == 0 ? duration : LATENCY_ALPHA * duration + (1 - LATENCY_ALPHA) * latency;
+    }
+
+    /**
+     * Record failed call to the scheduler.
+     *
+     * @param now Wall clock time in milliseconds
+     */
+    public void failed(long now) {
+        if (failures.incrementAndGet() >= FAILURE_THRESHOLD) {
+            unhealthyUntil = now + COOL_DOWN;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.net.URI;
+
+import javax.validation.constraints.NotNull;
+
+import org.hibernate.validator.constraints.NotEmpty;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Objects;
+
+/**
+ * Configuration of a scheduler backend to which jobs can be routed.
+ *
+ * @author verhoes
+ *
+ */
+public class BackendConfiguration {
+    /**
+     * Name of backend, used in logs and metrics.
+     */
+    @NotEmpty
+    @JsonProperty
+    private String name;
+
+    /**
+     * Scheduler URI used to submit jobs
+     */
+    @NotNull
+    @JsonProperty
+    private URI scheduler;
+
+    /**
+     * Queue of scheduler used to submit jobs
+     */
+    @NotEmpty
+    @JsonProperty
+    private String queue;
+
+    /**
+     * Place where sandboxes of jobs of this backend get created.
+     */
+    @NotNull
+    @JsonProperty
+    private URI sandboxRoot;
+
+    /**
+     * Maximum number of jobs which are submitted to backend and not done.
+     * Default 0, no maximum.
+     */
+    @JsonProperty
+    private int capacity = 0;
+
+    /**
+     * Relative share of jobs routed to backend, a backend with weight 2 gets twice the queue depth of a backend with weight 1.
+     * Default 1.
+     */
+    @JsonProperty
+    private int weight = 1;
+
+    public BackendConfiguration(String name, URI scheduler, String queue, URI sandboxRoot, int capacity, int weight) {
+        super();
+        this.name = name;
+        this.scheduler = scheduler;
+        this.queue = queue;
+        this.sandboxRoot = sandboxRoot;
+        this.capacity = capacity;
+        this.weight = weight;
+    }
+
+    public BackendConfiguration() {
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public URI getScheduler() {
+        return scheduler;
+    }
+
+    public void setScheduler(URI scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public String getQueue() {
+        return queue;
+    }
+
+    public void setQueue(String queue) {
+        this.queue = queue;
+    }
+
+    public URI getSandboxRoot() {
+        return sandboxRoot;
+    }
+
+    public void setSandboxRoot(URI sandboxRoot) {
+        this.sandboxRoot = sandboxRoot;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public void setWeight(int weight) {
+        this.weight = weight;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(name, scheduler, queue, sandboxRoot, capacity, weight);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        BackendConfiguration other = (BackendConfiguration) obj;
+        return Objects.equal(this.name, other.name) && Objects.equal(this.scheduler, other.scheduler)
+                && Objects.equal(this.queue, other.queue) && Objects.equal(this.sandboxRoot, other.sandboxRoot)
+                && Objects.equal(this.capacity, other.capacity) && Objects.equal(this.weight, other.weight);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .addValue(this.name)
+                .addValue(this.scheduler)
+                .addValue(this.queue)
+                .addValue(this.sandboxRoot)
+                .addValue(this.capacity)
+                .addValue(this.weight)
+                .toString();
+    }
+}
@@ -0,0 +1,101 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.google.common.collect.ImmutableList;
+import com.yammer.metrics.core.Clock;
+
+/**
+ * Picks the scheduler backend a job is submitted to.
+ *
+ * Backends which are full are skipped. Of the remaining backends the healthy one with the lowest
+ * {@link Backend#cost() cost} is picked, when no backend is healthy the one with the lowest cost is picked.
+ * A place is reserved on the picked backend, so concurrent submissions see each others choices.
+ *
+ * @author verhoes
+ *
+ */
+public class BackendRouter {
+    private final List<Backend> backends;
+    private final Clock clock;
+
+    public BackendRouter(List<Backend> backends) {
+        this(backends, Clock.defaultClock());
+    }
+
+    public BackendRouter(List<Backend> backends, Clock clock) {
+        super();
+        this.backends = ImmutableList.copyOf(backends);
+        this.clock = clock;
+    }
+
+    /**
+     * Pick backend and reserve a place on it.
+     * The caller must record the {@link Backend#submitted(nl.esciencecenter.octopus.webservice.api.SandboxedJob) submission}
+     * of the job or {@link Backend#release() release} the place.
+     *
+     * @return Backend
+     * @throws RejectedExecutionException when all backends are full
+     */
+    public synchronized Backend select() {
+        long now = clock.time();
+        Backend best = null;
+        boolean bestHealthy = false;
+        double bestCost = Double.MAX_VALUE;
+        for (Backend backend : backends) {
+            if (backend.isFull()) {
+                continue;
+            }
+            boolean healthy = backend.isHealthy(now);
+            double cost = backend.cost();
+            if (best == null || (healthy && !bestHealthy) || (healthy == bestHealthy && cost < bestCost)) {
+                best = backend;
+                bestHealthy = healthy;
+                bestCost = cost;
+            }
+        }
+        if (best == null) {
+            throw new RejectedExecutionException("All scheduler backends are at capacity");
+        }
+        best.reserve();
+        return best;
+    }
+
+    /**
+     * @param name
+     * @return Backend with name or null when there is no such backend
+     */
+    public Backend get(String name) {
+        for (Backend backend : backends) {
+            if (backend.getName().equals(name)) {
+                return backend;
+            }
+        }
+        return null;
+    }
+
+    public List<Backend> getBackends() {
+        return backends;
+    }
+}
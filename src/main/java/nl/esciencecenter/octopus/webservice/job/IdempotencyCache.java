@@ -0,0 +1,122 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import nl.esciencecenter.octopus.webservice.api.JobSubmitRequest;
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricsRegistry;
+
+/**
+ * Remembers the job submitted for an Idempotency-Key, so a retried submission returns the same job.
+ *
+ * Keys are scoped per client and remembered in a bounded cache for a limited time.
+ * A retry which arrives while the first submission with the same key is still running, waits for it to finish.
+ * Failed submissions are not remembered, so they can be retried with the same key.
+ *
+ * @author verhoes
+ *
+ */
+public class IdempotencyCache {
+    /**
+     * Submitted request and it's job.
+     */
+    static class Entry {
+        final JobSubmitRequest request;
+        final SandboxedJob job;
+
+        Entry(JobSubmitRequest request, SandboxedJob job) {
+            this.request = request;
+            this.job = job;
+        }
+    }
+
+    private final Cache<String, Entry> entries;
+    private final Counter replays;
+
+    public IdempotencyCache(SubmitConfiguration configuration) {
+        this(configuration, Ticker.systemTicker(), Metrics.defaultRegistry());
+    }
+
+    public IdempotencyCache(SubmitConfiguration configuration, Ticker ticker, MetricsRegistry registry) {
+        super();
+        entries = CacheBuilder.newBuilder()
+                .maximumSize(configuration.getIdempotencyCacheSize())
+                .expireAfterWrite(configuration.getIdempotencyTimeout(), TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .build();
+        replays = registry.newCounter(IdempotencyCache.class, "replays");
+    }
+
+    /**
+     * Job submitted earlier by client with key or else the job submitted by submission.
+     *
+     * @param client Client who submits the request
+     * @param key Idempotency key of the request
+     * @param request
+     * @param submission Submits request, only called when key was not used before
+     * @return Job
+     * @throws ExecutionException when submission threw a checked exception, the key is not remembered
+     * @throws IdempotencyConflictException when key was used before by client for a different request
+     */
+    public SandboxedJob submit(String client, String key, final JobSubmitRequest request,
+            final Callable<SandboxedJob> submission) throws ExecutionException {
+        final boolean[] submitted = { false };
+        Entry entry;
+        try {
+            entry = entries.get(client + "\n" + key, new Callable<Entry>() {
+                public Entry call() throws Exception {
+                    submitted[0] = true;
+                    return new Entry(request, submission.call());
+                }
+            });
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        if (!submitted[0]) {
+            if (!entry.request.equals(request)) {
+                throw new IdempotencyConflictException("Idempotency-Key " + key + " was used for a different request");
+            }
+            replays.inc();
+        }
+        return entry.job;
+    }
+
+    /**
+     * @return Number of remembered submissions
+     */
+    public long size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,407 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.esciencecenter.octopus.engine.jobs.JobStatusImplementation;
+import nl.esciencecenter.octopus.jobs.JobStatus;
+import nl.esciencecenter.octopus.webservice.api.JobSubmitRequest;
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+
+import com.google.common.base.Charsets;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricsRegistry;
+
+/**
+ * Archive of done jobs, which keeps only what is needed to answer a request for the job.
+ *
+ * A done job still references it's sandbox, Octopus job and http client.
+ * The archive packs the final status, the submit and done timestamps and the request of a job into a few bytes
+ * in an off heap slab, the heap only holds the index from identifier to the location of the packed job.
+ * Packed jobs are appended to the current slab, a slab is released once all it's jobs have been removed.
+ * As jobs are removed in about the order they are archived, old slabs empty out and are released.
+ *
+ * A job taken from the archive is unpacked into a new {@link SandboxedJob} without sandbox, Octopus job and http client.
+ * The exception of the status is unpacked as an exception with the same message.
+ *
+ * @author verhoes
+ *
+ */
+public class JobArchive {
+    /**
+     * Length of a null string or list.
+     */
+    private static final int NULL = -1;
+    private static final byte RUNNING = 1;
+    private static final byte DONE = 2;
+    private static final byte EXIT_CODE = 4;
+    private static final byte REQUEST = 8;
+
+    /**
+     * Off heap buffer with packed jobs.
+     */
+    private static class Slab {
+        final ByteBuffer buffer;
+        /**
+         * Number of packed jobs which have not been removed.
+         */
+        int live = 0;
+
+        Slab(int size) {
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+    }
+
+    private final int slabSize;
+    private final Map<Integer, Slab> slabs = new HashMap<Integer, Slab>();
+    /**
+     * Location of each archived job, slab number in the high and offset in the low 32 bits.
+     */
+    private final Map<String, Long> index = new LinkedHashMap<String, Long>();
+    private int currentSlab = NULL;
+    private int nextSlab = 0;
+    private final Counter archived;
+
+    /**
+     * Archive which registers it's metrics in the default registry.
+     *
+     * @param configuration
+     */
+    public JobArchive(ArchiveConfiguration configuration) {
+        this(configuration, Metrics.defaultRegistry());
+    }
+
+    public JobArchive(ArchiveConfiguration configuration, MetricsRegistry registry) {
+        super();
+        slabSize = configuration.getSlabSize();
+        archived = registry.newCounter(JobArchive.class, "archived");
+        registry.newGauge(JobArchive.class, "jobs", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return size();
+            }
+        });
+        registry.newGauge(JobArchive.class, "bytes", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return getCapacity();
+            }
+        });
+    }
+
+    /**
+     * Pack job into archive, replacing an earlier archived job with the same identifier.
+     *
+     * @param job Done job
+     * @param done Wall clock time in milliseconds when job was done
+     */
+    public synchronized void put(SandboxedJob job, long done) {
+        byte[] packed = pack(job, done);
+        remove(job.getIdentifier());
+        Slab slab = slabs.get(currentSlab);
+        if (slab == null || slab.buffer.remaining() < packed.length) {
+            slab = new Slab(Math.max(slabSize, packed.length));
+            releaseIfEmpty(currentSlab);
+            currentSlab = nextSlab++;
+            slabs.put(currentSlab, slab);
+        }
+        int offset = slab.buffer.position();
+        slab.buffer.put(packed);
+        slab.live++;
+        index.put(job.getIdentifier(), ((long) currentSlab << 32) | offset);
+        archived.inc();
+    }
+
+    /**
+     * @param identifier
+     * @return Unpacked job or null when job is not in archive
+     */
+    public synchronized SandboxedJob get(String identifier) {
+        Long location = index.get(identifier);
+        if (location == null) {
+            return null;
+        }
+        return unpack(reader(location)).job;
+    }
+
+    /**
+     * @param identifier
+     * @return Wall clock time in milliseconds when job was done or -1 when job is not in archive
+     */
+    public synchronized long getDone(String identifier) {
+        Long location = index.get(identifier);
+        if (location == null) {
+            return NULL;
+        }
+        return unpack(reader(location)).done;
+    }
+
+    /**
+     * @return Unpacked jobs, in order they were archived
+     */
+    public synchronized List<SandboxedJob> getJobs() {
+        List<SandboxedJob> jobs = new ArrayList<SandboxedJob>(index.size());
+        for (Long location : index.values()) {
+            jobs.add(unpack(reader(location)).job);
+        }
+        return jobs;
+    }
+
+    /**
+     * Remove job from archive, the slab it was packed in is released when it has no other jobs.
+     *
+     * @param identifier
+     * @return Unpacked job or null when job was not in archive
+     */
+    public synchronized SandboxedJob remove(String identifier) {
+        Long location = index.remove(identifier);
+        if (location == null) {
+            return null;
+        }
+        SandboxedJob job = unpack(reader(location)).job;
+        int slabNumber = (int) (location >>> 32);
+        slabs.get(slabNumber).live--;
+        if (slabNumber != currentSlab) {
+            releaseIfEmpty(slabNumber);
+        }
+        return job;
+    }
+
+    /**
+     * @return Number of archived jobs
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * @return Number of off heap bytes held by slabs
+     */
+    public synchronized long getCapacity() {
+        long capacity = 0;
+        for (Slab slab : slabs.values()) {
+            capacity += slab.buffer.capacity();
+        }
+        return capacity;
+    }
+
+    private void releaseIfEmpty(int slabNumber) {
+        Slab slab = slabs.get(slabNumber);
+        if (slab != null && slab.live == 0) {
+            // direct buffer is freed when it is garbage collected
+            slabs.remove(slabNumber);
+        }
+    }
+
+    private ByteBuffer reader(long location) {
+        ByteBuffer reader = slabs.get((int) (location >>> 32)).buffer.duplicate();
+        reader.position((int) location);
+        return reader;
+    }
+
+    /**
+     * Unpacked job and it's done timestamp.
+     */
+    private static class Unpacked {
+        final SandboxedJob job;
+        final long done;
+
+        Unpacked(SandboxedJob job, long done) {
+            this.job = job;
+            this.done = done;
+        }
+    }
+
+    private byte[] pack(SandboxedJob job, long done) {
+        JobStatus status = job.getStatus();
+        JobSubmitRequest request = job.getRequest();
+        boolean hasRequest = request != null;
+        if (!hasRequest) {
+            request = new JobSubmitRequest();
+        }
+        List<byte[]> strings = new ArrayList<byte[]>();
+        List<String> values = new ArrayList<String>();
+        values.add(job.getIdentifier());
+        values.add(job.getBackend());
+        values.add(status.getState());
+        values.add(status.hasException() ? String.valueOf(status.getException().getMessage()) : null);
+        values.add(request.jobdir);
+        values.add(request.executable);
+        values.add(request.stderr);
+        values.add(request.stdout);
+        values.add(request.status_callback_url == null ? null : request.status_callback_url.toString());
+        int size = 8 + 8 + 1 + 4;
+        for (String value : values) {
+            byte[] bytes = encode(value);
+            strings.add(bytes);
+            size += 4 + (bytes == null ? 0 : bytes.length);
+        }
+        List<List<String>> lists = new ArrayList<List<String>>();
+        lists.add(infoAsList(status.getSchedulerSpecficInformation()));
+        lists.add(request.arguments);
+        lists.add(request.prestaged);
+        lists.add(request.poststaged);
+        List<byte[]> listStrings = new ArrayList<byte[]>();
+        for (List<String> list : lists) {
+            size += 4;
+            if (list != null) {
+                for (String value : list) {
+                    byte[] bytes = encode(value);
+                    listStrings.add(bytes);
+                    size += 4 + (bytes == null ? 0 : bytes.length);
+                }
+            }
+        }
+
+        ByteBuffer packed = ByteBuffer.allocate(size);
+        packed.putLong(job.getSubmitted());
+        packed.putLong(done);
+        byte flags = 0;
+        if (status.isRunning()) {
+            flags |= RUNNING;
+        }
+        if (status.isDone()) {
+            flags |= DONE;
+        }
+        if (status.getExitCode() != null) {
+            flags |= EXIT_CODE;
+        }
+        if (hasRequest) {
+            flags |= REQUEST;
+        }
+        packed.put(flags);
+        packed.putInt(status.getExitCode() == null ? 0 : status.getExitCode());
+        for (byte[] bytes : strings) {
+            put(packed, bytes);
+        }
+        int next = 0;
+        for (List<String> list : lists) {
+            if (list == null) {
+                packed.putInt(NULL);
+                continue;
+            }
+            packed.putInt(list.size());
+            for (int i = 0; i < list.size(); i++) {
+                put(packed, listStrings.get(next++));
+            }
+        }
+        return packed.array();
+    }
+
+    private static List<String> infoAsList(Map<String, String> info) {
+        if (info == null) {
+            return null;
+        }
+        List<String> list = new ArrayList<String>(info.size() * 2);
+        for (Map.Entry<String, String> entry : info.entrySet()) {
+            list.add(entry.getKey());
+            list.add(entry.getValue());
+        }
+        return list;
+    }
+
+    private static byte[] encode(String value) {
+        return value == null ? null : value.getBytes(Charsets.UTF_8);
+    }
+
+    private static void put(ByteBuffer packed, byte[] bytes) {
+        if (bytes == null) {
+            packed.putInt(NULL);
+        } else {
+            packed.putInt(bytes.length);
+            packed.put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer packed) {
+        int length = packed.getInt();
+        if (length == NULL) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        packed.get(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    private static List<String> getList(ByteBuffer packed) {
+        int size = packed.getInt();
+        if (size == NULL) {
+            return null;
+        }
+        List<String> list = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(getString(packed));
+        }
+        return list;
+    }
+
+    private Unpacked unpack(ByteBuffer packed) {
+        long submitted = packed.getLong();
+        long done = packed.getLong();
+        byte flags = packed.get();
+        int exitCode = packed.getInt();
+        String identifier = getString(packed);
+        String backend = getString(packed);
+        String state = getString(packed);
+        String exception = getString(packed);
+        JobSubmitRequest request = new JobSubmitRequest();
+        request.jobdir = getString(packed);
+        request.executable = getString(packed);
+        request.stderr = getString(packed);
+        request.stdout = getString(packed);
+        String callback = getString(packed);
+        if (callback != null) {
+            request.status_callback_url = URI.create(callback);
+        }
+        List<String> infoList = getList(packed);
+        request.arguments = getList(packed);
+        request.prestaged = getList(packed);
+        request.poststaged = getList(packed);
+
+        Map<String, String> info = null;
+        if (infoList != null) {
+            info = new HashMap<String, String>();
+            for (int i = 0; i < infoList.size(); i += 2) {
+                info.put(infoList.get(i), infoList.get(i + 1));
+            }
+        }
+        Integer exitCodeOrNull = (flags & EXIT_CODE) != 0 ? exitCode : null;
+        Exception e = exception == null ? null : new Exception(exception);
+        JobStatus status = new JobStatusImplementation(null, state, exitCodeOrNull, e, (flags & RUNNING) != 0,
+                (flags & DONE) != 0, info);
+        if ((flags & REQUEST) == 0) {
+            request = null;
+        }
+        SandboxedJob job = new SandboxedJob(identifier, null, null, request, null, status, null);
+        job.setBackend(backend);
+        job.setSubmitted(submitted);
+        return new Unpacked(job, done);
+    }
+}
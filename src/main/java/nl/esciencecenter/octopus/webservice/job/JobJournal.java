@@ -0,0 +1,618 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import nl.esciencecenter.octopus.jobs.JobStatus;
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+import nl.esciencecenter.octopus.webservice.event.JobEvent;
+import nl.esciencecenter.octopus.webservice.event.JobEventListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricsRegistry;
+
+/**
+ * Append-only journal of the lifecycle of jobs, so jobs can be recovered after a restart.
+ *
+ * Records are appended to memory mapped segment files in the journal directory,
+ * each record is framed as it's length, a CRC32 checksum and the record as JSON.
+ * A full segment is closed and a new one is started, segments are named after their sequence number.
+ *
+ * Records are written by a single committer thread with group commit:
+ * it takes all records queued since the previous commit, writes them and forces the segment to disk once.
+ * A submission waits until it's record is on disk, state changes and deletions do not wait.
+ *
+ * The committer folds each record into the live state of the journal, one submitted record per job which has not been deleted.
+ * At the snapshot interval the committer closes the current segment and copies the live state,
+ * a background thread writes the copy as a snapshot and deletes the segments and older snapshots it covers.
+ * A snapshot is named after the first segment it does not cover.
+ *
+ * Replay loads the newest snapshot and reads the segments after it which existed when the journal was opened,
+ * a torn record at the end of a segment is skipped.
+ *
+ * @author verhoes
+ *
+ */
+public class JobJournal implements JobEventListener {
+    protected final static Logger logger = LoggerFactory.getLogger(JobJournal.class);
+    public static final String SEGMENT_SUFFIX = ".journal";
+    public static final String SNAPSHOT_SUFFIX = ".snapshot";
+    /**
+     * Suffix of snapshot which is being written, it is renamed to a snapshot once it is on disk.
+     */
+    private static final String PARTIAL_SUFFIX = ".partial";
+    /**
+     * Size of length and checksum in front of each record.
+     */
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Record queued for the committer.
+     */
+    private static class Append {
+        final JournalRecord record;
+        final byte[] payload;
+        final CountDownLatch committed = new CountDownLatch(1);
+        volatile IOException failure;
+
+        Append(JournalRecord record, byte[] payload) {
+            this.record = record;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * Queued by {@link #close()} to stop the committer, after the records queued before it have been committed.
+     */
+    private static final Append CLOSE = new Append(null, null);
+    /**
+     * Queued by {@link #snapshot()} to let the committer take a snapshot, after the records queued before it have been committed.
+     */
+    private static final Append SNAPSHOT = new Append(null, null);
+
+    private final File directory;
+    private final int segmentSize;
+    private final long snapshotInterval;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final BlockingQueue<Append> pending = new LinkedBlockingQueue<Append>();
+    /**
+     * Sequence number of first segment written by this journal, segments before it are replayed.
+     */
+    private final long firstSegment;
+    private long nextSegment;
+    private RandomAccessFile file;
+    private MappedByteBuffer buffer;
+    /**
+     * Submitted record of each job which has not been deleted, with the latest state of the job folded into it.
+     * Loaded by replay, afterwards only used by the committer.
+     */
+    private Map<String, JournalRecord> live;
+    /**
+     * Records loaded by replay.
+     */
+    private List<JournalRecord> recovered;
+    /**
+     * Whether records have been written since the last snapshot.
+     */
+    private boolean dirty = false;
+    private Thread committer;
+    /**
+     * Set when the committer has exited, records can no longer be appended until the journal is started again.
+     */
+    private volatile boolean stopped = false;
+    /**
+     * Requests snapshots and writes them, null when journal has not been started.
+     */
+    private ScheduledExecutorService snapshotExecutor;
+    private final Counter records;
+    private final Counter commits;
+    private final Counter snapshots;
+
+    /**
+     * Journal which registers it's metrics in the default registry.
+     *
+     * @param configuration
+     * @throws IOException when journal directory can not be created
+     */
+    public JobJournal(JournalConfiguration configuration) throws IOException {
+        this(configuration, Metrics.defaultRegistry());
+    }
+
+    public JobJournal(JournalConfiguration configuration, MetricsRegistry registry) throws IOException {
+        super();
+        directory = new File(configuration.getDirectory());
+        segmentSize = configuration.getSegmentSize();
+        snapshotInterval = configuration.getSnapshotInterval();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create journal directory " + directory);
+        }
+        long last = 0;
+        for (File segment : segments()) {
+            last = Math.max(last, sequenceOf(segment, SEGMENT_SUFFIX));
+        }
+        for (File snapshot : snapshots()) {
+            last = Math.max(last, sequenceOf(snapshot, SNAPSHOT_SUFFIX));
+        }
+        firstSegment = last + 1;
+        nextSegment = firstSegment;
+        for (File partial : list(PARTIAL_SUFFIX)) {
+            // left behind by a snapshot which was interrupted
+            partial.delete();
+        }
+        records = registry.newCounter(JobJournal.class, "records");
+        commits = registry.newCounter(JobJournal.class, "commits");
+        snapshots = registry.newCounter(JobJournal.class, "snapshots");
+    }
+
+    /**
+     * @return Segment files in journal directory, in order of their sequence number
+     */
+    protected List<File> segments() {
+        return list(SEGMENT_SUFFIX);
+    }
+
+    /**
+     * @return Snapshot files in journal directory, in order of their sequence number
+     */
+    protected List<File> snapshots() {
+        return list(SNAPSHOT_SUFFIX);
+    }
+
+    private List<File> list(final String suffix) {
+        File[] files = directory.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(suffix);
+            }
+        });
+        if (files == null) {
+            return new ArrayList<File>();
+        }
+        // names are zero padded, so lexical order is sequence order
+        Arrays.sort(files);
+        return new ArrayList<File>(Arrays.asList(files));
+    }
+
+    private static long sequenceOf(File file, String suffix) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private String fileName(long sequence, String suffix) {
+        return String.format("%020d%s", sequence, suffix);
+    }
+
+    /**
+     * Replay the newest snapshot and the segments after it, which existed when the journal was opened.
+     *
+     * Must be called before the journal is started, otherwise the journal replays itself when it is started.
+     *
+     * @return Submitted record of each job which has not been deleted, with the latest state of the job folded into it.
+     *         In order of submission.
+     * @throws IOException
+     */
+    public synchronized List<JournalRecord> replay() throws IOException {
+        if (live == null) {
+            load();
+        }
+        return new ArrayList<JournalRecord>(recovered);
+    }
+
+    private void load() throws IOException {
+        Map<String, JournalRecord> loaded = new LinkedHashMap<String, JournalRecord>();
+        long covered = 0;
+        List<File> snapshotFiles = snapshots();
+        if (!snapshotFiles.isEmpty()) {
+            File newest = snapshotFiles.get(snapshotFiles.size() - 1);
+            covered = sequenceOf(newest, SNAPSHOT_SUFFIX);
+            read(newest, loaded);
+        }
+        for (File segment : segments()) {
+            long sequence = sequenceOf(segment, SEGMENT_SUFFIX);
+            if (sequence >= covered && sequence < firstSegment) {
+                read(segment, loaded);
+            }
+        }
+        recovered = new ArrayList<JournalRecord>();
+        for (JournalRecord record : loaded.values()) {
+            recovered.add(record.copy());
+        }
+        live = loaded;
+    }
+
+    private void read(File file, Map<String, JournalRecord> live) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer mapped = channel.map(MapMode.READ_ONLY, 0, channel.size());
+            while (mapped.remaining() >= HEADER_SIZE) {
+                int length = mapped.getInt();
+                int checksum = mapped.getInt();
+                if (length <= 0 || length > mapped.remaining()) {
+                    // rest of segment is unused
+                    break;
+                }
+                byte[] payload = new byte[length];
+                mapped.get(payload);
+                if (checksum != checksum(payload)) {
+                    logger.warn("Skipping torn record at end of journal file " + file);
+                    break;
+                }
+                apply(live, mapper.readValue(payload, JournalRecord.class));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void apply(Map<String, JournalRecord> live, JournalRecord record) {
+        switch (record.type) {
+        case SUBMITTED:
+            live.put(record.identifier, record);
+            break;
+        case STATE:
+            JournalRecord submitted = live.get(record.identifier);
+            if (submitted != null) {
+                submitted.apply(record);
+            }
+            break;
+        case DELETED:
+            live.remove(record.identifier);
+            break;
+        }
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Starts the committer thread, records are written to a new segment.
+     * When a snapshot interval is configured snapshots are taken at that interval.
+     *
+     * @throws IOException when journal has not been replayed yet and replaying it fails
+     */
+    public synchronized void start() throws IOException {
+        if (live == null) {
+            load();
+        }
+        snapshotExecutor = Executors.newSingleThreadScheduledExecutor();
+        stopped = false;
+        committer = new Thread(new Runnable() {
+            public void run() {
+                commitLoop();
+            }
+        }, "job-journal");
+        committer.setDaemon(true);
+        committer.start();
+        if (snapshotInterval > 0) {
+            snapshotExecutor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    snapshot();
+                }
+            }, snapshotInterval, snapshotInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Commits the records queued before the journal was closed, waits for a snapshot being written
+     * and closes the segment being written.
+     *
+     * @throws InterruptedException
+     * @throws IOException
+     */
+    public synchronized void close() throws InterruptedException, IOException {
+        if (committer != null) {
+            pending.add(CLOSE);
+            committer.join();
+            // left behind when the committer had already exited
+            pending.remove(CLOSE);
+            committer = null;
+        }
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdown();
+            snapshotExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            snapshotExecutor = null;
+        }
+        closeSegment();
+    }
+
+    /**
+     * Let the committer take a snapshot after the records which are queued now,
+     * the snapshot is written in the background. Nothing is taken when no records were written since the last snapshot.
+     */
+    public void snapshot() {
+        pending.add(SNAPSHOT);
+    }
+
+    /**
+     * Append record of a submitted job and wait until it is on disk.
+     *
+     * @param job
+     * @param submitted Wall clock time in milliseconds when job was submitted
+     * @throws IOException when record could not be written
+     */
+    public void submitted(SandboxedJob job, long submitted) throws IOException {
+        append(JournalRecord.submitted(job, submitted), true);
+    }
+
+    /**
+     * Append state changes and deletions of jobs, without waiting for them to be on disk.
+     */
+    public void onEvent(JobEvent event) {
+        JobStatus status = event.getStatus();
+        try {
+            if (event.getType() == JobEvent.Type.STATE_CHANGED && status != null) {
+                append(JournalRecord.state(event.getJob().getIdentifier(), status), false);
+            } else if (event.getType() == JobEvent.Type.DELETED) {
+                append(JournalRecord.deleted(event.getJob().getIdentifier()), false);
+            }
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Queue record for the committer.
+     *
+     * @param record
+     * @param wait When true waits until the record is on disk
+     * @throws IOException when record could not be converted or written, or when the journal has been closed
+     */
+    protected void append(JournalRecord record, boolean wait) throws IOException {
+        Append append = new Append(record, mapper.writeValueAsBytes(record));
+        if (stopped) {
+            throw new IOException("Journal is closed");
+        }
+        pending.add(append);
+        // the committer fails the records it finds queued when it exits, records queued after that are taken back here
+        if (stopped && pending.remove(append)) {
+            throw new IOException("Journal is closed");
+        }
+        if (!wait) {
+            return;
+        }
+        try {
+            append.committed.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for journal commit");
+        }
+        if (append.failure != null) {
+            throw append.failure;
+        }
+    }
+
+    private void commitLoop() {
+        List<Append> batch = new ArrayList<Append>();
+        boolean closing = false;
+        try {
+            while (!closing) {
+                try {
+                    batch.add(pending.take());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                pending.drainTo(batch);
+                closing = batch.remove(CLOSE);
+                // records queued after a snapshot request are committed after the snapshot, so they are not covered by it
+                List<Append> appends = new ArrayList<Append>();
+                for (Append append : batch) {
+                    if (append == SNAPSHOT) {
+                        commit(appends);
+                        appends.clear();
+                        takeSnapshot();
+                    } else {
+                        appends.add(append);
+                    }
+                }
+                commit(appends);
+                batch.clear();
+            }
+        } finally {
+            stopped = true;
+            failPending();
+        }
+    }
+
+    /**
+     * Fail records which are still queued after the committer exited, so no one waits for them forever.
+     */
+    private void failPending() {
+        List<Append> orphans = new ArrayList<Append>();
+        pending.drainTo(orphans);
+        IOException failure = new IOException("Journal is closed");
+        for (Append append : orphans) {
+            if (append != CLOSE && append != SNAPSHOT) {
+                append.failure = failure;
+                append.committed.countDown();
+            }
+        }
+    }
+
+    /**
+     * Write batch of records and force them to disk at once.
+     *
+     * @param batch
+     */
+    private void commit(List<Append> batch) {
+        IOException failure = null;
+        try {
+            for (Append append : batch) {
+                write(append.payload);
+                apply(live, append.record);
+            }
+            if (buffer != null && !batch.isEmpty()) {
+                buffer.force();
+                commits.inc();
+                records.inc(batch.size());
+            }
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            failure = e;
+        }
+        for (Append append : batch) {
+            append.failure = failure;
+            append.committed.countDown();
+        }
+    }
+
+    private void write(byte[] payload) throws IOException {
+        int size = HEADER_SIZE + payload.length;
+        if (buffer == null || buffer.remaining() < size) {
+            roll(size);
+        }
+        buffer.putInt(payload.length);
+        buffer.putInt(checksum(payload));
+        buffer.put(payload);
+        dirty = true;
+    }
+
+    /**
+     * Close segment being written and start a new one which fits at least size bytes.
+     */
+    private void roll(int size) throws IOException {
+        closeSegment();
+        File segment = new File(directory, fileName(nextSegment++, SEGMENT_SUFFIX));
+        file = new RandomAccessFile(segment, "rw");
+        buffer = file.getChannel().map(MapMode.READ_WRITE, 0, Math.max(segmentSize, size));
+    }
+
+    private void closeSegment() throws IOException {
+        if (file != null) {
+            buffer.force();
+            file.close();
+            file = null;
+            buffer = null;
+        }
+    }
+
+    /**
+     * Close segment being written and copy live state, so the copy covers all segments before the next segment.
+     * The copy is written by the snapshot executor.
+     */
+    private void takeSnapshot() {
+        if (!dirty) {
+            return;
+        }
+        final long covered;
+        final List<JournalRecord> copy = new ArrayList<JournalRecord>(live.size());
+        try {
+            closeSegment();
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            return;
+        }
+        covered = nextSegment;
+        for (JournalRecord record : live.values()) {
+            copy.add(record.copy());
+        }
+        dirty = false;
+        try {
+            snapshotExecutor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        writeSnapshot(covered, copy);
+                    } catch (IOException e) {
+                        logger.error("Unable to write journal snapshot: " + e.getMessage(), e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // journal is closing, segments are replayed instead
+            logger.debug("Dropped journal snapshot of closing journal");
+        }
+    }
+
+    /**
+     * Write snapshot and delete the segments and snapshots it covers.
+     *
+     * @param covered Sequence number of first segment not covered by snapshot
+     * @param records Live records
+     * @throws IOException
+     */
+    protected void writeSnapshot(long covered, List<JournalRecord> records) throws IOException {
+        File partial = new File(directory, fileName(covered, PARTIAL_SUFFIX));
+        FileOutputStream fileOut = new FileOutputStream(partial);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            for (JournalRecord record : records) {
+                byte[] payload = mapper.writeValueAsBytes(record);
+                out.writeInt(payload.length);
+                out.writeInt(checksum(payload));
+                out.write(payload);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+        if (!partial.renameTo(new File(directory, fileName(covered, SNAPSHOT_SUFFIX)))) {
+            throw new IOException("Unable to rename journal snapshot " + partial);
+        }
+        snapshots.inc();
+        for (File segment : segments()) {
+            if (sequenceOf(segment, SEGMENT_SUFFIX) < covered) {
+                segment.delete();
+            }
+        }
+        for (File snapshot : snapshots()) {
+            if (sequenceOf(snapshot, SNAPSHOT_SUFFIX) < covered) {
+                snapshot.delete();
+            }
+        }
+    }
+}
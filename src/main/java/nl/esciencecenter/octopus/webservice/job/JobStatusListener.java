@@ -0,0 +1,40 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import nl.esciencecenter.octopus.jobs.JobStatus;
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+
+/**
+ * Receives status changes pushed by a {@link JobStatusSource job status source}.
+ *
+ * @author verhoes
+ *
+ */
+public interface JobStatusListener {
+    /**
+     * Called when status of job changed.
+     *
+     * @param job
+     * @param status New status of job
+     */
+    void statusChanged(SandboxedJob job, JobStatus status);
+}
@@ -0,0 +1,54 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+
+/**
+ * Source which pushes status changes of jobs, so they do not have to wait for the next poll.
+ *
+ * Jobs are still polled by the {@link JobsPoller poller}, which acts as fallback for changes the source misses.
+ *
+ * @author verhoes
+ *
+ */
+public interface JobStatusSource {
+    /**
+     * @param job
+     * @return true when source can push status changes of job, only accepted jobs are watched
+     */
+    boolean accepts(SandboxedJob job);
+
+    /**
+     * Start watching job, status changes are pushed to listener.
+     *
+     * @param job
+     * @param listener
+     */
+    void watch(SandboxedJob job, JobStatusListener listener);
+
+    /**
+     * Stop watching all jobs.
+     *
+     * @throws InterruptedException
+     */
+    void stop() throws InterruptedException;
+}
@@ -21,99 +21,537 @@ package nl.esciencecenter.octopus.webservice.job;
  */
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import nl.esciencecenter.octopus.Octopus;
 import nl.esciencecenter.octopus.jobs.Job;
 import nl.esciencecenter.octopus.jobs.JobStatus;
 import nl.esciencecenter.octopus.jobs.Jobs;
 import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+import nl.esciencecenter.octopus.webservice.event.JobEvent;
+import nl.esciencecenter.octopus.webservice.event.JobEventBus;
+import nl.esciencecenter.octopus.webservice.staging.SandboxStager;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.MoreExecutors;
+
 /**
  * Poll the status of jobs using pollConfiguration and octopus.
  *
- * Only polls status of jobs that are not DONE.
+ * Only polls status of jobs that are not DONE and whose deadline in the {@link PollSchedule poll schedule} has passed.
+ * Jobs which are not done are kept in an index of active jobs, so finished jobs which are kept until their delete timeout are not touched each tick.
+ * Every sweep interval all jobs are swept to reconcile the index with the job states.
+ *
+ * Jobs are canceled and deleted when their timeouts expire, the timeouts are kept in a {@link TimingWheel timing wheel}.
+ *
+ * The jobs are split into shards based on the hash of their identifier and each shard is split into chunks of at most the maximum batch size.
+ * Each chunk fetches it's job statuses with a single call, chunks are polled in parallel when a pool size larger than 1 is configured.
+ * The statuses of a chunk are committed as soon as the chunk returns, a failing chunk does not affect the other chunks.
+ *
+ * Status changes can also be pushed by {@link JobStatusSource status sources}, then polling acts as fallback.
+ *
+ * Sandboxes of done jobs are downloaded and deleted by a {@link SandboxStager stager},
+ * the done status is committed after the sandbox has been downloaded.
+ * When an {@link JobArchive archive} is set, a job is then moved to the archive until it's delete timeout.
  *
  * @author verhoes
  *
  */
-public class JobsPoller implements Runnable {
+public class JobsPoller implements Runnable, JobStatusListener {
     protected final static Logger logger = LoggerFactory.getLogger(JobsPoller.class);
 
     private final Map<String, SandboxedJob> jobs;
+    /**
+     * Jobs which are not done, subset of jobs.
+     */
+    private final Map<String, SandboxedJob> activeJobs;
     private final PollConfiguration pollConfiguration;
     private final Octopus octopus;
+    /**
+     * Executor used to poll chunks in parallel, when null chunks are polled in the calling thread.
+     */
+    private final ExecutorService shardExecutor;
+    private final PollSchedule schedule;
+    private final TimingWheel<JobTimeout> timeouts;
+    /**
+     * Stager which cleans sandboxes, by default in the polling thread.
+     */
+    private volatile SandboxStager stager;
+    /**
+     * Bus on which deleted jobs are published, can be null.
+     */
+    private volatile JobEventBus eventBus = null;
+    private final List<JobStatusSource> statusSources = new CopyOnWriteArrayList<JobStatusSource>();
+    /**
+     * Archive done jobs are moved to once their sandbox has been cleaned, when null they are kept in jobs.
+     */
+    private volatile JobArchive archive = null;
+    /**
+     * Number of times the poller has run.
+     */
+    private long ticks = 0;
+
+    /**
+     * Action to perform when a timeout of a job expires.
+     */
+    enum TimeoutAction {
+        /**
+         * Cancel job when it is not done
+         */
+        CANCEL,
+        /**
+         * Cancel job when it is not done and remove it
+         */
+        DELETE
+    }
+
+    /**
+     * Timeout of a job.
+     */
+    static class JobTimeout {
+        private final String identifier;
+        private final TimeoutAction action;
 
+        JobTimeout(String identifier, TimeoutAction action) {
+            this.identifier = identifier;
+            this.action = action;
+        }
+    }
+
+    /**
+     * Poller which cleans sandboxes in the polling thread.
+     */
     public JobsPoller(Map<String, SandboxedJob> jobs, PollConfiguration pollConfiguration, Octopus octopus) {
+        this(jobs, new ConcurrentHashMap<String, SandboxedJob>(), pollConfiguration, octopus,
+                newShardExecutor(pollConfiguration), newPollSchedule(pollConfiguration), newTimeouts(pollConfiguration));
+    }
+
+    public JobsPoller(Map<String, SandboxedJob> jobs, Map<String, SandboxedJob> activeJobs,
+            PollConfiguration pollConfiguration, Octopus octopus, ExecutorService shardExecutor, PollSchedule schedule,
+            TimingWheel<JobTimeout> timeouts) {
         super();
         this.jobs = jobs;
+        this.activeJobs = activeJobs;
         this.pollConfiguration = pollConfiguration;
         this.octopus = octopus;
+        this.shardExecutor = shardExecutor;
+        this.schedule = schedule;
+        this.timeouts = timeouts;
+        this.stager = new SandboxStager(MoreExecutors.sameThreadExecutor());
+    }
+
+    private static TimingWheel<JobTimeout> newTimeouts(PollConfiguration pollConfiguration) {
+        if (pollConfiguration != null) {
+            return new TimingWheel<JobTimeout>(pollConfiguration.getInterval(), System.currentTimeMillis());
+        }
+        return null;
+    }
+
+    private static PollSchedule newPollSchedule(PollConfiguration pollConfiguration) {
+        if (pollConfiguration != null) {
+            return new PollSchedule(pollConfiguration);
+        }
+        return null;
+    }
+
+    private static ExecutorService newShardExecutor(PollConfiguration pollConfiguration) {
+        if (pollConfiguration != null && pollConfiguration.getPoolSize() > 1) {
+            return Executors.newFixedThreadPool(pollConfiguration.getPoolSize());
+        }
+        return null;
+    }
+
+    /**
+     * Add source which pushes status changes of jobs watched after this call.
+     *
+     * @param source
+     */
+    public void addStatusSource(JobStatusSource source) {
+        statusSources.add(source);
+    }
+
+    /**
+     * Clean sandboxes with stager instead of in the polling thread.
+     *
+     * @param stager
+     */
+    public void setStager(SandboxStager stager) {
+        this.stager = stager;
+    }
+
+    /**
+     * Publish deleted jobs on eventBus.
+     *
+     * @param eventBus
+     */
+    public void setEventBus(JobEventBus eventBus) {
+        this.eventBus = eventBus;
+    }
+
+    /**
+     * @return Jobs which are not done, subset of jobs.
+     */
+    public Map<String, SandboxedJob> getActiveJobs() {
+        return activeJobs;
+    }
+
+    /**
+     * Move jobs to archive once they are done and their sandbox has been cleaned.
+     *
+     * @param archive
+     */
+    public void setArchive(JobArchive archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * Start polling job, watch it with the status sources and schedule it's cancel and delete timeouts.
+     *
+     * @param job
+     * @param submitted Wall clock time in milliseconds when job was submitted, timeouts are relative to it.
+     */
+    public void watch(SandboxedJob job, long submitted) {
+        String identifier = job.getIdentifier();
+        activeJobs.put(identifier, job);
+        schedule.add(identifier);
+        timeouts.schedule(new JobTimeout(identifier, TimeoutAction.CANCEL), submitted + pollConfiguration.getCancelTimeout());
+        timeouts.schedule(new JobTimeout(identifier, TimeoutAction.DELETE), submitted + pollConfiguration.getDeleteTimeout());
+        for (JobStatusSource source : statusSources) {
+            if (source.accepts(job)) {
+                source.watch(job, this);
+            }
+        }
+    }
+
+    /**
+     * Schedule delete timeout of job which will not be polled, like a job which could not be submitted.
+     *
+     * @param job
+     * @param submitted Wall clock time in milliseconds when job was submitted, delete timeout is relative to it.
+     */
+    public void expire(SandboxedJob job, long submitted) {
+        timeouts.schedule(new JobTimeout(job.getIdentifier(), TimeoutAction.DELETE), submitted + pollConfiguration.getDeleteTimeout());
+    }
+
+    /**
+     * Commit status pushed by a status source.
+     * A done job is no longer polled.
+     */
+    public void statusChanged(SandboxedJob job, JobStatus status) {
+        if (applyStatus(job, status) && status.isDone()) {
+            schedule.remove(job.getIdentifier());
+            activeJobs.remove(job.getIdentifier());
+        }
     }
 
     public void run() {
         logger.debug("Polling for jobs statuses");
-        long interval = pollConfiguration.getInterval();
-        long timeout = pollConfiguration.getCancelTimeout();
-        // maximum number of poll iterations
-        long maxIterations = timeout / interval;
-        // convert SandboxedJob list to Job list
-        List<Job> jjobs = new ArrayList<Job>();
-        for (SandboxedJob job : jobs.values()) {
-            Boolean jobIsDone = false;
-            if (job.getStatus() != null) {
-                jobIsDone = job.getStatus().isDone();
+        expireTimeouts(System.currentTimeMillis());
+
+        ticks++;
+        if (ticks % sweepTicks() == 0) {
+            sweep();
+        }
+
+        List<SandboxedJob> dueJobs = dueJobs();
+
+        logger.debug("Fetching job statuses of " + dueJobs.size() + " jobs");
+
+        List<List<SandboxedJob>> chunks = chunk(shard(dueJobs));
+        if (shardExecutor == null || chunks.size() < 2) {
+            for (List<SandboxedJob> chunk : chunks) {
+                try {
+                    pollChunk(chunk);
+                } catch (RuntimeException e) {
+                    logger.error(e.getMessage(), e);
+                }
             }
+        } else {
+            pollChunksInParallel(chunks);
+        }
+    }
 
-            job.incrPollIterations();
-            Boolean polledTooLong = job.getPollIterations() > maxIterations;
-            if (job.getPollIterations() > pollConfiguration.getDeleteTimeout()) {
+    /**
+     * Cancel and delete jobs whose timeouts expired.
+     *
+     * @param now Wall clock time in milliseconds
+     */
+    protected void expireTimeouts(long now) {
+        for (JobTimeout timeout : timeouts.advance(now)) {
+            SandboxedJob job = jobs.get(timeout.identifier);
+            if (job == null) {
+                if (timeout.action == TimeoutAction.DELETE) {
+                    deleteArchivedJob(timeout.identifier);
+                }
+                continue;
+            }
+            if (!isDone(job)) {
+                logger.debug("Canceling job");
+                // timeout reached -> remove job from scheduler
+                cancelJob(job);
+            }
+            // also cleans sandboxes of jobs canceled through the web service, the stager cleans a sandbox only once
+            if (!cleanExpiredSandbox(job)) {
+                // stager is full, try again at next tick
+                timeouts.schedule(timeout, now + pollConfiguration.getInterval());
+                continue;
+            }
+            if (timeout.action == TimeoutAction.DELETE) {
                 logger.debug("Deleting job");
                 // delete timeout reached -> get rid of job completely
-                cancelJob(job);
-                cleanSandbox(job);
                 deleteJob(job);
-            } else if (!jobIsDone && polledTooLong) {
-                logger.debug("Canceling job");
-                // cancel timeout reached -> remove job from scheduler
-                cancelJob(job);
-                cleanSandbox(job);
-            } else if (!jobIsDone) {
-                jjobs.add(job.getJob());
             }
-            // else dont need to fetch status of jobs that are done
         }
+    }
 
-        logger.debug("Fetching job statuses of " + jjobs.size() + " jobs");
+    private long sweepTicks() {
+        return Math.max(1, pollConfiguration.getSweepInterval() / pollConfiguration.getInterval());
+    }
 
-        // fetch statuses of all jobs
-        Job[] jobarray = jjobs.toArray(new Job[0]);
-        Jobs jobsEngine = octopus.jobs();
-        JobStatus[] statuses = jobsEngine.getJobStatuses(jobarray);
+    /**
+     * Reconcile index of active jobs with all jobs.
+     *
+     * Removes done and deleted jobs from index and
+     * adds jobs which are not done, but missing from index, to index and poll schedule.
+     * Jobs which have not been submitted to the scheduler yet are skipped.
+     */
+    protected void sweep() {
+        logger.debug("Sweeping " + jobs.size() + " jobs");
+        for (SandboxedJob job : jobs.values()) {
+            String identifier = job.getIdentifier();
+            if (isDone(job)) {
+                activeJobs.remove(identifier);
+            } else if (job.getJob() != null && !activeJobs.containsKey(identifier)) {
+                activeJobs.put(identifier, job);
+                if (!schedule.contains(identifier)) {
+                    schedule.add(identifier);
+                }
+            }
+        }
+        activeJobs.keySet().retainAll(jobs.keySet());
+    }
+
+    /**
+     * Advance poll schedule and collect the jobs which are due.
+     *
+     * @return Jobs which need their status fetched
+     */
+    private List<SandboxedJob> dueJobs() {
+        List<SandboxedJob> dueJobs = new ArrayList<SandboxedJob>();
+        for (String identifier : schedule.nextTick()) {
+            SandboxedJob job = activeJobs.get(identifier);
+            if (job == null || isDone(job)) {
+                // deleted or canceled jobs dont need to be polled anymore
+                schedule.remove(identifier);
+                activeJobs.remove(identifier);
+            } else {
+                dueJobs.add(job);
+            }
+        }
+        return dueJobs;
+    }
+
+    private boolean isDone(SandboxedJob job) {
+        return job.getStatus() != null && job.getStatus().isDone();
+    }
 
-        if (statuses != null) {
-            for (JobStatus status : statuses) {
-                SandboxedJob job = jobs.get(status.getJob().getUUID().toString());
+    /**
+     * Split jobs into shards based on the hash of their identifier.
+     *
+     * @param pollableJobs
+     * @return Non empty shards
+     */
+    protected List<List<SandboxedJob>> shard(Collection<SandboxedJob> pollableJobs) {
+        int nrShards = Math.max(1, pollConfiguration.getShards());
+        List<List<SandboxedJob>> shards = new ArrayList<List<SandboxedJob>>(nrShards);
+        for (int i = 0; i < nrShards; i++) {
+            shards.add(new ArrayList<SandboxedJob>());
+        }
+        for (SandboxedJob job : pollableJobs) {
+            int index = (job.getIdentifier().hashCode() & Integer.MAX_VALUE) % nrShards;
+            shards.get(index).add(job);
+        }
+        List<List<SandboxedJob>> nonEmptyShards = new ArrayList<List<SandboxedJob>>();
+        for (List<SandboxedJob> shard : shards) {
+            if (!shard.isEmpty()) {
+                nonEmptyShards.add(shard);
+            }
+        }
+        return nonEmptyShards;
+    }
 
-                // when state changed then commit
-                if (job.getStatus() == null || !status.getState().equals(job.getStatus().getState())) {
-                    if (status.isDone()) {
-                        logger.debug("Emptying sandbox");
-                        this.cleanSandbox(job);
+    /**
+     * Split shards into chunks of at most the maximum batch size.
+     *
+     * @param shards
+     * @return Non empty chunks
+     */
+    protected List<List<SandboxedJob>> chunk(List<List<SandboxedJob>> shards) {
+        int maxBatchSize = pollConfiguration.getMaxBatchSize();
+        if (maxBatchSize < 1) {
+            return shards;
+        }
+        List<List<SandboxedJob>> chunks = new ArrayList<List<SandboxedJob>>();
+        for (List<SandboxedJob> shard : shards) {
+            for (int from = 0; from < shard.size(); from += maxBatchSize) {
+                chunks.add(shard.subList(from, Math.min(from + maxBatchSize, shard.size())));
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * Poll chunks with the shard executor, keeping at most the maximum number of chunks in flight.
+     * Chunks are handed out as earlier chunks complete.
+     *
+     * @param chunks
+     */
+    private void pollChunksInParallel(List<List<SandboxedJob>> chunks) {
+        int maxInFlight = pollConfiguration.getMaxInFlight() > 0 ? pollConfiguration.getMaxInFlight() : chunks.size();
+        CompletionService<Object> completionService = new ExecutorCompletionService<Object>(shardExecutor);
+        Iterator<List<SandboxedJob>> pending = chunks.iterator();
+        int inFlight = 0;
+        try {
+            while (pending.hasNext() || inFlight > 0) {
+                while (inFlight < maxInFlight && pending.hasNext()) {
+                    final List<SandboxedJob> chunk = pending.next();
+                    completionService.submit(new Callable<Object>() {
+                        public Object call() {
+                            pollChunk(chunk);
+                            return null;
+                        }
+                    });
+                    inFlight++;
+                }
+                try {
+                    completionService.take().get();
+                } catch (ExecutionException e) {
+                    logger.error(e.getMessage(), e.getCause());
+                } finally {
+                    inFlight--;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Fetch statuses of jobs in chunk and commit the changed ones.
+     *
+     * @param chunk
+     */
+    protected void pollChunk(List<SandboxedJob> chunk) {
+        Set<String> changed = new HashSet<String>();
+        Set<String> finished = new HashSet<String>();
+        try {
+            // fetch statuses of all jobs in chunk
+            Job[] jobarray = new Job[chunk.size()];
+            for (int i = 0; i < jobarray.length; i++) {
+                jobarray[i] = chunk.get(i).getJob();
+            }
+            Jobs jobsEngine = octopus.jobs();
+            JobStatus[] statuses = jobsEngine.getJobStatuses(jobarray);
+
+            if (statuses != null) {
+                // statuses are in same order as jobs
+                for (int i = 0; i < statuses.length && i < jobarray.length; i++) {
+                    JobStatus status = statuses[i];
+                    SandboxedJob job = chunk.get(i);
+
+                    if (status != null && applyStatus(job, status)) {
+                        changed.add(job.getIdentifier());
+                        if (status.isDone()) {
+                            finished.add(job.getIdentifier());
+                        }
                     }
-                    logger.debug("Status changed");
-                    commitStatus(status, job);
                 }
             }
+        } finally {
+            // every polled job gets a new deadline, also when fetching statuses failed
+            for (SandboxedJob job : chunk) {
+                if (isDone(job) || finished.contains(job.getIdentifier())) {
+                    schedule.remove(job.getIdentifier());
+                    activeJobs.remove(job.getIdentifier());
+                } else {
+                    schedule.reschedule(job.getIdentifier(), changed.contains(job.getIdentifier()));
+                }
+            }
+        }
+    }
+
+    /**
+     * When state changed then commit status, for a done job after it's sandbox has been cleaned.
+     * When the stager is full the done status is not applied, so the job is polled again and applied at a later tick.
+     *
+     * @param job
+     * @param status
+     * @return true when state changed
+     */
+    private boolean applyStatus(SandboxedJob job, JobStatus status) {
+        if (job.getStatus() != null && status.getState().equals(job.getStatus().getState())) {
+            return false;
+        }
+        logger.debug("Status changed");
+        if (status.isDone()) {
+            logger.debug("Emptying sandbox");
+            if (!cleanSandbox(job, status)) {
+                return false;
+            }
+        } else {
+            commitStatus(status, job);
+        }
+        return true;
+    }
+
+    /**
+     * Stops the status sources, the threads used to poll chunks in parallel and waits for queued sandboxes to be cleaned.
+     *
+     * @throws InterruptedException
+     */
+    public void stop() throws InterruptedException {
+        for (JobStatusSource source : statusSources) {
+            source.stop();
+        }
+        if (shardExecutor != null) {
+            shardExecutor.shutdown();
         }
+        stager.stop();
     }
 
     private void deleteJob(SandboxedJob job) {
         jobs.remove(job.getIdentifier());
+        activeJobs.remove(job.getIdentifier());
+        schedule.remove(job.getIdentifier());
+        if (eventBus != null) {
+            eventBus.publish(new JobEvent(JobEvent.Type.DELETED, job, job.getStatus()));
+        }
+    }
+
+    private void deleteArchivedJob(String identifier) {
+        JobArchive archive = this.archive;
+        if (archive == null) {
+            return;
+        }
+        SandboxedJob job = archive.remove(identifier);
+        if (job != null && eventBus != null) {
+            eventBus.publish(new JobEvent(JobEvent.Type.DELETED, job, job.getStatus()));
+        }
     }
 
     protected void commitStatus(JobStatus status, SandboxedJob job) {
@@ -122,20 +560,76 @@ public class JobsPoller implements Runnable {
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
         }
+        if (status.isDone()) {
+            archiveJob(job);
+        }
     }
 
-    protected void cleanSandbox(SandboxedJob job) {
-        try {
-            job.cleanSandbox();
-        } catch (Exception e) {
-            logger.error(e.getMessage(), e);
+    /**
+     * Move done job to archive, it is put in the archive before it is removed from jobs so it can always be found.
+     */
+    private void archiveJob(SandboxedJob job) {
+        JobArchive archive = this.archive;
+        if (archive == null) {
+            return;
+        }
+        if (jobs.get(job.getIdentifier()) != job) {
+            // deleted while it's sandbox was cleaned
+            return;
         }
+        archive.put(job, System.currentTimeMillis());
+        jobs.remove(job.getIdentifier());
+        activeJobs.remove(job.getIdentifier());
+    }
+
+    /**
+     * @param job
+     * @return false when stager is full and cleaning has to be tried again later
+     */
+    protected boolean cleanSandbox(SandboxedJob job) {
+        return stager.clean(job, null) || job.getStagingState() != null;
+    }
+
+    /**
+     * Clean sandbox of job whose timeout expired, a done job is archived afterwards.
+     * Jobs without sandbox, like jobs which could not be submitted, are skipped.
+     *
+     * @return false when stager is full and cleaning has to be tried again later
+     */
+    private boolean cleanExpiredSandbox(SandboxedJob job) {
+        if (job.getSandbox() == null) {
+            return true;
+        }
+        JobStatus status = job.getStatus();
+        if (status == null) {
+            return cleanSandbox(job);
+        } else {
+            return cleanSandbox(job, status);
+        }
+    }
+
+    /**
+     * Clean sandbox of job and commit it's done status afterwards, so output is in place when job is reported done.
+     *
+     * @param job
+     * @param status
+     * @return false when stager is full and cleaning has to be tried again later
+     */
+    protected boolean cleanSandbox(final SandboxedJob job, final JobStatus status) {
+        return stager.clean(job, status, new Runnable() {
+            public void run() {
+                commitStatus(status, job);
+            }
+        }) || job.getStagingState() != null;
     }
 
     protected void cancelJob(SandboxedJob job) {
         try {
             octopus.jobs().cancelJob(job.getJob());
             job.setStatus(octopus.jobs().getJobStatus(job.getJob()));
+            if (isDone(job)) {
+                activeJobs.remove(job.getIdentifier());
+            }
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
         }
@@ -0,0 +1,118 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Objects;
+
+/**
+ * Configuration of the journal of job lifecycle records.
+ *
+ * @author verhoes
+ *
+ */
+public class JournalConfiguration {
+    /**
+     * Directory in which journal segments are written, when null jobs are not journaled and are lost on restart.
+     * Default null.
+     */
+    @JsonProperty
+    private String directory = null;
+    /**
+     * Size in bytes of a journal segment, a full segment is closed and a new one is started.
+     * Default 16Mb.
+     */
+    @JsonProperty
+    private int segmentSize = 16 * 1024 * 1024;
+    /**
+     * Time in milliseconds between snapshots of the live jobs, segments covered by a snapshot are deleted.
+     * 0 is no snapshots, then segments are kept until the journal directory is cleared.
+     * Default 10 minutes.
+     */
+    @JsonProperty
+    private long snapshotInterval = 600000;
+
+    public JournalConfiguration(String directory, int segmentSize, long snapshotInterval) {
+        super();
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    public JournalConfiguration() {
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public long getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    public void setSnapshotInterval(long snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * @return true when a journal directory is set
+     */
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(directory, segmentSize, snapshotInterval);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        JournalConfiguration other = (JournalConfiguration) obj;
+        return Objects.equal(this.directory, other.directory) && Objects.equal(this.segmentSize, other.segmentSize)
+                && Objects.equal(this.snapshotInterval, other.snapshotInterval);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .addValue(this.directory)
+                .addValue(this.segmentSize)
+                .addValue(this.snapshotInterval)
+                .toString();
+    }
+}
@@ -0,0 +1,227 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.UUID;
+
+import nl.esciencecenter.octopus.engine.jobs.JobStatusImplementation;
+import nl.esciencecenter.octopus.jobs.Job;
+import nl.esciencecenter.octopus.jobs.JobStatus;
+import nl.esciencecenter.octopus.webservice.api.JobSubmitRequest;
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.google.common.base.Objects;
+
+/**
+ * Record in the {@link JobJournal journal} of the lifecycle of a job.
+ *
+ * A submitted record holds what is needed to rebuild the job, a state record holds a new status of the job.
+ * Records of the same job are folded into the submitted record during replay.
+ *
+ * @author verhoes
+ *
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class JournalRecord {
+    /**
+     * Type of record.
+     */
+    public enum Type {
+        /**
+         * Job has been submitted to scheduler
+         */
+        SUBMITTED,
+        /**
+         * Status of job changed
+         */
+        STATE,
+        /**
+         * Job has been removed from the launcher
+         */
+        DELETED
+    }
+
+    public Type type;
+    /**
+     * Identifier of job assigned by the web service.
+     */
+    public String identifier;
+    /**
+     * Wall clock time in milliseconds when job was submitted.
+     */
+    public long submitted;
+    public String backend;
+    public JobSubmitRequest request;
+    /**
+     * Name of sandbox directory in sandbox root of backend.
+     */
+    public String sandbox;
+    /**
+     * Universally unique identifier of Octopus job.
+     */
+    public UUID uuid;
+    /**
+     * Identifier of job in scheduler.
+     */
+    public String jobIdentifier;
+    public String state;
+    public Integer exitCode;
+    /**
+     * Message of exception of status, null when status has no exception.
+     */
+    public String exception;
+    public boolean running;
+    public boolean done;
+
+    public JournalRecord() {
+    }
+
+    /**
+     * Record of a job which has just been submitted to the scheduler.
+     *
+     * @param job
+     * @param submitted Wall clock time in milliseconds when job was submitted
+     * @return record
+     */
+    public static JournalRecord submitted(SandboxedJob job, long submitted) {
+        JournalRecord record = new JournalRecord();
+        record.type = Type.SUBMITTED;
+        record.identifier = job.getIdentifier();
+        record.submitted = submitted;
+        record.backend = job.getBackend();
+        record.request = job.getRequest();
+        record.sandbox = job.getSandbox().getPath().getFileName();
+        record.uuid = job.getJob().getUUID();
+        record.jobIdentifier = job.getJob().getIdentifier();
+        return record;
+    }
+
+    /**
+     * Record of a new status of a job.
+     *
+     * @param identifier
+     * @param status
+     * @return record
+     */
+    public static JournalRecord state(String identifier, JobStatus status) {
+        JournalRecord record = new JournalRecord();
+        record.type = Type.STATE;
+        record.identifier = identifier;
+        record.state = status.getState();
+        record.exitCode = status.getExitCode();
+        if (status.hasException()) {
+            record.exception = String.valueOf(status.getException().getMessage());
+        }
+        record.running = status.isRunning();
+        record.done = status.isDone();
+        return record;
+    }
+
+    /**
+     * Record of a job which has been removed.
+     *
+     * @param identifier
+     * @return record
+     */
+    public static JournalRecord deleted(String identifier) {
+        JournalRecord record = new JournalRecord();
+        record.type = Type.DELETED;
+        record.identifier = identifier;
+        return record;
+    }
+
+    /**
+     * Copy status of a state record into this record.
+     *
+     * @param other State record
+     */
+    public void apply(JournalRecord other) {
+        state = other.state;
+        exitCode = other.exitCode;
+        exception = other.exception;
+        running = other.running;
+        done = other.done;
+    }
+
+    /**
+     * @return Copy of record, which shares the request
+     */
+    public JournalRecord copy() {
+        JournalRecord copy = new JournalRecord();
+        copy.type = type;
+        copy.identifier = identifier;
+        copy.submitted = submitted;
+        copy.backend = backend;
+        copy.request = request;
+        copy.sandbox = sandbox;
+        copy.uuid = uuid;
+        copy.jobIdentifier = jobIdentifier;
+        copy.apply(this);
+        return copy;
+    }
+
+    /**
+     * @param job Octopus job the status belongs to
+     * @return Status in record, null when record has no state
+     */
+    public JobStatus toStatus(Job job) {
+        if (state == null) {
+            return null;
+        }
+        Exception e = null;
+        if (exception != null) {
+            e = new Exception(exception);
+        }
+        return new JobStatusImplementation(job, state, exitCode, e, running, done, null);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(type, identifier, submitted, backend, request, sandbox, uuid, jobIdentifier, state, exitCode,
+                exception, running, done);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        JournalRecord other = (JournalRecord) obj;
+        return Objects.equal(this.type, other.type) && Objects.equal(this.identifier, other.identifier)
+                && Objects.equal(this.submitted, other.submitted) && Objects.equal(this.backend, other.backend)
+                && Objects.equal(this.request, other.request) && Objects.equal(this.sandbox, other.sandbox)
+                && Objects.equal(this.uuid, other.uuid) && Objects.equal(this.jobIdentifier, other.jobIdentifier)
+                && Objects.equal(this.state, other.state) && Objects.equal(this.exitCode, other.exitCode)
+                && Objects.equal(this.exception, other.exception) && Objects.equal(this.running, other.running)
+                && Objects.equal(this.done, other.done);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .addValue(this.type)
+                .addValue(this.identifier)
+                .addValue(this.state)
+                .toString();
+    }
+}
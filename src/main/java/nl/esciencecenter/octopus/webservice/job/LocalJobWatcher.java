@@ -0,0 +1,139 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.jobs.Job;
+import nl.esciencecenter.octopus.jobs.JobStatus;
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pushes done status of jobs submitted to the local scheduler as soon as their process exits.
+ *
+ * Each watched job has a thread waiting until the job is done,
+ * so only jobs of a local scheduler are accepted, jobs of remote schedulers would each hold a thread for their whole lifetime.
+ * The number of threads is bounded by the number of jobs the local scheduler runs concurrently,
+ * jobs submitted while all threads are waiting are only polled.
+ *
+ * @author verhoes
+ *
+ */
+public class LocalJobWatcher implements JobStatusSource {
+    protected final static Logger logger = LoggerFactory.getLogger(LocalJobWatcher.class);
+
+    /**
+     * Scheme of scheduler URI of local jobs.
+     */
+    public static final String LOCAL_SCHEME = "local";
+    /**
+     * Preference with number of jobs the multi queue of the local scheduler runs concurrently.
+     */
+    public static final String MULTI_QUEUE_CONCURRENCY = "octopus.adaptors.local.queue.multi.maxConcurrentJobs";
+
+    private final Octopus octopus;
+    private final ExecutorService executor;
+
+    /**
+     * Watcher with at most maxWatchers threads waiting for jobs.
+     *
+     * @param octopus
+     * @param maxWatchers
+     */
+    public LocalJobWatcher(Octopus octopus, int maxWatchers) {
+        this(octopus, new ThreadPoolExecutor(0, Math.max(1, maxWatchers), 60L, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>()));
+    }
+
+    public LocalJobWatcher(Octopus octopus, ExecutorService executor) {
+        super();
+        this.octopus = octopus;
+        this.executor = executor;
+    }
+
+    /**
+     * Number of jobs a queue of the local scheduler runs concurrently.
+     *
+     * @param preferences Octopus preferences
+     * @param queue Name of local queue
+     * @return 1 for the single queue, the configured concurrency for the multi queue, else the number of processors
+     */
+    public static int concurrencyOf(Properties preferences, String queue) {
+        if ("single".equals(queue)) {
+            return 1;
+        }
+        String concurrency = preferences == null ? null : preferences.getProperty(MULTI_QUEUE_CONCURRENCY);
+        if ("multi".equals(queue) && concurrency != null) {
+            try {
+                return Integer.parseInt(concurrency);
+            } catch (NumberFormatException e) {
+                logger.warn("Invalid " + MULTI_QUEUE_CONCURRENCY + " preference: " + concurrency);
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    public boolean accepts(SandboxedJob job) {
+        Job octopusJob = job.getJob();
+        if (octopusJob == null || octopusJob.getScheduler() == null || octopusJob.getScheduler().getUri() == null) {
+            return false;
+        }
+        return LOCAL_SCHEME.equals(octopusJob.getScheduler().getUri().getScheme());
+    }
+
+    public void watch(final SandboxedJob job, final JobStatusListener listener) {
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        // timeout of 0 waits until job is done
+                        JobStatus status = octopus.jobs().waitUntilDone(job.getJob(), 0);
+                        if (status != null && status.isDone()) {
+                            listener.statusChanged(job, status);
+                        }
+                    } catch (Exception e) {
+                        // poller will pick up state
+                        logger.warn("Unable to wait for job " + job.getIdentifier(), e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.debug("All watchers busy or watcher stopped, job " + job.getIdentifier() + " will only be polled");
+        }
+    }
+
+    /**
+     * Interrupts threads waiting for jobs.
+     */
+    public void stop() throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+}
@@ -21,6 +21,7 @@ package nl.esciencecenter.octopus.webservice.job;
  */
 
 import java.net.URI;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 
@@ -28,11 +29,13 @@ import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 
 import nl.esciencecenter.octopus.credentials.Credential;
+import nl.esciencecenter.octopus.webservice.staging.StagingConfiguration;
 
 import org.hibernate.validator.constraints.NotEmpty;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
 /**
@@ -42,6 +45,10 @@ import com.google.common.collect.ImmutableMap;
  *
  */
 public class OctopusConfiguration {
+    /**
+     * Name of backend made of scheduler, queue and sandboxRoot.
+     */
+    public static final String DEFAULT_BACKEND = "default";
 
     /**
      * Scheduler URI used to submit jobs
@@ -65,6 +72,14 @@ public class OctopusConfiguration {
     @NotNull
     private URI sandboxRoot;
 
+    /**
+     * Additional scheduler backends, jobs are routed to the default backend made of scheduler, queue and sandboxRoot or
+     * to one of these.
+     */
+    @Valid
+    @JsonProperty
+    private ImmutableList<BackendConfiguration> backends = ImmutableList.of();
+
     /**
      * Octopus preferences, these could also be put octopus.properties file, but I like scheduler together with it's preferences
      */
@@ -78,6 +93,48 @@ public class OctopusConfiguration {
     @JsonProperty("poll")
     private PollConfiguration pollConfiguration = new PollConfiguration();
 
+    /**
+     * Fields required for staging sandboxes.
+     */
+    @Valid
+    @JsonProperty("staging")
+    private StagingConfiguration stagingConfiguration = new StagingConfiguration();
+
+    /**
+     * Fields required for submitting jobs.
+     */
+    @Valid
+    @JsonProperty("submit")
+    private SubmitConfiguration submitConfiguration = new SubmitConfiguration();
+
+    /**
+     * Fields required for limiting the submissions of each client.
+     */
+    @Valid
+    @JsonProperty("admission")
+    private AdmissionConfiguration admissionConfiguration = new AdmissionConfiguration();
+
+    /**
+     * Fields required for keeping sessions with the schedulers alive.
+     */
+    @Valid
+    @JsonProperty("session")
+    private SessionConfiguration sessionConfiguration = new SessionConfiguration();
+
+    /**
+     * Fields required for journaling jobs, so they can be recovered after a restart.
+     */
+    @Valid
+    @JsonProperty("journal")
+    private JournalConfiguration journalConfiguration = new JournalConfiguration();
+
+    /**
+     * Fields required for archiving done jobs.
+     */
+    @Valid
+    @JsonProperty("archive")
+    private ArchiveConfiguration archiveConfiguration = new ArchiveConfiguration();
+
     public OctopusConfiguration(URI scheduler, String queue, URI sandboxRoot, ImmutableMap<String, Object> preferences) {
         this.scheduler = scheduler;
         this.queue = queue;
@@ -121,6 +178,28 @@ public class OctopusConfiguration {
         this.queue = queue;
     }
 
+    public ImmutableList<BackendConfiguration> getBackends() {
+        return backends;
+    }
+
+    public void setBackends(ImmutableList<BackendConfiguration> backends) {
+        this.backends = backends;
+    }
+
+    /**
+     * @return Backend made of scheduler, queue and sandboxRoot, without capacity limit and with weight 1.
+     */
+    public BackendConfiguration getDefaultBackend() {
+        return new BackendConfiguration(DEFAULT_BACKEND, scheduler, queue, sandboxRoot, 0, 1);
+    }
+
+    /**
+     * @return Default backend followed by additional backends
+     */
+    public List<BackendConfiguration> getBackendConfigurations() {
+        return ImmutableList.<BackendConfiguration> builder().add(getDefaultBackend()).addAll(backends).build();
+    }
+
     public PollConfiguration getPollConfiguration() {
         return pollConfiguration;
     }
@@ -129,9 +208,59 @@ public class OctopusConfiguration {
         this.pollConfiguration = pollConfiguration;
     }
 
+    public StagingConfiguration getStagingConfiguration() {
+        return stagingConfiguration;
+    }
+
+    public void setStagingConfiguration(StagingConfiguration stagingConfiguration) {
+        this.stagingConfiguration = stagingConfiguration;
+    }
+
+    public SubmitConfiguration getSubmitConfiguration() {
+        return submitConfiguration;
+    }
+
+    public void setSubmitConfiguration(SubmitConfiguration submitConfiguration) {
+        this.submitConfiguration = submitConfiguration;
+    }
+
+    public AdmissionConfiguration getAdmissionConfiguration() {
+        return admissionConfiguration;
+    }
+
+    public void setAdmissionConfiguration(AdmissionConfiguration admissionConfiguration) {
+        this.admissionConfiguration = admissionConfiguration;
+    }
+
+    public SessionConfiguration getSessionConfiguration() {
+        return sessionConfiguration;
+    }
+
+    public void setSessionConfiguration(SessionConfiguration sessionConfiguration) {
+        this.sessionConfiguration = sessionConfiguration;
+    }
+
+    public JournalConfiguration getJournalConfiguration() {
+        return journalConfiguration;
+    }
+
+    public void setJournalConfiguration(JournalConfiguration journalConfiguration) {
+        this.journalConfiguration = journalConfiguration;
+    }
+
+    public ArchiveConfiguration getArchiveConfiguration() {
+        return archiveConfiguration;
+    }
+
+    public void setArchiveConfiguration(ArchiveConfiguration archiveConfiguration) {
+        this.archiveConfiguration = archiveConfiguration;
+    }
+
     @Override
     public int hashCode() {
-        return Objects.hashCode(scheduler, queue, preferences, sandboxRoot, pollConfiguration);
+        return Objects.hashCode(scheduler, queue, preferences, sandboxRoot, backends, pollConfiguration, stagingConfiguration,
+                submitConfiguration, admissionConfiguration, sessionConfiguration,
+                journalConfiguration, archiveConfiguration);
     }
 
     @Override
@@ -143,7 +272,13 @@ public class OctopusConfiguration {
         OctopusConfiguration other = (OctopusConfiguration) obj;
         return Objects.equal(this.scheduler, other.scheduler) && Objects.equal(this.preferences, other.preferences)
                 && Objects.equal(this.pollConfiguration, other.pollConfiguration) && Objects.equal(this.queue, other.queue)
-                && Objects.equal(this.sandboxRoot, other.sandboxRoot);
+                && Objects.equal(this.sandboxRoot, other.sandboxRoot) && Objects.equal(this.backends, other.backends)
+                && Objects.equal(this.stagingConfiguration, other.stagingConfiguration)
+                && Objects.equal(this.submitConfiguration, other.submitConfiguration)
+                && Objects.equal(this.admissionConfiguration, other.admissionConfiguration)
+                && Objects.equal(this.sessionConfiguration, other.sessionConfiguration)
+                && Objects.equal(this.journalConfiguration, other.journalConfiguration)
+                && Objects.equal(this.archiveConfiguration, other.archiveConfiguration);
     }
 
     @Override
@@ -153,7 +288,14 @@ public class OctopusConfiguration {
                 .addValue(this.queue)
                 .addValue(this.sandboxRoot)
                 .addValue(this.preferences)
+                .addValue(this.backends)
                 .addValue(this.pollConfiguration)
+                .addValue(this.stagingConfiguration)
+                .addValue(this.submitConfiguration)
+                .addValue(this.admissionConfiguration)
+                .addValue(this.sessionConfiguration)
+                .addValue(this.journalConfiguration)
+                .addValue(this.archiveConfiguration)
                 .toString();
     }
 
@@ -23,17 +23,28 @@ package nl.esciencecenter.octopus.webservice.job;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import nl.esciencecenter.octopus.Octopus;
 import nl.esciencecenter.octopus.OctopusFactory;
 import nl.esciencecenter.octopus.credentials.Credential;
+import nl.esciencecenter.octopus.engine.jobs.JobImplementation;
+import nl.esciencecenter.octopus.engine.jobs.JobStatusImplementation;
 import nl.esciencecenter.octopus.exceptions.NoSuchJobException;
 import nl.esciencecenter.octopus.exceptions.OctopusException;
 import nl.esciencecenter.octopus.exceptions.OctopusIOException;
@@ -43,15 +54,26 @@ import nl.esciencecenter.octopus.files.RelativePath;
 import nl.esciencecenter.octopus.jobs.Job;
 import nl.esciencecenter.octopus.jobs.JobDescription;
 import nl.esciencecenter.octopus.jobs.JobStatus;
-import nl.esciencecenter.octopus.jobs.Scheduler;
 import nl.esciencecenter.octopus.util.Sandbox;
 import nl.esciencecenter.octopus.webservice.api.JobSubmitRequest;
 import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+import nl.esciencecenter.octopus.webservice.event.JobEvent;
+import nl.esciencecenter.octopus.webservice.event.JobEventBus;
+import nl.esciencecenter.octopus.webservice.staging.FileSystemCache;
+import nl.esciencecenter.octopus.webservice.staging.OutputSync;
+import nl.esciencecenter.octopus.webservice.staging.PrestageCache;
+import nl.esciencecenter.octopus.webservice.staging.SandboxPool;
+import nl.esciencecenter.octopus.webservice.staging.SandboxStager;
+import nl.esciencecenter.octopus.webservice.staging.SandboxTransfers;
+import nl.esciencecenter.octopus.webservice.staging.StagingConfiguration;
 
 import org.apache.http.client.HttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.yammer.dropwizard.lifecycle.Managed;
 
 /**
@@ -64,13 +86,84 @@ import com.yammer.dropwizard.lifecycle.Managed;
  */
 public class OctopusManager implements Managed {
     protected final static Logger logger = LoggerFactory.getLogger(OctopusManager.class);
+    /**
+     * Directory in sandbox root where prestaged files are cached.
+     */
+    public static final String PRESTAGE_CACHE_DIRECTORY = ".prestage-cache";
 
     private final OctopusConfiguration configuration;
     private final Octopus octopus;
-    private final Scheduler scheduler;
+    /**
+     * Picks the scheduler backend each job is submitted to.
+     */
+    private final BackendRouter router;
+    /**
+     * Runs the liveness probes and reconnects of the scheduler sessions.
+     */
+    private final ScheduledExecutorService sessionExecutor;
     private final Map<String, SandboxedJob> jobs;
+    /**
+     * Index of jobs which are not done, the poller only looks at these jobs.
+     */
+    private final Map<String, SandboxedJob> activeJobs;
     private final JobsPoller poller;
+    /**
+     * Open sandbox file systems, leased by jobs until their sandbox has been cleaned.
+     */
+    private final FileSystemCache sandboxFileSystems;
+    /**
+     * Copies files of sandboxes, shared by uploads of submitted jobs and downloads of done jobs.
+     */
+    private final SandboxTransfers sandboxTransfers;
+    /**
+     * Content addressed cache of prestaged files, null when disabled.
+     */
+    private PrestageCache prestageCache = null;
+    /**
+     * Copies output of running jobs to their job directory, null when output is only copied when a job is done.
+     */
+    private final OutputSync outputSync;
+    /**
+     * Empty sandbox directories ready to be staged into, null when each submission creates it's own sandbox directory.
+     */
+    private final SandboxPool sandboxPool;
+    /**
+     * File system leased by sandbox pool while it runs.
+     */
+    private FileSystem sandboxPoolFileSystem;
     private ScheduledExecutorService executor;
+    /**
+     * Loop which runs the poller on executor, null when not started.
+     */
+    private PollLoop pollLoop = null;
+    /**
+     * Bus on which lifecycle events of jobs are published, when null status callbacks are sent by the thread committing the status.
+     */
+    private final JobEventBus eventBus;
+    /**
+     * Pipeline which stages and submits jobs asynchronously, null when jobs are submitted in the request thread.
+     */
+    private SubmitPipeline submitPipeline = null;
+    /**
+     * Limits rate and number of active jobs per client.
+     */
+    private final AdmissionController admission;
+    /**
+     * Jobs submitted with an idempotency key, so retries return the same job.
+     */
+    private final IdempotencyCache idempotency;
+    /**
+     * Threads which upload the sandboxes of a batch of jobs in parallel.
+     */
+    private final ExecutorService batchStagingExecutor;
+    /**
+     * Journal of the lifecycle of jobs, so they can be recovered after a restart. Null when jobs are not journaled.
+     */
+    private JobJournal journal = null;
+    /**
+     * Archive of done jobs whose sandbox has been cleaned, null when done jobs are kept whole until their delete timeout.
+     */
+    private JobArchive archive = null;
 
     /**
      * Sets preferences in GAT context and initializes a broker.
@@ -78,54 +171,324 @@ public class OctopusManager implements Managed {
      * @param configuration
      * @throws URISyntaxException
      * @throws OctopusException
-     * @throws OctopusIOException
+     * @throws IOException when journal can not be opened
      */
-    public OctopusManager(OctopusConfiguration configuration) throws URISyntaxException, OctopusException, OctopusIOException {
+    public OctopusManager(OctopusConfiguration configuration) throws URISyntaxException, OctopusException, IOException {
+        this(configuration, (JobEventBus) null);
+    }
+
+    /**
+     * Sets preferences in GAT context and initializes a broker.
+     *
+     * @param configuration
+     * @param eventBus Bus on which lifecycle events of jobs are published
+     * @throws URISyntaxException
+     * @throws OctopusException
+     * @throws IOException when journal can not be opened
+     */
+    public OctopusManager(OctopusConfiguration configuration, JobEventBus eventBus) throws URISyntaxException,
+            OctopusException, IOException {
         this.configuration = configuration;
         Properties props = configuration.getPreferencesAsProperties();
         octopus = OctopusFactory.newOctopus(props);
-        URI schedulerURI = configuration.getScheduler();
         Credential credential = configuration.getCredential();
-        // TODO prompt user for password/passphrases
-        scheduler = octopus.jobs().newScheduler(schedulerURI, credential, null);
+        sessionExecutor = Executors.newSingleThreadScheduledExecutor();
+        List<Backend> backends = new ArrayList<Backend>();
+        int localConcurrency = 0;
+        for (BackendConfiguration backendConf : configuration.getBackendConfigurations()) {
+            SchedulerSession session = new SchedulerSession(octopus, backendConf.getScheduler(), credential,
+                    backendConf.getQueue(), configuration.getSessionConfiguration(), sessionExecutor);
+            backends.add(new Backend(backendConf, session));
+            if (LocalJobWatcher.LOCAL_SCHEME.equals(backendConf.getScheduler().getScheme())) {
+                localConcurrency += LocalJobWatcher.concurrencyOf(props, backendConf.getQueue());
+            }
+        }
+        router = new BackendRouter(backends);
         jobs = new ConcurrentHashMap<String, SandboxedJob>();
         executor = Executors.newSingleThreadScheduledExecutor();
         PollConfiguration pollConf = configuration.getPollConfiguration();
         poller = new JobsPoller(jobs, pollConf, octopus);
+        activeJobs = poller.getActiveJobs();
+        StagingConfiguration stagingConf = configuration.getStagingConfiguration();
+        sandboxFileSystems = new FileSystemCache(octopus, stagingConf.getFileSystemCacheSize(),
+                stagingConf.getFileSystemIdleTimeout());
+        sandboxTransfers = new SandboxTransfers(octopus, stagingConf);
+        setPrestageCache(newPrestageCache(octopus, configuration));
+        if (stagingConf.getSyncInterval() > 0) {
+            outputSync = new OutputSync(octopus, activeJobs, stagingConf.isSyncPoststaged());
+        } else {
+            outputSync = null;
+        }
+        if (stagingConf.getSandboxPoolSize() > 0) {
+            sandboxPool = new SandboxPool(octopus, configuration.getSandboxRoot().getPath(), stagingConf.getSandboxPoolSize());
+        } else {
+            sandboxPool = null;
+        }
+        SandboxStager stager = new SandboxStager(stagingConf);
+        stager.setFileSystems(sandboxFileSystems);
+        stager.setTransfers(sandboxTransfers);
+        stager.setOutputSync(outputSync);
+        stager.setSandboxPool(sandboxPool);
+        poller.setStager(stager);
+        poller.setEventBus(eventBus);
+        if (localConcurrency > 0) {
+            // local jobs report their exit immediately instead of at next poll, jobs of other backends are only polled
+            poller.addStatusSource(new LocalJobWatcher(octopus, localConcurrency));
+        }
+        if (configuration.getArchiveConfiguration().isEnabled()) {
+            setArchive(new JobArchive(configuration.getArchiveConfiguration()));
+        }
+        this.eventBus = eventBus;
+        admission = new AdmissionController(configuration.getAdmissionConfiguration());
+        if (eventBus != null) {
+            // releasing a place in a quota is cheap, so it is done by the publishing thread
+            eventBus.register(admission, MoreExecutors.sameThreadExecutor());
+            for (Backend backend : backends) {
+                // likewise for a place on a backend
+                eventBus.register(backend, MoreExecutors.sameThreadExecutor());
+            }
+        }
+        if (configuration.getJournalConfiguration().isEnabled()) {
+            setJournal(new JobJournal(configuration.getJournalConfiguration()));
+            if (eventBus != null) {
+                // appending a record only queues it for the committer, so it is done by the publishing thread
+                eventBus.register(journal, MoreExecutors.sameThreadExecutor());
+            }
+        }
+        SubmitConfiguration submitConf = configuration.getSubmitConfiguration();
+        idempotency = new IdempotencyCache(submitConf);
+        batchStagingExecutor = Executors.newFixedThreadPool(submitConf.getStagingThreads());
+        if (submitConf.isAsync()) {
+            setSubmitPipeline(new SubmitPipeline(submitConf));
+        }
     }
 
-    protected OctopusManager(OctopusConfiguration configuration, Octopus octopus, Scheduler scheduler,
-            Map<String, SandboxedJob> jobs, JobsPoller poller, ScheduledExecutorService executor) {
+    protected OctopusManager(OctopusConfiguration configuration, Octopus octopus, BackendRouter router,
+            Map<String, SandboxedJob> jobs, Map<String, SandboxedJob> activeJobs, JobsPoller poller,
+            ScheduledExecutorService executor) {
         super();
         this.configuration = configuration;
         this.octopus = octopus;
-        this.scheduler = scheduler;
+        this.router = router;
+        this.sessionExecutor = null;
         this.jobs = jobs;
+        this.activeJobs = activeJobs;
         this.poller = poller;
         this.executor = executor;
+        this.eventBus = null;
+        AdmissionConfiguration admissionConf = new AdmissionConfiguration();
+        if (configuration != null) {
+            admissionConf = configuration.getAdmissionConfiguration();
+        }
+        this.admission = new AdmissionController(admissionConf);
+        SubmitConfiguration submitConf = new SubmitConfiguration();
+        if (configuration != null) {
+            submitConf = configuration.getSubmitConfiguration();
+        }
+        this.idempotency = new IdempotencyCache(submitConf);
+        this.batchStagingExecutor = MoreExecutors.sameThreadExecutor();
+        StagingConfiguration stagingConf = new StagingConfiguration();
+        this.sandboxFileSystems = new FileSystemCache(octopus, stagingConf.getFileSystemCacheSize(),
+                stagingConf.getFileSystemIdleTimeout());
+        this.sandboxTransfers = new SandboxTransfers(octopus, stagingConf);
+        this.outputSync = null;
+        this.sandboxPool = null;
+    }
+
+    /**
+     * Cache prestaged files of submitted jobs.
+     *
+     * @param prestageCache Cache of prestaged files, when null each job uploads it's own prestaged files.
+     */
+    protected final void setPrestageCache(PrestageCache prestageCache) {
+        this.prestageCache = prestageCache;
+    }
+
+    /**
+     * Stage and submit jobs asynchronously.
+     *
+     * @param submitPipeline Pipeline of staging and submitting, when null jobs are submitted in the request thread.
+     */
+    protected final void setSubmitPipeline(SubmitPipeline submitPipeline) {
+        this.submitPipeline = submitPipeline;
+    }
+
+    /**
+     * Journal the lifecycle of jobs, so they can be recovered after a restart.
+     *
+     * @param journal
+     */
+    protected final void setJournal(JobJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Move done jobs whose sandbox has been cleaned to archive, also sets archive of poller.
+     *
+     * @param archive
+     */
+    protected final void setArchive(JobArchive archive) {
+        this.archive = archive;
+        if (poller != null) {
+            poller.setArchive(archive);
+        }
+    }
+
+    private static PrestageCache newPrestageCache(Octopus octopus, OctopusConfiguration configuration) {
+        long size = configuration.getStagingConfiguration().getPrestageCacheSize();
+        if (size <= 0) {
+            return null;
+        }
+        String directory = configuration.getSandboxRoot().getPath() + "/" + PRESTAGE_CACHE_DIRECTORY;
+        return new PrestageCache(octopus, directory, size);
     }
 
     /**
      * Starts the job poller.
+     *
+     * The poller is run by a {@link PollLoop poll loop}, which skips ticks when the poller is slower than the interval.
+     * When enabled the output of running jobs is synced at the configured interval and the sandbox pool is filled.
+     * The sessions with the schedulers are probed at the configured interval.
+     * When journaling is enabled the journal starts committing records.
      */
     public void start() throws Exception {
+        if (journal != null) {
+            journal.start();
+        }
         long interval = configuration.getPollConfiguration().getInterval();
-        executor.scheduleAtFixedRate(poller, 0, interval, TimeUnit.MILLISECONDS);
+        pollLoop = new PollLoop(poller, executor, interval);
+        pollLoop.start();
+        for (Backend backend : router.getBackends()) {
+            backend.getSession().start();
+        }
+        if (outputSync != null) {
+            outputSync.start(configuration.getStagingConfiguration().getSyncInterval());
+        }
+        if (sandboxPool != null) {
+            sandboxPoolFileSystem = sandboxFileSystems.acquire(sandboxFileSystemURI(configuration.getSandboxRoot()),
+                    configuration.getCredential());
+            sandboxPool.start(sandboxPoolFileSystem);
+        }
     }
 
     /**
      * Terminates any running Octopus processes and stops the job poller.
      */
     public void stop() throws Exception {
-        // TODO should I call OctopusFactory.endAll() or the octopus.end()
-        octopus.end();
+        // jobs in submit pipeline and batches are staged and submitted before the poller stops
+        if (submitPipeline != null) {
+            submitPipeline.stop();
+        }
+        batchStagingExecutor.shutdown();
+        batchStagingExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        if (pollLoop != null) {
+            // the next tick is scheduled with a delay, which would still run after shutdown
+            pollLoop.stop();
+        }
         executor.shutdown();
         // JobsPoller can be in middle of fetching job statuses so give it 1 minute to finish before interrupting it
         executor.awaitTermination(1, TimeUnit.MINUTES);
+        if (outputSync != null) {
+            outputSync.stop();
+        }
+        poller.stop();
+        if (journal != null) {
+            journal.close();
+        }
+        if (sandboxPool != null) {
+            sandboxPool.stop();
+            if (sandboxPoolFileSystem != null) {
+                sandboxFileSystems.release(sandboxPoolFileSystem);
+            }
+        }
+        sandboxTransfers.stop();
+        sandboxFileSystems.close();
+        if (router != null) {
+            for (Backend backend : router.getBackends()) {
+                backend.getSession().close();
+            }
+        }
+        if (sessionExecutor != null) {
+            sessionExecutor.shutdownNow();
+        }
+        // TODO should I call OctopusFactory.endAll() or the octopus.end()
+        octopus.end();
+    }
+
+    /**
+     * Submit a job request of a client once per idempotency key.
+     *
+     * A retry with the same key returns the job of the first submission without staging or submitting it again,
+     * a retry during the first submission waits for it to finish.
+     *
+     * @param request The job request
+     * @param httpClient http client used to reporting status to job callback.
+     * @param identity Name of authenticated user who submits the request, can be null
+     * @param idempotencyKey Key chosen by client to identify the submission, when null the request is always submitted
+     * @return SandboxedJob job
+     *
+     * @throws RejectedExecutionException when client is over it's rate limit or quota, or all backends are at capacity.
+     * @throws IdempotencyConflictException when key was used before for a different request
+     * @throws OctopusIOException
+     * @throws OctopusException
+     * @throws URISyntaxException
+     */
+    public SandboxedJob submitJob(final JobSubmitRequest request, final HttpClient httpClient, final String identity,
+            String idempotencyKey) throws OctopusIOException, OctopusException, URISyntaxException {
+        if (idempotencyKey == null) {
+            return submitJob(request, httpClient, identity);
+        }
+        String client = AdmissionController.clientOf(identity, request);
+        try {
+            return idempotency.submit(client, idempotencyKey, request, new Callable<SandboxedJob>() {
+                public SandboxedJob call() throws Exception {
+                    return submitJob(request, httpClient, identity);
+                }
+            });
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof OctopusIOException) {
+                throw (OctopusIOException) cause;
+            } else if (cause instanceof OctopusException) {
+                throw (OctopusException) cause;
+            } else if (cause instanceof URISyntaxException) {
+                throw (URISyntaxException) cause;
+            }
+            throw Throwables.propagate(cause);
+        }
     }
 
     /**
-     * Submit a job request.
+     * Submit a job request of a client, when the client is admitted by the {@link AdmissionController admission controller}.
+     *
+     * @param request The job request
+     * @param httpClient http client used to reporting status to job callback.
+     * @param identity Name of authenticated user who submits the request, can be null
+     * @return SandboxedJob job
+     *
+     * @throws RejectedExecutionException when client is over it's rate limit or quota, or all backends are at capacity.
+     * @throws OctopusIOException
+     * @throws OctopusException
+     * @throws URISyntaxException
+     */
+    public SandboxedJob submitJob(JobSubmitRequest request, HttpClient httpClient, String identity)
+            throws OctopusIOException, OctopusException, URISyntaxException {
+        String client = AdmissionController.clientOf(identity, request);
+        admission.admit(client);
+        SandboxedJob sjob = null;
+        try {
+            sjob = submitJob(request, httpClient);
+        } finally {
+            if (sjob == null) {
+                admission.release(client);
+            }
+        }
+        admission.admitted(client, sjob);
+        return sjob;
+    }
+
+    /**
+     * Submit a job request, without admission control.
      *
      * @param request The job request
      * @param httpClient http client used to reporting status to job callback.
@@ -137,38 +500,501 @@ public class OctopusManager implements Managed {
      */
     public SandboxedJob submitJob(JobSubmitRequest request, HttpClient httpClient) throws OctopusIOException, OctopusException,
             URISyntaxException {
-        Credential credential = configuration.getCredential();
+        Backend backend = router.select();
+        Sandbox sandbox = stageSandbox(request, backend);
+        return submitStaged(request, sandbox, backend, httpClient);
+    }
+
+    /**
+     * Submit a batch of job requests of a client.
+     *
+     * Each request is checked by the {@link AdmissionController admission controller} before any staging,
+     * rejected requests get a result with a {@link RejectedExecutionException}.
+     *
+     * @param requests The job requests
+     * @param httpClient http client used to reporting status to job callback.
+     * @param identity Name of authenticated user who submits the requests, can be null
+     * @return Result of each request, in same order as requests
+     */
+    public List<SubmitResult> submitJobs(List<JobSubmitRequest> requests, HttpClient httpClient, String identity) {
+        SubmitResult[] results = new SubmitResult[requests.size()];
+        List<JobSubmitRequest> admittedRequests = new ArrayList<JobSubmitRequest>(requests.size());
+        List<Integer> admittedIndices = new ArrayList<Integer>(requests.size());
+        List<String> clients = new ArrayList<String>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            String client = AdmissionController.clientOf(identity, requests.get(i));
+            try {
+                admission.admit(client);
+                admittedRequests.add(requests.get(i));
+                admittedIndices.add(i);
+                clients.add(client);
+            } catch (RejectedExecutionException e) {
+                results[i] = new SubmitResult(e);
+            }
+        }
+        List<SubmitResult> admittedResults = submitJobs(admittedRequests, httpClient);
+        for (int i = 0; i < admittedResults.size(); i++) {
+            SubmitResult result = admittedResults.get(i);
+            if (result.isSubmitted()) {
+                admission.admitted(clients.get(i), result.getJob());
+            } else {
+                admission.release(clients.get(i));
+            }
+            results[admittedIndices.get(i)] = result;
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Submit a batch of job requests, without admission control.
+     *
+     * The sandboxes of the jobs are staged in parallel and share the sandbox file system,
+     * the staged jobs are submitted one after another to the scheduler of the backend they were routed to.
+     * When submission is asynchronous each job is put in the submit pipeline.
+     *
+     * A failure of one job does not stop the other jobs from being submitted.
+     *
+     * @param requests The job requests
+     * @param httpClient http client used to reporting status to job callback.
+     * @return Result of each request, in same order as requests
+     */
+    public List<SubmitResult> submitJobs(List<JobSubmitRequest> requests, HttpClient httpClient) {
+        List<SubmitResult> results = new ArrayList<SubmitResult>(requests.size());
+        if (submitPipeline != null) {
+            for (JobSubmitRequest request : requests) {
+                try {
+                    results.add(new SubmitResult(submitJobAsync(request, httpClient)));
+                } catch (RejectedExecutionException e) {
+                    results.add(new SubmitResult(e));
+                }
+            }
+            return results;
+        }
+
+        // route jobs one after another, so each routing sees the places reserved by the previous ones
+        List<Backend> routedBackends = new ArrayList<Backend>(requests.size());
+        List<Future<Sandbox>> stagedSandboxes = new ArrayList<Future<Sandbox>>(requests.size());
+        for (final JobSubmitRequest request : requests) {
+            Backend routed = null;
+            try {
+                routed = router.select();
+                final Backend backend = routed;
+                stagedSandboxes.add(batchStagingExecutor.submit(new Callable<Sandbox>() {
+                    public Sandbox call() throws Exception {
+                        return stageSandbox(request, backend);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                if (routed != null) {
+                    routed.release();
+                }
+                stagedSandboxes.add(Futures.<Sandbox> immediateFailedFuture(e));
+            }
+            routedBackends.add(routed);
+        }
+        for (int i = 0; i < requests.size(); i++) {
+            try {
+                Sandbox sandbox = stagedSandboxes.get(i).get();
+                results.add(new SubmitResult(submitStaged(requests.get(i), sandbox, routedBackends.get(i), httpClient)));
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    results.add(new SubmitResult((Exception) cause));
+                } else {
+                    results.add(new SubmitResult(e));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                results.add(new SubmitResult(e));
+            } catch (Exception e) {
+                results.add(new SubmitResult(e));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Submit job whose sandbox has been staged to backend,
+     * when submission fails the sandbox file system and the place on the backend are released.
+     */
+    private SandboxedJob submitStaged(JobSubmitRequest request, Sandbox sandbox, Backend backend, HttpClient httpClient)
+            throws OctopusIOException, OctopusException {
+        Job job;
+        try {
+            job = submitToScheduler(request, sandbox, backend);
+        } catch (OctopusIOException e) {
+            releaseSandbox(sandbox);
+            backend.release();
+            throw e;
+        } catch (OctopusException e) {
+            releaseSandbox(sandbox);
+            backend.release();
+            throw e;
+        } catch (RuntimeException e) {
+            releaseSandbox(sandbox);
+            backend.release();
+            throw e;
+        }
+
+        // store job in jobs map
+        SandboxedJob sjob = new SandboxedJob(sandbox, job, request, httpClient, null, eventBus);
+        sjob.setBackend(backend.getName());
+        jobs.put(sjob.getIdentifier(), sjob);
+        backend.submitted(sjob);
+        submitted(sjob);
+
+        return sjob;
+    }
+
+    /**
+     * @return true when jobs are staged and submitted asynchronously by {@link #submitJobAsync(JobSubmitRequest, HttpClient)}.
+     */
+    public boolean isAsyncSubmit() {
+        return submitPipeline != null;
+    }
+
+    /**
+     * Accept a job request of a client once per idempotency key.
+     *
+     * A retry with the same key returns the job accepted first, a retry while the first is being accepted waits for it.
+     *
+     * @param request The job request
+     * @param httpClient http client used to reporting status to job callback.
+     * @param identity Name of authenticated user who submits the request, can be null
+     * @param idempotencyKey Key chosen by client to identify the submission, when null the request is always accepted
+     * @return SandboxedJob job
+     * @throws RejectedExecutionException when client is over it's rate limit or quota, the submit pipeline is full
+     *             or all backends are at capacity.
+     * @throws IdempotencyConflictException when key was used before for a different request
+     */
+    public SandboxedJob submitJobAsync(final JobSubmitRequest request, final HttpClient httpClient, final String identity,
+            String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return submitJobAsync(request, httpClient, identity);
+        }
+        String client = AdmissionController.clientOf(identity, request);
+        try {
+            return idempotency.submit(client, idempotencyKey, request, new Callable<SandboxedJob>() {
+                public SandboxedJob call() {
+                    return submitJobAsync(request, httpClient, identity);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Accept a job request of a client, when the client is admitted by the {@link AdmissionController admission controller}.
+     *
+     * @param request The job request
+     * @param httpClient http client used to reporting status to job callback.
+     * @param identity Name of authenticated user who submits the request, can be null
+     * @return SandboxedJob job
+     * @throws RejectedExecutionException when client is over it's rate limit or quota, the submit pipeline is full
+     *             or all backends are at capacity.
+     */
+    public SandboxedJob submitJobAsync(JobSubmitRequest request, HttpClient httpClient, String identity) {
+        String client = AdmissionController.clientOf(identity, request);
+        admission.admit(client);
+        SandboxedJob sjob = null;
+        try {
+            sjob = submitJobAsync(request, httpClient);
+        } finally {
+            if (sjob == null) {
+                admission.release(client);
+            }
+        }
+        admission.admitted(client, sjob);
+        return sjob;
+    }
+
+    /**
+     * Accept a job request without admission control, the job is staged and submitted asynchronously.
+     *
+     * The returned job has an identifier and a backend, but no sandbox and Octopus job yet.
+     * When staging or submission fails the job gets a done status with the exception.
+     *
+     * @param request The job request
+     * @param httpClient http client used to reporting status to job callback.
+     * @return SandboxedJob job
+     * @throws RejectedExecutionException when the submit pipeline is full or all backends are at capacity.
+     */
+    public SandboxedJob submitJobAsync(JobSubmitRequest request, HttpClient httpClient) {
+        Backend backend = router.select();
+        SandboxedJob sjob = new SandboxedJob(UUID.randomUUID().toString(), request, httpClient, eventBus);
+        sjob.setBackend(backend.getName());
+        // put job in map before offering it, so it can be seen as soon as it is in the pipeline
+        jobs.put(sjob.getIdentifier(), sjob);
+        if (!submitPipeline.offer(sjob, new PipelineStages())) {
+            jobs.remove(sjob.getIdentifier());
+            backend.release();
+            throw new RejectedExecutionException("Submit pipeline is full");
+        }
+        return sjob;
+    }
+
+    /**
+     * @return Number of seconds a client should wait before retrying a submission rejected because the submit pipeline was full.
+     */
+    public int getRetryAfter() {
+        return configuration.getSubmitConfiguration().getRetryAfter();
+    }
+
+    /**
+     * Work done by the submit pipeline.
+     */
+    private class PipelineStages implements SubmitPipeline.Stages {
+        public void stage(SandboxedJob job) throws Exception {
+            job.setSandbox(stageSandbox(job.getRequest(), router.get(job.getBackend())));
+        }
+
+        public void submit(SandboxedJob job) throws Exception {
+            synchronized (job) {
+                if (job.getStatus() != null && job.getStatus().isDone()) {
+                    // canceled while in pipeline
+                    failed(job, null);
+                    return;
+                }
+            }
+            Backend backend = router.get(job.getBackend());
+            Job octopusJob = submitToScheduler(job.getRequest(), job.getSandbox(), backend);
+            synchronized (job) {
+                job.setJob(octopusJob);
+                if (job.getStatus() != null && job.getStatus().isDone()) {
+                    // canceled while being submitted
+                    octopus.jobs().cancelJob(octopusJob);
+                }
+            }
+            backend.submitted(job);
+            submitted(job);
+        }
+
+        public void failed(SandboxedJob job, Exception e) {
+            Sandbox sandbox = job.getSandbox();
+            if (sandbox != null) {
+                // when staging failed the place on the backend has already been released
+                router.get(job.getBackend()).release();
+                try {
+                    if (sandboxPool == null || !sandboxPool.reclaim(sandbox)) {
+                        sandbox.delete();
+                    }
+                } catch (Exception de) {
+                    logger.error(de.getMessage(), de);
+                }
+                releaseSandbox(sandbox);
+            }
+            if (e != null) {
+                JobStatus status = new JobStatusImplementation(null, "ERROR", null, e, false, true, null);
+                try {
+                    job.setStatus(status);
+                } catch (IOException ioe) {
+                    logger.error(ioe.getMessage(), ioe);
+                }
+            }
+            // failed jobs are not polled, but are deleted after the delete timeout
+            poller.expire(job, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Location of file system of sandbox root.
+     */
+    private static URI sandboxFileSystemURI(URI s) throws URISyntaxException {
         // filesystems cant have path in them so strip eg. file:///tmp to file:///
-        URI s = configuration.getSandboxRoot();
-        URI sandboxURI = new URI(s.getScheme(), s.getUserInfo(), s.getHost(), s.getPort(), "/", s.getQuery(), s.getFragment());
-        //create sandbox
-        FileSystem sandboxFS = octopus.files().newFileSystem(sandboxURI, credential, null);
-        String sandboxRoot = configuration.getSandboxRoot().getPath();
-        AbsolutePath sandboxRootPath = octopus.files().newPath(sandboxFS, new RelativePath(sandboxRoot));
-        Sandbox sandbox = request.toSandbox(octopus, sandboxRootPath, null);
+        return new URI(s.getScheme(), s.getUserInfo(), s.getHost(), s.getPort(), "/", s.getQuery(), s.getFragment());
+    }
 
+    /**
+     * Create sandbox in sandbox root of backend and upload input files into it.
+     * When a sandbox pool is enabled an empty sandbox directory is taken from the pool instead of created.
+     * The sandbox pool and prestage cache are only used for the default backend, as they live in it's sandbox root.
+     *
+     * The sandbox file system is leased until the sandbox has been cleaned, or until submission failed.
+     * When staging fails the place on the backend is released.
+     */
+    private Sandbox stageSandbox(JobSubmitRequest request, Backend backend) throws OctopusIOException, OctopusException,
+            URISyntaxException {
+        boolean staged = false;
+        try {
+            Sandbox sandbox = stageSandboxOnBackend(request, backend);
+            staged = true;
+            return sandbox;
+        } finally {
+            if (!staged) {
+                backend.release();
+            }
+        }
+    }
+
+    private Sandbox stageSandboxOnBackend(JobSubmitRequest request, Backend backend) throws OctopusIOException,
+            OctopusException, URISyntaxException {
+        Credential credential = configuration.getCredential();
+        URI sandboxRootURI = backend.getConfiguration().getSandboxRoot();
+        boolean isDefault = OctopusConfiguration.DEFAULT_BACKEND.equals(backend.getName());
+        //create sandbox, file system is leased until sandbox has been cleaned
+        FileSystem sandboxFS = sandboxFileSystems.acquire(sandboxFileSystemURI(sandboxRootURI), credential);
+        try {
+            AbsolutePath sandboxRootPath = octopus.files().newPath(sandboxFS, new RelativePath(sandboxRootURI.getPath()));
+            String sandboxName = sandboxPool == null || !isDefault ? null : sandboxPool.take();
+            PrestageCache cache = isDefault ? prestageCache : null;
+            Sandbox sandbox = request.toSandbox(octopus, sandboxRootPath, sandboxName, cache);
+
+            // stage input files
+            try {
+                if (sandboxName == null) {
+                    sandboxTransfers.upload(sandbox);
+                } else {
+                    sandboxTransfers.uploadFiles(sandbox);
+                }
+            } finally {
+                if (cache != null) {
+                    cache.release(sandbox);
+                }
+            }
+            return sandbox;
+        } catch (OctopusIOException e) {
+            sandboxFileSystems.release(sandboxFS);
+            throw e;
+        } catch (OctopusException e) {
+            sandboxFileSystems.release(sandboxFS);
+            throw e;
+        } catch (RuntimeException e) {
+            sandboxFileSystems.release(sandboxFS);
+            throw e;
+        }
+    }
+
+    private void releaseSandbox(Sandbox sandbox) {
+        sandboxFileSystems.release(sandbox.getPath().getFileSystem());
+    }
+
+    /**
+     * Submit job to scheduler of backend, the duration and outcome of the submission are recorded on the backend.
+     */
+    private Job submitToScheduler(JobSubmitRequest request, Sandbox sandbox, Backend backend) throws OctopusIOException,
+            OctopusException {
         // create job description
         JobDescription description = request.toJobDescription();
-        description.setQueueName(configuration.getQueue());
+        description.setQueueName(backend.getConfiguration().getQueue());
         description.setWorkingDirectory(sandbox.getPath().getPath());
         long cancelTimeout = configuration.getPollConfiguration().getCancelTimeout();
         // CancelTimeout is in milliseconds and MaxTime must be in minutes, so convert it
         int maxTime = (int) TimeUnit.MINUTES.convert(cancelTimeout, TimeUnit.MILLISECONDS);
         description.setMaxTime(maxTime);
 
-        // stage input files
-        sandbox.upload();
-
         // submit job
-        Job job = octopus.jobs().submitJob(scheduler, description);
+        long start = System.currentTimeMillis();
+        try {
+            Job job = octopus.jobs().submitJob(backend.getScheduler(), description);
+            backend.succeeded(System.currentTimeMillis() - start);
+            return job;
+        } catch (OctopusIOException e) {
+            backend.failed(System.currentTimeMillis());
+            // io errors can be caused by a lost connection
+            backend.getSession().suspect();
+            throw e;
+        } catch (OctopusException e) {
+            backend.failed(System.currentTimeMillis());
+            throw e;
+        }
+    }
 
-        // store job in jobs map
-        SandboxedJob sjob = new SandboxedJob(sandbox, job, request, httpClient);
-        jobs.put(sjob.getIdentifier(), sjob);
+    private void submitted(SandboxedJob sjob) {
+        long now = System.currentTimeMillis();
+        sjob.setSubmitted(now);
+        if (journal != null) {
+            try {
+                journal.submitted(sjob, now);
+            } catch (IOException e) {
+                // job is already running, so it is kept even though it will not survive a restart
+                logger.error("Unable to journal job " + sjob.getIdentifier() + ": " + e.getMessage(), e);
+            }
+        }
+        if (eventBus != null) {
+            eventBus.publish(new JobEvent(JobEvent.Type.SUBMITTED, sjob, null));
+        }
 
-        // JobsPoller will poll job status and download sandbox when job is done.
+        // JobsPoller will add job to active jobs, poll job status and download sandbox when job is done.
+        poller.watch(sjob, now);
+    }
 
-        return sjob;
+    /**
+     * Recover the jobs in the journal, which were submitted before a restart and have not been deleted yet.
+     *
+     * Jobs which are not done are polled again, done jobs are deleted after the delete timeout.
+     * The timeouts of a recovered job are relative to when it was submitted before the restart.
+     * A job which can not be recovered, because it's backend is no longer configured or it's scheduler can not be reached,
+     * is skipped.
+     *
+     * @param httpClient http client used to reporting status to job callback.
+     * @return Number of recovered jobs
+     * @throws IOException when journal can not be read
+     */
+    public int recover(HttpClient httpClient) throws IOException {
+        if (journal == null) {
+            return 0;
+        }
+        int recovered = 0;
+        for (JournalRecord record : journal.replay()) {
+            try {
+                recover(record, httpClient);
+                recovered++;
+            } catch (Exception e) {
+                logger.error("Unable to recover job " + record.identifier + ": " + e.getMessage(), e);
+            }
+        }
+        logger.info("Recovered " + recovered + " jobs from journal");
+        return recovered;
+    }
+
+    private void recover(JournalRecord record, HttpClient httpClient) throws OctopusIOException, OctopusException,
+            URISyntaxException {
+        Backend backend = router.get(record.backend);
+        if (backend == null) {
+            throw new IllegalStateException("Backend " + record.backend + " is not configured");
+        }
+        Job job = new JobImplementation(record.request.toJobDescription(), backend.getScheduler(), record.uuid,
+                record.jobIdentifier, false, false);
+        JobStatus status = record.toStatus(job);
+        if (status != null && status.isDone()) {
+            // sandbox of a done job has been cleaned before it's done status was committed
+            SandboxedJob sjob = new SandboxedJob(record.identifier, null, job, record.request, httpClient, status, eventBus);
+            sjob.setBackend(backend.getName());
+            sjob.setSubmitted(record.submitted);
+            jobs.put(sjob.getIdentifier(), sjob);
+            poller.expire(sjob, record.submitted);
+            return;
+        }
+        Sandbox sandbox = recoverSandbox(record, backend);
+        SandboxedJob sjob = new SandboxedJob(record.identifier, sandbox, job, record.request, httpClient, status, eventBus);
+        sjob.setBackend(backend.getName());
+        sjob.setSubmitted(record.submitted);
+        jobs.put(sjob.getIdentifier(), sjob);
+        backend.recovered(sjob);
+        poller.watch(sjob, record.submitted);
+    }
+
+    /**
+     * Sandbox of a recovered job, the sandbox file system is leased until the sandbox has been cleaned.
+     */
+    private Sandbox recoverSandbox(JournalRecord record, Backend backend) throws OctopusIOException, OctopusException,
+            URISyntaxException {
+        URI sandboxRootURI = backend.getConfiguration().getSandboxRoot();
+        FileSystem sandboxFS = sandboxFileSystems.acquire(sandboxFileSystemURI(sandboxRootURI), configuration.getCredential());
+        try {
+            AbsolutePath sandboxRootPath = octopus.files().newPath(sandboxFS, new RelativePath(sandboxRootURI.getPath()));
+            return record.request.toSandbox(octopus, sandboxRootPath, record.sandbox);
+        } catch (OctopusIOException e) {
+            sandboxFileSystems.release(sandboxFS);
+            throw e;
+        } catch (OctopusException e) {
+            sandboxFileSystems.release(sandboxFS);
+            throw e;
+        } catch (RuntimeException e) {
+            sandboxFileSystems.release(sandboxFS);
+            throw e;
+        }
     }
 
     /**
@@ -186,34 +1012,61 @@ public class OctopusManager implements Managed {
      */
     public void cancelJob(String jobIdentifier) throws OctopusException, IOException {
         SandboxedJob job = getJob(jobIdentifier);
+        synchronized (job) {
+            if (job.getJob() == null) {
+                // still in submit pipeline, it will not be submitted
+                if (job.getStatus() == null || !job.getStatus().isDone()) {
+                    job.setStatus(new JobStatusImplementation(null, "KILLED", null, new Exception("Canceled before submission"),
+                            false, true, null));
+                }
+                return;
+            }
+        }
         // no need to cancel completed jobs
         if (!job.getStatus().isDone()) {
             octopus.jobs().cancelJob(job.getJob());
             JobStatus canceledStatus = octopus.jobs().getJobStatus(job.getJob());
             job.setStatus(canceledStatus);
+            if (canceledStatus.isDone()) {
+                activeJobs.remove(jobIdentifier);
+            }
         }
     }
 
     /**
      * Get list of submitted jobs.
      *
-     * @return List of submitted jobs.
+     * @return List of submitted jobs, including archived jobs.
      */
     public Collection<SandboxedJob> getJobs() {
-        return jobs.values();
+        if (archive == null) {
+            return jobs.values();
+        }
+        List<SandboxedJob> all = new ArrayList<SandboxedJob>(jobs.values());
+        all.addAll(archive.getJobs());
+        return all;
+    }
+
+    /**
+     * @return Scheduler backends jobs are routed to
+     */
+    public List<Backend> getBackends() {
+        return router.getBackends();
     }
 
     /**
      * Get a job
      *
      * @param jobIdentifier
-     * @return the job
+     * @return the job, an archived job when job is done and it's sandbox has been cleaned
      * @throws NoSuchJobException
      */
     public SandboxedJob getJob(String jobIdentifier) throws NoSuchJobException {
         SandboxedJob job;
         if ((job = jobs.get(jobIdentifier)) != null) {
             return job;
+        } else if (archive != null && (job = archive.get(jobIdentifier)) != null) {
+            return job;
         } else {
             throw new NoSuchJobException("", "Job not found");
         }
@@ -47,6 +47,44 @@ public class PollConfiguration {
      */
     @JsonProperty
     private long deleteTimeout = TimeUnit.MILLISECONDS.convert(12, TimeUnit.HOURS);
+    /**
+     * Jobs which stay in the same state are polled less often, the time between polls doubles until it reaches this maximum.
+     * This is the maximum time in milliseconds between poll calls of a job.
+     * Default 5 minutes.
+     */
+    @JsonProperty
+    private long maximumInterval = TimeUnit.MILLISECONDS.convert(5, TimeUnit.MINUTES);
+    /**
+     * Number of shards the jobs are split into, based on the hash of their identifier.
+     * Each shard fetches the statuses of its jobs with a single call.
+     * Default 1, all jobs in one shard.
+     */
+    @JsonProperty
+    private int shards = 1;
+    /**
+     * Number of threads used to poll the shards in parallel.
+     * Default 1, shards are polled one after another in the poller thread.
+     */
+    @JsonProperty
+    private int poolSize = 1;
+    /**
+     * Maximum number of jobs whose statuses are fetched with a single call.
+     * Default 0, no maximum, all jobs of a shard are fetched in one call.
+     */
+    @JsonProperty
+    private int maxBatchSize = 0;
+    /**
+     * Maximum number of calls fetching job statuses which are in flight at once.
+     * Default 0, as many as the pool has threads.
+     */
+    @JsonProperty
+    private int maxInFlight = 0;
+    /**
+     * Time in milliseconds between sweeps over all jobs, which reconcile the index of active jobs with the job states.
+     * Default 10 minutes.
+     */
+    @JsonProperty
+    private long sweepInterval = TimeUnit.MILLISECONDS.convert(10, TimeUnit.MINUTES);
 
     public PollConfiguration(long interval, long cancelTimeout, long deleteTimeout) {
         super();
@@ -82,9 +120,58 @@ public class PollConfiguration {
         this.deleteTimeout = deleteTimeout;
     }
 
+    public long getMaximumInterval() {
+        return maximumInterval;
+    }
+
+    public void setMaximumInterval(long maximumInterval) {
+        this.maximumInterval = maximumInterval;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    public long getSweepInterval() {
+        return sweepInterval;
+    }
+
+    public void setSweepInterval(long sweepInterval) {
+        this.sweepInterval = sweepInterval;
+    }
+
     @Override
     public int hashCode() {
-        return Objects.hashCode(interval, cancelTimeout, deleteTimeout);
+        return Objects.hashCode(interval, cancelTimeout, deleteTimeout, maximumInterval, shards, poolSize, maxBatchSize, maxInFlight,
+                sweepInterval);
     }
 
     @Override
@@ -95,7 +182,10 @@ public class PollConfiguration {
             return false;
         PollConfiguration other = (PollConfiguration) obj;
         return Objects.equal(this.interval, other.interval) && Objects.equal(this.cancelTimeout, other.cancelTimeout)
-                && Objects.equal(this.deleteTimeout, other.deleteTimeout);
+                && Objects.equal(this.deleteTimeout, other.deleteTimeout)
+                && Objects.equal(this.maximumInterval, other.maximumInterval) && Objects.equal(this.shards, other.shards)
+                && Objects.equal(this.poolSize, other.poolSize) && Objects.equal(this.maxBatchSize, other.maxBatchSize)
+                && Objects.equal(this.maxInFlight, other.maxInFlight) && Objects.equal(this.sweepInterval, other.sweepInterval);
     }
 
     @Override
@@ -105,6 +195,12 @@ public class PollConfiguration {
                  .addValue(this.interval)
                  .addValue(this.cancelTimeout)
                  .addValue(this.deleteTimeout)
+                 .addValue(this.maximumInterval)
+                 .addValue(this.shards)
+                 .addValue(this.poolSize)
+                 .addValue(this.maxBatchSize)
+                 .addValue(this.maxInFlight)
+                 .addValue(this.sweepInterval)
                  .toString();
     }
 }
\ No newline at end of file
@@ -0,0 +1,178 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Clock;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.MetricsRegistry;
+import com.yammer.metrics.core.Timer;
+
+/**
+ * Runs the poller repeatedly, each tick schedules the next one after it has finished.
+ *
+ * A tick which takes longer than the interval is counted as an overrun and the ticks it missed are skipped instead of run back to back.
+ * After an overrun the effective interval is stretched to twice the duration of the tick,
+ * so the scheduler gets at least as much time without polls as it spends answering them.
+ * Ticks which fit in the interval keep the configured interval.
+ *
+ * Lag, overruns, skipped ticks, tick duration and effective interval are registered as metrics.
+ *
+ * Stopping the loop cancels the scheduled tick, a tick which is running finishes without scheduling a next one.
+ *
+ * @author verhoes
+ *
+ */
+public class PollLoop implements Runnable {
+    protected final static Logger logger = LoggerFactory.getLogger(PollLoop.class);
+
+    private final Runnable poller;
+    private final ScheduledExecutorService executor;
+    private final long interval;
+    private final Clock clock;
+    private final Timer duration;
+    private final Histogram lag;
+    private final Counter overruns;
+    private final Counter skipped;
+    private volatile long effectiveInterval;
+    /**
+     * Wall clock time in milliseconds when the next tick should start.
+     */
+    private long expectedStart;
+    /**
+     * Next scheduled tick, null when none has been scheduled yet.
+     */
+    private volatile ScheduledFuture<?> next = null;
+    private volatile boolean stopped = false;
+
+    /**
+     * Poll loop which registers it's metrics in the default registry.
+     *
+     * @param poller
+     * @param executor
+     * @param interval Time in milliseconds between the start of ticks
+     */
+    public PollLoop(Runnable poller, ScheduledExecutorService executor, long interval) {
+        this(poller, executor, interval, Metrics.defaultRegistry(), Clock.defaultClock());
+    }
+
+    public PollLoop(Runnable poller, ScheduledExecutorService executor, long interval, MetricsRegistry registry, Clock clock) {
+        super();
+        this.poller = poller;
+        this.executor = executor;
+        this.interval = interval;
+        this.clock = clock;
+        this.effectiveInterval = interval;
+        duration = registry.newTimer(PollLoop.class, "duration", TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+        lag = registry.newHistogram(PollLoop.class, "lag", true);
+        overruns = registry.newCounter(PollLoop.class, "overruns");
+        skipped = registry.newCounter(PollLoop.class, "skipped");
+        registry.newGauge(PollLoop.class, "effective-interval", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return effectiveInterval;
+            }
+        });
+    }
+
+    /**
+     * Schedule first tick to run immediately.
+     */
+    public void start() {
+        expectedStart = clock.time();
+        next = executor.schedule(this, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancel scheduled tick and stop scheduling ticks.
+     *
+     * Executors run delayed tasks scheduled before their shutdown, so this must be called before shutting down the executor.
+     */
+    public void stop() {
+        stopped = true;
+        ScheduledFuture<?> scheduled = next;
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+    }
+
+    public void run() {
+        if (stopped) {
+            return;
+        }
+        long start = clock.time();
+        lag.update(Math.max(0, start - expectedStart));
+        try {
+            poller.run();
+        } catch (RuntimeException e) {
+            // a failing tick must not stop the loop
+            logger.error(e.getMessage(), e);
+        } finally {
+            long delay = finishTick(start, clock.time());
+            expectedStart = clock.time() + delay;
+            try {
+                if (!stopped) {
+                    next = executor.schedule(this, delay, TimeUnit.MILLISECONDS);
+                }
+            } catch (RejectedExecutionException e) {
+                logger.debug("Poll loop stopped");
+            }
+        }
+    }
+
+    /**
+     * Record duration of tick and calculate delay until next tick.
+     *
+     * @param start Wall clock time in milliseconds when tick started
+     * @param end Wall clock time in milliseconds when tick ended
+     * @return Delay in milliseconds
+     */
+    protected long finishTick(long start, long end) {
+        long elapsed = end - start;
+        duration.update(elapsed, TimeUnit.MILLISECONDS);
+        if (elapsed > interval) {
+            overruns.inc();
+            skipped.inc(elapsed / interval);
+            logger.warn("Poll tick took " + elapsed + "ms, longer than interval of " + interval + "ms");
+            effectiveInterval = 2 * elapsed;
+        } else {
+            effectiveInterval = interval;
+        }
+        return effectiveInterval - elapsed;
+    }
+
+    /**
+     * @return Time in milliseconds between start of ticks, stretched after an overrun
+     */
+    public long getEffectiveInterval() {
+        return effectiveInterval;
+    }
+}
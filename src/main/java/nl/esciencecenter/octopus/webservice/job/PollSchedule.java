@@ -0,0 +1,152 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Schedule of when each job must be polled next.
+ *
+ * Deadlines are expressed in poll ticks and kept in a priority queue, so a tick only touches the jobs which are due.
+ * A job which changed state is polled again on the next tick,
+ * a job which stayed in the same state doubles it's delay up to a maximum number of ticks.
+ *
+ * @author verhoes
+ *
+ */
+public class PollSchedule {
+    private final long maximumDelay;
+    private final PriorityQueue<Deadline> queue = new PriorityQueue<Deadline>();
+    /**
+     * Latest deadline of each scheduled job, entries in queue which are not in here are stale and skipped.
+     */
+    private final Map<String, Deadline> deadlines = new HashMap<String, Deadline>();
+    private long tick = 0;
+
+    /**
+     * Deadline of a job.
+     */
+    static class Deadline implements Comparable<Deadline> {
+        private final String identifier;
+        private final long tick;
+        private final long delay;
+
+        Deadline(String identifier, long tick, long delay) {
+            this.identifier = identifier;
+            this.tick = tick;
+            this.delay = delay;
+        }
+
+        public int compareTo(Deadline other) {
+            return tick < other.tick ? -1 : (tick == other.tick ? 0 : 1);
+        }
+    }
+
+    /**
+     * @param maximumDelay Maximum number of ticks between polls of a job which does not change state.
+     */
+    public PollSchedule(long maximumDelay) {
+        this.maximumDelay = Math.max(1, maximumDelay);
+    }
+
+    /**
+     * Create schedule with maximum delay derived from poll configuration.
+     *
+     * @param pollConfiguration
+     */
+    public PollSchedule(PollConfiguration pollConfiguration) {
+        this(pollConfiguration.getMaximumInterval() / pollConfiguration.getInterval());
+    }
+
+    /**
+     * Schedule job to be polled on the next tick.
+     *
+     * @param identifier
+     */
+    public synchronized void add(String identifier) {
+        push(new Deadline(identifier, tick + 1, 1));
+    }
+
+    /**
+     * @param identifier
+     * @return true when job has a deadline
+     */
+    public synchronized boolean contains(String identifier) {
+        return deadlines.containsKey(identifier);
+    }
+
+    /**
+     * Advance schedule by one tick.
+     *
+     * @return Identifiers of jobs which are due, they stay scheduled until they are rescheduled or removed.
+     */
+    public synchronized List<String> nextTick() {
+        tick++;
+        List<String> due = new ArrayList<String>();
+        while (!queue.isEmpty() && queue.peek().tick <= tick) {
+            Deadline deadline = queue.poll();
+            if (deadlines.get(deadline.identifier) == deadline) {
+                due.add(deadline.identifier);
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Schedule next poll of a job which has just been polled.
+     *
+     * @param identifier
+     * @param changed Whether the state of the job changed. Changed jobs are polled on the next tick, unchanged jobs back off.
+     */
+    public synchronized void reschedule(String identifier, boolean changed) {
+        Deadline previous = deadlines.get(identifier);
+        long delay = 1;
+        if (!changed && previous != null) {
+            delay = Math.min(previous.delay * 2, maximumDelay);
+        }
+        push(new Deadline(identifier, tick + delay, delay));
+    }
+
+    /**
+     * Stop polling job.
+     *
+     * @param identifier
+     */
+    public synchronized void remove(String identifier) {
+        deadlines.remove(identifier);
+    }
+
+    /**
+     * @return Number of scheduled jobs
+     */
+    public synchronized int size() {
+        return deadlines.size();
+    }
+
+    private void push(Deadline deadline) {
+        deadlines.put(deadline.identifier, deadline);
+        queue.add(deadline);
+    }
+}
@@ -0,0 +1,350 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.net.URI;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.credentials.Credential;
+import nl.esciencecenter.octopus.exceptions.OctopusException;
+import nl.esciencecenter.octopus.exceptions.OctopusIOException;
+import nl.esciencecenter.octopus.jobs.Scheduler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricsRegistry;
+
+/**
+ * Session with a scheduler which reconnects when the connection behind it is lost.
+ *
+ * The scheduler is probed periodically by listing the jobs in the queue.
+ * When a probe fails the session is reconnecting, the old scheduler is closed and a new one is created,
+ * a failed reconnect is retried with an exponential backoff.
+ * Submissions during a reconnect wait a short while for the new scheduler, instead of failing outright.
+ *
+ * @author verhoes
+ *
+ */
+public class SchedulerSession {
+    protected final static Logger logger = LoggerFactory.getLogger(SchedulerSession.class);
+
+    /**
+     * State of a session.
+     */
+    public enum State {
+        CONNECTED, RECONNECTING, CLOSED
+    }
+
+    /**
+     * Listener which is told about a new scheduler after a reconnect.
+     */
+    public interface Listener {
+        /**
+         * @param scheduler The new scheduler
+         */
+        void reconnected(Scheduler scheduler);
+    }
+
+    private final Octopus octopus;
+    private final URI location;
+    private final Credential credential;
+    private final String queue;
+    private final SessionConfiguration configuration;
+    private final ScheduledExecutorService executor;
+    private final Counter probeFailures;
+    private final Counter reconnects;
+    private final Runnable probe = new Runnable() {
+        public void run() {
+            probe();
+        }
+    };
+    private final Runnable reconnect = new Runnable() {
+        public void run() {
+            reconnect();
+        }
+    };
+    private Scheduler scheduler;
+    private State state = State.CONNECTED;
+    private Exception lastError = null;
+    /**
+     * Wall clock time in milliseconds the session got it's current state.
+     */
+    private long since = System.currentTimeMillis();
+    private long backoff;
+    private ScheduledFuture<?> probes = null;
+    private volatile Listener listener = null;
+
+    /**
+     * Session which registers it's metrics in the default registry.
+     *
+     * @param octopus
+     * @param location Location of scheduler
+     * @param credential
+     * @param queue Queue which is listed by the liveness probe
+     * @param configuration
+     * @param executor Executor which runs the probes and reconnects
+     * @throws OctopusException when scheduler could not be created
+     * @throws OctopusIOException when scheduler could not be created
+     */
+    public SchedulerSession(Octopus octopus, URI location, Credential credential, String queue,
+            SessionConfiguration configuration, ScheduledExecutorService executor) throws OctopusException, OctopusIOException {
+        this(octopus, location, credential, queue, configuration, executor, Metrics.defaultRegistry());
+    }
+
+    public SchedulerSession(Octopus octopus, URI location, Credential credential, String queue,
+            SessionConfiguration configuration, ScheduledExecutorService executor, MetricsRegistry registry)
+            throws OctopusException, OctopusIOException {
+        super();
+        this.octopus = octopus;
+        this.location = location;
+        this.credential = credential;
+        this.queue = queue;
+        this.configuration = configuration;
+        this.executor = executor;
+        this.backoff = configuration.getMinimumBackoff();
+        probeFailures = registry.newCounter(SchedulerSession.class, "probe-failures");
+        reconnects = registry.newCounter(SchedulerSession.class, "reconnects");
+        // TODO prompt user for password/passphrases
+        scheduler = octopus.jobs().newScheduler(location, credential, null);
+    }
+
+    /**
+     * Session of an already created scheduler, which is not probed and never reconnects.
+     *
+     * @param scheduler
+     */
+    public SchedulerSession(Scheduler scheduler) {
+        super();
+        this.octopus = null;
+        this.location = null;
+        this.credential = null;
+        this.queue = null;
+        this.configuration = new SessionConfiguration(0, 0, 0, 0);
+        this.executor = null;
+        MetricsRegistry unregistered = new MetricsRegistry();
+        this.probeFailures = unregistered.newCounter(SchedulerSession.class, "probe-failures");
+        this.reconnects = unregistered.newCounter(SchedulerSession.class, "reconnects");
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Start probing the scheduler.
+     */
+    public synchronized void start() {
+        long interval = configuration.getProbeInterval();
+        if (executor == null || interval <= 0) {
+            return;
+        }
+        probes = executor.scheduleWithFixedDelay(probe, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Scheduler of session, when the session is reconnecting it waits for the reconnect to finish.
+     *
+     * @return Scheduler
+     * @throws OctopusException when session did not reconnect within the reconnect wait or session is closed
+     */
+    public synchronized Scheduler getScheduler() throws OctopusException {
+        long deadline = System.currentTimeMillis() + configuration.getReconnectWait();
+        long remaining = configuration.getReconnectWait();
+        while (state == State.RECONNECTING && remaining > 0) {
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            remaining = deadline - System.currentTimeMillis();
+        }
+        if (state != State.CONNECTED) {
+            throw new OctopusException(adaptorName(), "Session with scheduler " + location + " is " + state, lastError);
+        }
+        return scheduler;
+    }
+
+    /**
+     * Probe liveness of scheduler, when the probe fails the session starts reconnecting.
+     */
+    public void probe() {
+        Scheduler current;
+        synchronized (this) {
+            if (octopus == null || state != State.CONNECTED) {
+                return;
+            }
+            current = scheduler;
+        }
+        try {
+            octopus.jobs().getJobs(current, queue);
+        } catch (Exception e) {
+            probeFailures.inc();
+            disconnected(e);
+        }
+    }
+
+    /**
+     * Probe scheduler soon, because a call to the scheduler failed in a way which hints at a lost connection.
+     */
+    public void suspect() {
+        if (executor == null || getState() != State.CONNECTED) {
+            return;
+        }
+        try {
+            executor.execute(probe);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Session executor is shut down, not probing " + location);
+        }
+    }
+
+    private void disconnected(Exception e) {
+        synchronized (this) {
+            if (state != State.CONNECTED) {
+                return;
+            }
+            state = State.RECONNECTING;
+            since = System.currentTimeMillis();
+            lastError = e;
+            backoff = configuration.getMinimumBackoff();
+        }
+        logger.warn("Lost session with scheduler " + location + ", reconnecting", e);
+        try {
+            executor.execute(reconnect);
+        } catch (RejectedExecutionException e1) {
+            logger.debug("Session executor is shut down, not reconnecting " + location);
+        }
+    }
+
+    /**
+     * Replace scheduler with a new one, when that fails a retry is scheduled after a backoff.
+     */
+    void reconnect() {
+        Scheduler old;
+        synchronized (this) {
+            if (state != State.RECONNECTING) {
+                return;
+            }
+            old = scheduler;
+        }
+        try {
+            octopus.jobs().close(old);
+        } catch (Exception e) {
+            logger.debug("Unable to close lost scheduler " + location, e);
+        }
+        Scheduler fresh;
+        try {
+            fresh = octopus.jobs().newScheduler(location, credential, null);
+        } catch (Exception e) {
+            long delay;
+            synchronized (this) {
+                lastError = e;
+                delay = backoff;
+                backoff = Math.min(backoff * 2, configuration.getMaximumBackoff());
+            }
+            logger.warn("Unable to reconnect to scheduler " + location + ", retrying in " + delay + "ms", e);
+            try {
+                executor.schedule(reconnect, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e1) {
+                logger.debug("Session executor is shut down, not reconnecting " + location);
+            }
+            return;
+        }
+        synchronized (this) {
+            if (state == State.CLOSED) {
+                closeQuietly(fresh);
+                return;
+            }
+            scheduler = fresh;
+            state = State.CONNECTED;
+            since = System.currentTimeMillis();
+            lastError = null;
+            notifyAll();
+        }
+        reconnects.inc();
+        logger.info("Reconnected to scheduler " + location);
+        Listener current = listener;
+        if (current != null) {
+            current.reconnected(fresh);
+        }
+    }
+
+    /**
+     * Stop probing and reconnecting, waiting submissions fail.
+     */
+    public void close() {
+        Scheduler current;
+        synchronized (this) {
+            if (probes != null) {
+                probes.cancel(false);
+            }
+            current = state == State.CONNECTED ? scheduler : null;
+            state = State.CLOSED;
+            since = System.currentTimeMillis();
+            notifyAll();
+        }
+        if (current != null && octopus != null) {
+            closeQuietly(current);
+        }
+    }
+
+    private void closeQuietly(Scheduler s) {
+        try {
+            octopus.jobs().close(s);
+        } catch (Exception e) {
+            logger.debug("Unable to close scheduler " + location, e);
+        }
+    }
+
+    private String adaptorName() {
+        return location == null ? null : location.getScheme();
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return Wall clock time in milliseconds the session got it's current state
+     */
+    public synchronized long getSince() {
+        return since;
+    }
+
+    /**
+     * @return Error of last failed probe or reconnect, null when connected
+     */
+    public synchronized Exception getLastError() {
+        return lastError;
+    }
+
+    public URI getLocation() {
+        return location;
+    }
+}
@@ -0,0 +1,128 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Objects;
+
+/**
+ * Configuration of the sessions with the schedulers.
+ *
+ * @author verhoes
+ *
+ */
+public class SessionConfiguration {
+    /**
+     * Milliseconds between liveness probes of a scheduler session, 0 disables probing.
+     * Default 60000, 1 minute.
+     */
+    @JsonProperty
+    private long probeInterval = 60000;
+    /**
+     * Milliseconds to wait before retrying a failed reconnect, doubled after each failed reconnect.
+     * Default 1000, 1 second.
+     */
+    @JsonProperty
+    private long minimumBackoff = 1000;
+    /**
+     * Maximum milliseconds to wait before retrying a failed reconnect.
+     * Default 60000, 1 minute.
+     */
+    @JsonProperty
+    private long maximumBackoff = 60000;
+    /**
+     * Milliseconds a submission waits for a reconnecting session, before it fails.
+     * Default 10000, 10 seconds.
+     */
+    @JsonProperty
+    private long reconnectWait = 10000;
+
+    public SessionConfiguration(long probeInterval, long minimumBackoff, long maximumBackoff, long reconnectWait) {
+        super();
+        this.probeInterval = probeInterval;
+        this.minimumBackoff = minimumBackoff;
+        this.maximumBackoff = maximumBackoff;
+        this.reconnectWait = reconnectWait;
+    }
+
+    public SessionConfiguration() {
+    }
+
+    public long getProbeInterval() {
+        return probeInterval;
+    }
+
+    public void setProbeInterval(long probeInterval) {
+        this.probeInterval = probeInterval;
+    }
+
+    public long getMinimumBackoff() {
+        return minimumBackoff;
+    }
+
+    public void setMinimumBackoff(long minimumBackoff) {
+        this.minimumBackoff = minimumBackoff;
+    }
+
+    public long getMaximumBackoff() {
+        return maximumBackoff;
+    }
+
+    public void setMaximumBackoff(long maximumBackoff) {
+        this.maximumBackoff = maximumBackoff;
+    }
+
+    public long getReconnectWait() {
+        return reconnectWait;
+    }
+
+    public void setReconnectWait(long reconnectWait) {
+        this.reconnectWait = reconnectWait;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(probeInterval, minimumBackoff, maximumBackoff, reconnectWait);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        SessionConfiguration other = (SessionConfiguration) obj;
+        return Objects.equal(this.probeInterval, other.probeInterval)
+                && Objects.equal(this.minimumBackoff, other.minimumBackoff)
+                && Objects.equal(this.maximumBackoff, other.maximumBackoff)
+                && Objects.equal(this.reconnectWait, other.reconnectWait);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .addValue(this.probeInterval)
+                .addValue(this.minimumBackoff)
+                .addValue(this.maximumBackoff)
+                .addValue(this.reconnectWait)
+                .toString();
+    }
+}
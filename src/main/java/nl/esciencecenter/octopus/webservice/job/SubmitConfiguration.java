@@ -0,0 +1,176 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Objects;
+
+/**
+ * Configuration of submitting jobs.
+ *
+ * @author verhoes
+ *
+ */
+public class SubmitConfiguration {
+    /**
+     * When true submit requests are answered with 202 Accepted directly,
+     * staging and submission to the scheduler are done afterwards in a {@link SubmitPipeline pipeline}.
+     * Default false.
+     */
+    @JsonProperty
+    private boolean async = false;
+    /**
+     * Number of threads which upload sandboxes of asynchronously submitted jobs and of jobs in a batch.
+     * Default 2.
+     */
+    @JsonProperty
+    private int stagingThreads = 2;
+    /**
+     * Number of threads which submit staged jobs to the scheduler.
+     * Default 1.
+     */
+    @JsonProperty
+    private int submitThreads = 1;
+    /**
+     * Number of jobs which can be in the pipeline, when full submit requests are answered with 429 Too Many Requests.
+     * Default 100.
+     */
+    @JsonProperty
+    private int queueSize = 100;
+    /**
+     * Number of seconds put in Retry-After header of 429 Too Many Requests response.
+     * Default 5.
+     */
+    @JsonProperty
+    private int retryAfter = 5;
+    /**
+     * Number of submissions with an Idempotency-Key header whose job is remembered, so a retry returns the same job.
+     * Default 10000.
+     */
+    @JsonProperty
+    private long idempotencyCacheSize = 10000;
+    /**
+     * Milliseconds a submission with an Idempotency-Key header is remembered.
+     * Default 3600000, 1 hour.
+     */
+    @JsonProperty
+    private long idempotencyTimeout = 3600000;
+
+    public SubmitConfiguration(boolean async, int stagingThreads, int submitThreads, int queueSize) {
+        super();
+        this.async = async;
+        this.stagingThreads = stagingThreads;
+        this.submitThreads = submitThreads;
+        this.queueSize = queueSize;
+    }
+
+    public SubmitConfiguration() {
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    public void setAsync(boolean async) {
+        this.async = async;
+    }
+
+    public int getStagingThreads() {
+        return stagingThreads;
+    }
+
+    public void setStagingThreads(int stagingThreads) {
+        this.stagingThreads = stagingThreads;
+    }
+
+    public int getSubmitThreads() {
+        return submitThreads;
+    }
+
+    public void setSubmitThreads(int submitThreads) {
+        this.submitThreads = submitThreads;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    public void setRetryAfter(int retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
+    public long getIdempotencyCacheSize() {
+        return idempotencyCacheSize;
+    }
+
+    public void setIdempotencyCacheSize(long idempotencyCacheSize) {
+        this.idempotencyCacheSize = idempotencyCacheSize;
+    }
+
+    public long getIdempotencyTimeout() {
+        return idempotencyTimeout;
+    }
+
+    public void setIdempotencyTimeout(long idempotencyTimeout) {
+        this.idempotencyTimeout = idempotencyTimeout;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(async, stagingThreads, submitThreads, queueSize, retryAfter, idempotencyCacheSize,
+                idempotencyTimeout);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        SubmitConfiguration other = (SubmitConfiguration) obj;
+        return Objects.equal(this.async, other.async) && Objects.equal(this.stagingThreads, other.stagingThreads)
+                && Objects.equal(this.submitThreads, other.submitThreads) && Objects.equal(this.queueSize, other.queueSize)
+                && Objects.equal(this.retryAfter, other.retryAfter)
+                && Objects.equal(this.idempotencyCacheSize, other.idempotencyCacheSize)
+                && Objects.equal(this.idempotencyTimeout, other.idempotencyTimeout);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .addValue(this.async)
+                .addValue(this.stagingThreads)
+                .addValue(this.submitThreads)
+                .addValue(this.queueSize)
+                .addValue(this.retryAfter)
+                .addValue(this.idempotencyCacheSize)
+                .addValue(this.idempotencyTimeout)
+                .toString();
+    }
+}
@@ -0,0 +1,189 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded pipeline which stages and submits jobs outside of the request thread.
+ *
+ * A job first goes through the staging stage, which uploads its sandbox,
+ * and then through the submission stage, which submits it to the scheduler.
+ * Each stage has it's own pool of threads, so slow uploads do not hold back submission of already staged jobs.
+ * The number of jobs in the pipeline is bounded, when full new jobs are rejected so the caller can push back.
+ *
+ * @author verhoes
+ *
+ */
+public class SubmitPipeline {
+    protected final static Logger logger = LoggerFactory.getLogger(SubmitPipeline.class);
+
+    /**
+     * Work done by each stage of the pipeline.
+     */
+    public interface Stages {
+        /**
+         * Create and upload sandbox of job.
+         *
+         * @param job
+         * @throws Exception
+         */
+        void stage(SandboxedJob job) throws Exception;
+
+        /**
+         * Submit staged job to scheduler.
+         *
+         * @param job
+         * @throws Exception
+         */
+        void submit(SandboxedJob job) throws Exception;
+
+        /**
+         * Called when staging or submission of job failed, job leaves the pipeline.
+         *
+         * @param job
+         * @param e
+         */
+        void failed(SandboxedJob job, Exception e);
+    }
+
+    private final ExecutorService stagingExecutor;
+    private final ExecutorService submitExecutor;
+    private final int capacity;
+    /**
+     * Free places in the pipeline.
+     */
+    private final Semaphore places;
+
+    /**
+     * Pipeline with pools of threads and capacity as configured.
+     *
+     * @param configuration
+     */
+    public SubmitPipeline(SubmitConfiguration configuration) {
+        this(newPool(configuration.getStagingThreads()), newPool(configuration.getSubmitThreads()), configuration
+                .getQueueSize());
+    }
+
+    /**
+     * @param stagingExecutor Executor of staging stage
+     * @param submitExecutor Executor of submission stage
+     * @param capacity Maximum number of jobs in pipeline
+     */
+    public SubmitPipeline(ExecutorService stagingExecutor, ExecutorService submitExecutor, int capacity) {
+        super();
+        this.stagingExecutor = stagingExecutor;
+        this.submitExecutor = submitExecutor;
+        this.capacity = capacity;
+        this.places = new Semaphore(capacity);
+    }
+
+    /**
+     * Pool with unbounded queue, the number of queued jobs is bounded by the capacity of the pipeline.
+     */
+    private static ExecutorService newPool(int threads) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+    }
+
+    /**
+     * Put job in pipeline.
+     *
+     * @param job
+     * @param stages Work to do in each stage
+     * @return false when pipeline is full or stopped, job is not put in pipeline.
+     */
+    public boolean offer(final SandboxedJob job, final Stages stages) {
+        if (!places.tryAcquire()) {
+            return false;
+        }
+        try {
+            stagingExecutor.execute(new Runnable() {
+                public void run() {
+                    stage(job, stages);
+                }
+            });
+        } catch (RuntimeException e) {
+            // stopped
+            places.release();
+            return false;
+        }
+        return true;
+    }
+
+    private void stage(final SandboxedJob job, final Stages stages) {
+        try {
+            stages.stage(job);
+            submitExecutor.execute(new Runnable() {
+                public void run() {
+                    submit(job, stages);
+                }
+            });
+        } catch (Exception e) {
+            fail(job, stages, e);
+        }
+    }
+
+    private void submit(SandboxedJob job, Stages stages) {
+        try {
+            stages.submit(job);
+            places.release();
+        } catch (Exception e) {
+            fail(job, stages, e);
+        }
+    }
+
+    private void fail(SandboxedJob job, Stages stages, Exception e) {
+        logger.error(e.getMessage(), e);
+        try {
+            stages.failed(job, e);
+        } finally {
+            places.release();
+        }
+    }
+
+    /**
+     * @return Number of jobs in pipeline
+     */
+    public int size() {
+        return capacity - places.availablePermits();
+    }
+
+    /**
+     * Stops accepting jobs and waits at most 1 minute for each stage to finish the jobs in the pipeline.
+     *
+     * @throws InterruptedException
+     */
+    public void stop() throws InterruptedException {
+        stagingExecutor.shutdown();
+        stagingExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        submitExecutor.shutdown();
+        submitExecutor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+}
@@ -0,0 +1,62 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+
+/**
+ * Result of submitting a job request in a batch, either the submitted job or the exception which prevented it's submission.
+ *
+ * @author verhoes
+ *
+ */
+public class SubmitResult {
+    private final SandboxedJob job;
+    private final Exception exception;
+
+    public SubmitResult(SandboxedJob job) {
+        this.job = job;
+        this.exception = null;
+    }
+
+    public SubmitResult(Exception exception) {
+        this.job = null;
+        this.exception = exception;
+    }
+
+    /**
+     * @return Submitted job or null when submission failed.
+     */
+    public SandboxedJob getJob() {
+        return job;
+    }
+
+    /**
+     * @return Exception which prevented submission or null when job was submitted.
+     */
+    public Exception getException() {
+        return exception;
+    }
+
+    public boolean isSubmitted() {
+        return job != null;
+    }
+}
@@ -0,0 +1,231 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel.
+ *
+ * Items are scheduled with a wall clock deadline and are returned by {@link #advance(long) advance} once their deadline has passed.
+ * Scheduling and canceling is O(1), advancing is O(1) per tick plus the number of expired items.
+ *
+ * Level 0 has a slot per tick, each next level has a slot per full rotation of the level below it.
+ * When a level completes a rotation the current slot of the level above is cascaded down.
+ * Deadlines beyond the top level are kept in an overflow list which is cascaded when the top level completes a rotation.
+ *
+ * @param <T> Type of scheduled item
+ *
+ * @author verhoes
+ *
+ */
+public class TimingWheel<T> {
+    private final long tickDuration;
+    private final int wheelSize;
+    private final long origin;
+    /**
+     * Number of ticks spanned by a slot of each level.
+     */
+    private final long[] slotSpans;
+    private final List<List<LinkedList<Timeout<T>>>> levels;
+    private final LinkedList<Timeout<T>> overflow = new LinkedList<Timeout<T>>();
+    /**
+     * Timeouts which are due in the current tick or where scheduled with a deadline that had already passed.
+     */
+    private final LinkedList<Timeout<T>> expired = new LinkedList<Timeout<T>>();
+    private long currentTick = 0;
+    private int size = 0;
+
+    /**
+     * Handle of a scheduled item.
+     *
+     * @param <T>
+     */
+    public static class Timeout<T> {
+        private final T item;
+        private final long deadline;
+        private final long tick;
+        private boolean cancelled = false;
+        private boolean expired = false;
+
+        Timeout(T item, long deadline, long tick) {
+            this.item = item;
+            this.deadline = deadline;
+            this.tick = tick;
+        }
+
+        public T getItem() {
+            return item;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isExpired() {
+            return expired;
+        }
+    }
+
+    /**
+     * @param tickDuration Duration of a tick in milliseconds
+     * @param wheelSize Number of slots in each level
+     * @param nrLevels Number of levels
+     * @param origin Wall clock time in milliseconds of tick 0
+     */
+    public TimingWheel(long tickDuration, int wheelSize, int nrLevels, long origin) {
+        this.tickDuration = Math.max(1, tickDuration);
+        this.wheelSize = wheelSize;
+        this.origin = origin;
+        slotSpans = new long[nrLevels + 1];
+        slotSpans[0] = 1;
+        for (int i = 1; i <= nrLevels; i++) {
+            slotSpans[i] = slotSpans[i - 1] * wheelSize;
+        }
+        levels = new ArrayList<List<LinkedList<Timeout<T>>>>(nrLevels);
+        for (int i = 0; i < nrLevels; i++) {
+            List<LinkedList<Timeout<T>>> slots = new ArrayList<LinkedList<Timeout<T>>>(wheelSize);
+            for (int j = 0; j < wheelSize; j++) {
+                slots.add(new LinkedList<Timeout<T>>());
+            }
+            levels.add(slots);
+        }
+    }
+
+    /**
+     * Wheel with 4 levels of 64 slots, with a tick of 30 seconds it spans over 15 years before using the overflow list.
+     *
+     * @param tickDuration Duration of a tick in milliseconds
+     * @param origin Wall clock time in milliseconds of tick 0
+     */
+    public TimingWheel(long tickDuration, long origin) {
+        this(tickDuration, 64, 4, origin);
+    }
+
+    /**
+     * Schedule item.
+     *
+     * @param item
+     * @param deadline Wall clock time in milliseconds after which item expires
+     * @return Handle which can be used to cancel the timeout
+     */
+    public synchronized Timeout<T> schedule(T item, long deadline) {
+        // round up so item never expires before it's deadline
+        long tick = (deadline - origin + tickDuration - 1) / tickDuration;
+        Timeout<T> timeout = new Timeout<T>(item, deadline, tick);
+        insert(timeout);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * Cancel a scheduled item, it will not be returned by {@link #advance(long) advance}.
+     *
+     * @param timeout
+     */
+    public synchronized void cancel(Timeout<T> timeout) {
+        if (!timeout.cancelled && !timeout.expired) {
+            size--;
+        }
+        timeout.cancelled = true;
+    }
+
+    /**
+     * Advance wheel to wall clock time.
+     *
+     * @param now Wall clock time in milliseconds
+     * @return Items whose deadline has passed
+     */
+    public synchronized List<T> advance(long now) {
+        List<T> items = new ArrayList<T>();
+        collect(expired, items);
+        long targetTick = (now - origin) / tickDuration;
+        while (currentTick < targetTick) {
+            currentTick++;
+            if (currentTick % slotSpans[levels.size()] == 0) {
+                cascade(overflow);
+            }
+            // cascade from top to bottom, so timeouts cascaded from a higher level are cascaded further in the same tick
+            for (int level = levels.size() - 1; level > 0; level--) {
+                if (currentTick % slotSpans[level] == 0) {
+                    cascade(slot(level, currentTick));
+                }
+            }
+            collect(slot(0, currentTick), items);
+            collect(expired, items);
+        }
+        return items;
+    }
+
+    /**
+     * @return Number of scheduled items which have not expired or been canceled
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private void insert(Timeout<T> timeout) {
+        long delta = timeout.tick - currentTick;
+        if (delta <= 0) {
+            expired.add(timeout);
+            return;
+        }
+        for (int level = 0; level < levels.size(); level++) {
+            if (delta < slotSpans[level + 1]) {
+                slot(level, timeout.tick).add(timeout);
+                return;
+            }
+        }
+        overflow.add(timeout);
+    }
+
+    private LinkedList<Timeout<T>> slot(int level, long tick) {
+        int index = (int) ((tick / slotSpans[level]) % wheelSize);
+        return levels.get(level).get(index);
+    }
+
+    private void cascade(LinkedList<Timeout<T>> slot) {
+        List<Timeout<T>> timeouts = new ArrayList<Timeout<T>>(slot);
+        slot.clear();
+        for (Timeout<T> timeout : timeouts) {
+            if (!timeout.cancelled) {
+                insert(timeout);
+            }
+        }
+    }
+
+    private void collect(LinkedList<Timeout<T>> slot, List<T> items) {
+        for (Timeout<T> timeout : slot) {
+            if (!timeout.cancelled) {
+                timeout.expired = true;
+                size--;
+                items.add(timeout.item);
+            }
+        }
+        slot.clear();
+    }
+}
@@ -0,0 +1,160 @@
+package nl.esciencecenter.octopus.webservice.resources;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.core.UriInfo;
+
+import nl.esciencecenter.octopus.webservice.api.JobSubmitRequest;
+import nl.esciencecenter.octopus.webservice.api.JobSubmitResponse;
+import nl.esciencecenter.octopus.webservice.job.OctopusManager;
+import nl.esciencecenter.octopus.webservice.job.SubmitResult;
+
+import org.apache.http.client.HttpClient;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.yammer.dropwizard.validation.Validator;
+import com.yammer.metrics.annotation.Timed;
+
+/**
+ * Batch of jobs resource.
+ *
+ * Submits many jobs with a single request, the sandboxes of the jobs are staged in parallel.
+ *
+ * @author verhoes
+ *
+ */
+@Path("/job/batch")
+@Consumes(MediaType.APPLICATION_JSON)
+@Produces(MediaType.APPLICATION_JSON)
+public class JobBatchResource {
+    /**
+     * Status code of Unprocessable Entity, used for job requests which are invalid.
+     */
+    public static final int UNPROCESSABLE_ENTITY = 422;
+    /**
+     * Broker to submit jobs with
+     */
+    private final OctopusManager octopusmanager;
+    /**
+     * Http client to perform status callbacks with
+     */
+    private final HttpClient httpClient;
+    /**
+     * Validates each job request, the body is an array so it is not validated by Jersey.
+     */
+    private final Validator validator = new Validator();
+
+    /**
+     * Use to make absolute URI to job.
+     * Will get injected by JSR311
+     */
+    @Context
+    public UriInfo uriInfo = null;
+
+    /**
+     * Used to identify the client for admission control.
+     * Will get injected by JSR311
+     */
+    @Context
+    public SecurityContext securityContext = null;
+
+    public JobBatchResource(OctopusManager octopusmanager, HttpClient httpClient) {
+        super();
+        this.octopusmanager = octopusmanager;
+        this.httpClient = httpClient;
+    }
+
+    public JobBatchResource(OctopusManager octopusmanager, HttpClient httpClient, UriInfo uriInfo) {
+        this(octopusmanager, httpClient);
+        this.uriInfo = uriInfo;
+    }
+
+    /**
+     * Launch a job for each request.
+     *
+     * Invalid requests are not submitted, a failure of one job does not stop the other jobs from being submitted.
+     *
+     * @param requests
+     *            Array of job submission requests
+     * @return Outcome of each request, in same order as requests
+     */
+    @POST
+    @Timed
+    public List<JobSubmitResponse> submitJobs(JobSubmitRequest[] requests) {
+        JobSubmitResponse[] responses = new JobSubmitResponse[requests.length];
+        List<JobSubmitRequest> validRequests = new ArrayList<JobSubmitRequest>(requests.length);
+        List<Integer> validIndices = new ArrayList<Integer>(requests.length);
+        for (int i = 0; i < requests.length; i++) {
+            ImmutableList<String> errors = validator.validate(requests[i]);
+            if (errors.isEmpty()) {
+                validRequests.add(requests[i]);
+                validIndices.add(i);
+            } else {
+                responses[i] = new JobSubmitResponse(UNPROCESSABLE_ENTITY, null, Joiner.on(", ").join(errors));
+            }
+        }
+
+        List<SubmitResult> results = octopusmanager.submitJobs(validRequests, httpClient, identity());
+        UriBuilder builder = uriInfo.getBaseUriBuilder().path(JobResource.class);
+        for (int i = 0; i < results.size(); i++) {
+            responses[validIndices.get(i)] = toResponse(results.get(i), builder);
+        }
+        return Arrays.asList(responses);
+    }
+
+    private JobSubmitResponse toResponse(SubmitResult result, UriBuilder builder) {
+        if (result.isSubmitted()) {
+            URI location = builder.build(result.getJob().getIdentifier());
+            int status = octopusmanager.isAsyncSubmit() ? Status.ACCEPTED.getStatusCode() : Status.CREATED.getStatusCode();
+            return new JobSubmitResponse(status, location, null);
+        } else if (result.getException() instanceof RejectedExecutionException) {
+            return new JobSubmitResponse(JobsResource.TOO_MANY_REQUESTS, null, result.getException().getMessage());
+        } else {
+            return new JobSubmitResponse(Status.INTERNAL_SERVER_ERROR.getStatusCode(), null, result.getException().getMessage());
+        }
+    }
+
+    /**
+     * @return Name of authenticated user or null when request is not authenticated
+     */
+    private String identity() {
+        if (securityContext == null || securityContext.getUserPrincipal() == null) {
+            return null;
+        }
+        return securityContext.getUserPrincipal().getName();
+    }
+}
@@ -23,21 +23,26 @@ package nl.esciencecenter.octopus.webservice.resources;
 import java.net.URI;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.validation.Valid;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.SecurityContext;
 import javax.ws.rs.core.UriInfo;
 
 import nl.esciencecenter.octopus.webservice.api.JobSubmitRequest;
 import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+import nl.esciencecenter.octopus.webservice.job.IdempotencyConflictException;
 import nl.esciencecenter.octopus.webservice.job.OctopusManager;
 
 import org.apache.http.client.HttpClient;
@@ -64,6 +69,13 @@ public class JobsResource {
     @Context
     public UriInfo uriInfo = null;
 
+    /**
+     * Used to identify the client for admission control.
+     * Will get injected by JSR311
+     */
+    @Context
+    public SecurityContext securityContext = null;
+
     /**
      * Constructor
      *
@@ -91,11 +103,33 @@ public class JobsResource {
         this.uriInfo = uriInfo;
     }
 
+    /**
+     * Status code of Too Many Requests, JAX-RS has no constant for it.
+     */
+    public static final int TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Header with key chosen by client to make a submission idempotent.
+     */
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
     /**
      * Launch a job based on a request.
      *
+     * When submission is asynchronous the job is accepted and staged and submitted afterwards.
+     * The response is then 202 Accepted or, when too many jobs are waiting to be submitted,
+     * 429 Too Many Requests with a Retry-After header.
+     * When all scheduler backends are at capacity or the client exceeded it's rate limit or quota of active jobs
+     * the response is also 429 Too Many Requests.
+     *
+     * A request with an Idempotency-Key header is submitted once,
+     * a retry with the same key gets the response of the first submission.
+     * When the key was used before for a different request the response is 422 Unprocessable Entity.
+     *
      * @param request
      *            A job submission request
+     * @param idempotencyKey
+     *            Key chosen by client to identify the submission, can be null
      * @return Response with element URI in Location header
      * @throws Exception
      * @throws GATInvocationException
@@ -103,14 +137,39 @@ public class JobsResource {
      */
     @POST
     @Timed
-    public Response submitJob(@Valid JobSubmitRequest request) throws Exception {
-        SandboxedJob job = octopusmanager.submitJob(request, httpClient);
+    public Response submitJob(@Valid JobSubmitRequest request, @HeaderParam(IDEMPOTENCY_KEY) String idempotencyKey)
+            throws Exception {
+        if (octopusmanager.isAsyncSubmit()) {
+            return submitJobAsync(request, idempotencyKey);
+        }
+        SandboxedJob job;
+        try {
+            job = octopusmanager.submitJob(request, httpClient, identity(), idempotencyKey);
+        } catch (RejectedExecutionException e) {
+            return Response.status(TOO_MANY_REQUESTS).header("Retry-After", octopusmanager.getRetryAfter()).build();
+        } catch (IdempotencyConflictException e) {
+            return Response.status(JobBatchResource.UNPROCESSABLE_ENTITY).entity(e.getMessage()).build();
+        }
         UriBuilder builder = uriInfo.getAbsolutePathBuilder();
         URI location = builder.path(job.getIdentifier()).build();
         Response response = Response.created(location).build();
         return response;
     }
 
+    private Response submitJobAsync(JobSubmitRequest request, String idempotencyKey) {
+        SandboxedJob job;
+        try {
+            job = octopusmanager.submitJobAsync(request, httpClient, identity(), idempotencyKey);
+        } catch (RejectedExecutionException e) {
+            return Response.status(TOO_MANY_REQUESTS).header("Retry-After", octopusmanager.getRetryAfter()).build();
+        } catch (IdempotencyConflictException e) {
+            return Response.status(JobBatchResource.UNPROCESSABLE_ENTITY).entity(e.getMessage()).build();
+        }
+        UriBuilder builder = uriInfo.getAbsolutePathBuilder();
+        URI location = builder.path(job.getIdentifier()).build();
+        return Response.status(Status.ACCEPTED).location(location).build();
+    }
+
     /**
      * @return List of URI's of all submitted jobs.
      */
@@ -124,4 +183,14 @@ public class JobsResource {
         }
         return uris.toArray(new URI[0]);
     }
+
+    /**
+     * @return Name of authenticated user or null when request is not authenticated
+     */
+    private String identity() {
+        if (securityContext == null || securityContext.getUserPrincipal() == null) {
+            return null;
+        }
+        return securityContext.getUserPrincipal().getName();
+    }
 }
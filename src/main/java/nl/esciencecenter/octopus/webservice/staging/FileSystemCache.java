@@ -0,0 +1,261 @@
+package nl.esciencecenter.octopus.webservice.staging;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.credentials.Credential;
+import nl.esciencecenter.octopus.exceptions.OctopusException;
+import nl.esciencecenter.octopus.exceptions.OctopusIOException;
+import nl.esciencecenter.octopus.files.FileSystem;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.yammer.metrics.core.Clock;
+
+/**
+ * Cache of open file systems, so a submission does not open a new file system (eg. a new ssh session) each time.
+ *
+ * File systems are leased, a leased file system is never closed.
+ * A lease is held from submission until the sandbox of the job has been cleaned.
+ * File systems which have not been leased for the idle timeout are closed and
+ * when the cache is full the least recently used file system without leases is closed.
+ * Before a cached file system is handed out it is checked to be still open.
+ *
+ * File systems are keyed on their location, the credential is the same for all locations of a launcher.
+ *
+ * @author verhoes
+ *
+ */
+public class FileSystemCache {
+    protected final static Logger logger = LoggerFactory.getLogger(FileSystemCache.class);
+
+    private final Octopus octopus;
+    private final int maximumSize;
+    private final long idleTimeout;
+    private final Clock clock;
+    /**
+     * Cached file systems in least recently used order.
+     */
+    private final LinkedHashMap<URI, Entry> entries = new LinkedHashMap<URI, Entry>(16, 0.75f, true);
+    /**
+     * All file systems with leases, including ones which are no longer cached.
+     */
+    private final Map<FileSystem, Entry> leased = new HashMap<FileSystem, Entry>();
+    /**
+     * Lock of each location, held while it's file system is checked or opened.
+     */
+    private final Map<URI, Object> locks = new HashMap<URI, Object>();
+
+    /**
+     * File system with it's leases.
+     */
+    static class Entry {
+        private final FileSystem fileSystem;
+        private int leases = 0;
+        private long lastUsed;
+        /**
+         * Whether entry is in cache, when false it's file system is closed when last lease is released.
+         */
+        private boolean cached = true;
+
+        Entry(FileSystem fileSystem, long lastUsed) {
+            this.fileSystem = fileSystem;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    public FileSystemCache(Octopus octopus, int maximumSize, long idleTimeout) {
+        this(octopus, maximumSize, idleTimeout, Clock.defaultClock());
+    }
+
+    public FileSystemCache(Octopus octopus, int maximumSize, long idleTimeout, Clock clock) {
+        super();
+        this.octopus = octopus;
+        this.maximumSize = maximumSize;
+        this.idleTimeout = idleTimeout;
+        this.clock = clock;
+    }
+
+    /**
+     * Lease an open file system for location, opens a new one when none is cached.
+     *
+     * File systems are checked and opened outside the lock of the cache,
+     * so only callers for the same location wait for a slow connection.
+     *
+     * @param location
+     * @param credential
+     * @return file system, must be {@link #release(FileSystem) released} when no longer needed
+     * @throws OctopusException
+     * @throws OctopusIOException
+     */
+    public FileSystem acquire(URI location, Credential credential) throws OctopusException, OctopusIOException {
+        synchronized (lockOf(location)) {
+            Entry entry;
+            synchronized (this) {
+                long now = clock.time();
+                evictIdle(now);
+                entry = entries.get(location);
+                if (entry != null) {
+                    // leased while it is checked, so it is not evicted meanwhile
+                    lease(entry, now);
+                }
+            }
+            if (entry != null) {
+                if (isOpen(entry.fileSystem)) {
+                    return entry.fileSystem;
+                }
+                logger.info("Cached file system " + location + " is no longer open, opening new one");
+                synchronized (this) {
+                    if (entries.get(location) == entry) {
+                        entries.remove(location);
+                        entry.cached = false;
+                    }
+                }
+                release(entry.fileSystem);
+            }
+            FileSystem fileSystem = octopus.files().newFileSystem(location, credential, null);
+            synchronized (this) {
+                long now = clock.time();
+                entry = new Entry(fileSystem, now);
+                entries.put(location, entry);
+                lease(entry, now);
+                evictOverflow();
+            }
+            return fileSystem;
+        }
+    }
+
+    /**
+     * Lock held while file system of location is checked or opened.
+     */
+    private synchronized Object lockOf(URI location) {
+        Object lock = locks.get(location);
+        if (lock == null) {
+            lock = new Object();
+            locks.put(location, lock);
+        }
+        return lock;
+    }
+
+    private void lease(Entry entry, long now) {
+        entry.leases++;
+        entry.lastUsed = now;
+        leased.put(entry.fileSystem, entry);
+    }
+
+    /**
+     * Release lease on file system.
+     *
+     * @param fileSystem
+     */
+    public synchronized void release(FileSystem fileSystem) {
+        Entry entry = leased.get(fileSystem);
+        if (entry == null) {
+            return;
+        }
+        entry.leases--;
+        entry.lastUsed = clock.time();
+        if (entry.leases == 0) {
+            leased.remove(fileSystem);
+            if (!entry.cached) {
+                close(entry.fileSystem);
+            }
+        }
+    }
+
+    /**
+     * @return Number of cached file systems
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Close file systems which have no leases and have not been used for the idle timeout.
+     *
+     * @param now Wall clock time in milliseconds
+     */
+    private void evictIdle(long now) {
+        Iterator<Map.Entry<URI, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.leases == 0 && now - entry.lastUsed > idleTimeout) {
+                iterator.remove();
+                entry.cached = false;
+                close(entry.fileSystem);
+            }
+        }
+    }
+
+    /**
+     * Close least recently used file systems without leases until cache fits.
+     */
+    private void evictOverflow() {
+        Iterator<Map.Entry<URI, Entry>> iterator = entries.entrySet().iterator();
+        while (entries.size() > maximumSize && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.leases == 0) {
+                iterator.remove();
+                entry.cached = false;
+                close(entry.fileSystem);
+            }
+        }
+    }
+
+    private boolean isOpen(FileSystem fileSystem) {
+        try {
+            return octopus.files().isOpen(fileSystem);
+        } catch (Exception e) {
+            logger.warn("Unable to check file system " + fileSystem.getUri(), e);
+            return false;
+        }
+    }
+
+    private void close(FileSystem fileSystem) {
+        try {
+            octopus.files().close(fileSystem);
+        } catch (Exception e) {
+            logger.warn("Unable to close file system " + fileSystem.getUri(), e);
+        }
+    }
+
+    /**
+     * Close all cached file systems.
+     */
+    public synchronized void close() {
+        List<URI> locations = new ArrayList<URI>(entries.keySet());
+        for (URI location : locations) {
+            Entry entry = entries.remove(location);
+            entry.cached = false;
+            close(entry.fileSystem);
+        }
+        leased.clear();
+    }
+}
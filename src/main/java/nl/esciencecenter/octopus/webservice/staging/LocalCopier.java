@@ -0,0 +1,165 @@
+package nl.esciencecenter.octopus.webservice.staging;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+
+import nl.esciencecenter.octopus.files.AbsolutePath;
+import nl.esciencecenter.octopus.util.CopyOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricsRegistry;
+
+/**
+ * Fast path for copying a regular file between two paths on local file systems.
+ *
+ * The file is hard linked, when enabled, or copied by the kernel with {@link FileChannel#transferTo(long, long,
+ * java.nio.channels.WritableByteChannel) transferTo}, so the content does not pass through user space buffers.
+ * A hard link fails when the paths are on different file systems, then the file is transferred instead.
+ * When the fast path can not be used the caller should copy the file with Octopus.
+ *
+ * Hard links share their content, so a job which modifies a prestaged file in place modifies the original as well.
+ *
+ * @author verhoes
+ *
+ */
+public class LocalCopier {
+    protected final static Logger logger = LoggerFactory.getLogger(LocalCopier.class);
+
+    private final boolean hardLinks;
+    private final Counter links;
+    private final Counter transfers;
+    private final Counter fallbacks;
+
+    /**
+     * Copier which registers it's metrics in the default registry.
+     *
+     * @param hardLinks Whether files are hard linked instead of copied.
+     */
+    public LocalCopier(boolean hardLinks) {
+        this(hardLinks, Metrics.defaultRegistry());
+    }
+
+    public LocalCopier(boolean hardLinks, MetricsRegistry registry) {
+        super();
+        this.hardLinks = hardLinks;
+        links = registry.newCounter(LocalCopier.class, "links");
+        transfers = registry.newCounter(LocalCopier.class, "transfers");
+        fallbacks = registry.newCounter(LocalCopier.class, "fallbacks");
+    }
+
+    /**
+     * @param path
+     * @return true when path is on a local file system
+     */
+    public static boolean isLocal(AbsolutePath path) {
+        if (path.getFileSystem() == null) {
+            return false;
+        }
+        URI uri = path.getFileSystem().getUri();
+        return uri != null && "file".equals(uri.getScheme());
+    }
+
+    /**
+     * Copy source to target using the fast path.
+     *
+     * @param source
+     * @param target
+     * @param options Only {@link CopyOption#CREATE} and {@link CopyOption#REPLACE_EXISTING} are supported by the fast path.
+     * @return true when file was copied, false when it must be copied with Octopus.
+     */
+    public boolean copy(AbsolutePath source, AbsolutePath target, CopyOption... options) {
+        if (!isLocal(source) || !isLocal(target)) {
+            return false;
+        }
+        boolean replace = false;
+        for (CopyOption option : options) {
+            if (option == CopyOption.REPLACE_EXISTING) {
+                replace = true;
+            } else if (option != CopyOption.CREATE) {
+                return false;
+            }
+        }
+        File src = new File(source.getPath());
+        File dst = new File(target.getPath());
+        if (!src.isFile() || (dst.exists() && !replace)) {
+            // let Octopus copy directories and report existing targets
+            return false;
+        }
+        if (hardLinks && link(src, dst)) {
+            links.inc();
+            return true;
+        }
+        try {
+            transfer(src, dst);
+            transfers.inc();
+            return true;
+        } catch (IOException e) {
+            logger.debug("Unable to transfer " + src + " to " + dst + ", falling back to Octopus copy", e);
+            fallbacks.inc();
+            return false;
+        }
+    }
+
+    private boolean link(File src, File dst) {
+        try {
+            Files.deleteIfExists(dst.toPath());
+            Files.createLink(dst.toPath(), src.toPath());
+            return true;
+        } catch (IOException e) {
+            // eg. paths are on different file systems
+            logger.debug("Unable to link " + src + " to " + dst + ", transferring instead", e);
+            return false;
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    private void transfer(File src, File dst) throws IOException {
+        FileInputStream in = new FileInputStream(src);
+        try {
+            FileOutputStream out = new FileOutputStream(dst);
+            try {
+                FileChannel input = in.getChannel();
+                FileChannel output = out.getChannel();
+                long size = input.size();
+                long position = 0;
+                while (position < size) {
+                    position += input.transferTo(position, size - position, output);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package nl.esciencecenter.octopus.webservice.staging;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.exceptions.OctopusIOException;
+import nl.esciencecenter.octopus.files.AbsolutePath;
+import nl.esciencecenter.octopus.files.Files;
+import nl.esciencecenter.octopus.files.OpenOption;
+import nl.esciencecenter.octopus.util.Sandbox;
+import nl.esciencecenter.octopus.webservice.api.JobSubmitRequest;
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.ByteStreams;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricsRegistry;
+
+/**
+ * Copies output of running jobs from their sandbox to their job directory while they run.
+ *
+ * Each sync only copies the bytes appended since the previous sync, so users see partial output
+ * and when the job is done only the remaining tail has to be copied.
+ * By default only stdout and stderr are synced, optionally all poststaged files are synced as well.
+ * A file which shrunk since the previous sync has been rewritten and is copied again from the start.
+ *
+ * The number of bytes synced of each file is kept per job until the sandbox is cleaned.
+ *
+ * @author verhoes
+ *
+ */
+public class OutputSync implements Runnable {
+    protected final static Logger logger = LoggerFactory.getLogger(OutputSync.class);
+
+    private final Octopus octopus;
+    /**
+     * Jobs which are not done, only the running ones are synced.
+     */
+    private final Map<String, SandboxedJob> activeJobs;
+    private final boolean poststaged;
+    private final ScheduledExecutorService executor;
+    private final ConcurrentMap<String, Progress> progress = new ConcurrentHashMap<String, Progress>();
+    private final Counter syncs;
+    private final Counter syncedBytes;
+
+    /**
+     * Bytes synced of each file of a job.
+     */
+    static class Progress {
+        /**
+         * Number of bytes synced keyed by path of file in sandbox.
+         */
+        private final Map<String, Long> offsets = new HashMap<String, Long>();
+        private boolean finished = false;
+    }
+
+    /**
+     * Sync which registers it's metrics in the default registry.
+     *
+     * @param octopus
+     * @param activeJobs
+     * @param poststaged Whether poststaged files are synced as well as stdout and stderr
+     */
+    public OutputSync(Octopus octopus, Map<String, SandboxedJob> activeJobs, boolean poststaged) {
+        this(octopus, activeJobs, poststaged, Executors.newSingleThreadScheduledExecutor(), Metrics.defaultRegistry());
+    }
+
+    public OutputSync(Octopus octopus, Map<String, SandboxedJob> activeJobs, boolean poststaged,
+            ScheduledExecutorService executor, MetricsRegistry registry) {
+        super();
+        this.octopus = octopus;
+        this.activeJobs = activeJobs;
+        this.poststaged = poststaged;
+        this.executor = executor;
+        syncs = registry.newCounter(OutputSync.class, "syncs");
+        syncedBytes = registry.newCounter(OutputSync.class, "synced-bytes");
+    }
+
+    /**
+     * Sync running jobs repeatedly.
+     *
+     * @param interval Time in milliseconds between the end of a sync of all running jobs and the start of the next
+     */
+    public void start(long interval) {
+        executor.scheduleWithFixedDelay(this, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sync all running jobs, a job which fails to sync is retried next time.
+     */
+    public void run() {
+        for (SandboxedJob job : activeJobs.values()) {
+            if (job.getSandbox() == null || job.getStatus() == null || !job.getStatus().isRunning()) {
+                continue;
+            }
+            try {
+                sync(job);
+            } catch (Exception e) {
+                logger.warn("Unable to sync output of job " + job.getIdentifier(), e);
+            }
+        }
+    }
+
+    /**
+     * Copy bytes appended since previous sync from sandbox to job directory.
+     * Does nothing when the sandbox of the job is being cleaned.
+     *
+     * @param job
+     * @throws OctopusIOException
+     */
+    public void sync(SandboxedJob job) throws OctopusIOException {
+        Progress jobProgress = progressOf(job);
+        synchronized (jobProgress) {
+            if (jobProgress.finished || job.getStagingState() != null) {
+                progress.remove(job.getIdentifier(), jobProgress);
+                return;
+            }
+            for (Sandbox.Pair pair : job.getSandbox().getDownloadFiles()) {
+                if (isSynced(job.getRequest(), pair)) {
+                    append(pair, jobProgress.offsets);
+                }
+            }
+            syncs.inc();
+        }
+    }
+
+    /**
+     * Copy remaining tail of synced files and stop syncing job.
+     *
+     * @param job
+     * @return Download files of sandbox which have not been synced and still need to be copied
+     * @throws OctopusIOException
+     */
+    public List<Sandbox.Pair> finish(SandboxedJob job) throws OctopusIOException {
+        List<Sandbox.Pair> pairs = job.getSandbox().getDownloadFiles();
+        Progress jobProgress = progress.remove(job.getIdentifier());
+        if (jobProgress == null) {
+            return pairs;
+        }
+        synchronized (jobProgress) {
+            jobProgress.finished = true;
+            List<Sandbox.Pair> remaining = new ArrayList<Sandbox.Pair>();
+            for (Sandbox.Pair pair : pairs) {
+                if (jobProgress.offsets.containsKey(pair.getSource().getPath())) {
+                    append(pair, jobProgress.offsets);
+                } else {
+                    remaining.add(pair);
+                }
+            }
+            return remaining;
+        }
+    }
+
+    /**
+     * Stop syncing job without copying remaining tails.
+     *
+     * @param job
+     */
+    public void forget(SandboxedJob job) {
+        progress.remove(job.getIdentifier());
+    }
+
+    /**
+     * @return Number of jobs which have been synced and not yet finished
+     */
+    public int size() {
+        return progress.size();
+    }
+
+    /**
+     * Stops syncing and waits at most 1 minute for a running sync to finish.
+     *
+     * @throws InterruptedException
+     */
+    public void stop() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    private Progress progressOf(SandboxedJob job) {
+        Progress jobProgress = progress.get(job.getIdentifier());
+        if (jobProgress == null) {
+            Progress newProgress = new Progress();
+            jobProgress = progress.putIfAbsent(job.getIdentifier(), newProgress);
+            if (jobProgress == null) {
+                jobProgress = newProgress;
+            }
+        }
+        return jobProgress;
+    }
+
+    private boolean isSynced(JobSubmitRequest request, Sandbox.Pair pair) {
+        if (poststaged) {
+            return true;
+        }
+        String filename = pair.getSource().getFileName();
+        return filename != null && request != null && (filename.equals(request.stdout) || filename.equals(request.stderr));
+    }
+
+    /**
+     * Append bytes of source which are not in target yet.
+     * A source which does not exist yet is skipped.
+     */
+    private void append(Sandbox.Pair pair, Map<String, Long> offsets) throws OctopusIOException {
+        Files files = octopus.files();
+        AbsolutePath source = pair.getSource();
+        String key = source.getPath();
+        if (!files.exists(source)) {
+            return;
+        }
+        long size = files.getAttributes(source).size();
+        Long offset = offsets.get(key);
+        long from = offset == null ? 0 : offset;
+        if (size < from) {
+            // file was rewritten, copy it again
+            from = 0;
+        } else if (offset != null && size == from) {
+            return;
+        }
+        InputStream in = files.newInputStream(source);
+        try {
+            OutputStream out;
+            if (from == 0) {
+                out = files.newOutputStream(pair.getDestination(), OpenOption.OPEN_OR_CREATE, OpenOption.TRUNCATE);
+            } else {
+                out = files.newOutputStream(pair.getDestination(), OpenOption.OPEN_OR_CREATE, OpenOption.APPEND);
+            }
+            try {
+                ByteStreams.skipFully(in, from);
+                long copied = ByteStreams.copy(ByteStreams.limit(in, size - from), out);
+                offsets.put(key, from + copied);
+                syncedBytes.inc(copied);
+            } finally {
+                out.close();
+            }
+        } catch (OctopusIOException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new OctopusIOException("sync", "Unable to sync " + key, e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                logger.debug("Unable to close " + key, e);
+            }
+        }
+    }
+}
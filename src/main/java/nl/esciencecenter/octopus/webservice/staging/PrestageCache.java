@@ -0,0 +1,344 @@
+package nl.esciencecenter.octopus.webservice.staging;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.exceptions.OctopusException;
+import nl.esciencecenter.octopus.exceptions.OctopusIOException;
+import nl.esciencecenter.octopus.files.AbsolutePath;
+import nl.esciencecenter.octopus.files.DirectoryStream;
+import nl.esciencecenter.octopus.files.FileAttributes;
+import nl.esciencecenter.octopus.files.FileSystem;
+import nl.esciencecenter.octopus.files.Files;
+import nl.esciencecenter.octopus.files.OpenOption;
+import nl.esciencecenter.octopus.files.RelativePath;
+import nl.esciencecenter.octopus.util.Sandbox;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricsRegistry;
+
+/**
+ * Content addressed cache of prestaged files, so an input file shared by many jobs is stored once.
+ *
+ * A prestaged file is hashed while it is streamed into the cache directory and stored under it's SHA-1 digest.
+ * Sandboxes upload their input from the cache instead of from the job directory.
+ * A file which has been cached is recognized by it's path, size and modification time, so a hit does not read the file again.
+ * Files with the same content but from different paths are stored once.
+ *
+ * When the cached files exceed the maximum number of bytes the least recently used files are deleted.
+ * A staged file is pinned until it is {@link #release(Sandbox) released} after the upload of it's sandbox,
+ * pinned files are never deleted, so all inputs of sandboxes which are still staging stay in place.
+ * The cache can exceed it's maximum while pinned files do not fit.
+ *
+ * @author verhoes
+ *
+ */
+public class PrestageCache {
+    protected final static Logger logger = LoggerFactory.getLogger(PrestageCache.class);
+    private static final String TEMPORARY_PREFIX = "tmp-";
+
+    private final Octopus octopus;
+    private final String directory;
+    private final long maximumBytes;
+    /**
+     * Sizes of cached files keyed on their digest, in least recently used order.
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    /**
+     * Digest of each staged file keyed on it's path, size and modification time.
+     */
+    private final Map<String, String> fingerprints = new HashMap<String, String>();
+    /**
+     * Number of sandboxes which have staged, but not yet uploaded, each cached file keyed on it's digest.
+     */
+    private final Map<String, Integer> pins = new HashMap<String, Integer>();
+    private long bytes = 0;
+    private boolean loaded = false;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter savedBytes;
+    private final Counter evictions;
+
+    /**
+     * Cache which registers it's metrics in the default registry.
+     *
+     * @param octopus
+     * @param directory Path of cache directory on sandbox file system
+     * @param maximumBytes Maximum total size of cached files
+     */
+    public PrestageCache(Octopus octopus, String directory, long maximumBytes) {
+        this(octopus, directory, maximumBytes, Metrics.defaultRegistry());
+    }
+
+    public PrestageCache(Octopus octopus, String directory, long maximumBytes, MetricsRegistry registry) {
+        super();
+        this.octopus = octopus;
+        this.directory = directory;
+        this.maximumBytes = maximumBytes;
+        hits = registry.newCounter(PrestageCache.class, "hits");
+        misses = registry.newCounter(PrestageCache.class, "misses");
+        savedBytes = registry.newCounter(PrestageCache.class, "saved-bytes");
+        evictions = registry.newCounter(PrestageCache.class, "evictions");
+        registry.newGauge(PrestageCache.class, "bytes", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return bytes();
+            }
+        });
+    }
+
+    /**
+     * Put file in cache and pin it, it must be {@link #release(AbsolutePath) released} after it has been uploaded.
+     *
+     * @param source File to cache
+     * @param fileSystem Sandbox file system on which cache directory is located
+     * @return Path of cached file, to be uploaded instead of source
+     * @throws OctopusIOException
+     * @throws OctopusException
+     */
+    public AbsolutePath stage(AbsolutePath source, FileSystem fileSystem) throws OctopusIOException, OctopusException {
+        Files files = octopus.files();
+        FileAttributes attributes = files.getAttributes(source);
+        String fingerprint = source.getPath() + ":" + attributes.size() + ":" + attributes.lastModifiedTime();
+        synchronized (this) {
+            load(fileSystem);
+            String digest = fingerprints.get(fingerprint);
+            if (digest != null && entries.get(digest) != null) {
+                hits.inc();
+                savedBytes.inc(attributes.size());
+                pin(digest);
+                return path(fileSystem, digest);
+            }
+        }
+
+        AbsolutePath temporary = path(fileSystem, TEMPORARY_PREFIX + UUID.randomUUID());
+        String digest = copyAndHash(source, temporary);
+        synchronized (this) {
+            misses.inc();
+            AbsolutePath cached = path(fileSystem, digest);
+            pin(digest);
+            if (entries.get(digest) != null) {
+                // same content from another path
+                files.delete(temporary);
+            } else {
+                files.move(temporary, cached);
+                entries.put(digest, attributes.size());
+                bytes += attributes.size();
+                evictOverflow(fileSystem);
+            }
+            fingerprints.put(fingerprint, digest);
+            return cached;
+        }
+    }
+
+    /**
+     * Unpin cached file, once no sandbox has it pinned it can be deleted.
+     *
+     * @param cached Path returned by {@link #stage(AbsolutePath, FileSystem) stage}
+     */
+    public synchronized void release(AbsolutePath cached) {
+        String digest = cached.getFileName();
+        Integer count = pins.get(digest);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            pins.put(digest, count - 1);
+        } else {
+            pins.remove(digest);
+            evictOverflow(cached.getFileSystem());
+        }
+    }
+
+    /**
+     * Unpin cached files which sandbox uploads, call after sandbox has been uploaded or when staging or uploading failed.
+     *
+     * @param sandbox
+     */
+    public void release(Sandbox sandbox) {
+        for (Sandbox.Pair upload : sandbox.getUploadFiles()) {
+            AbsolutePath source = upload.getSource();
+            if (isCached(source)) {
+                release(source);
+            }
+        }
+    }
+
+    /**
+     * @return Number of cached files which are pinned
+     */
+    public synchronized int pinned() {
+        return pins.size();
+    }
+
+    /**
+     * @return Total size of cached files
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return Number of cached files
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void pin(String digest) {
+        Integer count = pins.get(digest);
+        pins.put(digest, count == null ? 1 : count + 1);
+    }
+
+    private boolean isCached(AbsolutePath path) {
+        AbsolutePath parent = path.getParent();
+        return parent != null && new RelativePath(directory).getPath().equals(parent.getPath());
+    }
+
+    private AbsolutePath path(FileSystem fileSystem, String name) throws OctopusException, OctopusIOException {
+        return octopus.files().newPath(fileSystem, new RelativePath(new String[] { directory, name }));
+    }
+
+    /**
+     * Stream source to target while computing the digest of the content.
+     *
+     * @return Hex encoded SHA-1 digest of content
+     */
+    private String copyAndHash(AbsolutePath source, AbsolutePath target) throws OctopusIOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform must support SHA-1
+            throw new IllegalStateException(e);
+        }
+        Files files = octopus.files();
+        InputStream in = new DigestInputStream(files.newInputStream(source), digest);
+        try {
+            OutputStream out = files.newOutputStream(target, OpenOption.CREATE, OpenOption.TRUNCATE);
+            try {
+                ByteStreams.copy(in, out);
+            } finally {
+                out.close();
+            }
+        } catch (OctopusIOException e) {
+            deleteQuietly(target);
+            throw e;
+        } catch (IOException e) {
+            deleteQuietly(target);
+            throw new OctopusIOException("prestage-cache", e.getMessage(), e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                logger.warn(e.getMessage(), e);
+            }
+        }
+        return BaseEncoding.base16().lowerCase().encode(digest.digest());
+    }
+
+    /**
+     * Create cache directory or, when it already exists, add files cached by a previous run and remove their left overs.
+     */
+    private void load(FileSystem fileSystem) throws OctopusIOException, OctopusException {
+        if (loaded) {
+            return;
+        }
+        Files files = octopus.files();
+        AbsolutePath dir = octopus.files().newPath(fileSystem, new RelativePath(directory));
+        if (!files.exists(dir)) {
+            files.createDirectories(dir);
+        } else {
+            DirectoryStream<AbsolutePath> stream = files.newDirectoryStream(dir);
+            try {
+                for (AbsolutePath path : stream) {
+                    if (path.getFileName().startsWith(TEMPORARY_PREFIX)) {
+                        deleteQuietly(path);
+                    } else {
+                        long size = files.getAttributes(path).size();
+                        entries.put(path.getFileName(), size);
+                        bytes += size;
+                    }
+                }
+            } finally {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    logger.warn(e.getMessage(), e);
+                }
+            }
+        }
+        loaded = true;
+    }
+
+    /**
+     * Delete least recently used files until cache fits, except pinned files.
+     */
+    private void evictOverflow(FileSystem fileSystem) {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (bytes > maximumBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            String digest = entry.getKey();
+            if (pins.containsKey(digest)) {
+                continue;
+            }
+            iterator.remove();
+            bytes -= entry.getValue();
+            fingerprints.values().removeAll(Collections.singleton(digest));
+            evictions.inc();
+            try {
+                deleteQuietly(path(fileSystem, digest));
+            } catch (OctopusException e) {
+                logger.warn(e.getMessage(), e);
+            } catch (OctopusIOException e) {
+                logger.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void deleteQuietly(AbsolutePath path) {
+        try {
+            octopus.files().delete(path);
+        } catch (OctopusIOException e) {
+            logger.warn("Unable to delete " + path.getPath() + " from prestage cache", e);
+        }
+    }
+}
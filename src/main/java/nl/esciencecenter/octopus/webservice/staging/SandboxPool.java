@@ -0,0 +1,268 @@
+package nl.esciencecenter.octopus.webservice.staging;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.exceptions.OctopusException;
+import nl.esciencecenter.octopus.exceptions.OctopusIOException;
+import nl.esciencecenter.octopus.files.AbsolutePath;
+import nl.esciencecenter.octopus.files.DirectoryStream;
+import nl.esciencecenter.octopus.files.FileSystem;
+import nl.esciencecenter.octopus.files.Files;
+import nl.esciencecenter.octopus.files.RelativePath;
+import nl.esciencecenter.octopus.util.Sandbox;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Objects;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricsRegistry;
+
+/**
+ * Pool of empty sandbox directories in the sandbox root, so a submission does not have to create it's sandbox directory.
+ *
+ * Directories are created by a background thread, which refills the pool each time a directory is taken.
+ * A sandbox which has been cleaned is wiped and returned to the pool, instead of being deleted and created again.
+ * When the pool is empty the caller creates the sandbox directory itself.
+ *
+ * Directories still in the pool are deleted when the pool is stopped.
+ *
+ * @author verhoes
+ *
+ */
+public class SandboxPool {
+    protected final static Logger logger = LoggerFactory.getLogger(SandboxPool.class);
+
+    private final Octopus octopus;
+    private final String root;
+    private final int maximumSize;
+    private final ExecutorService executor;
+    /**
+     * Names of empty sandbox directories ready to be taken.
+     */
+    private final ConcurrentLinkedQueue<String> ready = new ConcurrentLinkedQueue<String>();
+    /**
+     * Number of directories being created, counted so refills do not overshoot the maximum size.
+     */
+    private final AtomicInteger provisioning = new AtomicInteger();
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter reclaimed;
+    private volatile FileSystem fileSystem;
+
+    /**
+     * Pool which registers it's metrics in the default registry.
+     *
+     * @param octopus
+     * @param root Path of sandbox root on sandbox file system
+     * @param maximumSize Number of empty sandbox directories kept ready
+     */
+    public SandboxPool(Octopus octopus, String root, int maximumSize) {
+        this(octopus, root, maximumSize, Executors.newSingleThreadExecutor(), Metrics.defaultRegistry());
+    }
+
+    public SandboxPool(Octopus octopus, String root, int maximumSize, ExecutorService executor, MetricsRegistry registry) {
+        super();
+        this.octopus = octopus;
+        this.root = root;
+        this.maximumSize = maximumSize;
+        this.executor = executor;
+        hits = registry.newCounter(SandboxPool.class, "hits");
+        misses = registry.newCounter(SandboxPool.class, "misses");
+        reclaimed = registry.newCounter(SandboxPool.class, "reclaimed");
+        registry.newGauge(SandboxPool.class, "size", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return size();
+            }
+        });
+    }
+
+    /**
+     * Start filling pool.
+     *
+     * @param fileSystem Sandbox file system on which directories are created, must stay open until pool is stopped.
+     */
+    public void start(FileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+        refill();
+    }
+
+    /**
+     * Take an empty sandbox directory and refill pool in the background.
+     *
+     * @return Name of sandbox directory in sandbox root, null when pool is empty.
+     */
+    public String take() {
+        String name = ready.poll();
+        if (name == null) {
+            misses.inc();
+        } else {
+            hits.inc();
+        }
+        refill();
+        return name;
+    }
+
+    /**
+     * Wipe contents of sandbox and return it's directory to the pool.
+     *
+     * Sandboxes of other backends live outside the sandbox root of the pool, they are not returned to the pool.
+     *
+     * @param sandbox Sandbox in sandbox root of pool
+     * @return true when sandbox was returned to the pool,
+     *         false when sandbox is outside the pool, pool is full or wiping failed and the sandbox should be deleted.
+     */
+    public boolean reclaim(Sandbox sandbox) {
+        if (fileSystem == null || !isInRoot(sandbox.getPath()) || ready.size() + provisioning.get() >= maximumSize) {
+            return false;
+        }
+        try {
+            wipe(sandbox.getPath());
+        } catch (OctopusIOException e) {
+            logger.warn("Unable to wipe sandbox " + sandbox.getPath().getPath() + ", deleting it instead", e);
+            return false;
+        }
+        ready.offer(sandbox.getPath().getFileName());
+        reclaimed.inc();
+        return true;
+    }
+
+    /**
+     * @param path
+     * @return true when path is a directory directly in sandbox root on sandbox file system of pool
+     */
+    private boolean isInRoot(AbsolutePath path) {
+        AbsolutePath parent = path.getParent();
+        if (parent == null || !Objects.equal(fileSystem.getUri(), path.getFileSystem().getUri())) {
+            return false;
+        }
+        return stripTrailingSlash(root).equals(stripTrailingSlash(parent.getPath()));
+    }
+
+    private static String stripTrailingSlash(String path) {
+        if (path.length() > 1 && path.endsWith("/")) {
+            return path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+
+    /**
+     * @return Number of empty sandbox directories ready to be taken
+     */
+    public int size() {
+        return ready.size();
+    }
+
+    /**
+     * Stop filling pool and delete directories still in pool.
+     *
+     * @throws InterruptedException
+     */
+    public void stop() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        String name;
+        while ((name = ready.poll()) != null) {
+            try {
+                octopus.files().delete(path(name));
+            } catch (Exception e) {
+                logger.warn("Unable to delete pooled sandbox " + name, e);
+            }
+        }
+    }
+
+    /**
+     * Schedule creation of the directories missing from a full pool, counting the ones being created.
+     * Directories which fail to be created are scheduled again at the next take.
+     */
+    private void refill() {
+        if (fileSystem == null) {
+            return;
+        }
+        int missing = maximumSize - ready.size() - provisioning.get();
+        for (int i = 0; i < missing; i++) {
+            provisioning.incrementAndGet();
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        provision();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // pool is stopping
+                provisioning.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    private void provision() {
+        try {
+            String name = "octopus_sandbox_" + UUID.randomUUID();
+            octopus.files().createDirectory(path(name));
+            ready.offer(name);
+        } catch (Exception e) {
+            // pool is refilled at next take
+            logger.warn("Unable to create pooled sandbox in " + root, e);
+        } finally {
+            provisioning.decrementAndGet();
+        }
+    }
+
+    private AbsolutePath path(String name) throws OctopusException, OctopusIOException {
+        return octopus.files().newPath(fileSystem, new RelativePath(new String[] { root, name }));
+    }
+
+    /**
+     * Delete contents of directory, but not the directory itself.
+     */
+    private void wipe(AbsolutePath directory) throws OctopusIOException {
+        Files files = octopus.files();
+        DirectoryStream<AbsolutePath> stream = files.newDirectoryStream(directory);
+        try {
+            for (AbsolutePath path : stream) {
+                if (files.isDirectory(path)) {
+                    wipe(path);
+                }
+                files.delete(path);
+            }
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                logger.debug(e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package nl.esciencecenter.octopus.webservice.staging;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import nl.esciencecenter.octopus.jobs.JobStatus;
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Downloads and deletes sandboxes of jobs in a bounded pool of threads, so large outputs do not delay polling of other jobs.
+ *
+ * The staging state of a job is kept in {@link SandboxedJob#getStagingState() SandboxedJob}.
+ *
+ * @author verhoes
+ *
+ */
+public class SandboxStager {
+    protected final static Logger logger = LoggerFactory.getLogger(SandboxStager.class);
+
+    private final ExecutorService executor;
+    /**
+     * Cache from which sandbox file systems where leased, lease is released after cleaning. Can be null.
+     */
+    private volatile FileSystemCache fileSystems = null;
+    /**
+     * Transfers used to download sandboxes. Can be null, then sandboxes download their files themselves.
+     */
+    private volatile SandboxTransfers transfers = null;
+    /**
+     * Sync which copied output of jobs while they ran. Can be null, then all files are downloaded after the job is done.
+     */
+    private volatile OutputSync outputSync = null;
+    /**
+     * Pool to which cleaned sandboxes are returned. Can be null, then sandboxes are deleted.
+     */
+    private volatile SandboxPool sandboxPool = null;
+
+    /**
+     * Stager with a pool of threads and a queue as configured.
+     * When the queue is full the sandbox is not cleaned, so the caller can try again later.
+     *
+     * @param configuration
+     */
+    public SandboxStager(StagingConfiguration configuration) {
+        this(new ThreadPoolExecutor(configuration.getParallelism(), configuration.getParallelism(), 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(configuration.getQueueSize())));
+    }
+
+    public SandboxStager(ExecutorService executor) {
+        super();
+        this.executor = executor;
+    }
+
+    /**
+     * Release sandbox file systems to cache after cleaning.
+     *
+     * @param fileSystems
+     */
+    public void setFileSystems(FileSystemCache fileSystems) {
+        this.fileSystems = fileSystems;
+    }
+
+    /**
+     * Download sandboxes with transfers.
+     *
+     * @param transfers
+     */
+    public void setTransfers(SandboxTransfers transfers) {
+        this.transfers = transfers;
+    }
+
+    /**
+     * Only download the remainder of output synced while the job ran.
+     *
+     * @param outputSync Sync of output of running jobs, requires transfers.
+     */
+    public void setOutputSync(OutputSync outputSync) {
+        this.outputSync = outputSync;
+    }
+
+    /**
+     * Return cleaned sandboxes to a pool of sandbox directories.
+     *
+     * @param sandboxPool Pool of sandbox directories, requires transfers.
+     */
+    public void setSandboxPool(SandboxPool sandboxPool) {
+        this.sandboxPool = sandboxPool;
+    }
+
+    /**
+     * Download and delete sandbox of job.
+     *
+     * When the sandbox has already been staged, whenDone is run directly in the calling thread.
+     * When the sandbox is still being staged, nothing happens.
+     * When the stager is full or stopped, the staging state of the job is left unset, so cleaning can be tried again later.
+     *
+     * @param job
+     * @param whenDone Run after sandbox has been cleaned, also when cleaning failed. Can be null.
+     * @return true when cleaning of sandbox has been queued
+     */
+    public boolean clean(SandboxedJob job, Runnable whenDone) {
+        return clean(job, null, whenDone);
+    }
+
+    /**
+     * Download and delete sandbox of job which is done, but whose done status has not been set on the job yet.
+     *
+     * @param job
+     * @param doneStatus Status which decides whether sandbox is downloaded. When null the current status of job is used.
+     * @param whenDone Run after sandbox has been cleaned, also when cleaning failed. Can be null.
+     * @return true when cleaning of sandbox has been queued
+     * @see #clean(SandboxedJob, Runnable)
+     */
+    public boolean clean(final SandboxedJob job, final JobStatus doneStatus, final Runnable whenDone) {
+        if (!job.compareAndSetStagingState(null, StagingState.QUEUED)) {
+            StagingState state = job.getStagingState();
+            if (whenDone != null && (state == StagingState.DONE || state == StagingState.FAILED)) {
+                whenDone.run();
+            }
+            return false;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    job.setStagingState(StagingState.RUNNING);
+                    try {
+                        job.cleanSandbox(doneStatus, transfers, outputSync, sandboxPool);
+                        job.setStagingState(StagingState.DONE);
+                    } catch (Exception e) {
+                        logger.error(e.getMessage(), e);
+                        job.setStagingState(StagingState.FAILED);
+                    } finally {
+                        if (fileSystems != null && job.getSandbox() != null) {
+                            fileSystems.release(job.getSandbox().getPath().getFileSystem());
+                        }
+                        if (whenDone != null) {
+                            whenDone.run();
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.debug("Staging queue full, sandbox is cleaned later");
+            job.setStagingState(null);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting sandboxes and waits at most 1 minute for queued sandboxes to be cleaned.
+     *
+     * @throws InterruptedException
+     */
+    public void stop() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+}
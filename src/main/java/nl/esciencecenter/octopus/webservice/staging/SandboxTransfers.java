@@ -0,0 +1,259 @@
+package nl.esciencecenter.octopus.webservice.staging;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.exceptions.OctopusIOException;
+import nl.esciencecenter.octopus.exceptions.UnsupportedOperationException;
+import nl.esciencecenter.octopus.util.CopyOption;
+import nl.esciencecenter.octopus.util.Sandbox;
+
+/**
+ * Copies the files of a sandbox concurrently, so jobs with many files are not limited by the round trip time per file.
+ *
+ * At most transfersPerJob files of a single sandbox are copied at once, one of them by the calling thread and the rest by a pool
+ * of threads shared by all sandboxes. The size of the shared pool limits the number of concurrent copies over all sandboxes.
+ * Files between local paths are copied with a {@link LocalCopier local copier} when one is set.
+ * When transfersPerJob is 1 and there is no local copier the sandbox copies it's files itself.
+ *
+ * @author verhoes
+ *
+ */
+public class SandboxTransfers {
+    private final Octopus octopus;
+    private final ExecutorService executor;
+    private final int transfersPerJob;
+    /**
+     * Fast path for copies between local paths, null when disabled.
+     */
+    private final LocalCopier localCopier;
+
+    /**
+     * Transfers with per job and global parallelism as configured.
+     *
+     * @param octopus
+     * @param configuration
+     */
+    public SandboxTransfers(Octopus octopus, StagingConfiguration configuration) {
+        this(octopus, newPool(configuration.getMaxTransfers()), configuration.getTransfersPerJob(),
+                configuration.isLocalFastPath() ? new LocalCopier(configuration.isHardLinks()) : null);
+    }
+
+    /**
+     * @param octopus
+     * @param executor Executor shared by all sandboxes, the caller does one of the copies itself so it runs transfersPerJob - 1
+     *            copies of a sandbox at once.
+     * @param transfersPerJob Maximum number of files of a sandbox copied at once.
+     */
+    public SandboxTransfers(Octopus octopus, ExecutorService executor, int transfersPerJob) {
+        this(octopus, executor, transfersPerJob, null);
+    }
+
+    /**
+     * @param octopus
+     * @param executor Executor shared by all sandboxes
+     * @param transfersPerJob Maximum number of files of a sandbox copied at once.
+     * @param localCopier Fast path for copies between local paths, null to always copy with Octopus.
+     */
+    public SandboxTransfers(Octopus octopus, ExecutorService executor, int transfersPerJob, LocalCopier localCopier) {
+        super();
+        this.octopus = octopus;
+        this.executor = executor;
+        this.transfersPerJob = Math.max(1, transfersPerJob);
+        this.localCopier = localCopier;
+    }
+
+    private static ExecutorService newPool(int maxTransfers) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxTransfers, maxTransfers, 1L, TimeUnit.MINUTES,
+                new LinkedBlockingQueue<Runnable>());
+        // idle transfer threads are not kept around
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Create sandbox directory and copy upload files into it.
+     *
+     * @param sandbox
+     * @param options
+     * @throws OctopusIOException
+     * @throws UnsupportedOperationException
+     */
+    public void upload(Sandbox sandbox, CopyOption... options) throws OctopusIOException, UnsupportedOperationException {
+        if (!copiesItself(sandbox.getUploadFiles())) {
+            sandbox.upload(options);
+            return;
+        }
+        octopus.files().createDirectories(sandbox.getPath());
+        copy(sandbox.getUploadFiles(), options);
+    }
+
+    /**
+     * Copy upload files into a sandbox whose directory already exists, like one taken from a {@link SandboxPool pool}.
+     *
+     * @param sandbox
+     * @param options
+     * @throws OctopusIOException
+     * @throws UnsupportedOperationException
+     */
+    public void uploadFiles(Sandbox sandbox, CopyOption... options) throws OctopusIOException, UnsupportedOperationException {
+        if (!sandbox.getUploadFiles().isEmpty()) {
+            copy(sandbox.getUploadFiles(), options);
+        }
+    }
+
+    /**
+     * Copy download files out of sandbox.
+     *
+     * @param sandbox
+     * @param options
+     * @throws OctopusIOException
+     * @throws UnsupportedOperationException
+     */
+    public void download(Sandbox sandbox, CopyOption... options) throws OctopusIOException, UnsupportedOperationException {
+        if (!copiesItself(sandbox.getDownloadFiles())) {
+            sandbox.download(options);
+            return;
+        }
+        copy(sandbox.getDownloadFiles(), options);
+    }
+
+    /**
+     * Copy some of the download files out of sandbox, like the files which have not been synced while the job ran.
+     *
+     * @param pairs Download files of a sandbox
+     * @param options
+     * @throws OctopusIOException
+     * @throws UnsupportedOperationException
+     */
+    public void download(List<Sandbox.Pair> pairs, CopyOption... options) throws OctopusIOException,
+            UnsupportedOperationException {
+        if (!pairs.isEmpty()) {
+            copy(pairs, options);
+        }
+    }
+
+    /**
+     * @return true when pairs are copied concurrently or some pair can be copied with the local copier,
+     *         false when sandbox can copy the pairs itself.
+     */
+    private boolean copiesItself(List<Sandbox.Pair> pairs) {
+        if (transfersPerJob > 1 && pairs.size() > 1) {
+            return true;
+        }
+        if (localCopier != null) {
+            for (Sandbox.Pair pair : pairs) {
+                if (LocalCopier.isLocal(pair.getSource()) && LocalCopier.isLocal(pair.getDestination())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copy pairs with at most transfersPerJob workers which take pairs from a shared queue.
+     * Waits for all workers, so no copy is running when the first exception is thrown.
+     */
+    private void copy(List<Sandbox.Pair> pairs, final CopyOption... options) throws OctopusIOException,
+            UnsupportedOperationException {
+        final ConcurrentLinkedQueue<Sandbox.Pair> queue = new ConcurrentLinkedQueue<Sandbox.Pair>(pairs);
+        Callable<Void> worker = new Callable<Void>() {
+            public Void call() throws Exception {
+                Sandbox.Pair pair;
+                try {
+                    while ((pair = queue.poll()) != null) {
+                        copy(pair, options);
+                    }
+                } catch (Exception e) {
+                    // stop other workers from starting new copies
+                    queue.clear();
+                    throw e;
+                }
+                return null;
+            }
+        };
+        int nrWorkers = Math.min(transfersPerJob, pairs.size());
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(nrWorkers - 1);
+        for (int i = 1; i < nrWorkers; i++) {
+            futures.add(executor.submit(worker));
+        }
+
+        Exception failure = null;
+        try {
+            worker.call();
+        } catch (Exception e) {
+            failure = e;
+        }
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null && e.getCause() instanceof Exception) {
+                    failure = (Exception) e.getCause();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        rethrow(failure);
+    }
+
+    private void copy(Sandbox.Pair pair, CopyOption... options) throws OctopusIOException, UnsupportedOperationException {
+        if (localCopier == null || !localCopier.copy(pair.getSource(), pair.getDestination(), options)) {
+            octopus.files().copy(pair.getSource(), pair.getDestination(), options);
+        }
+    }
+
+    private void rethrow(Exception failure) throws OctopusIOException, UnsupportedOperationException {
+        if (failure == null) {
+            return;
+        } else if (failure instanceof OctopusIOException) {
+            throw (OctopusIOException) failure;
+        } else if (failure instanceof UnsupportedOperationException) {
+            throw (UnsupportedOperationException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        throw new OctopusIOException("sandbox", failure.getMessage(), failure);
+    }
+
+    /**
+     * Stops the shared pool of threads.
+     */
+    public void stop() {
+        executor.shutdown();
+    }
+}
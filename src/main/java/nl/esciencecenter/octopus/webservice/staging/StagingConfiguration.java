@@ -0,0 +1,262 @@
+package nl.esciencecenter.octopus.webservice.staging;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Objects;
+
+/**
+ * Configuration of staging files into and out of sandboxes.
+ *
+ * @author verhoes
+ *
+ */
+public class StagingConfiguration {
+    /**
+     * Number of sandboxes which are downloaded and deleted in parallel.
+     * Default 2.
+     */
+    @JsonProperty
+    private int parallelism = 2;
+    /**
+     * Number of sandboxes which can wait to be downloaded and deleted.
+     * When queue is full the sandbox is downloaded and deleted in the poller thread.
+     * Default 1000.
+     */
+    @JsonProperty
+    private int queueSize = 1000;
+    /**
+     * Maximum number of open sandbox file systems kept for reuse.
+     * Default 8.
+     */
+    @JsonProperty
+    private int fileSystemCacheSize = 8;
+    /**
+     * Time in milliseconds after which an unused sandbox file system is closed.
+     * Default 10 minutes.
+     */
+    @JsonProperty
+    private long fileSystemIdleTimeout = TimeUnit.MILLISECONDS.convert(10, TimeUnit.MINUTES);
+
+    /**
+     * Maximum number of files of a single sandbox which are copied at once.
+     * Default 1, files are copied one after another.
+     */
+    @JsonProperty
+    private int transfersPerJob = 1;
+    /**
+     * Maximum number of files which are copied at once over all sandboxes, when transfersPerJob is more than 1.
+     * Default 8.
+     */
+    @JsonProperty
+    private int maxTransfers = 8;
+
+    /**
+     * Maximum number of bytes of prestaged files kept in a content addressed cache in the sandbox root.
+     * Default 0, no cache.
+     */
+    @JsonProperty
+    private long prestageCacheSize = 0;
+
+    /**
+     * Whether files between local paths are copied by the kernel instead of through Octopus.
+     * Default true.
+     */
+    @JsonProperty
+    private boolean localFastPath = true;
+    /**
+     * Whether files between local paths on the same file system are hard linked instead of copied, requires localFastPath.
+     * A job which modifies a linked input file in place also modifies the original.
+     * Default false.
+     */
+    @JsonProperty
+    private boolean hardLinks = false;
+
+    /**
+     * Time in milliseconds between copies of newly appended output of running jobs to their job directory.
+     * Default 0, output is only copied when the job is done.
+     */
+    @JsonProperty
+    private long syncInterval = 0;
+    /**
+     * Whether poststaged files are synced while the job runs as well, instead of only stdout and stderr.
+     * Default false.
+     */
+    @JsonProperty
+    private boolean syncPoststaged = false;
+
+    /**
+     * Number of empty sandbox directories kept ready in the sandbox root.
+     * Default 0, each submission creates it's own sandbox directory.
+     */
+    @JsonProperty
+    private int sandboxPoolSize = 0;
+
+    public StagingConfiguration(int parallelism, int queueSize) {
+        super();
+        this.parallelism = parallelism;
+        this.queueSize = queueSize;
+    }
+
+    public StagingConfiguration() {
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public int getFileSystemCacheSize() {
+        return fileSystemCacheSize;
+    }
+
+    public void setFileSystemCacheSize(int fileSystemCacheSize) {
+        this.fileSystemCacheSize = fileSystemCacheSize;
+    }
+
+    public long getFileSystemIdleTimeout() {
+        return fileSystemIdleTimeout;
+    }
+
+    public void setFileSystemIdleTimeout(long fileSystemIdleTimeout) {
+        this.fileSystemIdleTimeout = fileSystemIdleTimeout;
+    }
+
+    public int getTransfersPerJob() {
+        return transfersPerJob;
+    }
+
+    public void setTransfersPerJob(int transfersPerJob) {
+        this.transfersPerJob = transfersPerJob;
+    }
+
+    public int getMaxTransfers() {
+        return maxTransfers;
+    }
+
+    public void setMaxTransfers(int maxTransfers) {
+        this.maxTransfers = maxTransfers;
+    }
+
+    public long getPrestageCacheSize() {
+        return prestageCacheSize;
+    }
+
+    public void setPrestageCacheSize(long prestageCacheSize) {
+        this.prestageCacheSize = prestageCacheSize;
+    }
+
+    public boolean isLocalFastPath() {
+        return localFastPath;
+    }
+
+    public void setLocalFastPath(boolean localFastPath) {
+        this.localFastPath = localFastPath;
+    }
+
+    public boolean isHardLinks() {
+        return hardLinks;
+    }
+
+    public void setHardLinks(boolean hardLinks) {
+        this.hardLinks = hardLinks;
+    }
+
+    public long getSyncInterval() {
+        return syncInterval;
+    }
+
+    public void setSyncInterval(long syncInterval) {
+        this.syncInterval = syncInterval;
+    }
+
+    public boolean isSyncPoststaged() {
+        return syncPoststaged;
+    }
+
+    public void setSyncPoststaged(boolean syncPoststaged) {
+        this.syncPoststaged = syncPoststaged;
+    }
+
+    public int getSandboxPoolSize() {
+        return sandboxPoolSize;
+    }
+
+    public void setSandboxPoolSize(int sandboxPoolSize) {
+        this.sandboxPoolSize = sandboxPoolSize;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(parallelism, queueSize, fileSystemCacheSize, fileSystemIdleTimeout, transfersPerJob,
+                maxTransfers, prestageCacheSize, localFastPath, hardLinks, syncInterval, syncPoststaged, sandboxPoolSize);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        StagingConfiguration other = (StagingConfiguration) obj;
+        return Objects.equal(this.parallelism, other.parallelism) && Objects.equal(this.queueSize, other.queueSize)
+                && Objects.equal(this.fileSystemCacheSize, other.fileSystemCacheSize)
+                && Objects.equal(this.fileSystemIdleTimeout, other.fileSystemIdleTimeout)
+                && Objects.equal(this.transfersPerJob, other.transfersPerJob)
+                && Objects.equal(this.maxTransfers, other.maxTransfers)
+                && Objects.equal(this.prestageCacheSize, other.prestageCacheSize)
+                && Objects.equal(this.localFastPath, other.localFastPath) && Objects.equal(this.hardLinks, other.hardLinks)
+                && Objects.equal(this.syncInterval, other.syncInterval)
+                && Objects.equal(this.syncPoststaged, other.syncPoststaged)
+                && Objects.equal(this.sandboxPoolSize, other.sandboxPoolSize);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .addValue(this.parallelism)
+                .addValue(this.queueSize)
+                .addValue(this.fileSystemCacheSize)
+                .addValue(this.fileSystemIdleTimeout)
+                .addValue(this.transfersPerJob)
+                .addValue(this.maxTransfers)
+                .addValue(this.prestageCacheSize)
+                .addValue(this.localFastPath)
+                .addValue(this.hardLinks)
+                .addValue(this.syncInterval)
+                .addValue(this.syncPoststaged)
+                .addValue(this.sandboxPoolSize)
+                .toString();
+    }
+}
@@ -0,0 +1,46 @@
+package nl.esciencecenter.octopus.webservice.staging;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * State of downloading and deleting the sandbox of a job.
+ *
+ * @author verhoes
+ *
+ */
+public enum StagingState {
+    /**
+     * Waiting in staging queue
+     */
+    QUEUED,
+    /**
+     * Sandbox is being downloaded and deleted
+     */
+    RUNNING,
+    /**
+     * Sandbox has been downloaded and deleted
+     */
+    DONE,
+    /**
+     * Downloading or deleting sandbox failed
+     */
+    FAILED
+}
@@ -23,6 +23,7 @@ package nl.esciencecenter.octopus.webservice;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.isA;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -37,6 +38,8 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+import nl.esciencecenter.octopus.webservice.callback.CallbackDispatcher;
+import nl.esciencecenter.octopus.webservice.event.JobEventBus;
 import nl.esciencecenter.octopus.webservice.health.JobLauncherHealthCheck;
 import nl.esciencecenter.octopus.webservice.job.OctopusConfiguration;
 import nl.esciencecenter.octopus.webservice.job.OctopusManager;
@@ -80,9 +83,11 @@ public class JobLauncherServiceTest {
 
         service.run(config, environment);
 
-        verify(environment, times(2)).addResource(any(Object.class));
+        verify(environment, times(3)).addResource(any(Object.class));
         verify(environment).addHealthCheck(any(JobLauncherHealthCheck.class));
-        verify(environment).manage(any(OctopusManager.class));
+        verify(environment).manage(isA(OctopusManager.class));
+        verify(environment).manage(isA(CallbackDispatcher.class));
+        verify(environment).manage(isA(JobEventBus.class));
 
         // TODO test injection of MAC Credentials into httpClient
         // or fold injection into extented HttpClientBuilder
@@ -33,6 +33,7 @@ import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
@@ -51,10 +52,12 @@ import nl.esciencecenter.octopus.files.Files;
 import nl.esciencecenter.octopus.files.RelativePath;
 import nl.esciencecenter.octopus.jobs.JobDescription;
 import nl.esciencecenter.octopus.util.Sandbox;
+import nl.esciencecenter.octopus.webservice.staging.PrestageCache;
 
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 public class JobSubmitRequestTest {
     private JobSubmitRequest request;
@@ -215,4 +218,59 @@ public class JobSubmitRequestTest {
         // FIXME when https://github.com/NLeSC/octopus/issues/53 is resolved then remove ignore
         assertThat(sandbox).isEqualTo(expected);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void toSandbox_WithPrestageCache_UploadsFromCache() throws OctopusIOException, OctopusException {
+        Octopus octopus = mock(Octopus.class);
+        Files filesEngine = mock(Files.class);
+        when(octopus.files()).thenReturn(filesEngine);
+        FileSystem filesystem = mock(FileSystem.class);
+        AbsolutePath runme = new AbsolutePathImplementation(filesystem, new RelativePath("/tmp/jobdir/runme.sh"));
+        when(filesEngine.newPath(filesystem, new RelativePath(new String[] { "/tmp/jobdir", "runme.sh" }))).thenReturn(runme);
+        AbsolutePath input = new AbsolutePathImplementation(filesystem, new RelativePath("/tmp/jobdir/input.dat"));
+        when(filesEngine.newPath(filesystem, new RelativePath(new String[] { "/tmp/jobdir", "input.dat" }))).thenReturn(input);
+        PrestageCache cache = mock(PrestageCache.class);
+        AbsolutePath cachedRunme = new AbsolutePathImplementation(filesystem, new RelativePath("/tmp/.prestage-cache/1234"));
+        when(cache.stage(runme, filesystem)).thenReturn(cachedRunme);
+        AbsolutePath cachedInput = new AbsolutePathImplementation(filesystem, new RelativePath("/tmp/.prestage-cache/5678"));
+        when(cache.stage(input, filesystem)).thenReturn(cachedInput);
+        AbsolutePath sandBoxRoot = new AbsolutePathImplementation(filesystem, new RelativePath("/tmp"));
+
+        Sandbox sandbox = request.toSandbox(octopus, sandBoxRoot, "octopus-sandbox-1234567890", cache);
+
+        List<Sandbox.Pair> uploads = sandbox.getUploadFiles();
+        assertThat(uploads.get(0).getSource()).isSameAs(cachedRunme);
+        assertThat(uploads.get(0).getDestination().getPath()).isEqualTo("/tmp/octopus-sandbox-1234567890/runme.sh");
+        assertThat(uploads.get(1).getSource()).isSameAs(cachedInput);
+        assertThat(uploads.get(1).getDestination().getPath()).isEqualTo("/tmp/octopus-sandbox-1234567890/input.dat");
+    }
+
+    @Test
+    public void toSandbox_WithPrestageCacheSecondStageFails_StagedFilesReleased() throws OctopusIOException,
+            OctopusException {
+        Octopus octopus = mock(Octopus.class);
+        Files filesEngine = mock(Files.class);
+        when(octopus.files()).thenReturn(filesEngine);
+        FileSystem filesystem = mock(FileSystem.class);
+        AbsolutePath runme = new AbsolutePathImplementation(filesystem, new RelativePath("/tmp/jobdir/runme.sh"));
+        when(filesEngine.newPath(filesystem, new RelativePath(new String[] { "/tmp/jobdir", "runme.sh" }))).thenReturn(runme);
+        AbsolutePath input = new AbsolutePathImplementation(filesystem, new RelativePath("/tmp/jobdir/input.dat"));
+        when(filesEngine.newPath(filesystem, new RelativePath(new String[] { "/tmp/jobdir", "input.dat" }))).thenReturn(input);
+        PrestageCache cache = mock(PrestageCache.class);
+        AbsolutePath cachedRunme = new AbsolutePathImplementation(filesystem, new RelativePath("/tmp/.prestage-cache/1234"));
+        when(cache.stage(runme, filesystem)).thenReturn(cachedRunme);
+        OctopusIOException exception = new OctopusIOException("local", "Disk full");
+        when(cache.stage(input, filesystem)).thenThrow(exception);
+        AbsolutePath sandBoxRoot = new AbsolutePathImplementation(filesystem, new RelativePath("/tmp"));
+
+        try {
+            request.toSandbox(octopus, sandBoxRoot, "octopus-sandbox-1234567890", cache);
+            fail("OctopusIOException not thrown");
+        } catch (OctopusIOException e) {
+            assertThat(e).isEqualTo(exception);
+            ArgumentCaptor<Sandbox> sandbox = ArgumentCaptor.forClass(Sandbox.class);
+            verify(cache).release(sandbox.capture());
+            assertThat(sandbox.getValue().getUploadFiles().get(0).getSource()).isSameAs(cachedRunme);
+        }
+    }
+}
@@ -27,6 +27,7 @@ import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -48,6 +49,10 @@ import nl.esciencecenter.octopus.jobs.Job;
 import nl.esciencecenter.octopus.jobs.JobStatus;
 import nl.esciencecenter.octopus.util.CopyOption;
 import nl.esciencecenter.octopus.util.Sandbox;
+import nl.esciencecenter.octopus.webservice.event.JobEvent;
+import nl.esciencecenter.octopus.webservice.event.JobEventBus;
+import nl.esciencecenter.octopus.webservice.staging.SandboxPool;
+import nl.esciencecenter.octopus.webservice.staging.SandboxTransfers;
 
 import org.apache.http.Consts;
 import org.apache.http.client.ClientProtocolException;
@@ -64,7 +69,6 @@ public class SandboxedJobTest {
     Job ojob;
     HttpClient httpClient;
     JobStatus status;
-    int pollIterations;
     SandboxedJob job;
 
     @Before
@@ -79,8 +83,7 @@ public class SandboxedJobTest {
         Map<String, String> info = new HashMap<String, String>();
         info.put("status", "STOPPED");
         status = new JobStatusImplementation(ojob, "DONE", 0, null, false, true, info);
-        pollIterations = 10;
-        job = new SandboxedJob(sandbox, ojob, request, httpClient, status, pollIterations);
+        job = new SandboxedJob(sandbox, ojob, request, httpClient, status);
     }
 
     @Test
@@ -88,7 +91,6 @@ public class SandboxedJobTest {
         SandboxedJob sjob = new SandboxedJob(sandbox, ojob, request, httpClient);
 
         assertThat(sjob.getStatus()).isEqualTo(null);
-        assertThat(sjob.getPollIterations()).isEqualTo(0);
     }
 
     @Test
@@ -116,30 +118,10 @@ public class SandboxedJobTest {
         assertThat(job.getStatus()).isEqualTo(status);
     }
 
-    @Test
-    public void testGetPollIterations() {
-        assertThat(job.getPollIterations()).isEqualTo(10);
-    }
-
-    @Test
-    public void testSetPollIterations() {
-        job.setPollIterations(25);
-
-        assertThat(job.getPollIterations()).isEqualTo(25);
-    }
-
-    @Test
-    public void testIncrPollIterations() {
-        job.incrPollIterations();
-
-        assertThat(job.getPollIterations()).isEqualTo(11);
-    }
-
     @Test
     public void testSetStatus_ChangedWithCallback_HttpClientExecute() throws UnsupportedEncodingException, ClientProtocolException, IOException, URISyntaxException {
         JobStatus rstatus = new JobStatusImplementation(ojob, "RUNNING", null, null, true, false, null);
-        pollIterations = 10;
-        job = new SandboxedJob(sandbox, ojob, request, httpClient, rstatus, pollIterations);
+        job = new SandboxedJob(sandbox, ojob, request, httpClient, rstatus);
 
         job.setStatus(this.status);
 
@@ -153,12 +135,39 @@ public class SandboxedJobTest {
         assertThat(body).isEqualTo(jsonFixture("fixtures/status.done.json"));
     }
 
+    @Test
+    public void testSetStatus_ChangedWithEventBus_StateChangedPublished() throws IOException {
+        JobStatus rstatus = new JobStatusImplementation(ojob, "RUNNING", null, null, true, false, null);
+        JobEventBus eventBus = mock(JobEventBus.class);
+        job = new SandboxedJob(sandbox, ojob, request, httpClient, rstatus, eventBus);
+
+        job.setStatus(this.status);
+
+        ArgumentCaptor<JobEvent> event = ArgumentCaptor.forClass(JobEvent.class);
+        verify(eventBus).publish(event.capture());
+        assertThat(event.getValue().getType()).isEqualTo(JobEvent.Type.STATE_CHANGED);
+        assertThat(event.getValue().getStatus()).isEqualTo(this.status);
+        verifyNoMoreInteractions(httpClient);
+    }
+
+    @Test
+    public void testCleanSandbox_WithEventBus_SandboxDownloadedPublished() throws OctopusIOException,
+            UnsupportedOperationException {
+        JobEventBus eventBus = mock(JobEventBus.class);
+        job = new SandboxedJob(sandbox, ojob, request, httpClient, status, eventBus);
+
+        job.cleanSandbox();
+
+        ArgumentCaptor<JobEvent> event = ArgumentCaptor.forClass(JobEvent.class);
+        verify(eventBus).publish(event.capture());
+        assertThat(event.getValue().getType()).isEqualTo(JobEvent.Type.SANDBOX_DOWNLOADED);
+    }
+
     @Test
     public void testSetStatus_ChangedWithoutCallback_NoHttpClientExecute() throws UnsupportedEncodingException, ClientProtocolException, IOException {
         request.status_callback_url = null;
         JobStatus rstatus = new JobStatusImplementation(ojob, "RUNNING", null, null, true, false, null);
-        pollIterations = 10;
-        job = new SandboxedJob(sandbox, ojob, request, httpClient, rstatus, pollIterations);
+        job = new SandboxedJob(sandbox, ojob, request, httpClient, rstatus);
 
         job.setStatus(this.status);
         verifyNoMoreInteractions(httpClient);
@@ -166,8 +175,7 @@ public class SandboxedJobTest {
 
     @Test
     public void testSetStatus_UnChangedWithCallback_NoHttpClientExecute() throws UnsupportedEncodingException, ClientProtocolException, IOException {
-        pollIterations = 10;
-        job = new SandboxedJob(sandbox, ojob, request, httpClient, status, pollIterations);
+        job = new SandboxedJob(sandbox, ojob, request, httpClient, status);
 
         job.setStatus(this.status);
 
@@ -183,6 +191,41 @@ public class SandboxedJobTest {
         verify(sandbox).delete();
     }
 
+    @Test
+    public void testCleanSandbox_WithTransfers_DownloadedByTransfers() throws OctopusIOException,
+            UnsupportedOperationException {
+        SandboxTransfers transfers = mock(SandboxTransfers.class);
+
+        job.cleanSandbox(transfers);
+
+        verify(transfers).download(sandbox, CopyOption.REPLACE_EXISTING);
+        verify(sandbox).delete();
+        verifyNoMoreInteractions(sandbox);
+    }
+
+    @Test
+    public void testCleanSandbox_ReclaimedByPool_NotDeleted() throws OctopusIOException, UnsupportedOperationException {
+        SandboxTransfers transfers = mock(SandboxTransfers.class);
+        SandboxPool sandboxPool = mock(SandboxPool.class);
+        when(sandboxPool.reclaim(sandbox)).thenReturn(true);
+
+        job.cleanSandbox(null, transfers, null, sandboxPool);
+
+        verify(transfers).download(sandbox, CopyOption.REPLACE_EXISTING);
+        verify(sandbox, never()).delete();
+    }
+
+    @Test
+    public void testCleanSandbox_PoolFull_Deleted() throws OctopusIOException, UnsupportedOperationException {
+        SandboxTransfers transfers = mock(SandboxTransfers.class);
+        SandboxPool sandboxPool = mock(SandboxPool.class);
+        when(sandboxPool.reclaim(sandbox)).thenReturn(false);
+
+        job.cleanSandbox(null, transfers, null, sandboxPool);
+
+        verify(sandbox).delete();
+    }
+
     @Test
     public void testCleanSandbox_KilledJob_NoCopy() throws URISyntaxException, UnsupportedOperationException, IOException {
         Exception error = new Exception("Job killed");
@@ -206,7 +249,7 @@ public class SandboxedJobTest {
     @Test
     public void serializesToJSON() throws IOException {
         JobSubmitRequest request2 = JobSubmitRequestTest.sampleRequest();
-        job = new SandboxedJob(sandbox, ojob, request2, httpClient, status, pollIterations);
+        job = new SandboxedJob(sandbox, ojob, request2, httpClient, status);
 
         assertThat(asJson(job),
                 is(equalTo(jsonFixture("fixtures/job.json"))));
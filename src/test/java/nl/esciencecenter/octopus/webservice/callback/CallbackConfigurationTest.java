@@ -0,0 +1,81 @@
+package nl.esciencecenter.octopus.webservice.callback;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class CallbackConfigurationTest {
+
+    @Test
+    public void testCallbackConfiguration_AllParameters() {
+        CallbackConfiguration conf = new CallbackConfiguration(8, 10, 1);
+        assertThat(conf.getPoolSize()).isEqualTo(8);
+        assertThat(conf.getQueueSize()).isEqualTo(10);
+        assertThat(conf.getMaxPerHost()).isEqualTo(1);
+    }
+
+    @Test
+    public void testCallbackConfiguration_NoParameters() {
+        CallbackConfiguration conf = new CallbackConfiguration();
+        assertThat(conf.getPoolSize()).isEqualTo(4);
+        assertThat(conf.getQueueSize()).isEqualTo(1000);
+        assertThat(conf.getMaxPerHost()).isEqualTo(2);
+    }
+
+    @Test
+    public void testSetPoolSize() {
+        CallbackConfiguration conf = new CallbackConfiguration();
+
+        conf.setPoolSize(2);
+
+        assertThat(conf.getPoolSize()).isEqualTo(2);
+    }
+
+    @Test
+    public void testSetQueueSize() {
+        CallbackConfiguration conf = new CallbackConfiguration();
+
+        conf.setQueueSize(20);
+
+        assertThat(conf.getQueueSize()).isEqualTo(20);
+    }
+
+    @Test
+    public void testSetMaxPerHost() {
+        CallbackConfiguration conf = new CallbackConfiguration();
+
+        conf.setMaxPerHost(3);
+
+        assertThat(conf.getMaxPerHost()).isEqualTo(3);
+    }
+
+    @Test
+    public void testToString() {
+        CallbackConfiguration conf = new CallbackConfiguration();
+
+        String result = conf.toString();
+
+        String expected = "CallbackConfiguration{4, 1000, 2}";
+        assertThat(result).isEqualTo(expected);
+    }
+}
@@ -0,0 +1,201 @@
+package nl.esciencecenter.octopus.webservice.callback;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.util.EntityUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.yammer.metrics.core.MetricsRegistry;
+
+public class CallbackDispatcherTest {
+    private HttpClient httpClient;
+    private HttpResponse response;
+    private InputStream content;
+
+    @Before
+    public void setUp() throws IOException {
+        httpClient = mock(HttpClient.class);
+        response = mock(HttpResponse.class);
+        StatusLine statusLine = mock(StatusLine.class);
+        when(statusLine.getStatusCode()).thenReturn(200);
+        when(response.getStatusLine()).thenReturn(statusLine);
+        HttpEntity entity = mock(HttpEntity.class);
+        when(entity.isStreaming()).thenReturn(true);
+        content = mock(InputStream.class);
+        when(entity.getContent()).thenReturn(content);
+        when(response.getEntity()).thenReturn(entity);
+        when(httpClient.execute(any(HttpUriRequest.class))).thenReturn(response);
+    }
+
+    @Test
+    public void put_Inline_SentAndResponseConsumed() throws IOException {
+        CallbackDispatcher dispatcher = new CallbackDispatcher(httpClient, new CallbackConfiguration(),
+                MoreExecutors.sameThreadExecutor(), new MetricsRegistry());
+
+        boolean queued = dispatcher.put(URI.create("http://localhost/job/status"), "{}");
+
+        assertThat(queued).isTrue();
+        ArgumentCaptor<HttpPut> argument = ArgumentCaptor.forClass(HttpPut.class);
+        verify(httpClient).execute(argument.capture());
+        assertThat(argument.getValue().getURI()).isEqualTo(URI.create("http://localhost/job/status"));
+        verify(content).close();
+        assertThat(dispatcher.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void put_HostLimitReached_WaitsForInFlightCallback() {
+        ExecutorService executor = mock(ExecutorService.class);
+        ArgumentCaptor<Runnable> tasks = ArgumentCaptor.forClass(Runnable.class);
+        doNothing().when(executor).execute(tasks.capture());
+        CallbackDispatcher dispatcher = new CallbackDispatcher(httpClient, new CallbackConfiguration(4, 10, 1),
+                executor, new MetricsRegistry());
+
+        dispatcher.put(URI.create("http://slow/job/1"), "{}");
+        dispatcher.put(URI.create("http://slow/job/2"), "{}");
+        dispatcher.put(URI.create("http://fast/job/3"), "{}");
+
+        verify(executor, times(2)).execute(any(Runnable.class));
+        assertThat(dispatcher.size()).isEqualTo(3);
+
+        tasks.getAllValues().get(0).run();
+
+        verify(executor, times(3)).execute(any(Runnable.class));
+        assertThat(dispatcher.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void put_SameUrlInFlight_SentInOrder() throws IOException {
+        ExecutorService executor = mock(ExecutorService.class);
+        ArgumentCaptor<Runnable> tasks = ArgumentCaptor.forClass(Runnable.class);
+        doNothing().when(executor).execute(tasks.capture());
+        CallbackDispatcher dispatcher = new CallbackDispatcher(httpClient, new CallbackConfiguration(4, 10, 2),
+                executor, new MetricsRegistry());
+        URI url = URI.create("http://localhost/job/1");
+
+        dispatcher.put(url, "{\"state\":\"RUNNING\"}");
+        dispatcher.put(url, "{\"state\":\"DONE\"}");
+
+        verify(executor, times(1)).execute(any(Runnable.class));
+
+        tasks.getAllValues().get(0).run();
+        tasks.getAllValues().get(1).run();
+
+        ArgumentCaptor<HttpPut> argument = ArgumentCaptor.forClass(HttpPut.class);
+        verify(httpClient, times(2)).execute(argument.capture());
+        List<HttpPut> puts = argument.getAllValues();
+        assertThat(EntityUtils.toString(puts.get(0).getEntity())).isEqualTo("{\"state\":\"RUNNING\"}");
+        assertThat(EntityUtils.toString(puts.get(1).getEntity())).isEqualTo("{\"state\":\"DONE\"}");
+    }
+
+    @Test
+    public void put_QueueFull_Dropped() {
+        ExecutorService executor = mock(ExecutorService.class);
+        CallbackDispatcher dispatcher = new CallbackDispatcher(httpClient, new CallbackConfiguration(4, 1, 2),
+                executor, new MetricsRegistry());
+
+        dispatcher.put(URI.create("http://localhost/job/1"), "{}");
+        boolean queued = dispatcher.put(URI.create("http://localhost/job/2"), "{}");
+
+        assertThat(queued).isFalse();
+        assertThat(dispatcher.size()).isEqualTo(1);
+        assertThat(dispatcher.getDropped()).isEqualTo(1);
+    }
+
+    @Test
+    public void put_CallbackFails_Released() throws IOException {
+        when(httpClient.execute(any(HttpUriRequest.class))).thenThrow(new IOException("Connection refused"));
+        CallbackDispatcher dispatcher = new CallbackDispatcher(httpClient, new CallbackConfiguration(),
+                MoreExecutors.sameThreadExecutor(), new MetricsRegistry());
+
+        dispatcher.put(URI.create("http://localhost/job/status"), "{}");
+
+        assertThat(dispatcher.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        ExecutorService executor = mock(ExecutorService.class);
+        CallbackDispatcher dispatcher = new CallbackDispatcher(httpClient, new CallbackConfiguration(),
+                executor, new MetricsRegistry());
+
+        dispatcher.stop();
+
+        verify(executor).shutdown();
+    }
+
+    @Test
+    public void stop_CallbacksHeldBackByHostLimit_Delivered() throws Exception {
+        when(httpClient.execute(any(HttpUriRequest.class))).thenAnswer(new Answer<HttpResponse>() {
+            public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(50);
+                return response;
+            }
+        });
+        CallbackDispatcher dispatcher = new CallbackDispatcher(httpClient, new CallbackConfiguration(1, 10, 1),
+                Executors.newSingleThreadExecutor(), new MetricsRegistry());
+        dispatcher.put(URI.create("http://slow/job/1"), "{}");
+        dispatcher.put(URI.create("http://slow/job/2"), "{}");
+
+        dispatcher.stop();
+
+        verify(httpClient, times(2)).execute(any(HttpUriRequest.class));
+        assertThat(dispatcher.size()).isEqualTo(0);
+        assertThat(dispatcher.getDropped()).isEqualTo(0);
+    }
+
+    @Test
+    public void put_Stopped_Dropped() throws Exception {
+        CallbackDispatcher dispatcher = new CallbackDispatcher(httpClient, new CallbackConfiguration(),
+                MoreExecutors.sameThreadExecutor(), new MetricsRegistry());
+        dispatcher.stop();
+
+        boolean queued = dispatcher.put(URI.create("http://localhost/job/status"), "{}");
+
+        assertThat(queued).isFalse();
+        assertThat(dispatcher.getDropped()).isEqualTo(1);
+    }
+}
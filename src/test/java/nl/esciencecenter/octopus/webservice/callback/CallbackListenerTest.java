@@ -0,0 +1,87 @@
+package nl.esciencecenter.octopus.webservice.callback;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+
+import nl.esciencecenter.octopus.jobs.JobStatus;
+import nl.esciencecenter.octopus.webservice.api.JobSubmitRequest;
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+import nl.esciencecenter.octopus.webservice.event.JobEvent;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class CallbackListenerTest {
+    private CallbackDispatcher dispatcher;
+    private CallbackListener listener;
+    private SandboxedJob job;
+    private JobSubmitRequest request;
+
+    @Before
+    public void setUp() {
+        dispatcher = mock(CallbackDispatcher.class);
+        listener = new CallbackListener(dispatcher);
+        job = mock(SandboxedJob.class);
+        request = new JobSubmitRequest();
+        when(job.getRequest()).thenReturn(request);
+    }
+
+    @Test
+    public void onEvent_StateChangedWithCallback_Dispatched() {
+        request.status_callback_url = URI.create("http://localhost/job/status");
+        JobStatus status = mock(JobStatus.class);
+        when(status.getState()).thenReturn("RUNNING");
+
+        listener.onEvent(new JobEvent(JobEvent.Type.STATE_CHANGED, job, status));
+
+        ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
+        verify(dispatcher).put(eq(URI.create("http://localhost/job/status")), body.capture());
+        assertThat(body.getValue()).contains("\"state\":\"RUNNING\"");
+    }
+
+    @Test
+    public void onEvent_StateChangedWithoutCallback_NotDispatched() {
+        listener.onEvent(new JobEvent(JobEvent.Type.STATE_CHANGED, job, mock(JobStatus.class)));
+
+        verifyZeroInteractions(dispatcher);
+    }
+
+    @Test
+    public void onEvent_Submitted_NotDispatched() {
+        request.status_callback_url = URI.create("http://localhost/job/status");
+
+        listener.onEvent(new JobEvent(JobEvent.Type.SUBMITTED, job, null));
+
+        verify(dispatcher, never()).put(any(URI.class), anyString());
+    }
+}
@@ -0,0 +1,110 @@
+package nl.esciencecenter.octopus.webservice.event;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class JobEventBusTest {
+
+    @Test
+    public void publish_TwoListeners_BothReceiveEvent() {
+        JobEventBus bus = new JobEventBus();
+        JobEventListener listener1 = mock(JobEventListener.class);
+        JobEventListener listener2 = mock(JobEventListener.class);
+        bus.register(listener1, MoreExecutors.sameThreadExecutor());
+        bus.register(listener2, MoreExecutors.sameThreadExecutor());
+        JobEvent event = new JobEvent(JobEvent.Type.SUBMITTED, mock(SandboxedJob.class), null);
+
+        bus.publish(event);
+
+        verify(listener1).onEvent(event);
+        verify(listener2).onEvent(event);
+    }
+
+    @Test
+    public void publish_FailingListener_OtherListenerReceivesEvent() {
+        JobEventBus bus = new JobEventBus();
+        JobEventListener failing = mock(JobEventListener.class);
+        JobEventListener listener = mock(JobEventListener.class);
+        JobEvent event = new JobEvent(JobEvent.Type.DELETED, mock(SandboxedJob.class), null);
+        doThrow(new RuntimeException("Disk full")).when(failing).onEvent(event);
+        bus.register(failing, MoreExecutors.sameThreadExecutor());
+        bus.register(listener, MoreExecutors.sameThreadExecutor());
+
+        bus.publish(event);
+
+        verify(listener).onEvent(event);
+    }
+
+    @Test
+    public void publish_OwnThread_DeliveredInOrder() throws Exception {
+        JobEventBus bus = new JobEventBus();
+        final List<JobEvent.Type> received = new ArrayList<JobEvent.Type>();
+        bus.register(new JobEventListener() {
+            public void onEvent(JobEvent event) {
+                received.add(event.getType());
+            }
+        });
+        SandboxedJob job = mock(SandboxedJob.class);
+
+        bus.publish(new JobEvent(JobEvent.Type.SUBMITTED, job, null));
+        bus.publish(new JobEvent(JobEvent.Type.STATE_CHANGED, job, null));
+        bus.publish(new JobEvent(JobEvent.Type.SANDBOX_DOWNLOADED, job, null));
+        bus.stop();
+
+        assertThat(received).containsExactly(JobEvent.Type.SUBMITTED, JobEvent.Type.STATE_CHANGED,
+                JobEvent.Type.SANDBOX_DOWNLOADED);
+    }
+
+    @Test
+    public void publish_Stopped_EventDropped() throws Exception {
+        JobEventBus bus = new JobEventBus();
+        JobEventListener listener = mock(JobEventListener.class);
+        bus.register(listener);
+        bus.stop();
+
+        bus.publish(new JobEvent(JobEvent.Type.SUBMITTED, mock(SandboxedJob.class), null));
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        JobEventBus bus = new JobEventBus();
+        ExecutorService executor = mock(ExecutorService.class);
+        bus.register(mock(JobEventListener.class), executor);
+
+        bus.stop();
+
+        verify(executor).shutdown();
+    }
+}
@@ -0,0 +1,53 @@
+package nl.esciencecenter.octopus.webservice.event;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import nl.esciencecenter.octopus.jobs.JobStatus;
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+
+import org.junit.Test;
+
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+
+public class JobMetricsListenerTest {
+
+    @Test
+    public void onEvent_DoneState_CountedPerTypeAndState() {
+        MetricsRegistry registry = new MetricsRegistry();
+        JobMetricsListener listener = new JobMetricsListener(registry);
+        JobStatus status = mock(JobStatus.class);
+        when(status.isDone()).thenReturn(true);
+        when(status.getState()).thenReturn("DONE");
+
+        listener.onEvent(new JobEvent(JobEvent.Type.STATE_CHANGED, mock(SandboxedJob.class), status));
+
+        Counter changed = (Counter) registry.allMetrics().get(new MetricName(JobMetricsListener.class, "state_changed"));
+        Counter done = (Counter) registry.allMetrics().get(new MetricName(JobMetricsListener.class, "done", "DONE"));
+        assertThat(changed.count()).isEqualTo(1);
+        assertThat(done.count()).isEqualTo(1);
+    }
+}
@@ -21,12 +21,25 @@ package nl.esciencecenter.octopus.webservice.health;
  */
 
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import nl.esciencecenter.octopus.exceptions.OctopusIOException;
 import nl.esciencecenter.octopus.webservice.health.JobLauncherHealthCheck;
+import nl.esciencecenter.octopus.webservice.job.Backend;
+import nl.esciencecenter.octopus.webservice.job.BackendConfiguration;
+import nl.esciencecenter.octopus.webservice.job.OctopusManager;
+import nl.esciencecenter.octopus.webservice.job.SchedulerSession;
 
 import org.junit.Test;
 
 import com.yammer.metrics.core.HealthCheck.Result;
+import com.yammer.metrics.core.MetricsRegistry;
 
 public class JobLauncherHealthCheckTest {
 
@@ -36,4 +49,41 @@ public class JobLauncherHealthCheckTest {
         assertEquals(Result.healthy(), hc.check());
     }
 
+    private Backend newBackend(String name, SchedulerSession session) throws Exception {
+        BackendConfiguration conf = new BackendConfiguration(name, new URI("ssh://" + name + "/"), "default",
+                new URI("sftp://" + name + "/tmp"), 0, 1);
+        return new Backend(conf, session, new MetricsRegistry());
+    }
+
+    @Test
+    public void check_SessionsConnected_Healthy() throws Exception {
+        OctopusManager manager = mock(OctopusManager.class);
+        SchedulerSession session = mock(SchedulerSession.class);
+        when(session.getState()).thenReturn(SchedulerSession.State.CONNECTED);
+        List<Backend> backends = Arrays.asList(newBackend("cluster", session));
+        when(manager.getBackends()).thenReturn(backends);
+        JobLauncherHealthCheck hc = new JobLauncherHealthCheck("joblauncher", manager);
+
+        assertEquals(Result.healthy(), hc.check());
+    }
+
+    @Test
+    public void check_SessionReconnecting_Unhealthy() throws Exception {
+        OctopusManager manager = mock(OctopusManager.class);
+        SchedulerSession connected = mock(SchedulerSession.class);
+        when(connected.getState()).thenReturn(SchedulerSession.State.CONNECTED);
+        SchedulerSession reconnecting = mock(SchedulerSession.class);
+        when(reconnecting.getState()).thenReturn(SchedulerSession.State.RECONNECTING);
+        when(reconnecting.getSince()).thenReturn(0L);
+        when(reconnecting.getLastError()).thenReturn(new OctopusIOException("ssh", "Connection lost"));
+        List<Backend> backends = Arrays.asList(newBackend("cluster", connected), newBackend("other", reconnecting));
+        when(manager.getBackends()).thenReturn(backends);
+        JobLauncherHealthCheck hc = new JobLauncherHealthCheck("joblauncher", manager);
+
+        Result result = hc.check();
+
+        String expected = "Scheduler of backend other is RECONNECTING since " + new Date(0) + ": Connection lost";
+        assertEquals(Result.unhealthy(expected), result);
+    }
+
 }
@@ -0,0 +1,60 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class AdmissionConfigurationTest {
+
+    @Test
+    public void testAdmissionConfiguration_AllParameters() {
+        AdmissionConfiguration conf = new AdmissionConfiguration(2.5, 5, 20);
+
+        assertThat(conf.getRate()).isEqualTo(2.5);
+        assertThat(conf.getBurst()).isEqualTo(5);
+        assertThat(conf.getMaxActiveJobs()).isEqualTo(20);
+    }
+
+    @Test
+    public void testAdmissionConfiguration_NoParameters() {
+        AdmissionConfiguration conf = new AdmissionConfiguration();
+
+        assertThat(conf.getRate()).isEqualTo(0.0);
+        assertThat(conf.getBurst()).isEqualTo(10);
+        assertThat(conf.getMaxActiveJobs()).isEqualTo(0);
+    }
+
+    @Test
+    public void testEquals() {
+        assertThat(new AdmissionConfiguration(1, 2, 3)).isEqualTo(new AdmissionConfiguration(1, 2, 3));
+        assertThat(new AdmissionConfiguration(1, 2, 3)).isNotEqualTo(new AdmissionConfiguration(1, 2, 4));
+    }
+
+    @Test
+    public void testToString() {
+        AdmissionConfiguration conf = new AdmissionConfiguration();
+
+        String expected = "AdmissionConfiguration{0.0, 10, 0}";
+        assertThat(conf.toString()).isEqualTo(expected);
+    }
+}
@@ -0,0 +1,248 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import nl.esciencecenter.octopus.jobs.JobStatus;
+import nl.esciencecenter.octopus.webservice.api.JobSubmitRequest;
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+import nl.esciencecenter.octopus.webservice.event.JobEvent;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.yammer.metrics.core.Clock;
+import com.yammer.metrics.core.MetricsRegistry;
+
+public class AdmissionControllerTest {
+    private Clock clock;
+
+    @Before
+    public void setUp() {
+        clock = mock(Clock.class);
+        when(clock.tick()).thenReturn(TimeUnit.SECONDS.toNanos(100));
+    }
+
+    private AdmissionController newController(double rate, int burst, int maxActiveJobs) {
+        AdmissionConfiguration conf = new AdmissionConfiguration(rate, burst, maxActiveJobs);
+        return new AdmissionController(conf, clock, new MetricsRegistry());
+    }
+
+    private SandboxedJob newJob(String identifier) {
+        SandboxedJob job = mock(SandboxedJob.class);
+        when(job.getIdentifier()).thenReturn(identifier);
+        return job;
+    }
+
+    private void assertRejected(AdmissionController controller, String client) {
+        try {
+            controller.admit(client);
+            fail("RejectedExecutionException not thrown");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void clientOf_Identity() throws Exception {
+        JobSubmitRequest request = new JobSubmitRequest();
+        request.status_callback_url = new URI("http://pipeline.example.com/status");
+
+        assertThat(AdmissionController.clientOf("alice", request)).isEqualTo("alice");
+    }
+
+    @Test
+    public void clientOf_NoIdentity_CallbackHost() throws Exception {
+        JobSubmitRequest request = new JobSubmitRequest();
+        request.status_callback_url = new URI("http://pipeline.example.com/status");
+
+        assertThat(AdmissionController.clientOf(null, request)).isEqualTo("pipeline.example.com");
+    }
+
+    @Test
+    public void clientOf_NoIdentityNoCallback_Anonymous() {
+        assertThat(AdmissionController.clientOf(null, new JobSubmitRequest())).isEqualTo(AdmissionController.ANONYMOUS);
+    }
+
+    @Test
+    public void admit_NoLimits_AlwaysAdmitted() {
+        AdmissionController controller = newController(0, 10, 0);
+
+        for (int i = 0; i < 1000; i++) {
+            controller.admit("alice");
+        }
+
+        assertThat(controller.getActiveJobs("alice")).isEqualTo(0);
+    }
+
+    @Test
+    public void admit_BurstUsed_Rejected() {
+        AdmissionController controller = newController(1, 3, 0);
+
+        controller.admit("alice");
+        controller.admit("alice");
+        controller.admit("alice");
+
+        assertRejected(controller, "alice");
+    }
+
+    @Test
+    public void admit_TokenRefilled_Admitted() {
+        AdmissionController controller = newController(2, 1, 0);
+        controller.admit("alice");
+        assertRejected(controller, "alice");
+
+        when(clock.tick()).thenReturn(TimeUnit.SECONDS.toNanos(100) + TimeUnit.MILLISECONDS.toNanos(500));
+
+        controller.admit("alice");
+    }
+
+    @Test
+    public void admit_OtherClient_OwnBucket() {
+        AdmissionController controller = newController(1, 1, 0);
+        controller.admit("alice");
+
+        controller.admit("bob");
+
+        assertRejected(controller, "alice");
+    }
+
+    @Test
+    public void admit_QuotaReached_Rejected() {
+        AdmissionController controller = newController(0, 10, 2);
+        controller.admit("alice");
+        controller.admit("alice");
+
+        assertRejected(controller, "alice");
+        assertThat(controller.getActiveJobs("alice")).isEqualTo(2);
+    }
+
+    @Test
+    public void admit_RateRejected_PlaceInQuotaReturned() {
+        AdmissionController controller = newController(1, 1, 5);
+        controller.admit("alice");
+
+        assertRejected(controller, "alice");
+
+        assertThat(controller.getActiveJobs("alice")).isEqualTo(1);
+    }
+
+    @Test
+    public void release_SubmissionFailed_PlaceReturned() {
+        AdmissionController controller = newController(0, 10, 1);
+        controller.admit("alice");
+
+        controller.release("alice");
+
+        controller.admit("alice");
+    }
+
+    @Test
+    public void onEvent_JobDone_PlaceReturned() {
+        AdmissionController controller = newController(0, 10, 1);
+        controller.admit("alice");
+        SandboxedJob job = newJob("1234");
+        controller.admitted("alice", job);
+        JobStatus status = mock(JobStatus.class);
+        when(status.isDone()).thenReturn(true);
+
+        controller.onEvent(new JobEvent(JobEvent.Type.STATE_CHANGED, job, status));
+
+        assertThat(controller.getActiveJobs("alice")).isEqualTo(0);
+        // a later event of the same job does not release again
+        controller.onEvent(new JobEvent(JobEvent.Type.DELETED, job, status));
+        assertThat(controller.getActiveJobs("alice")).isEqualTo(0);
+    }
+
+    @Test
+    public void onEvent_JobRunning_PlaceKept() {
+        AdmissionController controller = newController(0, 10, 1);
+        controller.admit("alice");
+        SandboxedJob job = newJob("1234");
+        controller.admitted("alice", job);
+        JobStatus status = mock(JobStatus.class);
+        when(status.isDone()).thenReturn(false);
+
+        controller.onEvent(new JobEvent(JobEvent.Type.STATE_CHANGED, job, status));
+
+        assertThat(controller.getActiveJobs("alice")).isEqualTo(1);
+    }
+
+    @Test
+    public void admitted_JobAlreadyDone_PlaceReturned() {
+        AdmissionController controller = newController(0, 10, 1);
+        controller.admit("alice");
+        SandboxedJob job = newJob("1234");
+        JobStatus status = mock(JobStatus.class);
+        when(status.isDone()).thenReturn(true);
+        when(job.getStatus()).thenReturn(status);
+
+        controller.admitted("alice", job);
+
+        assertThat(controller.getActiveJobs("alice")).isEqualTo(0);
+    }
+
+    @Test
+    public void admit_IdleClientAfterSweepInterval_Removed() {
+        AdmissionController controller = newController(1, 1, 1);
+        controller.admit("alice");
+        controller.release("alice");
+        when(clock.tick()).thenReturn(TimeUnit.SECONDS.toNanos(200));
+
+        controller.admit("bob");
+
+        assertThat(controller.getClientCount()).isEqualTo(1);
+        assertThat(controller.getActiveJobs("alice")).isEqualTo(0);
+        assertThat(controller.getActiveJobs("bob")).isEqualTo(1);
+    }
+
+    @Test
+    public void admit_ClientWithActiveJobAfterSweepInterval_Kept() {
+        AdmissionController controller = newController(1, 1, 1);
+        controller.admit("alice");
+        when(clock.tick()).thenReturn(TimeUnit.SECONDS.toNanos(200));
+
+        controller.admit("bob");
+
+        assertThat(controller.getClientCount()).isEqualTo(2);
+        assertRejected(controller, "alice");
+    }
+
+    @Test
+    public void sweep_BucketNotFull_Kept() {
+        AdmissionController controller = newController(1, 2, 0);
+        controller.admit("alice");
+        controller.admit("alice");
+
+        controller.sweep(TimeUnit.SECONDS.toNanos(101));
+
+        assertThat(controller.getClientCount()).isEqualTo(1);
+        assertRejected(controller, "alice");
+    }
+}
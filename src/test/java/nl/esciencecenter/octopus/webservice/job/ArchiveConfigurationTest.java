@@ -0,0 +1,58 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class ArchiveConfigurationTest {
+
+    @Test
+    public void testArchiveConfiguration_AllParameters() {
+        ArchiveConfiguration conf = new ArchiveConfiguration(false, 4096);
+
+        assertThat(conf.isEnabled()).isFalse();
+        assertThat(conf.getSlabSize()).isEqualTo(4096);
+    }
+
+    @Test
+    public void testArchiveConfiguration_NoParameters() {
+        ArchiveConfiguration conf = new ArchiveConfiguration();
+
+        assertThat(conf.isEnabled()).isTrue();
+        assertThat(conf.getSlabSize()).isEqualTo(1048576);
+    }
+
+    @Test
+    public void testEquals() {
+        assertThat(new ArchiveConfiguration(true, 1)).isEqualTo(new ArchiveConfiguration(true, 1));
+        assertThat(new ArchiveConfiguration(true, 1)).isNotEqualTo(new ArchiveConfiguration(false, 1));
+    }
+
+    @Test
+    public void testToString() {
+        ArchiveConfiguration conf = new ArchiveConfiguration();
+
+        String expected = "ArchiveConfiguration{true, 1048576}";
+        assertThat(conf.toString()).isEqualTo(expected);
+    }
+}
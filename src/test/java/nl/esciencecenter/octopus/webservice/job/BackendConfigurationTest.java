@@ -0,0 +1,75 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import org.junit.Test;
+
+public class BackendConfigurationTest {
+
+    @Test
+    public void testBackendConfiguration_AllParameters() throws URISyntaxException {
+        BackendConfiguration conf = new BackendConfiguration("cluster", new URI("ssh://cluster/"), "default",
+                new URI("sftp://cluster/scratch"), 100, 2);
+
+        assertThat(conf.getName()).isEqualTo("cluster");
+        assertThat(conf.getScheduler()).isEqualTo(new URI("ssh://cluster/"));
+        assertThat(conf.getQueue()).isEqualTo("default");
+        assertThat(conf.getSandboxRoot()).isEqualTo(new URI("sftp://cluster/scratch"));
+        assertThat(conf.getCapacity()).isEqualTo(100);
+        assertThat(conf.getWeight()).isEqualTo(2);
+    }
+
+    @Test
+    public void testBackendConfiguration_NoParameters() {
+        BackendConfiguration conf = new BackendConfiguration();
+
+        assertThat(conf.getCapacity()).isEqualTo(0);
+        assertThat(conf.getWeight()).isEqualTo(1);
+    }
+
+    @Test
+    public void testEquals() throws URISyntaxException {
+        BackendConfiguration conf = new BackendConfiguration("cluster", new URI("ssh://cluster/"), "default",
+                new URI("sftp://cluster/scratch"), 100, 2);
+        BackendConfiguration same = new BackendConfiguration("cluster", new URI("ssh://cluster/"), "default",
+                new URI("sftp://cluster/scratch"), 100, 2);
+        BackendConfiguration other = new BackendConfiguration("cluster", new URI("ssh://cluster/"), "default",
+                new URI("sftp://cluster/scratch"), 50, 2);
+
+        assertThat(conf).isEqualTo(same);
+        assertThat(conf.hashCode()).isEqualTo(same.hashCode());
+        assertThat(conf).isNotEqualTo(other);
+    }
+
+    @Test
+    public void testToString() throws URISyntaxException {
+        BackendConfiguration conf = new BackendConfiguration("cluster", new URI("ssh://cluster/"), "default",
+                new URI("sftp://cluster/scratch"), 100, 2);
+
+        String expected = "BackendConfiguration{cluster, ssh://cluster/, default, sftp://cluster/scratch, 100, 2}";
+        assertThat(conf.toString()).isEqualTo(expected);
+    }
+}
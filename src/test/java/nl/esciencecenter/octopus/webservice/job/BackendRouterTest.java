@@ -0,0 +1,151 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+
+import nl.esciencecenter.octopus.jobs.Scheduler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.yammer.metrics.core.Clock;
+import com.yammer.metrics.core.MetricsRegistry;
+
+public class BackendRouterTest {
+    private Clock clock;
+
+    @Before
+    public void setUp() {
+        clock = mock(Clock.class);
+        when(clock.time()).thenReturn(1000L);
+    }
+
+    private Backend newBackend(String name, int capacity, int weight) throws URISyntaxException {
+        BackendConfiguration conf = new BackendConfiguration(name, new URI("local:///"), "multi",
+                new URI("file:///tmp/sandboxes"), capacity, weight);
+        return new Backend(conf, mock(Scheduler.class), new MetricsRegistry());
+    }
+
+    @Test
+    public void select_EmptyBackends_LowestCostPicked() throws URISyntaxException {
+        Backend first = newBackend("first", 0, 1);
+        Backend second = newBackend("second", 0, 1);
+        BackendRouter router = new BackendRouter(Arrays.asList(first, second), clock);
+
+        assertThat(router.select()).isEqualTo(first);
+        assertThat(router.select()).isEqualTo(second);
+        assertThat(first.depth()).isEqualTo(1);
+        assertThat(second.depth()).isEqualTo(1);
+    }
+
+    @Test
+    public void select_HeavierWeight_PickedMoreOften() throws URISyntaxException {
+        Backend light = newBackend("light", 0, 1);
+        Backend heavy = newBackend("heavy", 0, 3);
+        BackendRouter router = new BackendRouter(Arrays.asList(light, heavy), clock);
+
+        for (int i = 0; i < 8; i++) {
+            router.select();
+        }
+
+        assertThat(light.depth()).isEqualTo(2);
+        assertThat(heavy.depth()).isEqualTo(6);
+    }
+
+    @Test
+    public void select_SlowBackend_FastBackendPicked() throws URISyntaxException {
+        Backend slow = newBackend("slow", 0, 1);
+        slow.succeeded(1000);
+        Backend fast = newBackend("fast", 0, 1);
+        fast.succeeded(10);
+        BackendRouter router = new BackendRouter(Arrays.asList(slow, fast), clock);
+
+        assertThat(router.select()).isEqualTo(fast);
+    }
+
+    @Test
+    public void select_FullBackend_Skipped() throws URISyntaxException {
+        Backend full = newBackend("full", 1, 1);
+        full.reserve();
+        Backend other = newBackend("other", 0, 1);
+        other.succeeded(1000);
+        other.reserve();
+        BackendRouter router = new BackendRouter(Arrays.asList(full, other), clock);
+
+        assertThat(router.select()).isEqualTo(other);
+    }
+
+    @Test
+    public void select_UnhealthyBackend_Skipped() throws URISyntaxException {
+        Backend unhealthy = newBackend("unhealthy", 0, 1);
+        for (int i = 0; i < Backend.FAILURE_THRESHOLD; i++) {
+            unhealthy.failed(1000);
+        }
+        Backend other = newBackend("other", 0, 1);
+        other.reserve();
+        BackendRouter router = new BackendRouter(Arrays.asList(unhealthy, other), clock);
+
+        assertThat(router.select()).isEqualTo(other);
+    }
+
+    @Test
+    public void select_AllUnhealthy_LowestCostPicked() throws URISyntaxException {
+        Backend unhealthy = newBackend("unhealthy", 0, 1);
+        for (int i = 0; i < Backend.FAILURE_THRESHOLD; i++) {
+            unhealthy.failed(1000);
+        }
+        BackendRouter router = new BackendRouter(Arrays.asList(unhealthy), clock);
+
+        assertThat(router.select()).isEqualTo(unhealthy);
+    }
+
+    @Test
+    public void select_AllFull_Rejected() throws URISyntaxException {
+        Backend full = newBackend("full", 1, 1);
+        full.reserve();
+        BackendRouter router = new BackendRouter(Arrays.asList(full), clock);
+
+        try {
+            router.select();
+            fail("RejectedExecutionException not thrown");
+        } catch (RejectedExecutionException e) {
+            assertThat(full.depth()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void get() throws URISyntaxException {
+        Backend first = newBackend("first", 0, 1);
+        BackendRouter router = new BackendRouter(Arrays.asList(first), clock);
+
+        assertThat(router.get("first")).isEqualTo(first);
+        assertThat(router.get("second")).isNull();
+    }
+}
@@ -0,0 +1,211 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.UUID;
+
+import nl.esciencecenter.octopus.engine.jobs.JobImplementation;
+import nl.esciencecenter.octopus.jobs.Job;
+import nl.esciencecenter.octopus.jobs.JobDescription;
+import nl.esciencecenter.octopus.jobs.JobStatus;
+import nl.esciencecenter.octopus.jobs.Scheduler;
+import nl.esciencecenter.octopus.util.Sandbox;
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+import nl.esciencecenter.octopus.webservice.event.JobEvent;
+
+import org.junit.Test;
+
+import com.yammer.metrics.core.MetricsRegistry;
+
+public class BackendTest {
+
+    private Backend newBackend(int capacity, int weight) throws URISyntaxException {
+        BackendConfiguration conf = new BackendConfiguration("cluster", new URI("local:///"), "multi",
+                new URI("file:///tmp/sandboxes"), capacity, weight);
+        return new Backend(conf, mock(Scheduler.class), new MetricsRegistry());
+    }
+
+    @Test
+    public void depth_ReservedAndSubmitted() throws URISyntaxException {
+        Backend backend = newBackend(0, 1);
+        backend.reserve();
+        backend.reserve();
+        SandboxedJob job = mock(SandboxedJob.class);
+
+        backend.submitted(job);
+
+        assertThat(backend.depth()).isEqualTo(2);
+    }
+
+    @Test
+    public void depth_DoneEvent_Removed() throws URISyntaxException {
+        Backend backend = newBackend(0, 1);
+        backend.reserve();
+        SandboxedJob job = mock(SandboxedJob.class);
+        backend.submitted(job);
+        JobStatus status = mock(JobStatus.class);
+        when(status.isDone()).thenReturn(true);
+
+        backend.onEvent(new JobEvent(JobEvent.Type.STATE_CHANGED, job, status));
+
+        assertThat(backend.depth()).isEqualTo(0);
+    }
+
+    @Test
+    public void depth_DeletedEventTwice_RemovedOnce() throws URISyntaxException {
+        Backend backend = newBackend(0, 1);
+        backend.reserve();
+        backend.reserve();
+        SandboxedJob job = mock(SandboxedJob.class);
+        backend.submitted(job);
+        backend.submitted(mock(SandboxedJob.class));
+
+        backend.onEvent(new JobEvent(JobEvent.Type.DELETED, job, null));
+        backend.onEvent(new JobEvent(JobEvent.Type.DELETED, job, null));
+
+        assertThat(backend.depth()).isEqualTo(1);
+    }
+
+    @Test
+    public void submitted_AlreadyDone_NotCounted() throws URISyntaxException {
+        Backend backend = newBackend(0, 1);
+        backend.reserve();
+        SandboxedJob job = mock(SandboxedJob.class);
+        JobStatus status = mock(JobStatus.class);
+        when(status.isDone()).thenReturn(true);
+        when(job.getStatus()).thenReturn(status);
+
+        backend.submitted(job);
+
+        assertThat(backend.depth()).isEqualTo(0);
+    }
+
+    @Test
+    public void release_ReservedPlace_DepthDecremented() throws URISyntaxException {
+        Backend backend = newBackend(0, 1);
+        backend.reserve();
+
+        backend.release();
+
+        assertThat(backend.depth()).isEqualTo(0);
+    }
+
+    @Test
+    public void reconnected_JobsBoundToNewScheduler() throws Exception {
+        Backend backend = newBackend(0, 1);
+        backend.reserve();
+        SandboxedJob job = new SandboxedJob((Sandbox) null, null, null, null);
+        UUID uuid = UUID.randomUUID();
+        JobDescription description = new JobDescription();
+        job.setJob(new JobImplementation(description, mock(Scheduler.class), uuid, "1234", false, true));
+        backend.submitted(job);
+        Scheduler fresh = mock(Scheduler.class);
+
+        backend.rebind(fresh);
+
+        Job rebound = job.getJob();
+        assertThat(rebound.getScheduler()).isEqualTo(fresh);
+        assertThat(rebound.getUUID()).isEqualTo(uuid);
+        assertThat(rebound.getIdentifier()).isEqualTo("1234");
+        assertThat(rebound.getJobDescription()).isEqualTo(description);
+        assertThat(rebound.isOnline()).isTrue();
+    }
+
+    @Test
+    public void isFull_NoCapacity_NeverFull() throws URISyntaxException {
+        Backend backend = newBackend(0, 1);
+        backend.reserve();
+
+        assertThat(backend.isFull()).isFalse();
+    }
+
+    @Test
+    public void isFull_DepthAtCapacity_Full() throws URISyntaxException {
+        Backend backend = newBackend(2, 1);
+        backend.reserve();
+        assertThat(backend.isFull()).isFalse();
+
+        backend.reserve();
+
+        assertThat(backend.isFull()).isTrue();
+    }
+
+    @Test
+    public void isHealthy_FailuresBelowThreshold_Healthy() throws URISyntaxException {
+        Backend backend = newBackend(0, 1);
+
+        backend.failed(1000);
+        backend.failed(1000);
+
+        assertThat(backend.isHealthy(1000)).isTrue();
+    }
+
+    @Test
+    public void isHealthy_FailuresAtThreshold_UnhealthyDuringCoolDown() throws URISyntaxException {
+        Backend backend = newBackend(0, 1);
+
+        backend.failed(1000);
+        backend.failed(1000);
+        backend.failed(1000);
+
+        assertThat(backend.isHealthy(1000)).isFalse();
+        assertThat(backend.isHealthy(1000 + Backend.COOL_DOWN)).isTrue();
+    }
+
+    @Test
+    public void succeeded_ResetsFailures() throws URISyntaxException {
+        Backend backend = newBackend(0, 1);
+        backend.failed(1000);
+        backend.failed(1000);
+
+        backend.succeeded(10);
+        backend.failed(1000);
+
+        assertThat(backend.isHealthy(1000)).isTrue();
+    }
+
+    @Test
+    public void getLatency_MovingAverage() throws URISyntaxException {
+        Backend backend = newBackend(0, 1);
+
+        backend.succeeded(100);
+        assertThat(backend.getLatency()).isEqualTo(100.0);
+
+        backend.succeeded(200);
+        assertThat(backend.getLatency()).isEqualTo(120.0);
+    }
+
+    @Test
+    public void cost_WeightedByLatencyAndWeight() throws URISyntaxException {
+        Backend backend = newBackend(0, 2);
+        backend.succeeded(9);
+        backend.reserve();
+
+        // (depth + 1) * (latency + 1) / weight
+        assertThat(backend.cost()).isEqualTo(10.0);
+    }
+}
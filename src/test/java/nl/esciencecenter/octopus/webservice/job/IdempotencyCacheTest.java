@@ -0,0 +1,211 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.esciencecenter.octopus.exceptions.OctopusIOException;
+import nl.esciencecenter.octopus.webservice.api.JobSubmitRequest;
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+import com.yammer.metrics.core.MetricsRegistry;
+
+public class IdempotencyCacheTest {
+    private Ticker ticker;
+    private IdempotencyCache cache;
+    private JobSubmitRequest request;
+    private SandboxedJob job;
+
+    /**
+     * Submission which counts it's calls.
+     */
+    static class CountingSubmission implements Callable<SandboxedJob> {
+        final AtomicInteger calls = new AtomicInteger();
+        final SandboxedJob job;
+
+        CountingSubmission(SandboxedJob job) {
+            this.job = job;
+        }
+
+        public SandboxedJob call() throws Exception {
+            calls.incrementAndGet();
+            return job;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        ticker = mock(Ticker.class);
+        when(ticker.read()).thenReturn(0L);
+        SubmitConfiguration conf = new SubmitConfiguration();
+        conf.setIdempotencyTimeout(60000);
+        cache = new IdempotencyCache(conf, ticker, new MetricsRegistry());
+        request = new JobSubmitRequest();
+        request.executable = "/bin/sh";
+        job = mock(SandboxedJob.class);
+    }
+
+    @Test
+    public void submit_NewKey_Submitted() throws ExecutionException {
+        CountingSubmission submission = new CountingSubmission(job);
+
+        SandboxedJob result = cache.submit("alice", "key1", request, submission);
+
+        assertThat(result).isEqualTo(job);
+        assertThat(submission.calls.get()).isEqualTo(1);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void submit_Retry_FirstJobReturned() throws ExecutionException {
+        cache.submit("alice", "key1", request, new CountingSubmission(job));
+        CountingSubmission retry = new CountingSubmission(mock(SandboxedJob.class));
+
+        SandboxedJob result = cache.submit("alice", "key1", request, retry);
+
+        assertThat(result).isEqualTo(job);
+        assertThat(retry.calls.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void submit_SameKeyOtherClient_Submitted() throws ExecutionException {
+        cache.submit("alice", "key1", request, new CountingSubmission(job));
+        SandboxedJob other = mock(SandboxedJob.class);
+
+        SandboxedJob result = cache.submit("bob", "key1", request, new CountingSubmission(other));
+
+        assertThat(result).isEqualTo(other);
+    }
+
+    @Test
+    public void submit_SameKeyOtherRequest_Rejected() throws ExecutionException {
+        cache.submit("alice", "key1", request, new CountingSubmission(job));
+        JobSubmitRequest otherRequest = new JobSubmitRequest();
+        otherRequest.executable = "/bin/true";
+
+        try {
+            cache.submit("alice", "key1", otherRequest, new CountingSubmission(job));
+            fail("IdempotencyConflictException not thrown");
+        } catch (IdempotencyConflictException e) {
+            assertThat(e).hasMessage("Idempotency-Key key1 was used for a different request");
+        }
+    }
+
+    @Test
+    public void submit_CheckedFailure_NotRemembered() throws ExecutionException {
+        final OctopusIOException error = new OctopusIOException("local", "Disk full");
+        try {
+            cache.submit("alice", "key1", request, new Callable<SandboxedJob>() {
+                public SandboxedJob call() throws Exception {
+                    throw error;
+                }
+            });
+            fail("ExecutionException not thrown");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause()).isEqualTo(error);
+        }
+
+        SandboxedJob result = cache.submit("alice", "key1", request, new CountingSubmission(job));
+
+        assertThat(result).isEqualTo(job);
+    }
+
+    @Test
+    public void submit_Rejected_RejectionPassedThrough() throws ExecutionException {
+        try {
+            cache.submit("alice", "key1", request, new Callable<SandboxedJob>() {
+                public SandboxedJob call() {
+                    throw new RejectedExecutionException("Submit pipeline is full");
+                }
+            });
+            fail("RejectedExecutionException not thrown");
+        } catch (RejectedExecutionException e) {
+            assertThat(cache.size()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void submit_Expired_SubmittedAgain() throws ExecutionException {
+        cache.submit("alice", "key1", request, new CountingSubmission(job));
+        when(ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(60001));
+        SandboxedJob other = mock(SandboxedJob.class);
+
+        SandboxedJob result = cache.submit("alice", "key1", request, new CountingSubmission(other));
+
+        assertThat(result).isEqualTo(other);
+    }
+
+    @Test
+    public void submit_ConcurrentRetry_WaitsForFirst() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final Callable<SandboxedJob> slow = new Callable<SandboxedJob>() {
+            public SandboxedJob call() throws Exception {
+                calls.incrementAndGet();
+                started.countDown();
+                finish.await();
+                return job;
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<SandboxedJob> first = executor.submit(new Callable<SandboxedJob>() {
+                public SandboxedJob call() throws Exception {
+                    return cache.submit("alice", "key1", request, slow);
+                }
+            });
+            started.await();
+            Future<SandboxedJob> retry = executor.submit(new Callable<SandboxedJob>() {
+                public SandboxedJob call() throws Exception {
+                    return cache.submit("alice", "key1", request, slow);
+                }
+            });
+            Thread.sleep(50);
+            assertThat(retry.isDone()).isFalse();
+
+            finish.countDown();
+
+            assertThat(first.get()).isEqualTo(job);
+            assertThat(retry.get()).isEqualTo(job);
+            assertThat(calls.get()).isEqualTo(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import nl.esciencecenter.octopus.engine.jobs.JobStatusImplementation;
+import nl.esciencecenter.octopus.jobs.Job;
+import nl.esciencecenter.octopus.jobs.JobStatus;
+import nl.esciencecenter.octopus.util.Sandbox;
+import nl.esciencecenter.octopus.webservice.api.JobSubmitRequest;
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+
+import org.apache.http.client.HttpClient;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.yammer.metrics.core.MetricsRegistry;
+
+public class JobArchiveTest {
+    private JobArchive archive;
+
+    @Before
+    public void setUp() {
+        archive = new JobArchive(new ArchiveConfiguration(true, 1024), new MetricsRegistry());
+    }
+
+    private SandboxedJob newJob(String identifier) throws Exception {
+        JobSubmitRequest request = new JobSubmitRequest("/tmp/jobdir/", "/bin/sh", Arrays.asList("run.sh", "ünïcode"),
+                Arrays.asList("run.sh"), Arrays.asList("output.txt"), "stderr.txt", "stdout.txt", new URI(
+                        "http://localhost/status"));
+        Map<String, String> info = new HashMap<String, String>();
+        info.put("host", "node1");
+        JobStatus status = new JobStatusImplementation(null, "DONE", 3, null, false, true, info);
+        SandboxedJob job = new SandboxedJob(identifier, mock(Sandbox.class), mock(Job.class), request, mock(HttpClient.class),
+                status, null);
+        job.setBackend("default");
+        job.setSubmitted(1000L);
+        return job;
+    }
+
+    @Test
+    public void get_ArchivedJob_UnpackedWithoutSandboxJobAndHttpClient() throws Exception {
+        SandboxedJob job = newJob("job1");
+
+        archive.put(job, 2000L);
+        SandboxedJob result = archive.get("job1");
+
+        assertThat(result.getIdentifier()).isEqualTo("job1");
+        assertThat(result.getRequest()).isEqualTo(job.getRequest());
+        assertThat(result.getBackend()).isEqualTo("default");
+        assertThat(result.getSubmitted()).isEqualTo(1000L);
+        assertThat(result.getStatusResponse()).isEqualTo(job.getStatusResponse());
+        assertThat(result.getSandbox()).isNull();
+        assertThat(result.getJob()).isNull();
+        assertThat(result.getHttpClient()).isNull();
+        assertThat(archive.getDone("job1")).isEqualTo(2000L);
+    }
+
+    @Test
+    public void get_StatusWithExceptionAndNoExitCode_Unpacked() throws Exception {
+        SandboxedJob job = newJob("job1");
+        job.setStatus(new JobStatusImplementation(null, "ERROR", null, new Exception("Upload failed"), false, true, null));
+
+        archive.put(job, 2000L);
+        JobStatus status = archive.get("job1").getStatus();
+
+        assertThat(status.getState()).isEqualTo("ERROR");
+        assertThat(status.getExitCode()).isNull();
+        assertThat(status.getException().getMessage()).isEqualTo("Upload failed");
+        assertThat(status.getSchedulerSpecficInformation()).isNull();
+        assertThat(status.isDone()).isTrue();
+        assertThat(status.isRunning()).isFalse();
+    }
+
+    @Test
+    public void get_JobWithoutRequest_UnpackedWithoutRequest() throws Exception {
+        SandboxedJob job = new SandboxedJob("job1", null, null, null, null, new JobStatusImplementation(null, "DONE", 0,
+                null, false, true, null), null);
+
+        archive.put(job, 2000L);
+
+        assertThat(archive.get("job1").getRequest()).isNull();
+    }
+
+    @Test
+    public void get_UnknownJob_Null() {
+        assertThat(archive.get("job1")).isNull();
+        assertThat(archive.getDone("job1")).isEqualTo(-1L);
+    }
+
+    @Test
+    public void remove_ArchivedJob_RemovedAndReturned() throws Exception {
+        archive.put(newJob("job1"), 2000L);
+
+        SandboxedJob removed = archive.remove("job1");
+
+        assertThat(removed.getIdentifier()).isEqualTo("job1");
+        assertThat(archive.get("job1")).isNull();
+        assertThat(archive.size()).isEqualTo(0);
+        assertThat(archive.remove("job1")).isNull();
+    }
+
+    @Test
+    public void put_SlabFull_NewSlabAndEmptySlabReleased() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            archive.put(newJob("job" + i), 2000L);
+        }
+        long capacity = archive.getCapacity();
+        assertThat(capacity).isGreaterThan(1024L);
+
+        for (int i = 0; i < 10; i++) {
+            archive.remove("job" + i);
+        }
+
+        assertThat(archive.getCapacity()).isLessThan(capacity);
+        assertThat(archive.size()).isEqualTo(10);
+        assertThat(archive.get("job19").getIdentifier()).isEqualTo("job19");
+    }
+
+    @Test
+    public void put_SameIdentifierTwice_Replaced() throws Exception {
+        archive.put(newJob("job1"), 2000L);
+        archive.put(newJob("job1"), 3000L);
+
+        assertThat(archive.size()).isEqualTo(1);
+        assertThat(archive.getDone("job1")).isEqualTo(3000L);
+    }
+
+    @Test
+    public void getJobs_TwoArchived_InArchivedOrder() throws Exception {
+        archive.put(newJob("job1"), 2000L);
+        archive.put(newJob("job2"), 2000L);
+
+        assertThat(archive.getJobs()).hasSize(2);
+        assertThat(archive.getJobs().get(0).getIdentifier()).isEqualTo("job1");
+        assertThat(archive.getJobs().get(1).getIdentifier()).isEqualTo("job2");
+    }
+}
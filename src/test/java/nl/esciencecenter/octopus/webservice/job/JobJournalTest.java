@@ -0,0 +1,301 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import nl.esciencecenter.octopus.engine.jobs.JobStatusImplementation;
+import nl.esciencecenter.octopus.files.AbsolutePath;
+import nl.esciencecenter.octopus.jobs.Job;
+import nl.esciencecenter.octopus.jobs.JobStatus;
+import nl.esciencecenter.octopus.util.Sandbox;
+import nl.esciencecenter.octopus.webservice.api.JobSubmitRequest;
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+import nl.esciencecenter.octopus.webservice.event.JobEvent;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.yammer.metrics.core.MetricsRegistry;
+
+public class JobJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JournalConfiguration conf;
+
+    @Before
+    public void setUp() {
+        conf = new JournalConfiguration(folder.getRoot().getPath(), 4096, 0);
+    }
+
+    private JobJournal newJournal() throws IOException {
+        return new JobJournal(conf, new MetricsRegistry());
+    }
+
+    private SandboxedJob newJob(String identifier) {
+        JobSubmitRequest request = new JobSubmitRequest("/tmp/jobdir", "/bin/sh", Arrays.asList("run.sh"),
+                Arrays.asList("run.sh"), Arrays.asList("output.txt"), "stderr.txt", "stdout.txt", null);
+        AbsolutePath path = mock(AbsolutePath.class);
+        when(path.getFileName()).thenReturn("sandbox-" + identifier);
+        Sandbox sandbox = mock(Sandbox.class);
+        when(sandbox.getPath()).thenReturn(path);
+        Job job = mock(Job.class);
+        when(job.getUUID()).thenReturn(new UUID(1L, identifier.hashCode()));
+        when(job.getIdentifier()).thenReturn("local-" + identifier);
+        SandboxedJob sjob = new SandboxedJob(identifier, sandbox, job, request, null, null, null);
+        sjob.setBackend("default");
+        return sjob;
+    }
+
+    private JobStatus doneStatus() {
+        return new JobStatusImplementation(null, "DONE", 0, null, false, true, null);
+    }
+
+    @Test
+    public void replay_SubmittedJob_RecordHoldsJob() throws Exception {
+        SandboxedJob sjob = newJob("job1");
+        JobJournal journal = newJournal();
+        journal.start();
+        journal.submitted(sjob, 1234L);
+        journal.close();
+
+        List<JournalRecord> records = newJournal().replay();
+
+        assertThat(records).hasSize(1);
+        JournalRecord record = records.get(0);
+        assertThat(record.type).isEqualTo(JournalRecord.Type.SUBMITTED);
+        assertThat(record.identifier).isEqualTo("job1");
+        assertThat(record.submitted).isEqualTo(1234L);
+        assertThat(record.backend).isEqualTo("default");
+        assertThat(record.request).isEqualTo(sjob.getRequest());
+        assertThat(record.sandbox).isEqualTo("sandbox-job1");
+        assertThat(record.uuid).isEqualTo(sjob.getJob().getUUID());
+        assertThat(record.jobIdentifier).isEqualTo("local-job1");
+        assertThat(record.state).isNull();
+    }
+
+    @Test
+    public void replay_StateChanged_StateFoldedIntoSubmittedRecord() throws Exception {
+        SandboxedJob sjob = newJob("job1");
+        JobJournal journal = newJournal();
+        journal.start();
+        journal.submitted(sjob, 1234L);
+        journal.onEvent(new JobEvent(JobEvent.Type.STATE_CHANGED, sjob, doneStatus()));
+        journal.close();
+
+        List<JournalRecord> records = newJournal().replay();
+
+        assertThat(records).hasSize(1);
+        JobStatus status = records.get(0).toStatus(null);
+        assertThat(status.getState()).isEqualTo("DONE");
+        assertThat(status.getExitCode()).isEqualTo(0);
+        assertThat(status.isDone()).isTrue();
+        assertThat(status.hasException()).isFalse();
+    }
+
+    @Test
+    public void replay_Deleted_JobLeftOut() throws Exception {
+        SandboxedJob sjob1 = newJob("job1");
+        SandboxedJob sjob2 = newJob("job2");
+        JobJournal journal = newJournal();
+        journal.start();
+        journal.submitted(sjob1, 1234L);
+        journal.submitted(sjob2, 1235L);
+        journal.onEvent(new JobEvent(JobEvent.Type.DELETED, sjob1, doneStatus()));
+        journal.close();
+
+        List<JournalRecord> records = newJournal().replay();
+
+        assertThat(records).hasSize(1);
+        assertThat(records.get(0).identifier).isEqualTo("job2");
+    }
+
+    @Test
+    public void replay_StateOfUnjournaledJob_Ignored() throws Exception {
+        JobJournal journal = newJournal();
+        journal.start();
+        journal.onEvent(new JobEvent(JobEvent.Type.STATE_CHANGED, newJob("job1"), doneStatus()));
+        journal.close();
+
+        assertThat(newJournal().replay()).isEmpty();
+    }
+
+    @Test
+    public void submitted_SegmentFull_RollsToNextSegment() throws Exception {
+        conf.setSegmentSize(512);
+        JobJournal journal = newJournal();
+        journal.start();
+        for (int i = 0; i < 10; i++) {
+            journal.submitted(newJob("job" + i), i);
+        }
+        journal.close();
+
+        JobJournal reopened = newJournal();
+        assertThat(reopened.segments().size()).isGreaterThan(1);
+        List<JournalRecord> records = reopened.replay();
+        assertThat(records).hasSize(10);
+        assertThat(records.get(9).identifier).isEqualTo("job9");
+    }
+
+    @Test
+    public void replay_TornRecord_EarlierRecordsReplayed() throws Exception {
+        JobJournal journal = newJournal();
+        journal.start();
+        journal.submitted(newJob("job1"), 1L);
+        journal.submitted(newJob("job2"), 2L);
+        journal.close();
+        File segment = newJournal().segments().get(0);
+        // corrupt last byte of payload of second record
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        int length = file.readInt();
+        file.seek(8 + length);
+        int length2 = file.readInt();
+        file.seek(8 + length + 8 + length2 - 1);
+        file.write('x');
+        file.close();
+
+        List<JournalRecord> records = newJournal().replay();
+
+        assertThat(records).hasSize(1);
+        assertThat(records.get(0).identifier).isEqualTo("job1");
+    }
+
+    @Test
+    public void replay_AfterStart_OnlySegmentsOfPreviousRunReplayed() throws Exception {
+        JobJournal previous = newJournal();
+        previous.start();
+        previous.submitted(newJob("job1"), 1L);
+        previous.close();
+
+        JobJournal journal = newJournal();
+        journal.start();
+        journal.submitted(newJob("job2"), 2L);
+
+        List<JournalRecord> records = journal.replay();
+        journal.close();
+
+        assertThat(records).hasSize(1);
+        assertThat(records.get(0).identifier).isEqualTo("job1");
+    }
+
+    @Test
+    public void snapshot_CoveredSegmentsDeleted_ReplayLoadsSnapshotAndTail() throws Exception {
+        SandboxedJob sjob1 = newJob("job1");
+        SandboxedJob sjob2 = newJob("job2");
+        JobJournal journal = newJournal();
+        journal.start();
+        journal.submitted(sjob1, 1L);
+        journal.submitted(sjob2, 2L);
+        journal.onEvent(new JobEvent(JobEvent.Type.STATE_CHANGED, sjob1, doneStatus()));
+        journal.onEvent(new JobEvent(JobEvent.Type.DELETED, sjob2, doneStatus()));
+        journal.snapshot();
+        journal.submitted(newJob("job3"), 3L);
+        // waits for snapshot to be written
+        journal.close();
+
+        JobJournal reopened = newJournal();
+        assertThat(reopened.snapshots()).hasSize(1);
+        // only the segment with the record written after the snapshot is left
+        assertThat(reopened.segments()).hasSize(1);
+        List<JournalRecord> records = reopened.replay();
+        assertThat(records).hasSize(2);
+        assertThat(records.get(0).identifier).isEqualTo("job1");
+        assertThat(records.get(0).toStatus(null).isDone()).isTrue();
+        assertThat(records.get(1).identifier).isEqualTo("job3");
+    }
+
+    @Test
+    public void snapshot_NothingWritten_NoSnapshot() throws Exception {
+        JobJournal journal = newJournal();
+        journal.start();
+        journal.snapshot();
+        journal.close();
+
+        assertThat(newJournal().snapshots()).isEmpty();
+    }
+
+    @Test
+    public void snapshot_AfterRestart_CoversReplayedJobs() throws Exception {
+        JobJournal previous = newJournal();
+        previous.start();
+        previous.submitted(newJob("job1"), 1L);
+        previous.snapshot();
+        previous.close();
+
+        JobJournal journal = newJournal();
+        journal.start();
+        journal.submitted(newJob("job2"), 2L);
+        journal.snapshot();
+        journal.close();
+
+        JobJournal reopened = newJournal();
+        assertThat(reopened.snapshots()).hasSize(1);
+        assertThat(reopened.segments()).isEmpty();
+        List<JournalRecord> records = reopened.replay();
+        assertThat(records).hasSize(2);
+        assertThat(records.get(0).identifier).isEqualTo("job1");
+        assertThat(records.get(1).identifier).isEqualTo("job2");
+    }
+
+    @Test(timeout = 10000, expected = IOException.class)
+    public void submitted_AfterClose_ThrowsIOException() throws Exception {
+        JobJournal journal = newJournal();
+        journal.start();
+        journal.close();
+
+        journal.submitted(newJob("job1"), 1234L);
+    }
+
+    @Test(timeout = 10000, expected = IOException.class)
+    public void submitted_CommitterInterrupted_ThrowsIOException() throws Exception {
+        JobJournal journal = newJournal();
+        journal.start();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if ("job-journal".equals(thread.getName())) {
+                thread.interrupt();
+                thread.join();
+            }
+        }
+
+        try {
+            journal.submitted(newJob("job1"), 1234L);
+        } finally {
+            journal.close();
+        }
+    }
+
+    @Test
+    public void replay_EmptyDirectory_NoRecords() throws Exception {
+        assertThat(newJournal().replay()).isEmpty();
+    }
+}
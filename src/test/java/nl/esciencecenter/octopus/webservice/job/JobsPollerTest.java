@@ -23,17 +23,25 @@ package nl.esciencecenter.octopus.webservice.job;
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.doNothing;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
 
 import nl.esciencecenter.octopus.Octopus;
 import nl.esciencecenter.octopus.engine.jobs.JobImplementation;
@@ -49,14 +57,21 @@ import nl.esciencecenter.octopus.jobs.Scheduler;
 import nl.esciencecenter.octopus.util.CopyOption;
 import nl.esciencecenter.octopus.util.Sandbox;
 import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+import nl.esciencecenter.octopus.webservice.event.JobEvent;
+import nl.esciencecenter.octopus.webservice.event.JobEventBus;
+import nl.esciencecenter.octopus.webservice.staging.SandboxStager;
+import nl.esciencecenter.octopus.webservice.staging.StagingState;
 
 import org.apache.http.client.ClientProtocolException;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.yammer.metrics.core.MetricsRegistry;
 
 public class JobsPollerTest {
 
     @Test
-    public void run_NoState_StateFilledAndIterationIncreased() throws URISyntaxException {
+    public void run_NoState_StateFilled() throws URISyntaxException {
         Map<String, SandboxedJob> jobs = new HashMap<String, SandboxedJob>();
         String identifier = "11111111-1111-1111-1111-111111111111";
         UUID uuid = UUID.fromString(identifier);
@@ -72,22 +87,22 @@ public class JobsPollerTest {
         // use `doReturn` instead of `when` as argument matching fails
         doReturn(statuses).when(jobsEngine).getJobStatuses((Job[]) any());
         JobsPoller poller = new JobsPoller(jobs, pollConf, octopus);
+        poller.watch(sjob, System.currentTimeMillis());
 
         poller.run();
 
         assertThat(sjob.getStatus()).isEqualTo(jobstatus);
-        assertThat(sjob.getPollIterations()).isEqualTo(1);
     }
 
     @Test
-    public void run_RunningState_StateUnchangedIterationIncreased() throws URISyntaxException, UnsupportedEncodingException,
+    public void run_RunningState_StateUnchanged() throws URISyntaxException, UnsupportedEncodingException,
             ClientProtocolException, IOException {
         Map<String, SandboxedJob> jobs = new HashMap<String, SandboxedJob>();
         String identifier = "11111111-1111-1111-1111-111111111111";
         UUID uuid = UUID.fromString(identifier);
         Job job = new JobImplementation(mock(JobDescription.class), mock(Scheduler.class), uuid, identifier, false, false);
         JobStatus jobstatus = new JobStatusImplementation(job, "RUNNING", 0, null, true, false, null);
-        SandboxedJob sjob = new SandboxedJob(null, job, null, null, jobstatus, 5);
+        SandboxedJob sjob = new SandboxedJob(null, job, null, null, jobstatus);
         jobs.put(identifier, sjob);
         PollConfiguration pollConf = new PollConfiguration();
         Octopus octopus = mock(Octopus.class);
@@ -97,11 +112,11 @@ public class JobsPollerTest {
         // use `doReturn` instead of `when` as argument matching fails
         doReturn(statuses).when(jobsEngine).getJobStatuses((Job[]) any());
         JobsPoller poller = new JobsPoller(jobs, pollConf, octopus);
+        poller.watch(sjob, System.currentTimeMillis());
 
         poller.run();
 
         assertThat(sjob.getStatus()).isEqualTo(jobstatus);
-        assertThat(sjob.getPollIterations()).isEqualTo(6);
     }
 
     @Test
@@ -111,7 +126,7 @@ public class JobsPollerTest {
         UUID uuid = UUID.fromString(identifier);
         Job job = new JobImplementation(mock(JobDescription.class), mock(Scheduler.class), uuid, identifier, false, false);
         JobStatus jobstatus = new JobStatusImplementation(job, "PENDING", 0, null, false, false, null);
-        SandboxedJob sjob = new SandboxedJob(null, job, null, null, jobstatus, 5);
+        SandboxedJob sjob = new SandboxedJob(null, job, null, null, jobstatus);
         jobs.put(identifier, sjob);
         PollConfiguration pollConf = new PollConfiguration();
         Octopus octopus = mock(Octopus.class);
@@ -122,11 +137,11 @@ public class JobsPollerTest {
         // use `doReturn` instead of `when` as argument matching fails
         doReturn(statuses).when(jobsEngine).getJobStatuses((Job[]) any());
         JobsPoller poller = new JobsPoller(jobs, pollConf, octopus);
+        poller.watch(sjob, System.currentTimeMillis());
 
         poller.run();
 
         assertThat(sjob.getStatus()).isEqualTo(new_jobstatus);
-        assertThat(sjob.getPollIterations()).isEqualTo(6);
     }
 
     @Test
@@ -137,7 +152,7 @@ public class JobsPollerTest {
         Job job = new JobImplementation(mock(JobDescription.class), mock(Scheduler.class), uuid, identifier, false, false);
         JobStatus jobstatus = new JobStatusImplementation(job, "RUNNING", 0, null, true, false, null);
         Sandbox sb = mock(Sandbox.class);
-        SandboxedJob sjob = new SandboxedJob(sb, job, null, null, jobstatus, 5);
+        SandboxedJob sjob = new SandboxedJob(sb, job, null, null, jobstatus);
         jobs.put(identifier, sjob);
         PollConfiguration pollConf = new PollConfiguration();
         Octopus octopus = mock(Octopus.class);
@@ -148,6 +163,7 @@ public class JobsPollerTest {
         // use `doReturn` instead of `when` as argument matching fails
         doReturn(statuses).when(jobsEngine).getJobStatuses((Job[]) any());
         JobsPoller poller = new JobsPoller(jobs, pollConf, octopus);
+        poller.watch(sjob, System.currentTimeMillis());
 
         poller.run();
 
@@ -163,15 +179,17 @@ public class JobsPollerTest {
         Job job = new JobImplementation(mock(JobDescription.class), mock(Scheduler.class), uuid, identifier, false, false);
         JobStatus jobstatus = new JobStatusImplementation(job, "PENDING", 0, null, false, false, null);
         Sandbox sb = mock(Sandbox.class);
-        SandboxedJob sjob = new SandboxedJob(sb, job, null, null, jobstatus, 5);
+        SandboxedJob sjob = new SandboxedJob(sb, job, null, null, jobstatus);
         jobs.put(identifier, sjob);
-        PollConfiguration pollConf = new PollConfiguration(1, 5, 10);
+        PollConfiguration pollConf = new PollConfiguration(1, 5, 3600000);
         Octopus octopus = mock(Octopus.class);
         Jobs jobsEngine = mock(Jobs.class);
         when(octopus.jobs()).thenReturn(jobsEngine);
         JobStatus timeout_jobstatus = new JobStatusImplementation(job, "KILLED", null, new Exception("Process timed out"), false, true, null);
         when(jobsEngine.getJobStatus(job)).thenReturn(timeout_jobstatus);
         JobsPoller poller = new JobsPoller(jobs, pollConf, octopus);
+        // submitted longer ago than cancel timeout
+        poller.watch(sjob, System.currentTimeMillis() - 100);
 
         poller.run();
 
@@ -189,7 +207,7 @@ public class JobsPollerTest {
         Job job = new JobImplementation(mock(JobDescription.class), mock(Scheduler.class), uuid, identifier, false, false);
         JobStatus jobstatus = new JobStatusImplementation(job, "PENDING", 0, null, false, false, null);
         Sandbox sb = mock(Sandbox.class);
-        SandboxedJob sjob = new SandboxedJob(sb, job, null, null, jobstatus, 5);
+        SandboxedJob sjob = new SandboxedJob(sb, job, null, null, jobstatus);
         jobs.put(identifier, sjob);
         PollConfiguration pollConf = new PollConfiguration(1, 2, 5);
         Octopus octopus = mock(Octopus.class);
@@ -198,6 +216,8 @@ public class JobsPollerTest {
         JobStatus timeout_jobstatus = new JobStatusImplementation(job, "KILLED", null, new Exception("Process timed out"), false, true, null);
         when(jobsEngine.getJobStatus(job)).thenReturn(timeout_jobstatus);
         JobsPoller poller = new JobsPoller(jobs, pollConf, octopus);
+        // submitted longer ago than delete timeout
+        poller.watch(sjob, System.currentTimeMillis() - 100);
 
         poller.run();
 
@@ -208,24 +228,24 @@ public class JobsPollerTest {
     }
 
     @Test
-    public void run_DoneState_JobStatusNotCalledAndIterationIncreased() {
+    public void run_DoneState_JobStatusNotCalled() {
         Map<String, SandboxedJob> jobs = new HashMap<String, SandboxedJob>();
         String identifier = "11111111-1111-1111-1111-111111111111";
         UUID uuid = UUID.fromString(identifier);
         Job job = new JobImplementation(mock(JobDescription.class), mock(Scheduler.class), uuid, identifier, false, false);
         JobStatus jobstatus = new JobStatusImplementation(job, "DONE", 0, null, false, true, null);
-        SandboxedJob sjob = new SandboxedJob(null, job, null, null, jobstatus, 5);
+        SandboxedJob sjob = new SandboxedJob(null, job, null, null, jobstatus);
         jobs.put(identifier, sjob);
         PollConfiguration pollConf = new PollConfiguration();
         Octopus octopus = mock(Octopus.class);
         Jobs jobsEngine = mock(Jobs.class);
         when(octopus.jobs()).thenReturn(jobsEngine);
         JobsPoller poller = new JobsPoller(jobs, pollConf, octopus);
+        poller.watch(sjob, System.currentTimeMillis());
 
         poller.run();
 
         verify(jobsEngine, never()).getJobStatuses(any(Job.class));
-        assertThat(sjob.getPollIterations()).isEqualTo(6);
     }
 
     @Test
@@ -248,10 +268,11 @@ public class JobsPollerTest {
         Octopus octopus = mock(Octopus.class);
         JobsPoller poller = new JobsPoller(null, null, octopus);
         SandboxedJob job = mock(SandboxedJob.class);
+        when(job.compareAndSetStagingState(null, StagingState.QUEUED)).thenReturn(true);
 
         poller.cleanSandbox(job);
 
-        verify(job).cleanSandbox();
+        verify(job).cleanSandbox(null, null, null, null);
     }
 
     @Test
@@ -266,4 +287,558 @@ public class JobsPollerTest {
         verify(job).setStatus(status);
     }
 
+    private SandboxedJob runningJob(String identifier) {
+        UUID uuid = UUID.fromString(identifier);
+        Job job = new JobImplementation(mock(JobDescription.class), mock(Scheduler.class), uuid, identifier, false, false);
+        JobStatus jobstatus = new JobStatusImplementation(job, "RUNNING", 0, null, true, false, null);
+        return new SandboxedJob(null, job, null, null, jobstatus);
+    }
+
+    @Test
+    public void shard_TwoShards_JobsSplitOnIdentifierHash() {
+        PollConfiguration pollConf = new PollConfiguration();
+        pollConf.setShards(2);
+        JobsPoller poller = new JobsPoller(null, pollConf, mock(Octopus.class));
+        SandboxedJob job1 = runningJob("11111111-1111-1111-1111-111111111111");
+        SandboxedJob job2 = runningJob("11111111-1111-1111-1111-111111111112");
+        SandboxedJob job3 = runningJob("22222222-2222-2222-2222-222222222222");
+        List<SandboxedJob> pollable = new ArrayList<SandboxedJob>();
+        pollable.add(job1);
+        pollable.add(job2);
+        pollable.add(job3);
+
+        List<List<SandboxedJob>> shards = poller.shard(pollable);
+
+        assertThat(shards).hasSize(2);
+        assertThat(shards.get(0)).containsExactly(job1, job3);
+        assertThat(shards.get(1)).containsExactly(job2);
+    }
+
+    @Test
+    public void shard_SingleShardNoJobs_NoShards() {
+        JobsPoller poller = new JobsPoller(null, new PollConfiguration(), mock(Octopus.class));
+
+        List<List<SandboxedJob>> shards = poller.shard(new ArrayList<SandboxedJob>());
+
+        assertThat(shards).isEmpty();
+    }
+
+    @Test
+    public void run_TwoShardsInParallel_StatusesFetchedPerShard() throws InterruptedException {
+        Map<String, SandboxedJob> jobs = new HashMap<String, SandboxedJob>();
+        SandboxedJob job1 = runningJob("11111111-1111-1111-1111-111111111111");
+        SandboxedJob job2 = runningJob("11111111-1111-1111-1111-111111111112");
+        jobs.put(job1.getIdentifier(), job1);
+        jobs.put(job2.getIdentifier(), job2);
+        PollConfiguration pollConf = new PollConfiguration();
+        pollConf.setShards(2);
+        pollConf.setPoolSize(2);
+        Octopus octopus = mock(Octopus.class);
+        Jobs jobsEngine = mock(Jobs.class);
+        when(octopus.jobs()).thenReturn(jobsEngine);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        TimingWheel<JobsPoller.JobTimeout> timeouts =
+                new TimingWheel<JobsPoller.JobTimeout>(pollConf.getInterval(), System.currentTimeMillis());
+        JobsPoller poller = new JobsPoller(jobs, new HashMap<String, SandboxedJob>(), pollConf, octopus, executor,
+                new PollSchedule(pollConf), timeouts);
+        poller.watch(job1, System.currentTimeMillis());
+        poller.watch(job2, System.currentTimeMillis());
+
+        poller.run();
+        poller.stop();
+
+        verify(jobsEngine, times(2)).getJobStatuses((Job[]) any());
+        assertThat(executor.isShutdown()).isTrue();
+    }
+
+    @Test
+    public void run_UnchangedState_BacksOff() {
+        Map<String, SandboxedJob> jobs = new HashMap<String, SandboxedJob>();
+        SandboxedJob sjob = runningJob("11111111-1111-1111-1111-111111111111");
+        jobs.put(sjob.getIdentifier(), sjob);
+        PollConfiguration pollConf = new PollConfiguration();
+        Octopus octopus = mock(Octopus.class);
+        Jobs jobsEngine = mock(Jobs.class);
+        when(octopus.jobs()).thenReturn(jobsEngine);
+        JobStatus[] statuses = { sjob.getStatus() };
+        doReturn(statuses).when(jobsEngine).getJobStatuses((Job[]) any());
+        JobsPoller poller = new JobsPoller(jobs, pollConf, octopus);
+        poller.watch(sjob, System.currentTimeMillis());
+
+        poller.run(); // polled, unchanged so delay doubles to 2 ticks
+        poller.run(); // skipped
+        poller.run(); // polled
+
+        verify(jobsEngine, times(2)).getJobStatuses((Job[]) any());
+    }
+
+    @Test
+    public void run_DoneStateOnDeleteTimeout_JobDeletedWithoutCancelAndSandboxCleaned() throws OctopusIOException,
+            OctopusException {
+        Map<String, SandboxedJob> jobs = new HashMap<String, SandboxedJob>();
+        String identifier = "11111111-1111-1111-1111-111111111111";
+        UUID uuid = UUID.fromString(identifier);
+        Job job = new JobImplementation(mock(JobDescription.class), mock(Scheduler.class), uuid, identifier, false, false);
+        JobStatus jobstatus = new JobStatusImplementation(job, "DONE", 0, null, false, true, null);
+        Sandbox sb = mock(Sandbox.class);
+        SandboxedJob sjob = new SandboxedJob(sb, job, null, null, jobstatus);
+        jobs.put(identifier, sjob);
+        PollConfiguration pollConf = new PollConfiguration(1, 2, 5);
+        Octopus octopus = mock(Octopus.class);
+        Jobs jobsEngine = mock(Jobs.class);
+        when(octopus.jobs()).thenReturn(jobsEngine);
+        JobsPoller poller = new JobsPoller(jobs, pollConf, octopus);
+        poller.watch(sjob, System.currentTimeMillis() - 100);
+
+        poller.run();
+
+        verify(jobsEngine, never()).cancelJob(job);
+        verify(sb).delete();
+        assertThat(jobs).doesNotContainKey(identifier);
+    }
+
+    @Test
+    public void expireTimeouts_CanceledJob_SandboxCleanedAndDeleted() throws IOException, OctopusException {
+        Map<String, SandboxedJob> jobs = new HashMap<String, SandboxedJob>();
+        String identifier = "11111111-1111-1111-1111-111111111111";
+        UUID uuid = UUID.fromString(identifier);
+        Job job = new JobImplementation(mock(JobDescription.class), mock(Scheduler.class), uuid, identifier, false, false);
+        Sandbox sb = mock(Sandbox.class);
+        SandboxedJob sjob = new SandboxedJob(sb, job, null, null, null);
+        jobs.put(identifier, sjob);
+        PollConfiguration pollConf = new PollConfiguration();
+        Octopus octopus = mock(Octopus.class);
+        Jobs jobsEngine = mock(Jobs.class);
+        when(octopus.jobs()).thenReturn(jobsEngine);
+        JobsPoller poller = new JobsPoller(jobs, pollConf, octopus);
+        long now = System.currentTimeMillis();
+        poller.watch(sjob, now);
+        // canceled through web service, which does not clean the sandbox
+        sjob.setStatus(new JobStatusImplementation(job, "KILLED", null, new Exception("Process cancelled by user."), false,
+                true, null));
+
+        poller.expireTimeouts(now + pollConf.getDeleteTimeout() + pollConf.getInterval());
+
+        verify(jobsEngine, never()).cancelJob(job);
+        verify(sb, never()).download(CopyOption.REPLACE_EXISTING);
+        verify(sb).delete();
+        assertThat(sjob.getStagingState()).isEqualTo(StagingState.DONE);
+        assertThat(jobs).doesNotContainKey(identifier);
+    }
+
+    @Test
+    public void expireTimeouts_CanceledJobWithArchive_SandboxCleanedAndArchived() throws IOException {
+        Map<String, SandboxedJob> jobs = new HashMap<String, SandboxedJob>();
+        String identifier = "11111111-1111-1111-1111-111111111111";
+        UUID uuid = UUID.fromString(identifier);
+        Job job = new JobImplementation(mock(JobDescription.class), mock(Scheduler.class), uuid, identifier, false, false);
+        Sandbox sb = mock(Sandbox.class);
+        SandboxedJob sjob = new SandboxedJob(sb, job, null, null, null);
+        jobs.put(identifier, sjob);
+        PollConfiguration pollConf = new PollConfiguration();
+        Octopus octopus = mock(Octopus.class);
+        when(octopus.jobs()).thenReturn(mock(Jobs.class));
+        JobsPoller poller = new JobsPoller(jobs, pollConf, octopus);
+        JobArchive archive = new JobArchive(new ArchiveConfiguration(), new MetricsRegistry());
+        poller.setArchive(archive);
+        long now = System.currentTimeMillis();
+        poller.watch(sjob, now);
+        sjob.setStatus(new JobStatusImplementation(job, "KILLED", null, new Exception("Process cancelled by user."), false,
+                true, null));
+
+        poller.expireTimeouts(now + pollConf.getCancelTimeout() + pollConf.getInterval());
+
+        verify(sb).delete();
+        assertThat(jobs).doesNotContainKey(identifier);
+        assertThat(archive.get(identifier).getStatus().getState()).isEqualTo("KILLED");
+    }
+
+    @Test
+    public void run_BeforeTimeouts_JobKept() throws OctopusIOException, OctopusException {
+        Map<String, SandboxedJob> jobs = new HashMap<String, SandboxedJob>();
+        SandboxedJob sjob = runningJob("11111111-1111-1111-1111-111111111111");
+        jobs.put(sjob.getIdentifier(), sjob);
+        PollConfiguration pollConf = new PollConfiguration();
+        Octopus octopus = mock(Octopus.class);
+        Jobs jobsEngine = mock(Jobs.class);
+        when(octopus.jobs()).thenReturn(jobsEngine);
+        JobsPoller poller = new JobsPoller(jobs, pollConf, octopus);
+        poller.watch(sjob, System.currentTimeMillis());
+
+        poller.run();
+
+        verify(jobsEngine, never()).cancelJob(sjob.getJob());
+        assertThat(jobs).containsKey(sjob.getIdentifier());
+    }
+
+    @Test
+    public void run_DoneState_StatusCommittedAfterSandboxStaged() throws OctopusIOException, UnsupportedOperationException {
+        Map<String, SandboxedJob> jobs = new HashMap<String, SandboxedJob>();
+        SandboxedJob sjob = runningJob("11111111-1111-1111-1111-111111111111");
+        Sandbox sb = mock(Sandbox.class);
+        sjob = new SandboxedJob(sb, sjob.getJob(), null, null, sjob.getStatus());
+        jobs.put(sjob.getIdentifier(), sjob);
+        PollConfiguration pollConf = new PollConfiguration();
+        Octopus octopus = mock(Octopus.class);
+        Jobs jobsEngine = mock(Jobs.class);
+        when(octopus.jobs()).thenReturn(jobsEngine);
+        JobStatus donestatus = new JobStatusImplementation(sjob.getJob(), "DONE", 0, null, false, true, null);
+        JobStatus[] statuses = { donestatus };
+        doReturn(statuses).when(jobsEngine).getJobStatuses((Job[]) any());
+        ExecutorService stagingExecutor = mock(ExecutorService.class);
+        ArgumentCaptor<Runnable> staging = ArgumentCaptor.forClass(Runnable.class);
+        doNothing().when(stagingExecutor).execute(staging.capture());
+        JobsPoller poller = new JobsPoller(jobs, pollConf, octopus);
+        poller.setStager(new SandboxStager(stagingExecutor));
+        poller.watch(sjob, System.currentTimeMillis());
+
+        poller.run();
+
+        assertThat(sjob.getStatus().getState()).isEqualTo("RUNNING");
+        assertThat(sjob.getStagingState()).isEqualTo(StagingState.QUEUED);
+
+        staging.getValue().run();
+
+        verify(sb).download(CopyOption.REPLACE_EXISTING);
+        verify(sb).delete();
+        assertThat(sjob.getStatus()).isEqualTo(donestatus);
+        assertThat(sjob.getStagingState()).isEqualTo(StagingState.DONE);
+    }
+
+    @Test
+    public void run_DoneStateStagerFull_NotCommittedAndPolledAgain() throws OctopusIOException {
+        Map<String, SandboxedJob> jobs = new HashMap<String, SandboxedJob>();
+        SandboxedJob sjob = runningJob("11111111-1111-1111-1111-111111111111");
+        Sandbox sb = mock(Sandbox.class);
+        sjob = new SandboxedJob(sb, sjob.getJob(), null, null, sjob.getStatus());
+        jobs.put(sjob.getIdentifier(), sjob);
+        PollConfiguration pollConf = new PollConfiguration();
+        Octopus octopus = mock(Octopus.class);
+        Jobs jobsEngine = mock(Jobs.class);
+        when(octopus.jobs()).thenReturn(jobsEngine);
+        JobStatus donestatus = new JobStatusImplementation(sjob.getJob(), "DONE", 0, null, false, true, null);
+        JobStatus[] statuses = { donestatus };
+        doReturn(statuses).when(jobsEngine).getJobStatuses((Job[]) any());
+        ExecutorService stagingExecutor = mock(ExecutorService.class);
+        doThrow(new RejectedExecutionException()).when(stagingExecutor).execute(any(Runnable.class));
+        JobsPoller poller = new JobsPoller(jobs, pollConf, octopus);
+        poller.setStager(new SandboxStager(stagingExecutor));
+        poller.watch(sjob, System.currentTimeMillis());
+
+        poller.run();
+
+        assertThat(sjob.getStatus().getState()).isEqualTo("RUNNING");
+        assertThat(sjob.getStagingState()).isNull();
+        assertThat(poller.getActiveJobs()).containsKey(sjob.getIdentifier());
+        verify(sb, never()).delete();
+    }
+
+    @Test
+    public void run_DoneState_RemovedFromActiveJobs() {
+        Map<String, SandboxedJob> jobs = new HashMap<String, SandboxedJob>();
+        SandboxedJob sjob = runningJob("11111111-1111-1111-1111-111111111111");
+        sjob = new SandboxedJob(mock(Sandbox.class), sjob.getJob(), null, null, sjob.getStatus());
+        jobs.put(sjob.getIdentifier(), sjob);
+        PollConfiguration pollConf = new PollConfiguration();
+        Octopus octopus = mock(Octopus.class);
+        Jobs jobsEngine = mock(Jobs.class);
+        when(octopus.jobs()).thenReturn(jobsEngine);
+        JobStatus donestatus = new JobStatusImplementation(sjob.getJob(), "DONE", 0, null, false, true, null);
+        JobStatus[] statuses = { donestatus };
+        doReturn(statuses).when(jobsEngine).getJobStatuses((Job[]) any());
+        JobsPoller poller = new JobsPoller(jobs, pollConf, octopus);
+        Map<String, SandboxedJob> activeJobs = poller.getActiveJobs();
+        poller.watch(sjob, System.currentTimeMillis());
+        assertThat(activeJobs).containsKey(sjob.getIdentifier());
+
+        poller.run();
+
+        assertThat(activeJobs).isEmpty();
+        assertThat(jobs).containsKey(sjob.getIdentifier());
+    }
+
+    @Test
+    public void run_DoneStateWithArchive_MovedToArchive() {
+        Map<String, SandboxedJob> jobs = new HashMap<String, SandboxedJob>();
+        SandboxedJob sjob = runningJob("11111111-1111-1111-1111-111111111111");
+        sjob = new SandboxedJob(mock(Sandbox.class), sjob.getJob(), null, null, sjob.getStatus());
+        jobs.put(sjob.getIdentifier(), sjob);
+        Octopus octopus = mock(Octopus.class);
+        Jobs jobsEngine = mock(Jobs.class);
+        when(octopus.jobs()).thenReturn(jobsEngine);
+        JobStatus donestatus = new JobStatusImplementation(sjob.getJob(), "DONE", 0, null, false, true, null);
+        JobStatus[] statuses = { donestatus };
+        doReturn(statuses).when(jobsEngine).getJobStatuses((Job[]) any());
+        JobsPoller poller = new JobsPoller(jobs, new PollConfiguration(), octopus);
+        Map<String, SandboxedJob> activeJobs = poller.getActiveJobs();
+        JobArchive archive = new JobArchive(new ArchiveConfiguration(), new MetricsRegistry());
+        poller.setArchive(archive);
+        poller.watch(sjob, System.currentTimeMillis());
+
+        poller.run();
+
+        assertThat(jobs).isEmpty();
+        assertThat(activeJobs).isEmpty();
+        assertThat(archive.get(sjob.getIdentifier()).getStatus().getState()).isEqualTo("DONE");
+    }
+
+    @Test
+    public void run_DeleteTimeoutOfArchivedJob_DeletedFromArchiveAndPublished() {
+        Map<String, SandboxedJob> jobs = new HashMap<String, SandboxedJob>();
+        String identifier = "11111111-1111-1111-1111-111111111111";
+        JobStatus donestatus = new JobStatusImplementation(null, "DONE", 0, null, false, true, null);
+        SandboxedJob sjob = new SandboxedJob(identifier, null, null, null, null, donestatus, null);
+        JobEventBus eventBus = mock(JobEventBus.class);
+        PollConfiguration pollConf = new PollConfiguration();
+        JobsPoller poller = new JobsPoller(jobs, pollConf, mock(Octopus.class));
+        poller.setEventBus(eventBus);
+        JobArchive archive = new JobArchive(new ArchiveConfiguration(), new MetricsRegistry());
+        poller.setArchive(archive);
+        archive.put(sjob, System.currentTimeMillis());
+        long now = System.currentTimeMillis();
+        poller.expire(sjob, now);
+
+        poller.expireTimeouts(now + pollConf.getDeleteTimeout() + pollConf.getInterval());
+
+        assertThat(archive.size()).isEqualTo(0);
+        ArgumentCaptor<JobEvent> event = ArgumentCaptor.forClass(JobEvent.class);
+        verify(eventBus).publish(event.capture());
+        assertThat(event.getValue().getType()).isEqualTo(JobEvent.Type.DELETED);
+        assertThat(event.getValue().getJob().getIdentifier()).isEqualTo(identifier);
+    }
+
+    @Test
+    public void run_JobNotActive_NotPolled() {
+        Map<String, SandboxedJob> jobs = new HashMap<String, SandboxedJob>();
+        SandboxedJob sjob = runningJob("11111111-1111-1111-1111-111111111111");
+        jobs.put(sjob.getIdentifier(), sjob);
+        PollConfiguration pollConf = new PollConfiguration();
+        Octopus octopus = mock(Octopus.class);
+        Jobs jobsEngine = mock(Jobs.class);
+        when(octopus.jobs()).thenReturn(jobsEngine);
+        JobsPoller poller = new JobsPoller(jobs, pollConf, octopus);
+        Map<String, SandboxedJob> activeJobs = poller.getActiveJobs();
+        poller.watch(sjob, System.currentTimeMillis());
+        activeJobs.clear();
+
+        poller.run();
+
+        verify(jobsEngine, never()).getJobStatuses((Job[]) any());
+    }
+
+    @Test
+    public void sweep_IndexOutOfSync_Reconciled() {
+        Map<String, SandboxedJob> jobs = new HashMap<String, SandboxedJob>();
+        SandboxedJob running = runningJob("11111111-1111-1111-1111-111111111111");
+        JobStatus donestatus = new JobStatusImplementation(running.getJob(), "DONE", 0, null, false, true, null);
+        SandboxedJob done = new SandboxedJob(null, runningJob("22222222-2222-2222-2222-222222222222").getJob(), null,
+                null, donestatus);
+        SandboxedJob deleted = runningJob("33333333-3333-3333-3333-333333333333");
+        jobs.put(running.getIdentifier(), running);
+        jobs.put(done.getIdentifier(), done);
+        JobsPoller poller = new JobsPoller(jobs, new PollConfiguration(), mock(Octopus.class));
+        Map<String, SandboxedJob> activeJobs = poller.getActiveJobs();
+        activeJobs.put(done.getIdentifier(), done);
+        activeJobs.put(deleted.getIdentifier(), deleted);
+
+        poller.sweep();
+
+        assertThat(activeJobs).hasSize(1).containsKey(running.getIdentifier());
+    }
+
+    @Test
+    public void sweep_NotSubmittedYet_NotIndexed() {
+        Map<String, SandboxedJob> jobs = new HashMap<String, SandboxedJob>();
+        SandboxedJob pending = new SandboxedJob("11111111-1111-1111-1111-111111111111", null, null, null);
+        jobs.put(pending.getIdentifier(), pending);
+        JobsPoller poller = new JobsPoller(jobs, new PollConfiguration(), mock(Octopus.class));
+        Map<String, SandboxedJob> activeJobs = poller.getActiveJobs();
+
+        poller.sweep();
+
+        assertThat(activeJobs).isEmpty();
+    }
+
+    @Test
+    public void expire_DeleteTimeoutPassed_Deleted() throws IOException {
+        Map<String, SandboxedJob> jobs = new HashMap<String, SandboxedJob>();
+        JobStatus errorstatus = new JobStatusImplementation(null, "ERROR", null, new Exception("Upload failed"), false, true, null);
+        SandboxedJob failed = new SandboxedJob("11111111-1111-1111-1111-111111111111", null, null, null);
+        jobs.put(failed.getIdentifier(), failed);
+        PollConfiguration pollConf = new PollConfiguration();
+        JobsPoller poller = new JobsPoller(jobs, pollConf, mock(Octopus.class));
+        failed.setStatus(errorstatus);
+        long now = System.currentTimeMillis();
+        poller.expire(failed, now);
+
+        poller.expireTimeouts(now + pollConf.getDeleteTimeout() + pollConf.getInterval());
+
+        assertThat(jobs).isEmpty();
+    }
+
+    @Test
+    public void chunk_MaxBatchSize2_ShardSplit() {
+        PollConfiguration pollConf = new PollConfiguration();
+        pollConf.setMaxBatchSize(2);
+        JobsPoller poller = new JobsPoller(null, pollConf, mock(Octopus.class));
+        SandboxedJob job1 = runningJob("11111111-1111-1111-1111-111111111111");
+        SandboxedJob job2 = runningJob("11111111-1111-1111-1111-111111111112");
+        SandboxedJob job3 = runningJob("22222222-2222-2222-2222-222222222222");
+        List<SandboxedJob> shard = new ArrayList<SandboxedJob>();
+        shard.add(job1);
+        shard.add(job2);
+        shard.add(job3);
+        List<List<SandboxedJob>> shards = new ArrayList<List<SandboxedJob>>();
+        shards.add(shard);
+
+        List<List<SandboxedJob>> chunks = poller.chunk(shards);
+
+        assertThat(chunks).hasSize(2);
+        assertThat(chunks.get(0)).containsExactly(job1, job2);
+        assertThat(chunks.get(1)).containsExactly(job3);
+    }
+
+    @Test
+    public void run_FirstChunkFails_SecondChunkCommitted() {
+        Map<String, SandboxedJob> jobs = new HashMap<String, SandboxedJob>();
+        SandboxedJob job1 = runningJob("11111111-1111-1111-1111-111111111111");
+        SandboxedJob job2 = runningJob("11111111-1111-1111-1111-111111111112");
+        jobs.put(job1.getIdentifier(), job1);
+        jobs.put(job2.getIdentifier(), job2);
+        PollConfiguration pollConf = new PollConfiguration();
+        pollConf.setMaxBatchSize(1);
+        Octopus octopus = mock(Octopus.class);
+        Jobs jobsEngine = mock(Jobs.class);
+        when(octopus.jobs()).thenReturn(jobsEngine);
+        JobStatus pending2 = new JobStatusImplementation(job2.getJob(), "PENDING", 0, null, false, false, null);
+        JobStatus[] statuses2 = { pending2 };
+        doThrow(new RuntimeException("Connection lost")).doReturn(statuses2).when(jobsEngine).getJobStatuses((Job[]) any());
+        JobsPoller poller = new JobsPoller(jobs, pollConf, octopus);
+        poller.watch(job1, System.currentTimeMillis());
+        poller.watch(job2, System.currentTimeMillis());
+
+        poller.run();
+
+        verify(jobsEngine, times(2)).getJobStatuses((Job[]) any());
+        assertThat(job1.getStatus().getState()).isEqualTo("RUNNING");
+        assertThat(job2.getStatus()).isEqualTo(pending2);
+    }
+
+    @Test
+    public void run_ChunksInParallel_AllChunksPolled() throws InterruptedException {
+        Map<String, SandboxedJob> jobs = new HashMap<String, SandboxedJob>();
+        PollConfiguration pollConf = new PollConfiguration();
+        pollConf.setMaxBatchSize(1);
+        pollConf.setMaxInFlight(2);
+        pollConf.setPoolSize(2);
+        Octopus octopus = mock(Octopus.class);
+        Jobs jobsEngine = mock(Jobs.class);
+        when(octopus.jobs()).thenReturn(jobsEngine);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        TimingWheel<JobsPoller.JobTimeout> timeouts =
+                new TimingWheel<JobsPoller.JobTimeout>(pollConf.getInterval(), System.currentTimeMillis());
+        JobsPoller poller = new JobsPoller(jobs, new HashMap<String, SandboxedJob>(), pollConf, octopus, executor,
+                new PollSchedule(pollConf), timeouts);
+        String[] identifiers = { "11111111-1111-1111-1111-111111111111", "11111111-1111-1111-1111-111111111112",
+                "22222222-2222-2222-2222-222222222222" };
+        for (String identifier : identifiers) {
+            SandboxedJob job = runningJob(identifier);
+            jobs.put(identifier, job);
+            poller.watch(job, System.currentTimeMillis());
+        }
+
+        poller.run();
+        poller.stop();
+
+        verify(jobsEngine, times(3)).getJobStatuses((Job[]) any());
+    }
+
+    @Test
+    public void watch_StatusSource_JobWatchedBySource() {
+        Map<String, SandboxedJob> jobs = new HashMap<String, SandboxedJob>();
+        SandboxedJob sjob = runningJob("11111111-1111-1111-1111-111111111111");
+        jobs.put(sjob.getIdentifier(), sjob);
+        JobsPoller poller = new JobsPoller(jobs, new PollConfiguration(), mock(Octopus.class));
+        JobStatusSource source = mock(JobStatusSource.class);
+        when(source.accepts(sjob)).thenReturn(true);
+        poller.addStatusSource(source);
+
+        poller.watch(sjob, System.currentTimeMillis());
+
+        verify(source).watch(sjob, poller);
+    }
+
+    @Test
+    public void watch_StatusSourceRejectsJob_JobNotWatchedBySource() {
+        Map<String, SandboxedJob> jobs = new HashMap<String, SandboxedJob>();
+        SandboxedJob sjob = runningJob("11111111-1111-1111-1111-111111111111");
+        jobs.put(sjob.getIdentifier(), sjob);
+        JobsPoller poller = new JobsPoller(jobs, new PollConfiguration(), mock(Octopus.class));
+        JobStatusSource source = mock(JobStatusSource.class);
+        when(source.accepts(sjob)).thenReturn(false);
+        poller.addStatusSource(source);
+
+        poller.watch(sjob, System.currentTimeMillis());
+
+        verify(source, never()).watch(sjob, poller);
+    }
+
+    @Test
+    public void statusChanged_Done_CommittedAndNoLongerPolled() throws OctopusIOException, UnsupportedOperationException {
+        Map<String, SandboxedJob> jobs = new HashMap<String, SandboxedJob>();
+        SandboxedJob sjob = runningJob("11111111-1111-1111-1111-111111111111");
+        Sandbox sb = mock(Sandbox.class);
+        sjob = new SandboxedJob(sb, sjob.getJob(), null, null, sjob.getStatus());
+        jobs.put(sjob.getIdentifier(), sjob);
+        Octopus octopus = mock(Octopus.class);
+        Jobs jobsEngine = mock(Jobs.class);
+        when(octopus.jobs()).thenReturn(jobsEngine);
+        JobsPoller poller = new JobsPoller(jobs, new PollConfiguration(), octopus);
+        Map<String, SandboxedJob> activeJobs = poller.getActiveJobs();
+        poller.watch(sjob, System.currentTimeMillis());
+        JobStatus donestatus = new JobStatusImplementation(sjob.getJob(), "DONE", 0, null, false, true, null);
+
+        poller.statusChanged(sjob, donestatus);
+        poller.run();
+
+        assertThat(sjob.getStatus()).isEqualTo(donestatus);
+        verify(sb).delete();
+        assertThat(activeJobs).isEmpty();
+        verify(jobsEngine, never()).getJobStatuses((Job[]) any());
+    }
+
+    @Test
+    public void testStop_StatusSourceStopped() throws InterruptedException {
+        JobsPoller poller = new JobsPoller(null, new PollConfiguration(), mock(Octopus.class));
+        JobStatusSource source = mock(JobStatusSource.class);
+        poller.addStatusSource(source);
+
+        poller.stop();
+
+        verify(source).stop();
+    }
+
+    @Test
+    public void run_DeleteTimeout_DeletedPublished() {
+        Map<String, SandboxedJob> jobs = new HashMap<String, SandboxedJob>();
+        String identifier = "11111111-1111-1111-1111-111111111111";
+        UUID uuid = UUID.fromString(identifier);
+        Job job = new JobImplementation(mock(JobDescription.class), mock(Scheduler.class), uuid, identifier, false, false);
+        JobStatus jobstatus = new JobStatusImplementation(job, "DONE", 0, null, false, true, null);
+        SandboxedJob sjob = new SandboxedJob(mock(Sandbox.class), job, null, null, jobstatus);
+        jobs.put(identifier, sjob);
+        Octopus octopus = mock(Octopus.class);
+        when(octopus.jobs()).thenReturn(mock(Jobs.class));
+        JobEventBus eventBus = mock(JobEventBus.class);
+        JobsPoller poller = new JobsPoller(jobs, new PollConfiguration(1, 2, 5), octopus);
+        poller.setEventBus(eventBus);
+        poller.watch(sjob, System.currentTimeMillis() - 100);
+
+        poller.run();
+
+        ArgumentCaptor<JobEvent> event = ArgumentCaptor.forClass(JobEvent.class);
+        verify(eventBus).publish(event.capture());
+        assertThat(event.getValue().getType()).isEqualTo(JobEvent.Type.DELETED);
+        assertThat(event.getValue().getJob()).isEqualTo(sjob);
+    }
 }
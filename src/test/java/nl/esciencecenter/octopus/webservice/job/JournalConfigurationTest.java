@@ -0,0 +1,63 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class JournalConfigurationTest {
+
+    @Test
+    public void testJournalConfiguration_AllParameters() {
+        JournalConfiguration conf = new JournalConfiguration("/var/lib/journal", 1024, 60000);
+
+        assertThat(conf.getDirectory()).isEqualTo("/var/lib/journal");
+        assertThat(conf.getSegmentSize()).isEqualTo(1024);
+        assertThat(conf.getSnapshotInterval()).isEqualTo(60000);
+        assertThat(conf.isEnabled()).isTrue();
+    }
+
+    @Test
+    public void testJournalConfiguration_NoParameters() {
+        JournalConfiguration conf = new JournalConfiguration();
+
+        assertThat(conf.getDirectory()).isNull();
+        assertThat(conf.getSegmentSize()).isEqualTo(16777216);
+        assertThat(conf.getSnapshotInterval()).isEqualTo(600000);
+        assertThat(conf.isEnabled()).isFalse();
+    }
+
+    @Test
+    public void testEquals() {
+        assertThat(new JournalConfiguration("/a", 1, 2)).isEqualTo(new JournalConfiguration("/a", 1, 2));
+        assertThat(new JournalConfiguration("/a", 1, 2)).isNotEqualTo(new JournalConfiguration("/b", 1, 2));
+        assertThat(new JournalConfiguration("/a", 1, 2)).isNotEqualTo(new JournalConfiguration("/a", 1, 3));
+    }
+
+    @Test
+    public void testToString() {
+        JournalConfiguration conf = new JournalConfiguration();
+
+        String expected = "JournalConfiguration{null, 16777216, 600000}";
+        assertThat(conf.toString()).isEqualTo(expected);
+    }
+}
@@ -0,0 +1,173 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.exceptions.OctopusException;
+import nl.esciencecenter.octopus.exceptions.OctopusIOException;
+import nl.esciencecenter.octopus.jobs.Job;
+import nl.esciencecenter.octopus.jobs.JobStatus;
+import nl.esciencecenter.octopus.jobs.Jobs;
+import nl.esciencecenter.octopus.jobs.Scheduler;
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class LocalJobWatcherTest {
+    private Jobs jobsEngine;
+    private Octopus octopus;
+    private SandboxedJob sjob;
+    private Job job;
+    private JobStatusListener listener;
+
+    @Before
+    public void setUp() {
+        octopus = mock(Octopus.class);
+        jobsEngine = mock(Jobs.class);
+        when(octopus.jobs()).thenReturn(jobsEngine);
+        job = mock(Job.class);
+        sjob = mock(SandboxedJob.class);
+        when(sjob.getJob()).thenReturn(job);
+        listener = mock(JobStatusListener.class);
+    }
+
+    @Test
+    public void watch_JobExits_DoneStatusPushed() throws OctopusIOException, OctopusException {
+        JobStatus status = mock(JobStatus.class);
+        when(status.isDone()).thenReturn(true);
+        when(jobsEngine.waitUntilDone(job, 0)).thenReturn(status);
+        LocalJobWatcher watcher = new LocalJobWatcher(octopus, MoreExecutors.sameThreadExecutor());
+
+        watcher.watch(sjob, listener);
+
+        verify(listener).statusChanged(sjob, status);
+    }
+
+    @Test
+    public void watch_WaitFails_NothingPushed() throws OctopusIOException, OctopusException {
+        when(jobsEngine.waitUntilDone(job, 0)).thenThrow(new OctopusIOException("local", "Interrupted"));
+        LocalJobWatcher watcher = new LocalJobWatcher(octopus, MoreExecutors.sameThreadExecutor());
+
+        watcher.watch(sjob, listener);
+
+        verify(listener, never()).statusChanged(sjob, null);
+    }
+
+    @Test
+    public void accepts_LocalJob_True() throws URISyntaxException {
+        Scheduler scheduler = mock(Scheduler.class);
+        when(scheduler.getUri()).thenReturn(new URI("local:///"));
+        when(job.getScheduler()).thenReturn(scheduler);
+        LocalJobWatcher watcher = new LocalJobWatcher(octopus, MoreExecutors.sameThreadExecutor());
+
+        assertThat(watcher.accepts(sjob)).isTrue();
+    }
+
+    @Test
+    public void accepts_RemoteJob_False() throws URISyntaxException {
+        Scheduler scheduler = mock(Scheduler.class);
+        when(scheduler.getUri()).thenReturn(new URI("ssh://cluster.example.com/"));
+        when(job.getScheduler()).thenReturn(scheduler);
+        LocalJobWatcher watcher = new LocalJobWatcher(octopus, MoreExecutors.sameThreadExecutor());
+
+        assertThat(watcher.accepts(sjob)).isFalse();
+    }
+
+    @Test
+    public void accepts_NotSubmitted_False() {
+        LocalJobWatcher watcher = new LocalJobWatcher(octopus, MoreExecutors.sameThreadExecutor());
+
+        assertThat(watcher.accepts(mock(SandboxedJob.class))).isFalse();
+    }
+
+    @Test
+    public void watch_AllWatchersBusy_OnlyPolled() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch exit = new CountDownLatch(1);
+        when(jobsEngine.waitUntilDone(job, 0)).thenAnswer(new Answer<JobStatus>() {
+            public JobStatus answer(InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                exit.await();
+                return null;
+            }
+        });
+        Job queuedJob = mock(Job.class);
+        SandboxedJob queued = mock(SandboxedJob.class);
+        when(queued.getJob()).thenReturn(queuedJob);
+        LocalJobWatcher watcher = new LocalJobWatcher(octopus, 1);
+        watcher.watch(sjob, listener);
+        started.await(1, TimeUnit.SECONDS);
+
+        watcher.watch(queued, listener);
+
+        exit.countDown();
+        watcher.stop();
+        verify(jobsEngine, never()).waitUntilDone(queuedJob, 0);
+    }
+
+    @Test
+    public void concurrencyOf_SingleQueue_One() {
+        assertThat(LocalJobWatcher.concurrencyOf(new Properties(), "single")).isEqualTo(1);
+    }
+
+    @Test
+    public void concurrencyOf_MultiQueue_Configured() {
+        Properties preferences = new Properties();
+        preferences.setProperty(LocalJobWatcher.MULTI_QUEUE_CONCURRENCY, "4");
+
+        assertThat(LocalJobWatcher.concurrencyOf(preferences, "multi")).isEqualTo(4);
+    }
+
+    @Test
+    public void concurrencyOf_MultiQueueNotConfigured_Processors() {
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        assertThat(LocalJobWatcher.concurrencyOf(new Properties(), "multi")).isEqualTo(processors);
+    }
+
+    @Test
+    public void testStop() throws InterruptedException {
+        ExecutorService executor = mock(ExecutorService.class);
+        LocalJobWatcher watcher = new LocalJobWatcher(octopus, executor);
+
+        watcher.stop();
+
+        verify(executor).shutdownNow();
+    }
+}
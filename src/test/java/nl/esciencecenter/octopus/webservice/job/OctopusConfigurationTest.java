@@ -89,6 +89,27 @@ public class OctopusConfigurationTest {
         assertThat(actual.getPollConfiguration()).isEqualTo(expected_poll);
     }
 
+    @Test
+    public void getBackendConfigurations_NoBackends_OnlyDefault() throws URISyntaxException {
+        OctopusConfiguration conf = new OctopusConfiguration(new URI("local:///"), "multi", new URI("file:///tmp"), null);
+
+        BackendConfiguration expected =
+                new BackendConfiguration("default", new URI("local:///"), "multi", new URI("file:///tmp"), 0, 1);
+        assertThat(conf.getBackendConfigurations()).containsExactly(expected);
+    }
+
+    @Test
+    public void deserializesFromJson_Backends() throws IOException, URISyntaxException {
+        OctopusConfiguration actual = fromJson(jsonFixture("fixtures/octopus.backends.json"),
+                OctopusConfiguration.class);
+
+        BackendConfiguration expected_default = new BackendConfiguration("default", new URI("local:///"), "multi",
+                new URI("file:///tmp/sandboxes"), 0, 1);
+        BackendConfiguration expected_cluster = new BackendConfiguration("cluster", new URI("ssh://cluster/"), "default",
+                new URI("sftp://cluster/scratch"), 100, 2);
+        assertThat(actual.getBackendConfigurations()).containsExactly(expected_default, expected_cluster);
+    }
+
     @Test
     public void getPreferencesAsProperties() throws URISyntaxException {
         URI scheduler = new URI("local:///");
@@ -22,19 +22,29 @@ package nl.esciencecenter.octopus.webservice.job;
 
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -56,15 +66,20 @@ import nl.esciencecenter.octopus.jobs.Scheduler;
 import nl.esciencecenter.octopus.util.Sandbox;
 import nl.esciencecenter.octopus.webservice.api.JobSubmitRequest;
 import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+import nl.esciencecenter.octopus.webservice.event.JobEvent;
 
 import org.apache.http.client.HttpClient;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.yammer.metrics.core.MetricsRegistry;
 
 /**
  *
@@ -73,10 +88,12 @@ import com.google.common.collect.ImmutableMap;
  */
 @RunWith(PowerMockRunner.class)
 @PrepareForTest(OctopusFactory.class)
+// poll loop registers metrics as JMX beans
+@PowerMockIgnore("javax.management.*")
 public class OctopusManagerTest {
 
     @Test
-    public void testOctopusManager() throws URISyntaxException, OctopusException, OctopusIOException {
+    public void testOctopusManager() throws URISyntaxException, OctopusException, IOException {
         // Use powermock mockito to mock OctopusFactory.newOctopus()
         PowerMockito.mockStatic(OctopusFactory.class);
         Octopus octopus = mock(Octopus.class);
@@ -104,24 +121,44 @@ public class OctopusManagerTest {
         JobsPoller poller = mock(JobsPoller.class);
         ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
         OctopusConfiguration conf = new OctopusConfiguration();
-        OctopusManager manager = new OctopusManager(conf, null, null, null, poller, executor);
+        OctopusManager manager = new OctopusManager(conf, null, defaultRouter(conf, null), null,
+                new HashMap<String, SandboxedJob>(), poller, executor);
 
         manager.start();
 
-        verify(executor).scheduleAtFixedRate(poller, 0, 30*1000, TimeUnit.MILLISECONDS);
+        verify(executor).schedule(any(PollLoop.class), eq(0L), eq(TimeUnit.MILLISECONDS));
     }
 
     @Test
     public void testStop() throws Exception {
         Octopus octopus = mock(Octopus.class);
+        JobsPoller poller = mock(JobsPoller.class);
         ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
-        OctopusManager manager = new OctopusManager(null, octopus, null, null, null, executor);
+        OctopusManager manager = new OctopusManager(null, octopus, null, null, new HashMap<String, SandboxedJob>(),
+                poller, executor);
 
         manager.stop();
 
         verify(octopus).end();
         verify(executor).shutdown();
         verify(executor).awaitTermination(1, TimeUnit.MINUTES);
+        verify(poller).stop();
+    }
+
+    @Test
+    public void stop_WithSubmitPipeline_PipelineStoppedBeforePoller() throws Exception {
+        JobsPoller poller = mock(JobsPoller.class);
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        SubmitPipeline pipeline = mock(SubmitPipeline.class);
+        OctopusManager manager = new OctopusManager(null, mock(Octopus.class), null, null, null, poller, executor);
+        manager.setSubmitPipeline(pipeline);
+
+        manager.stop();
+
+        InOrder order = inOrder(pipeline, executor, poller);
+        order.verify(pipeline).stop();
+        order.verify(executor).shutdown();
+        order.verify(poller).stop();
     }
 
     @Test
@@ -145,7 +182,7 @@ public class OctopusManagerTest {
         JobDescription description = new JobDescription();
         when(request.toJobDescription()).thenReturn(description);
         Sandbox sandbox = mock(Sandbox.class);
-        when(request.toSandbox(octopus, sandboxPath, null)).thenReturn(sandbox);
+        when(request.toSandbox(octopus, sandboxPath, null, null)).thenReturn(sandbox);
         when(sandbox.getPath()).thenReturn(sandboxPath);
         when(sandboxPath.getPath()).thenReturn("/tmp/sandboxes");
         HttpClient httpClient = mock(HttpClient.class);
@@ -155,13 +192,15 @@ public class OctopusManagerTest {
         Map<String, SandboxedJob> sjobs = new HashMap<String, SandboxedJob>();
         JobsPoller poller = mock(JobsPoller.class);
         ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
-        OctopusManager manager = new OctopusManager(conf, octopus, scheduler, sjobs, poller, executor);
+        OctopusManager manager = new OctopusManager(conf, octopus, defaultRouter(conf, scheduler), sjobs,
+                new HashMap<String, SandboxedJob>(), poller, executor);
 
         SandboxedJob result = manager.submitJob(request, httpClient);
 
         assertThat(result.getIdentifier()).isEqualTo("11111111-1111-1111-1111-111111111111");
         verify(sandbox).upload();
         verify(jobs).submitJob(scheduler, description);
+        verify(poller).watch(any(SandboxedJob.class), anyLong());
 
         // assert description configuration
         assertThat(description.getMaxTime()).isEqualTo(60);
@@ -169,22 +208,442 @@ public class OctopusManagerTest {
         assertThat(description.getWorkingDirectory()).isEqualTo("/tmp/sandboxes");
     }
 
+    @Test
+    public void submitJob_UploadFails_BackendReleased() throws OctopusIOException, OctopusException, URISyntaxException {
+        OctopusConfiguration conf =
+                new OctopusConfiguration(new URI("local:///"), "multi", new URI("file:///tmp/sandboxes"), null);
+        Octopus octopus = mock(Octopus.class);
+        Files files = mock(Files.class);
+        when(octopus.files()).thenReturn(files);
+        AbsolutePath sandboxPath = mock(AbsolutePath.class);
+        FileSystem filesystem = mock(FileSystem.class);
+        when(files.newFileSystem(new URI("file:///"), null, null)).thenReturn(filesystem);
+        when(files.newPath(filesystem, new RelativePath("/tmp/sandboxes"))).thenReturn(sandboxPath);
+        JobSubmitRequest request = mock(JobSubmitRequest.class);
+        Sandbox sandbox = mock(Sandbox.class);
+        when(request.toSandbox(octopus, sandboxPath, null, null)).thenReturn(sandbox);
+        OctopusIOException exception = new OctopusIOException("local", "Disk full");
+        doThrow(exception).when(sandbox).upload();
+        Map<String, SandboxedJob> sjobs = new HashMap<String, SandboxedJob>();
+        OctopusManager manager = new OctopusManager(conf, octopus, defaultRouter(conf, mock(Scheduler.class)), sjobs,
+                new HashMap<String, SandboxedJob>(), mock(JobsPoller.class), null);
+
+        try {
+            manager.submitJob(request, null);
+            fail("OctopusIOException not thrown");
+        } catch (OctopusIOException e) {
+            assertThat(e).isEqualTo(exception);
+            assertThat(sjobs).isEmpty();
+            assertThat(manager.getBackends().get(0).depth()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void submitJobAsync_PipelineRunsInline_JobSubmitted() throws OctopusIOException, OctopusException, URISyntaxException {
+        OctopusConfiguration conf =
+                new OctopusConfiguration(new URI("local:///"), "multi", new URI("file:///tmp/sandboxes"), null);
+        Octopus octopus = mock(Octopus.class);
+        Scheduler scheduler = mock(Scheduler.class);
+        Jobs jobs = mock(Jobs.class);
+        when(octopus.jobs()).thenReturn(jobs);
+        Files files = mock(Files.class);
+        when(octopus.files()).thenReturn(files);
+        AbsolutePath sandboxPath = mock(AbsolutePath.class);
+        FileSystem filesystem = mock(FileSystem.class);
+        when(files.newFileSystem(new URI("file:///"), null, null)).thenReturn(filesystem);
+        when(files.newPath(filesystem, new RelativePath("/tmp/sandboxes"))).thenReturn(sandboxPath);
+        JobSubmitRequest request = mock(JobSubmitRequest.class);
+        JobDescription description = new JobDescription();
+        when(request.toJobDescription()).thenReturn(description);
+        Sandbox sandbox = mock(Sandbox.class);
+        when(request.toSandbox(octopus, sandboxPath, null, null)).thenReturn(sandbox);
+        when(sandbox.getPath()).thenReturn(sandboxPath);
+        when(sandboxPath.getPath()).thenReturn("/tmp/sandboxes");
+        HttpClient httpClient = mock(HttpClient.class);
+        Job job = mock(Job.class);
+        when(jobs.submitJob(scheduler, description)).thenReturn(job);
+        Map<String, SandboxedJob> sjobs = new HashMap<String, SandboxedJob>();
+        JobsPoller poller = mock(JobsPoller.class);
+        SubmitPipeline pipeline =
+                new SubmitPipeline(MoreExecutors.sameThreadExecutor(), MoreExecutors.sameThreadExecutor(), 1);
+        OctopusManager manager = new OctopusManager(conf, octopus, defaultRouter(conf, scheduler), sjobs, sjobs,
+                poller, null);
+        manager.setSubmitPipeline(pipeline);
+
+        SandboxedJob result = manager.submitJobAsync(request, httpClient);
+
+        assertThat(manager.isAsyncSubmit()).isTrue();
+        assertThat(sjobs).containsValue(result);
+        assertThat(result.getSandbox()).isEqualTo(sandbox);
+        assertThat(result.getJob()).isEqualTo(job);
+        verify(sandbox).upload();
+        verify(poller).watch(eq(result), anyLong());
+        assertThat(pipeline.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void submitJobAsync_StagingFails_ErrorStatus() throws OctopusIOException, OctopusException, URISyntaxException {
+        OctopusConfiguration conf =
+                new OctopusConfiguration(new URI("local:///"), "multi", new URI("file:///tmp/sandboxes"), null);
+        Octopus octopus = mock(Octopus.class);
+        Files files = mock(Files.class);
+        when(octopus.files()).thenReturn(files);
+        FileSystem filesystem = mock(FileSystem.class);
+        when(files.newFileSystem(new URI("file:///"), null, null)).thenReturn(filesystem);
+        OctopusIOException exception = new OctopusIOException("local", "Disk full");
+        when(files.newPath(filesystem, new RelativePath("/tmp/sandboxes"))).thenThrow(exception);
+        Map<String, SandboxedJob> sjobs = new HashMap<String, SandboxedJob>();
+        JobsPoller poller = mock(JobsPoller.class);
+        SubmitPipeline pipeline =
+                new SubmitPipeline(MoreExecutors.sameThreadExecutor(), MoreExecutors.sameThreadExecutor(), 1);
+        OctopusManager manager = new OctopusManager(conf, octopus, defaultRouter(conf, null), sjobs, sjobs,
+                poller, null);
+        manager.setSubmitPipeline(pipeline);
+
+        SandboxedJob result = manager.submitJobAsync(mock(JobSubmitRequest.class), null);
+
+        assertThat(result.getJob()).isNull();
+        assertThat(result.getStatus().isDone()).isTrue();
+        assertThat(result.getStatus().getException()).isEqualTo(exception);
+        verify(poller).expire(eq(result), anyLong());
+        assertThat(pipeline.size()).isEqualTo(0);
+        assertThat(manager.getBackends().get(0).depth()).isEqualTo(0);
+    }
+
+    @Test
+    public void submitJobAsync_PipelineFull_Rejected() throws URISyntaxException {
+        Map<String, SandboxedJob> sjobs = new HashMap<String, SandboxedJob>();
+        SubmitPipeline pipeline = mock(SubmitPipeline.class);
+        when(pipeline.offer(any(SandboxedJob.class), any(SubmitPipeline.Stages.class))).thenReturn(false);
+        Backend backend = newBackend("default", 0);
+        BackendRouter router = new BackendRouter(Arrays.asList(backend));
+        OctopusManager manager = new OctopusManager(null, null, router, sjobs, sjobs, null, null);
+        manager.setSubmitPipeline(pipeline);
+
+        try {
+            manager.submitJobAsync(mock(JobSubmitRequest.class), null);
+            fail("RejectedExecutionException not thrown");
+        } catch (RejectedExecutionException e) {
+            assertThat(sjobs).isEmpty();
+            assertThat(backend.depth()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void submitJobAsync_BackendsFull_Rejected() throws URISyntaxException {
+        Map<String, SandboxedJob> sjobs = new HashMap<String, SandboxedJob>();
+        SubmitPipeline pipeline = mock(SubmitPipeline.class);
+        Backend backend = newBackend("default", 1);
+        backend.reserve();
+        BackendRouter router = new BackendRouter(Arrays.asList(backend));
+        OctopusManager manager = new OctopusManager(null, null, router, sjobs, sjobs, null, null);
+        manager.setSubmitPipeline(pipeline);
+
+        try {
+            manager.submitJobAsync(mock(JobSubmitRequest.class), null);
+            fail("RejectedExecutionException not thrown");
+        } catch (RejectedExecutionException e) {
+            assertThat(sjobs).isEmpty();
+            verifyNoMoreInteractions(pipeline);
+        }
+    }
+
+    @Test
+    public void submitJob_SecondBackendLessLoaded_SubmittedToSecondBackend() throws Exception {
+        OctopusConfiguration conf =
+                new OctopusConfiguration(new URI("local:///"), "multi", new URI("file:///tmp/sandboxes"), null);
+        Octopus octopus = mock(Octopus.class);
+        Jobs jobs = mock(Jobs.class);
+        when(octopus.jobs()).thenReturn(jobs);
+        Files files = mock(Files.class);
+        when(octopus.files()).thenReturn(files);
+        FileSystem filesystem = mock(FileSystem.class);
+        when(files.newFileSystem(new URI("file:///"), null, null)).thenReturn(filesystem);
+        AbsolutePath sandboxRoot = mock(AbsolutePath.class);
+        when(files.newPath(filesystem, new RelativePath("/tmp/other"))).thenReturn(sandboxRoot);
+        JobSubmitRequest request = mock(JobSubmitRequest.class);
+        Sandbox sandbox = mock(Sandbox.class);
+        when(request.toSandbox(octopus, sandboxRoot, null, null)).thenReturn(sandbox);
+        JobDescription description = new JobDescription();
+        when(request.toJobDescription()).thenReturn(description);
+        AbsolutePath sandboxPath = mock(AbsolutePath.class);
+        when(sandbox.getPath()).thenReturn(sandboxPath);
+        when(sandboxPath.getPath()).thenReturn("/tmp/other/job1");
+        Scheduler otherScheduler = mock(Scheduler.class);
+        Job job = mock(Job.class);
+        when(job.getUUID()).thenReturn(UUID.fromString("11111111-1111-1111-1111-111111111111"));
+        when(jobs.submitJob(otherScheduler, description)).thenReturn(job);
+        Backend busy = newBackend(OctopusConfiguration.DEFAULT_BACKEND, 0);
+        busy.reserve();
+        BackendConfiguration otherConf =
+                new BackendConfiguration("other", new URI("local:///"), "single", new URI("file:///tmp/other"), 0, 1);
+        Backend other = new Backend(otherConf, otherScheduler, new MetricsRegistry());
+        BackendRouter router = new BackendRouter(Arrays.asList(busy, other));
+        Map<String, SandboxedJob> sjobs = new HashMap<String, SandboxedJob>();
+        OctopusManager manager =
+                new OctopusManager(conf, octopus, router, sjobs, sjobs, mock(JobsPoller.class), null);
+
+        SandboxedJob result = manager.submitJob(request, null);
+
+        assertThat(result.getBackend()).isEqualTo("other");
+        assertThat(description.getQueueName()).isEqualTo("single");
+        assertThat(other.depth()).isEqualTo(1);
+        assertThat(busy.depth()).isEqualTo(1);
+    }
+
+    @Test
+    public void submitJobs_ClientOverQuota_RejectedBeforeStaging() throws Exception {
+        OctopusConfiguration conf =
+                new OctopusConfiguration(new URI("local:///"), "multi", new URI("file:///tmp/sandboxes"), null);
+        conf.setAdmissionConfiguration(new AdmissionConfiguration(0, 10, 1));
+        Octopus octopus = mock(Octopus.class);
+        Files files = mock(Files.class);
+        when(octopus.files()).thenReturn(files);
+        FileSystem filesystem = mock(FileSystem.class);
+        when(files.newFileSystem(new URI("file:///"), null, null)).thenReturn(filesystem);
+        OctopusIOException exception = new OctopusIOException("local", "Disk full");
+        when(files.newPath(filesystem, new RelativePath("/tmp/sandboxes"))).thenThrow(exception);
+        Map<String, SandboxedJob> sjobs = new HashMap<String, SandboxedJob>();
+        OctopusManager manager =
+                new OctopusManager(conf, octopus, defaultRouter(conf, mock(Scheduler.class)), sjobs,
+                new HashMap<String, SandboxedJob>(), mock(JobsPoller.class), null);
+        List<JobSubmitRequest> requests = new ArrayList<JobSubmitRequest>();
+        requests.add(mock(JobSubmitRequest.class));
+        requests.add(mock(JobSubmitRequest.class));
+
+        List<SubmitResult> results = manager.submitJobs(requests, null, "alice");
+
+        assertThat(results.get(0).getException()).isEqualTo(exception);
+        assertThat(results.get(1).getException()).isInstanceOf(RejectedExecutionException.class);
+        verify(files).newPath(filesystem, new RelativePath("/tmp/sandboxes"));
+        // failed submission released it's place
+        try {
+            manager.submitJob(mock(JobSubmitRequest.class), null, "alice");
+            fail("OctopusIOException not thrown");
+        } catch (OctopusIOException e) {
+            assertThat(e).isEqualTo(exception);
+        }
+    }
+
+    @Test
+    public void submitJob_RetryWithIdempotencyKey_SubmittedOnce() throws Exception {
+        OctopusConfiguration conf =
+                new OctopusConfiguration(new URI("local:///"), "multi", new URI("file:///tmp/sandboxes"), null);
+        Octopus octopus = mock(Octopus.class);
+        Scheduler scheduler = mock(Scheduler.class);
+        Jobs jobs = mock(Jobs.class);
+        when(octopus.jobs()).thenReturn(jobs);
+        Files files = mock(Files.class);
+        when(octopus.files()).thenReturn(files);
+        AbsolutePath sandboxPath = mock(AbsolutePath.class);
+        FileSystem filesystem = mock(FileSystem.class);
+        when(files.newFileSystem(new URI("file:///"), null, null)).thenReturn(filesystem);
+        when(files.newPath(filesystem, new RelativePath("/tmp/sandboxes"))).thenReturn(sandboxPath);
+        JobSubmitRequest request = mock(JobSubmitRequest.class);
+        JobDescription description = new JobDescription();
+        when(request.toJobDescription()).thenReturn(description);
+        Sandbox sandbox = mock(Sandbox.class);
+        when(request.toSandbox(octopus, sandboxPath, null, null)).thenReturn(sandbox);
+        when(sandbox.getPath()).thenReturn(sandboxPath);
+        when(sandboxPath.getPath()).thenReturn("/tmp/sandboxes");
+        Job job = mock(Job.class);
+        when(job.getUUID()).thenReturn(UUID.fromString("11111111-1111-1111-1111-111111111111"));
+        when(jobs.submitJob(scheduler, description)).thenReturn(job);
+        Map<String, SandboxedJob> sjobs = new HashMap<String, SandboxedJob>();
+        OctopusManager manager = new OctopusManager(conf, octopus, defaultRouter(conf, scheduler), sjobs,
+                new HashMap<String, SandboxedJob>(), mock(JobsPoller.class), null);
+
+        SandboxedJob first = manager.submitJob(request, null, null, "key1");
+        SandboxedJob retry = manager.submitJob(request, null, null, "key1");
+
+        assertThat(retry).isSameAs(first);
+        verify(sandbox).upload();
+        verify(jobs).submitJob(scheduler, description);
+        assertThat(sjobs).hasSize(1);
+    }
+
+    @Test
+    public void recover_JournaledJobs_RunningJobWatchedDoneJobExpired() throws Exception {
+        OctopusConfiguration conf =
+                new OctopusConfiguration(new URI("local:///"), "multi", new URI("file:///tmp/sandboxes"), null);
+        File directory = com.google.common.io.Files.createTempDir();
+        JournalConfiguration journalConf = new JournalConfiguration(directory.getPath(), 4096, 0);
+        JobSubmitRequest request = new JobSubmitRequest("/tmp/jobdir", "/bin/sh", new ArrayList<String>(),
+                new ArrayList<String>(), new ArrayList<String>(), "stderr.txt", "stdout.txt", null);
+        AbsolutePath sandboxPath = mock(AbsolutePath.class);
+        when(sandboxPath.getFileName()).thenReturn("sandbox1");
+        when(sandboxPath.resolve(any(RelativePath.class))).thenReturn(sandboxPath);
+        Sandbox journaledSandbox = mock(Sandbox.class);
+        when(journaledSandbox.getPath()).thenReturn(sandboxPath);
+        Job journaledJob = mock(Job.class);
+        when(journaledJob.getUUID()).thenReturn(UUID.fromString("11111111-1111-1111-1111-111111111111"));
+        when(journaledJob.getIdentifier()).thenReturn("42");
+        SandboxedJob running = new SandboxedJob("job1", journaledSandbox, journaledJob, request, null, null, null);
+        running.setBackend(OctopusConfiguration.DEFAULT_BACKEND);
+        SandboxedJob done = new SandboxedJob("job2", journaledSandbox, journaledJob, request, null, null, null);
+        done.setBackend(OctopusConfiguration.DEFAULT_BACKEND);
+        JobStatus doneStatus = new JobStatusImplementation(journaledJob, "DONE", 0, null, false, true, null);
+        JobJournal previous = new JobJournal(journalConf, new MetricsRegistry());
+        previous.start();
+        previous.submitted(running, 1000L);
+        previous.submitted(done, 2000L);
+        previous.onEvent(new JobEvent(JobEvent.Type.STATE_CHANGED, done, doneStatus));
+        previous.close();
+
+        Octopus octopus = mock(Octopus.class);
+        Files files = mock(Files.class);
+        when(octopus.files()).thenReturn(files);
+        FileSystem filesystem = mock(FileSystem.class);
+        when(files.newFileSystem(new URI("file:///"), null, null)).thenReturn(filesystem);
+        AbsolutePath sandboxRoot = mock(AbsolutePath.class);
+        when(files.newPath(filesystem, new RelativePath("/tmp/sandboxes"))).thenReturn(sandboxRoot);
+        when(sandboxRoot.resolve(any(RelativePath.class))).thenReturn(sandboxPath);
+        Backend backend = newBackend(OctopusConfiguration.DEFAULT_BACKEND, 0);
+        BackendRouter router = new BackendRouter(Arrays.asList(backend));
+        Map<String, SandboxedJob> sjobs = new HashMap<String, SandboxedJob>();
+        JobsPoller poller = mock(JobsPoller.class);
+        JobJournal journal = new JobJournal(journalConf, new MetricsRegistry());
+        OctopusManager manager = new OctopusManager(conf, octopus, router, sjobs, sjobs, poller, null);
+        manager.setJournal(journal);
+        HttpClient httpClient = mock(HttpClient.class);
+
+        int recovered = manager.recover(httpClient);
+
+        assertThat(recovered).isEqualTo(2);
+        SandboxedJob recoveredRunning = sjobs.get("job1");
+        assertThat(recoveredRunning.getJob().getUUID()).isEqualTo(UUID.fromString("11111111-1111-1111-1111-111111111111"));
+        assertThat(recoveredRunning.getJob().getIdentifier()).isEqualTo("42");
+        assertThat(recoveredRunning.getSandbox().getPath()).isEqualTo(sandboxPath);
+        assertThat(recoveredRunning.getStatus()).isNull();
+        assertThat(recoveredRunning.getHttpClient()).isEqualTo(httpClient);
+        verify(poller).watch(recoveredRunning, 1000L);
+        SandboxedJob recoveredDone = sjobs.get("job2");
+        assertThat(recoveredDone.getStatus().isDone()).isTrue();
+        verify(poller).expire(recoveredDone, 2000L);
+        assertThat(backend.depth()).isEqualTo(1);
+        for (File segment : directory.listFiles()) {
+            segment.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void recover_WithoutJournal_NothingRecovered() throws Exception {
+        OctopusManager manager = new OctopusManager(null, null, null, null, new HashMap<String, SandboxedJob>(),
+                mock(JobsPoller.class), null);
+
+        assertThat(manager.recover(null)).isEqualTo(0);
+    }
+
+    private Backend newBackend(String name, int capacity) throws URISyntaxException {
+        BackendConfiguration backendConf =
+                new BackendConfiguration(name, new URI("local:///"), "multi", new URI("file:///tmp/sandboxes"), capacity, 1);
+        return new Backend(backendConf, mock(Scheduler.class), new MetricsRegistry());
+    }
+
+    /**
+     * Router with only the default backend, using scheduler.
+     */
+    private BackendRouter defaultRouter(OctopusConfiguration conf, Scheduler scheduler) {
+        Backend backend = new Backend(conf.getDefaultBackend(), scheduler, new MetricsRegistry());
+        return new BackendRouter(Arrays.asList(backend));
+    }
+
+    @Test
+    public void submitJobs_OneStagingFails_OthersSubmitted() throws OctopusIOException, OctopusException, URISyntaxException {
+        OctopusConfiguration conf =
+                new OctopusConfiguration(new URI("local:///"), "multi", new URI("file:///tmp/sandboxes"), null);
+        Octopus octopus = mock(Octopus.class);
+        Scheduler scheduler = mock(Scheduler.class);
+        Jobs jobs = mock(Jobs.class);
+        when(octopus.jobs()).thenReturn(jobs);
+        Files files = mock(Files.class);
+        when(octopus.files()).thenReturn(files);
+        AbsolutePath sandboxPath = mock(AbsolutePath.class);
+        FileSystem filesystem = mock(FileSystem.class);
+        when(files.newFileSystem(new URI("file:///"), null, null)).thenReturn(filesystem);
+        when(files.newPath(filesystem, new RelativePath("/tmp/sandboxes"))).thenReturn(sandboxPath);
+        when(files.isOpen(filesystem)).thenReturn(true);
+        when(sandboxPath.getPath()).thenReturn("/tmp/sandboxes");
+        JobSubmitRequest request1 = mock(JobSubmitRequest.class);
+        JobDescription description1 = new JobDescription();
+        when(request1.toJobDescription()).thenReturn(description1);
+        Sandbox sandbox1 = mock(Sandbox.class);
+        when(sandbox1.getPath()).thenReturn(sandboxPath);
+        when(request1.toSandbox(octopus, sandboxPath, null, null)).thenReturn(sandbox1);
+        JobSubmitRequest request2 = mock(JobSubmitRequest.class);
+        OctopusIOException exception = new OctopusIOException("local", "Disk full");
+        when(request2.toSandbox(octopus, sandboxPath, null, null)).thenThrow(exception);
+        Job job1 = mock(Job.class);
+        when(job1.getUUID()).thenReturn(UUID.fromString("11111111-1111-1111-1111-111111111111"));
+        when(jobs.submitJob(scheduler, description1)).thenReturn(job1);
+        Map<String, SandboxedJob> sjobs = new HashMap<String, SandboxedJob>();
+        JobsPoller poller = mock(JobsPoller.class);
+        OctopusManager manager = new OctopusManager(conf, octopus, defaultRouter(conf, scheduler), sjobs,
+                new HashMap<String, SandboxedJob>(), poller, null);
+        List<JobSubmitRequest> requests = new ArrayList<JobSubmitRequest>();
+        requests.add(request1);
+        requests.add(request2);
+
+        List<SubmitResult> results = manager.submitJobs(requests, null);
+
+        assertThat(results).hasSize(2);
+        assertThat(results.get(0).getJob().getJob()).isEqualTo(job1);
+        assertThat(results.get(1).isSubmitted()).isFalse();
+        assertThat(results.get(1).getException()).isEqualTo(exception);
+        assertThat(sjobs).hasSize(1);
+        // both sandboxes share one file system
+        verify(files).newFileSystem(new URI("file:///"), null, null);
+    }
+
+    @Test
+    public void cancelJob_NotSubmittedYet_Killed() throws OctopusException, IOException {
+        Map<String, SandboxedJob> sjobs = new HashMap<String, SandboxedJob>();
+        SandboxedJob job = new SandboxedJob("11111111-1111-1111-1111-111111111111", null, null, null);
+        sjobs.put(job.getIdentifier(), job);
+        OctopusManager manager = new OctopusManager(null, null, null, sjobs, new HashMap<String, SandboxedJob>(),
+                null, null);
+
+        manager.cancelJob(job.getIdentifier());
+
+        assertThat(job.getStatus().getState()).isEqualTo("KILLED");
+        assertThat(job.getStatus().isDone()).isTrue();
+    }
+
     @Test
     public void getJob_DoneJob_DoneJob() throws URISyntaxException, OctopusIOException, OctopusException {
         Map<String, SandboxedJob> sjobs = new HashMap<String, SandboxedJob>();
         SandboxedJob sjob = mock(SandboxedJob.class);
         sjobs.put("11111111-1111-1111-1111-111111111111", sjob);
-        OctopusManager manager = new OctopusManager(null, null, null, sjobs, null, null);
+        OctopusManager manager = new OctopusManager(null, null, null, sjobs, new HashMap<String, SandboxedJob>(),
+                null, null);
 
         SandboxedJob result = manager.getJob("11111111-1111-1111-1111-111111111111");
 
         assertThat(result).isEqualTo(sjob);
     }
 
+    @Test
+    public void getJob_ArchivedJob_UnpackedJob() throws OctopusIOException, OctopusException {
+        JobArchive archive = new JobArchive(new ArchiveConfiguration(), new MetricsRegistry());
+        JobStatus status = new JobStatusImplementation(null, "DONE", 0, null, false, true, null);
+        archive.put(new SandboxedJob("11111111-1111-1111-1111-111111111111", null, null, null, null, status, null), 2000L);
+        Map<String, SandboxedJob> sjobs = new HashMap<String, SandboxedJob>();
+        OctopusManager manager = new OctopusManager(null, null, null, sjobs, sjobs, null, null);
+        manager.setArchive(archive);
+
+        SandboxedJob result = manager.getJob("11111111-1111-1111-1111-111111111111");
+
+        assertThat(result.getIdentifier()).isEqualTo("11111111-1111-1111-1111-111111111111");
+        assertThat(result.getStatus().getState()).isEqualTo("DONE");
+        assertThat(manager.getJobs()).hasSize(1);
+    }
+
     @Test(expected=NoSuchJobException.class)
     public void getJob_UnknownJob_ThrowsNoSuchJobException() throws OctopusIOException, OctopusException {
         Map<String, SandboxedJob> sjobs = new HashMap<String, SandboxedJob>();
-        OctopusManager manager = new OctopusManager(null, null, null, sjobs, null, null);
+        OctopusManager manager = new OctopusManager(null, null, null, sjobs, new HashMap<String, SandboxedJob>(),
+                null, null);
 
         manager.getJob("11111111-1111-1111-1111-111111111111");
     }
@@ -205,7 +664,8 @@ public class OctopusManagerTest {
         sjobs.put("11111111-1111-1111-1111-111111111111", sjob);
         JobStatus timeout_jobstatus = new JobStatusImplementation(job, "KILLED", null, new Exception("Process timed out"), false, true, null);
         when(jobsEngine.getJobStatus(job)).thenReturn(timeout_jobstatus);
-        OctopusManager manager = new OctopusManager(null, octopus, null, sjobs, null, null);
+        OctopusManager manager = new OctopusManager(null, octopus, null, sjobs, new HashMap<String, SandboxedJob>(),
+                null, null);
 
         manager.cancelJob("11111111-1111-1111-1111-111111111111");
 
@@ -213,6 +673,30 @@ public class OctopusManagerTest {
         verify(sjob).setStatus(timeout_jobstatus);
     }
 
+    @Test
+    public void testCancelJob_NonDoneJob_RemovedFromActiveJobs() throws OctopusException, IOException {
+        Octopus octopus = mock(Octopus.class);
+        Jobs jobsEngine= mock(Jobs.class);
+        when(octopus.jobs()).thenReturn(jobsEngine);
+        Map<String, SandboxedJob> sjobs = new HashMap<String, SandboxedJob>();
+        Map<String, SandboxedJob> activeJobs = new HashMap<String, SandboxedJob>();
+        SandboxedJob sjob = mock(SandboxedJob.class);
+        Job job = mock(Job.class);
+        when(sjob.getJob()).thenReturn(job);
+        JobStatus status = mock(JobStatus.class);
+        when(sjob.getStatus()).thenReturn(status);
+        sjobs.put("11111111-1111-1111-1111-111111111111", sjob);
+        activeJobs.put("11111111-1111-1111-1111-111111111111", sjob);
+        JobStatus timeout_jobstatus = new JobStatusImplementation(job, "KILLED", null, new Exception("Process timed out"), false, true, null);
+        when(jobsEngine.getJobStatus(job)).thenReturn(timeout_jobstatus);
+        OctopusManager manager = new OctopusManager(null, octopus, null, sjobs, activeJobs, null, null);
+
+        manager.cancelJob("11111111-1111-1111-1111-111111111111");
+
+        assertThat(activeJobs).isEmpty();
+        assertThat(sjobs).containsKey("11111111-1111-1111-1111-111111111111");
+    }
+
     @Test
     public void testCancelJob_DoneJob_JobNotCanceled() throws OctopusException, IOException {
         // create manager with mocked Jobs and other members stubbed
@@ -227,7 +711,8 @@ public class OctopusManagerTest {
         when(status.isDone()).thenReturn(true); // Job is done
         when(sjob.getStatus()).thenReturn(status);
         sjobs.put("11111111-1111-1111-1111-111111111111", sjob);
-        OctopusManager manager = new OctopusManager(null, octopus, null, sjobs, null, null);
+        OctopusManager manager = new OctopusManager(null, octopus, null, sjobs, new HashMap<String, SandboxedJob>(),
+                null, null);
 
         manager.cancelJob("11111111-1111-1111-1111-111111111111");
 
@@ -237,7 +722,8 @@ public class OctopusManagerTest {
     @Test(expected=NoSuchJobException.class)
     public void testCancelJob_UnknownJob_ThrowsNoSuchJobException() throws OctopusException, IOException {
         Map<String, SandboxedJob> sjobs = new HashMap<String, SandboxedJob>();
-        OctopusManager manager = new OctopusManager(null, null, null, sjobs, null, null);
+        OctopusManager manager = new OctopusManager(null, null, null, sjobs, new HashMap<String, SandboxedJob>(),
+                null, null);
 
         manager.cancelJob("11111111-1111-1111-1111-111111111111");
     }
@@ -248,7 +734,8 @@ public class OctopusManagerTest {
         SandboxedJob sjob = mock(SandboxedJob.class);
         when(sjob.getIdentifier()).thenReturn("11111111-1111-1111-1111-111111111111");
         sjobs.put(sjob.getIdentifier(), sjob);
-        OctopusManager manager = new OctopusManager(null, null, null, sjobs, null, null);
+        OctopusManager manager = new OctopusManager(null, null, null, sjobs, new HashMap<String, SandboxedJob>(),
+                null, null);
 
         Collection<SandboxedJob> jobs = manager.getJobs();
 
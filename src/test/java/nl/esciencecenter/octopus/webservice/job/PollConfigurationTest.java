@@ -40,6 +40,21 @@ public class PollConfigurationTest {
         assertThat(conf.getInterval()).isEqualTo(30000);
         assertThat(conf.getCancelTimeout()).isEqualTo(3600000);
         assertThat(conf.getDeleteTimeout()).isEqualTo(12*60*60*1000);
+        assertThat(conf.getMaximumInterval()).isEqualTo(5*60*1000);
+        assertThat(conf.getShards()).isEqualTo(1);
+        assertThat(conf.getPoolSize()).isEqualTo(1);
+        assertThat(conf.getMaxBatchSize()).isEqualTo(0);
+        assertThat(conf.getMaxInFlight()).isEqualTo(0);
+        assertThat(conf.getSweepInterval()).isEqualTo(10*60*1000);
+    }
+
+    @Test
+    public void testSetMaximumInterval() {
+        PollConfiguration conf = new PollConfiguration();
+
+        conf.setMaximumInterval(60000);
+
+        assertThat(conf.getMaximumInterval()).isEqualTo(60000);
     }
 
     @Test
@@ -60,13 +75,58 @@ public class PollConfigurationTest {
         assertThat(conf.getCancelTimeout()).isEqualTo(456);
     }
 
+    @Test
+    public void testSetShards() {
+        PollConfiguration conf = new PollConfiguration();
+
+        conf.setShards(4);
+
+        assertThat(conf.getShards()).isEqualTo(4);
+    }
+
+    @Test
+    public void testSetPoolSize() {
+        PollConfiguration conf = new PollConfiguration();
+
+        conf.setPoolSize(2);
+
+        assertThat(conf.getPoolSize()).isEqualTo(2);
+    }
+
+    @Test
+    public void testSetMaxBatchSize() {
+        PollConfiguration conf = new PollConfiguration();
+
+        conf.setMaxBatchSize(100);
+
+        assertThat(conf.getMaxBatchSize()).isEqualTo(100);
+    }
+
+    @Test
+    public void testSetMaxInFlight() {
+        PollConfiguration conf = new PollConfiguration();
+
+        conf.setMaxInFlight(3);
+
+        assertThat(conf.getMaxInFlight()).isEqualTo(3);
+    }
+
+    @Test
+    public void testSetSweepInterval() {
+        PollConfiguration conf = new PollConfiguration();
+
+        conf.setSweepInterval(60000);
+
+        assertThat(conf.getSweepInterval()).isEqualTo(60000);
+    }
+
     @Test
     public void testToString() {
         PollConfiguration conf = new PollConfiguration();
 
         String result = conf.toString();
 
-        String expected = "PollConfiguration{30000, 3600000, 43200000}";
+        String expected = "PollConfiguration{30000, 3600000, 43200000, 300000, 1, 1, 0, 0, 600000}";
         assertThat(result).isEqualTo(expected);
     }
 }
@@ -0,0 +1,168 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.yammer.metrics.core.Clock;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+
+public class PollLoopTest {
+    private Runnable poller;
+    private ScheduledExecutorService executor;
+    private MetricsRegistry registry;
+    private Clock clock;
+    private PollLoop loop;
+
+    @Before
+    public void setUp() {
+        poller = mock(Runnable.class);
+        executor = mock(ScheduledExecutorService.class);
+        registry = new MetricsRegistry();
+        clock = mock(Clock.class);
+        loop = new PollLoop(poller, executor, 1000, registry, clock);
+    }
+
+    private Counter counter(String name) {
+        return (Counter) registry.allMetrics().get(new MetricName(PollLoop.class, name));
+    }
+
+    @Test
+    public void testStart() {
+        loop.start();
+
+        verify(executor).schedule(loop, 0, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void run_FastTick_NextTickAfterRemainderOfInterval() {
+        when(clock.time()).thenReturn(0L, 0L, 200L, 200L);
+        loop.start();
+
+        loop.run();
+
+        verify(poller).run();
+        verify(executor).schedule(loop, 800, TimeUnit.MILLISECONDS);
+        assertThat(counter("overruns").count()).isEqualTo(0);
+        assertThat(loop.getEffectiveInterval()).isEqualTo(1000);
+    }
+
+    @Test
+    public void run_TickLongerThanHalfInterval_IntervalNotStretched() {
+        when(clock.time()).thenReturn(0L, 0L, 700L, 700L);
+        loop.start();
+
+        loop.run();
+
+        verify(executor).schedule(loop, 300, TimeUnit.MILLISECONDS);
+        assertThat(counter("overruns").count()).isEqualTo(0);
+        assertThat(loop.getEffectiveInterval()).isEqualTo(1000);
+    }
+
+    @Test
+    public void run_SlowTick_OverrunCountedAndIntervalStretched() {
+        when(clock.time()).thenReturn(0L, 0L, 2500L, 2500L);
+        loop.start();
+
+        loop.run();
+
+        verify(executor).schedule(loop, 2500, TimeUnit.MILLISECONDS);
+        assertThat(counter("overruns").count()).isEqualTo(1);
+        assertThat(counter("skipped").count()).isEqualTo(2);
+        assertThat(loop.getEffectiveInterval()).isEqualTo(5000);
+    }
+
+    @Test
+    public void run_LateTick_LagRecorded() {
+        when(clock.time()).thenReturn(0L, 300L, 300L, 300L);
+        loop.start();
+
+        loop.run();
+
+        Histogram lag = (Histogram) registry.allMetrics().get(new MetricName(PollLoop.class, "lag"));
+        assertThat(lag.max()).isEqualTo(300.0);
+    }
+
+    @Test
+    public void run_PollerFails_NextTickScheduled() {
+        when(clock.time()).thenReturn(0L, 0L, 100L, 100L);
+        doThrow(new RuntimeException("Scheduler unreachable")).when(poller).run();
+        loop.start();
+
+        loop.run();
+
+        verify(executor).schedule(loop, 900, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void stop_TickScheduled_TickCancelledAndNotRun() {
+        ScheduledFuture<?> future = mock(ScheduledFuture.class);
+        doReturn(future).when(executor).schedule(loop, 0, TimeUnit.MILLISECONDS);
+        loop.start();
+
+        loop.stop();
+        loop.run();
+
+        verify(future).cancel(false);
+        verify(poller, never()).run();
+    }
+
+    @Test
+    public void stop_BeforeShutdown_ShutdownWithoutAnotherTick() throws InterruptedException {
+        final AtomicInteger ticks = new AtomicInteger();
+        final CountDownLatch firstTick = new CountDownLatch(1);
+        Runnable countingPoller = new Runnable() {
+            public void run() {
+                ticks.incrementAndGet();
+                firstTick.countDown();
+            }
+        };
+        ScheduledExecutorService realExecutor = Executors.newSingleThreadScheduledExecutor();
+        PollLoop realLoop = new PollLoop(countingPoller, realExecutor, 60000, registry, Clock.defaultClock());
+        realLoop.start();
+        firstTick.await(1, TimeUnit.SECONDS);
+
+        realLoop.stop();
+        realExecutor.shutdown();
+
+        assertThat(realExecutor.awaitTermination(1, TimeUnit.SECONDS)).isTrue();
+        assertThat(ticks.get()).isEqualTo(1);
+    }
+}
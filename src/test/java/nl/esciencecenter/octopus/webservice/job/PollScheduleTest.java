@@ -0,0 +1,133 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class PollScheduleTest {
+
+    @Test
+    public void nextTick_Added_Due() {
+        PollSchedule schedule = new PollSchedule(8);
+        schedule.add("job1");
+
+        assertThat(schedule.nextTick()).containsExactly("job1");
+        assertThat(schedule.contains("job1")).isTrue();
+    }
+
+    @Test
+    public void nextTick_Empty_NothingDue() {
+        PollSchedule schedule = new PollSchedule(8);
+
+        assertThat(schedule.nextTick()).isEmpty();
+    }
+
+    @Test
+    public void reschedule_Changed_DueNextTick() {
+        PollSchedule schedule = new PollSchedule(8);
+        schedule.add("job1");
+        schedule.nextTick();
+
+        schedule.reschedule("job1", true);
+
+        assertThat(schedule.nextTick()).containsExactly("job1");
+    }
+
+    @Test
+    public void reschedule_Unchanged_DelayDoubles() {
+        PollSchedule schedule = new PollSchedule(8);
+        schedule.add("job1");
+        schedule.nextTick();
+
+        schedule.reschedule("job1", false);
+
+        assertThat(schedule.nextTick()).isEmpty();
+        assertThat(schedule.nextTick()).containsExactly("job1");
+
+        schedule.reschedule("job1", false);
+
+        assertThat(schedule.nextTick()).isEmpty();
+        assertThat(schedule.nextTick()).isEmpty();
+        assertThat(schedule.nextTick()).isEmpty();
+        assertThat(schedule.nextTick()).containsExactly("job1");
+    }
+
+    @Test
+    public void reschedule_UnchangedAtMaximum_DelayCapped() {
+        PollSchedule schedule = new PollSchedule(2);
+        schedule.add("job1");
+        schedule.nextTick();
+        schedule.reschedule("job1", false);
+        schedule.nextTick();
+        schedule.nextTick();
+
+        schedule.reschedule("job1", false);
+
+        assertThat(schedule.nextTick()).isEmpty();
+        assertThat(schedule.nextTick()).containsExactly("job1");
+    }
+
+    @Test
+    public void reschedule_ChangedAfterBackoff_DelayReset() {
+        PollSchedule schedule = new PollSchedule(8);
+        schedule.add("job1");
+        schedule.nextTick();
+        schedule.reschedule("job1", false);
+        schedule.nextTick();
+        schedule.nextTick();
+
+        schedule.reschedule("job1", true);
+
+        assertThat(schedule.nextTick()).containsExactly("job1");
+    }
+
+    @Test
+    public void remove_Scheduled_NotDue() {
+        PollSchedule schedule = new PollSchedule(8);
+        schedule.add("job1");
+
+        schedule.remove("job1");
+
+        assertThat(schedule.nextTick()).isEmpty();
+        assertThat(schedule.contains("job1")).isFalse();
+        assertThat(schedule.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testPollSchedule_PollConfiguration_MaximumDelayInTicks() {
+        PollConfiguration pollConf = new PollConfiguration(1000, 5000, 10000);
+        pollConf.setMaximumInterval(2000);
+        PollSchedule schedule = new PollSchedule(pollConf);
+        schedule.add("job1");
+        schedule.nextTick();
+        schedule.reschedule("job1", false);
+        schedule.nextTick();
+        schedule.nextTick();
+
+        schedule.reschedule("job1", false);
+
+        // capped at 2000/1000 = 2 ticks
+        assertThat(schedule.nextTick()).isEmpty();
+        assertThat(schedule.nextTick()).containsExactly("job1");
+    }
+}
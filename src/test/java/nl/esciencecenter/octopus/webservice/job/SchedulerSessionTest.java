@@ -0,0 +1,210 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.exceptions.OctopusException;
+import nl.esciencecenter.octopus.exceptions.OctopusIOException;
+import nl.esciencecenter.octopus.jobs.Jobs;
+import nl.esciencecenter.octopus.jobs.Scheduler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.yammer.metrics.core.MetricsRegistry;
+
+public class SchedulerSessionTest {
+    private URI location;
+    private Octopus octopus;
+    private Jobs jobs;
+    private Scheduler scheduler;
+    private ScheduledExecutorService executor;
+    private SchedulerSession session;
+
+    @Before
+    public void setUp() throws Exception {
+        location = new URI("ssh://cluster/");
+        octopus = mock(Octopus.class);
+        jobs = mock(Jobs.class);
+        when(octopus.jobs()).thenReturn(jobs);
+        scheduler = mock(Scheduler.class);
+        when(jobs.newScheduler(location, null, null)).thenReturn(scheduler);
+        executor = mock(ScheduledExecutorService.class);
+        SessionConfiguration conf = new SessionConfiguration(60000, 1000, 4000, 0);
+        session = new SchedulerSession(octopus, location, null, "default", conf, executor, new MetricsRegistry());
+    }
+
+    private void loseConnection() throws Exception {
+        OctopusIOException error = new OctopusIOException("ssh", "Connection lost");
+        when(jobs.getJobs(scheduler, "default")).thenThrow(error);
+        session.probe();
+    }
+
+    @Test
+    public void getScheduler_Connected() throws OctopusException {
+        assertThat(session.getState()).isEqualTo(SchedulerSession.State.CONNECTED);
+        assertThat(session.getScheduler()).isEqualTo(scheduler);
+    }
+
+    @Test
+    public void start_SchedulesProbes() {
+        session.start();
+
+        verify(executor).scheduleWithFixedDelay(any(Runnable.class), eq(60000L), eq(60000L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void probe_Alive_StaysConnected() throws Exception {
+        session.probe();
+
+        verify(jobs).getJobs(scheduler, "default");
+        assertThat(session.getState()).isEqualTo(SchedulerSession.State.CONNECTED);
+        verify(executor, never()).execute(any(Runnable.class));
+    }
+
+    @Test
+    public void probe_Fails_Reconnecting() throws Exception {
+        loseConnection();
+
+        assertThat(session.getState()).isEqualTo(SchedulerSession.State.RECONNECTING);
+        assertThat(session.getLastError()).hasMessage("Connection lost");
+        verify(executor).execute(any(Runnable.class));
+    }
+
+    @Test
+    public void getScheduler_ReconnectingPastWait_Fails() throws Exception {
+        loseConnection();
+
+        try {
+            session.getScheduler();
+            fail("OctopusException not thrown");
+        } catch (OctopusException e) {
+            assertThat(e).hasMessage("Session with scheduler ssh://cluster/ is RECONNECTING");
+        }
+    }
+
+    @Test
+    public void reconnect_Succeeds_NewSchedulerAndListenerCalled() throws Exception {
+        loseConnection();
+        Scheduler fresh = mock(Scheduler.class);
+        when(jobs.newScheduler(location, null, null)).thenReturn(fresh);
+        SchedulerSession.Listener listener = mock(SchedulerSession.Listener.class);
+        session.setListener(listener);
+
+        session.reconnect();
+
+        verify(jobs).close(scheduler);
+        assertThat(session.getState()).isEqualTo(SchedulerSession.State.CONNECTED);
+        assertThat(session.getScheduler()).isEqualTo(fresh);
+        assertThat(session.getLastError()).isNull();
+        verify(listener).reconnected(fresh);
+    }
+
+    @Test
+    public void reconnect_Fails_RetriedWithBackoff() throws Exception {
+        loseConnection();
+        OctopusException error = new OctopusException("ssh", "Host unreachable");
+        when(jobs.newScheduler(location, null, null)).thenThrow(error);
+
+        session.reconnect();
+        session.reconnect();
+        session.reconnect();
+        session.reconnect();
+
+        assertThat(session.getState()).isEqualTo(SchedulerSession.State.RECONNECTING);
+        assertThat(session.getLastError()).isEqualTo(error);
+        verify(executor).schedule(any(Runnable.class), eq(1000L), eq(TimeUnit.MILLISECONDS));
+        verify(executor).schedule(any(Runnable.class), eq(2000L), eq(TimeUnit.MILLISECONDS));
+        // backoff is capped at maximum
+        verify(executor, times(2)).schedule(any(Runnable.class), eq(4000L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void getScheduler_ReconnectWithinWait_ReturnsNewScheduler() throws Exception {
+        SessionConfiguration conf = new SessionConfiguration(60000, 1000, 4000, 10000);
+        session = new SchedulerSession(octopus, location, null, "default", conf, executor, new MetricsRegistry());
+        loseConnection();
+        final Scheduler fresh = mock(Scheduler.class);
+        when(jobs.newScheduler(location, null, null)).thenReturn(fresh);
+        Thread reconnector = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                session.reconnect();
+            }
+        };
+        reconnector.start();
+
+        Scheduler result = session.getScheduler();
+
+        reconnector.join();
+        assertThat(result).isEqualTo(fresh);
+    }
+
+    @Test
+    public void suspect_Connected_ProbeQueued() {
+        session.suspect();
+
+        verify(executor).execute(any(Runnable.class));
+    }
+
+    @Test
+    public void close_StopsProbesAndClosesScheduler() throws Exception {
+        session.start();
+
+        session.close();
+
+        assertThat(session.getState()).isEqualTo(SchedulerSession.State.CLOSED);
+        verify(jobs).close(scheduler);
+        session.probe();
+        verify(jobs, never()).getJobs(any(Scheduler.class), any(String.class));
+    }
+
+    @Test
+    public void fixedSession_NeverProbes() throws OctopusException {
+        SchedulerSession fixed = new SchedulerSession(scheduler);
+
+        fixed.start();
+        fixed.probe();
+        fixed.suspect();
+
+        assertThat(fixed.getScheduler()).isEqualTo(scheduler);
+        verify(executor, never()).scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class));
+    }
+}
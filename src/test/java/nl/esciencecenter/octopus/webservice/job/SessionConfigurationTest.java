@@ -0,0 +1,62 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class SessionConfigurationTest {
+
+    @Test
+    public void testSessionConfiguration_AllParameters() {
+        SessionConfiguration conf = new SessionConfiguration(30000, 500, 10000, 2000);
+
+        assertThat(conf.getProbeInterval()).isEqualTo(30000);
+        assertThat(conf.getMinimumBackoff()).isEqualTo(500);
+        assertThat(conf.getMaximumBackoff()).isEqualTo(10000);
+        assertThat(conf.getReconnectWait()).isEqualTo(2000);
+    }
+
+    @Test
+    public void testSessionConfiguration_NoParameters() {
+        SessionConfiguration conf = new SessionConfiguration();
+
+        assertThat(conf.getProbeInterval()).isEqualTo(60000);
+        assertThat(conf.getMinimumBackoff()).isEqualTo(1000);
+        assertThat(conf.getMaximumBackoff()).isEqualTo(60000);
+        assertThat(conf.getReconnectWait()).isEqualTo(10000);
+    }
+
+    @Test
+    public void testEquals() {
+        assertThat(new SessionConfiguration(1, 2, 3, 4)).isEqualTo(new SessionConfiguration(1, 2, 3, 4));
+        assertThat(new SessionConfiguration(1, 2, 3, 4)).isNotEqualTo(new SessionConfiguration(1, 2, 3, 5));
+    }
+
+    @Test
+    public void testToString() {
+        SessionConfiguration conf = new SessionConfiguration();
+
+        String expected = "SessionConfiguration{60000, 1000, 60000, 10000}";
+        assertThat(conf.toString()).isEqualTo(expected);
+    }
+}
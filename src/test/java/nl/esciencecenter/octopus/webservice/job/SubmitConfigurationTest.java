@@ -0,0 +1,83 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class SubmitConfigurationTest {
+
+    @Test
+    public void testSubmitConfiguration_AllParameters() {
+        SubmitConfiguration conf = new SubmitConfiguration(true, 4, 2, 10);
+        assertThat(conf.isAsync()).isTrue();
+        assertThat(conf.getStagingThreads()).isEqualTo(4);
+        assertThat(conf.getSubmitThreads()).isEqualTo(2);
+        assertThat(conf.getQueueSize()).isEqualTo(10);
+    }
+
+    @Test
+    public void testSubmitConfiguration_NoParameters() {
+        SubmitConfiguration conf = new SubmitConfiguration();
+        assertThat(conf.isAsync()).isFalse();
+        assertThat(conf.getStagingThreads()).isEqualTo(2);
+        assertThat(conf.getSubmitThreads()).isEqualTo(1);
+        assertThat(conf.getQueueSize()).isEqualTo(100);
+        assertThat(conf.getRetryAfter()).isEqualTo(5);
+        assertThat(conf.getIdempotencyCacheSize()).isEqualTo(10000);
+        assertThat(conf.getIdempotencyTimeout()).isEqualTo(3600000);
+    }
+
+    @Test
+    public void testSetAsync() {
+        SubmitConfiguration conf = new SubmitConfiguration();
+
+        conf.setAsync(true);
+
+        assertThat(conf.isAsync()).isTrue();
+    }
+
+    @Test
+    public void testSetRetryAfter() {
+        SubmitConfiguration conf = new SubmitConfiguration();
+
+        conf.setRetryAfter(30);
+
+        assertThat(conf.getRetryAfter()).isEqualTo(30);
+    }
+
+    @Test
+    public void testEquals() {
+        assertThat(new SubmitConfiguration(true, 4, 2, 10)).isEqualTo(new SubmitConfiguration(true, 4, 2, 10));
+        assertThat(new SubmitConfiguration(true, 4, 2, 10)).isNotEqualTo(new SubmitConfiguration(false, 4, 2, 10));
+    }
+
+    @Test
+    public void testToString() {
+        SubmitConfiguration conf = new SubmitConfiguration();
+
+        String result = conf.toString();
+
+        String expected = "SubmitConfiguration{false, 2, 1, 100, 5, 10000, 3600000}";
+        assertThat(result).isEqualTo(expected);
+    }
+}
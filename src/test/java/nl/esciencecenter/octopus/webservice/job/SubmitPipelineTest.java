@@ -0,0 +1,125 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class SubmitPipelineTest {
+
+    @Test
+    public void offer_Inline_StagedThenSubmitted() throws Exception {
+        SubmitPipeline pipeline = new SubmitPipeline(MoreExecutors.sameThreadExecutor(), MoreExecutors.sameThreadExecutor(), 1);
+        SandboxedJob job = mock(SandboxedJob.class);
+        SubmitPipeline.Stages stages = mock(SubmitPipeline.Stages.class);
+
+        boolean result = pipeline.offer(job, stages);
+
+        assertThat(result).isTrue();
+        InOrder order = inOrder(stages);
+        order.verify(stages).stage(job);
+        order.verify(stages).submit(job);
+        assertThat(pipeline.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void offer_Full_Rejected() {
+        ExecutorService executor = mock(ExecutorService.class);
+        SubmitPipeline pipeline = new SubmitPipeline(executor, executor, 1);
+        SubmitPipeline.Stages stages = mock(SubmitPipeline.Stages.class);
+
+        boolean first = pipeline.offer(mock(SandboxedJob.class), stages);
+        boolean second = pipeline.offer(mock(SandboxedJob.class), stages);
+
+        assertThat(first).isTrue();
+        assertThat(second).isFalse();
+        assertThat(pipeline.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void offer_StagingFails_FailedAndNotSubmitted() throws Exception {
+        SubmitPipeline pipeline = new SubmitPipeline(MoreExecutors.sameThreadExecutor(), MoreExecutors.sameThreadExecutor(), 1);
+        SandboxedJob job = mock(SandboxedJob.class);
+        SubmitPipeline.Stages stages = mock(SubmitPipeline.Stages.class);
+        Exception exception = new Exception("Upload failed");
+        doThrow(exception).when(stages).stage(job);
+
+        pipeline.offer(job, stages);
+
+        verify(stages, never()).submit(job);
+        verify(stages).failed(job, exception);
+        assertThat(pipeline.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void offer_SubmitFails_Failed() throws Exception {
+        SubmitPipeline pipeline = new SubmitPipeline(MoreExecutors.sameThreadExecutor(), MoreExecutors.sameThreadExecutor(), 1);
+        SandboxedJob job = mock(SandboxedJob.class);
+        SubmitPipeline.Stages stages = mock(SubmitPipeline.Stages.class);
+        Exception exception = new Exception("Scheduler down");
+        doThrow(exception).when(stages).submit(job);
+
+        pipeline.offer(job, stages);
+
+        verify(stages).failed(job, exception);
+        assertThat(pipeline.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void offer_Stopped_Rejected() throws InterruptedException {
+        SubmitPipeline pipeline = new SubmitPipeline(new SubmitConfiguration());
+        pipeline.stop();
+
+        boolean result = pipeline.offer(mock(SandboxedJob.class), mock(SubmitPipeline.Stages.class));
+
+        assertThat(result).isFalse();
+        assertThat(pipeline.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testStop() throws InterruptedException {
+        ExecutorService stagingExecutor = mock(ExecutorService.class);
+        ExecutorService submitExecutor = mock(ExecutorService.class);
+        SubmitPipeline pipeline = new SubmitPipeline(stagingExecutor, submitExecutor, 1);
+
+        pipeline.stop();
+
+        InOrder order = inOrder(stagingExecutor, submitExecutor);
+        order.verify(stagingExecutor).shutdown();
+        order.verify(stagingExecutor).awaitTermination(1, TimeUnit.MINUTES);
+        order.verify(submitExecutor).shutdown();
+        order.verify(submitExecutor).awaitTermination(1, TimeUnit.MINUTES);
+    }
+}
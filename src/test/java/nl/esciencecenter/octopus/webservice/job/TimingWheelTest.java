@@ -0,0 +1,117 @@
+package nl.esciencecenter.octopus.webservice.job;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.esciencecenter.octopus.webservice.job.TimingWheel.Timeout;
+
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+    @Test
+    public void advance_BeforeDeadline_NothingExpired() {
+        TimingWheel<String> wheel = new TimingWheel<String>(10, 4, 2, 0);
+        wheel.schedule("a", 55);
+
+        assertThat(wheel.advance(50)).isEmpty();
+        assertThat(wheel.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void advance_PastDeadline_Expired() {
+        TimingWheel<String> wheel = new TimingWheel<String>(10, 4, 2, 0);
+        wheel.schedule("a", 25);
+
+        assertThat(wheel.advance(30)).containsExactly("a");
+        assertThat(wheel.size()).isEqualTo(0);
+        assertThat(wheel.advance(40)).isEmpty();
+    }
+
+    @Test
+    public void schedule_DeadlinePassed_ExpiresOnNextAdvance() {
+        TimingWheel<String> wheel = new TimingWheel<String>(10, 4, 2, 0);
+        wheel.advance(100);
+
+        Timeout<String> timeout = wheel.schedule("a", 50);
+
+        assertThat(wheel.advance(100)).containsExactly("a");
+        assertThat(timeout.isExpired()).isTrue();
+    }
+
+    @Test
+    public void advance_DeadlinesInHigherLevels_CascadedAndExpiredInOrder() {
+        // 4 slots per level and 2 levels, level 1 spans 16 ticks
+        TimingWheel<String> wheel = new TimingWheel<String>(10, 4, 2, 0);
+        wheel.schedule("level1", 90);
+        wheel.schedule("level0", 30);
+        wheel.schedule("overflow", 500);
+
+        List<String> expired = new ArrayList<String>();
+        for (long now = 0; now <= 600; now += 10) {
+            for (String item : wheel.advance(now)) {
+                expired.add(item + "@" + now);
+            }
+        }
+
+        assertThat(expired).containsExactly("level0@30", "level1@90", "overflow@500");
+    }
+
+    @Test
+    public void advance_SkippingManyTicks_AllExpired() {
+        TimingWheel<String> wheel = new TimingWheel<String>(10, 4, 2, 0);
+        wheel.schedule("a", 30);
+        wheel.schedule("b", 170);
+        wheel.schedule("c", 1000);
+
+        assertThat(wheel.advance(1000)).containsExactly("a", "b", "c");
+    }
+
+    @Test
+    public void cancel_Scheduled_NotExpired() {
+        TimingWheel<String> wheel = new TimingWheel<String>(10, 4, 2, 0);
+        Timeout<String> timeout = wheel.schedule("a", 90);
+
+        wheel.cancel(timeout);
+
+        assertThat(timeout.isCancelled()).isTrue();
+        assertThat(wheel.size()).isEqualTo(0);
+        assertThat(wheel.advance(200)).isEmpty();
+    }
+
+    @Test
+    public void testTimeout() {
+        TimingWheel<String> wheel = new TimingWheel<String>(30000, 1000);
+
+        Timeout<String> timeout = wheel.schedule("a", 61000);
+
+        assertThat(timeout.getItem()).isEqualTo("a");
+        assertThat(timeout.getDeadline()).isEqualTo(61000);
+        assertThat(timeout.isCancelled()).isFalse();
+        assertThat(timeout.isExpired()).isFalse();
+        assertThat(wheel.advance(60999)).isEmpty();
+        assertThat(wheel.advance(61000)).containsExactly("a");
+    }
+}
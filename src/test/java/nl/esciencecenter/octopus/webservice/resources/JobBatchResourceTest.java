@@ -0,0 +1,128 @@
+package nl.esciencecenter.octopus.webservice.resources;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.UriInfo;
+
+import nl.esciencecenter.octopus.exceptions.OctopusIOException;
+import nl.esciencecenter.octopus.webservice.api.JobSubmitRequest;
+import nl.esciencecenter.octopus.webservice.api.JobSubmitResponse;
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+import nl.esciencecenter.octopus.webservice.job.OctopusManager;
+import nl.esciencecenter.octopus.webservice.job.SubmitResult;
+
+import org.apache.http.client.HttpClient;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JobBatchResourceTest {
+    private OctopusManager manager;
+    private HttpClient httpClient;
+    private JobBatchResource resource;
+
+    @Before
+    public void setUp() {
+        manager = mock(OctopusManager.class);
+        httpClient = mock(HttpClient.class);
+        UriInfo uriInfo = mock(UriInfo.class);
+        when(uriInfo.getBaseUriBuilder()).thenReturn(UriBuilder.fromUri("http://localhost/"));
+        resource = new JobBatchResource(manager, httpClient, uriInfo);
+    }
+
+    private JobSubmitRequest validRequest() {
+        JobSubmitRequest request = new JobSubmitRequest();
+        request.jobdir = "/tmp/jobdir/";
+        request.executable = "/bin/sh";
+        return request;
+    }
+
+    private SandboxedJob job(String identifier) {
+        SandboxedJob job = mock(SandboxedJob.class);
+        when(job.getIdentifier()).thenReturn(identifier);
+        return job;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void submitJobs_AllSubmitted_CreatedWithLocations() {
+        List<SubmitResult> results = new ArrayList<SubmitResult>();
+        results.add(new SubmitResult(job("11111111-1111-1111-1111-111111111111")));
+        results.add(new SubmitResult(job("22222222-2222-2222-2222-222222222222")));
+        when(manager.submitJobs(any(List.class), any(HttpClient.class), any(String.class))).thenReturn(results);
+
+        List<JobSubmitResponse> responses = resource.submitJobs(new JobSubmitRequest[] { validRequest(), validRequest() });
+
+        assertThat(responses).containsExactly(
+                new JobSubmitResponse(201, URI.create("http://localhost/job/11111111-1111-1111-1111-111111111111"), null),
+                new JobSubmitResponse(201, URI.create("http://localhost/job/22222222-2222-2222-2222-222222222222"), null));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void submitJobs_Async_Accepted() {
+        when(manager.isAsyncSubmit()).thenReturn(true);
+        List<SubmitResult> results = new ArrayList<SubmitResult>();
+        results.add(new SubmitResult(job("11111111-1111-1111-1111-111111111111")));
+        results.add(new SubmitResult(new RejectedExecutionException("Submit pipeline is full")));
+        when(manager.submitJobs(any(List.class), any(HttpClient.class), any(String.class))).thenReturn(results);
+
+        List<JobSubmitResponse> responses = resource.submitJobs(new JobSubmitRequest[] { validRequest(), validRequest() });
+
+        assertThat(responses).containsExactly(
+                new JobSubmitResponse(202, URI.create("http://localhost/job/11111111-1111-1111-1111-111111111111"), null),
+                new JobSubmitResponse(429, null, "Submit pipeline is full"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void submitJobs_InvalidAndFailedRequest_PerItemErrors() {
+        JobSubmitRequest valid1 = validRequest();
+        JobSubmitRequest invalid = new JobSubmitRequest();
+        JobSubmitRequest valid2 = validRequest();
+        List<JobSubmitRequest> validRequests = new ArrayList<JobSubmitRequest>();
+        validRequests.add(valid1);
+        validRequests.add(valid2);
+        List<SubmitResult> results = new ArrayList<SubmitResult>();
+        results.add(new SubmitResult(new OctopusIOException("local", "Disk full")));
+        results.add(new SubmitResult(job("22222222-2222-2222-2222-222222222222")));
+        when(manager.submitJobs(validRequests, httpClient, null)).thenReturn(results);
+
+        List<JobSubmitResponse> responses = resource.submitJobs(new JobSubmitRequest[] { valid1, invalid, valid2 });
+
+        assertThat(responses).hasSize(3);
+        assertThat(responses.get(0)).isEqualTo(new JobSubmitResponse(500, null, "Disk full"));
+        assertThat(responses.get(1).getStatus()).isEqualTo(422);
+        assertThat(responses.get(1).getError()).contains("executable").contains("jobdir");
+        assertThat(responses.get(2)).isEqualTo(
+                new JobSubmitResponse(201, URI.create("http://localhost/job/22222222-2222-2222-2222-222222222222"), null));
+    }
+}
@@ -28,16 +28,20 @@ import static org.mockito.Mockito.when;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.security.Principal;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.SecurityContext;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
 
 import nl.esciencecenter.octopus.webservice.api.JobSubmitRequest;
 import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+import nl.esciencecenter.octopus.webservice.job.IdempotencyConflictException;
 import nl.esciencecenter.octopus.webservice.job.OctopusManager;
 
 import org.apache.http.client.HttpClient;
@@ -53,19 +57,120 @@ public class JobsResourceTest {
         SandboxedJob job = mock(SandboxedJob.class);
         when(job.getIdentifier()).thenReturn("11111111-1111-1111-1111-111111111111");
         HttpClient httpClient = new DefaultHttpClient();
-        when(manager.submitJob(request, httpClient)).thenReturn(job);
+        when(manager.submitJob(request, httpClient, null, null)).thenReturn(job);
         UriInfo uriInfo = mock(UriInfo.class);
         UriBuilder builder = UriBuilder.fromUri("http://localhost/job/");
         when(uriInfo.getAbsolutePathBuilder()).thenReturn(builder);
         JobsResource resource = new JobsResource(manager, httpClient, uriInfo);
 
-        Response response = resource.submitJob(request);
+        Response response = resource.submitJob(request, null);
 
         assertEquals(201, response.getStatus());
         URI expected = new URI("http://localhost/job/11111111-1111-1111-1111-111111111111");
         assertEquals(expected, response.getMetadata().getFirst("Location"));
     }
 
+    @Test
+    public void submitJob_Async_Accepted() throws Exception {
+        JobSubmitRequest request = mock(JobSubmitRequest.class);
+        OctopusManager manager = mock(OctopusManager.class);
+        when(manager.isAsyncSubmit()).thenReturn(true);
+        SandboxedJob job = mock(SandboxedJob.class);
+        when(job.getIdentifier()).thenReturn("11111111-1111-1111-1111-111111111111");
+        HttpClient httpClient = new DefaultHttpClient();
+        when(manager.submitJobAsync(request, httpClient, null, null)).thenReturn(job);
+        UriInfo uriInfo = mock(UriInfo.class);
+        UriBuilder builder = UriBuilder.fromUri("http://localhost/job/");
+        when(uriInfo.getAbsolutePathBuilder()).thenReturn(builder);
+        JobsResource resource = new JobsResource(manager, httpClient, uriInfo);
+
+        Response response = resource.submitJob(request, null);
+
+        assertEquals(202, response.getStatus());
+        URI expected = new URI("http://localhost/job/11111111-1111-1111-1111-111111111111");
+        assertEquals(expected, response.getMetadata().getFirst("Location"));
+    }
+
+    @Test
+    public void submitJob_AsyncPipelineFull_TooManyRequests() throws Exception {
+        JobSubmitRequest request = mock(JobSubmitRequest.class);
+        OctopusManager manager = mock(OctopusManager.class);
+        when(manager.isAsyncSubmit()).thenReturn(true);
+        when(manager.getRetryAfter()).thenReturn(5);
+        HttpClient httpClient = new DefaultHttpClient();
+        when(manager.submitJobAsync(request, httpClient, null, null)).thenThrow(new RejectedExecutionException());
+        JobsResource resource = new JobsResource(manager, httpClient, mock(UriInfo.class));
+
+        Response response = resource.submitJob(request, null);
+
+        assertEquals(429, response.getStatus());
+        assertEquals(5, response.getMetadata().getFirst("Retry-After"));
+    }
+
+    @Test
+    public void submitJob_BackendsFull_TooManyRequests() throws Exception {
+        JobSubmitRequest request = mock(JobSubmitRequest.class);
+        OctopusManager manager = mock(OctopusManager.class);
+        when(manager.getRetryAfter()).thenReturn(5);
+        HttpClient httpClient = new DefaultHttpClient();
+        when(manager.submitJob(request, httpClient, null, null)).thenThrow(new RejectedExecutionException());
+        JobsResource resource = new JobsResource(manager, httpClient, mock(UriInfo.class));
+
+        Response response = resource.submitJob(request, null);
+
+        assertEquals(429, response.getStatus());
+        assertEquals(5, response.getMetadata().getFirst("Retry-After"));
+    }
+
+    @Test
+    public void submitJob_Authenticated_SubmittedWithIdentity() throws Exception {
+        JobSubmitRequest request = mock(JobSubmitRequest.class);
+        OctopusManager manager = mock(OctopusManager.class);
+        HttpClient httpClient = new DefaultHttpClient();
+        SandboxedJob job = mock(SandboxedJob.class);
+        when(job.getIdentifier()).thenReturn("1234");
+        when(manager.submitJob(request, httpClient, "alice", null)).thenReturn(job);
+        UriInfo uriInfo = mock(UriInfo.class);
+        UriBuilder builder = UriBuilder.fromUri("http://localhost/job/");
+        when(uriInfo.getAbsolutePathBuilder()).thenReturn(builder);
+        JobsResource resource = new JobsResource(manager, httpClient, uriInfo);
+        SecurityContext securityContext = mock(SecurityContext.class);
+        Principal principal = mock(Principal.class);
+        when(principal.getName()).thenReturn("alice");
+        when(securityContext.getUserPrincipal()).thenReturn(principal);
+        resource.securityContext = securityContext;
+
+        Response response = resource.submitJob(request, null);
+
+        assertEquals(201, response.getStatus());
+    }
+
+    @Test
+    public void submitJob_IdempotencyKeyReused_UnprocessableEntity() throws Exception {
+        JobSubmitRequest request = mock(JobSubmitRequest.class);
+        OctopusManager manager = mock(OctopusManager.class);
+        HttpClient httpClient = new DefaultHttpClient();
+        when(manager.submitJob(request, httpClient, null, "key1")).thenThrow(
+                new IdempotencyConflictException("Idempotency-Key key1 was used for a different request"));
+        JobsResource resource = new JobsResource(manager, httpClient, mock(UriInfo.class));
+
+        Response response = resource.submitJob(request, "key1");
+
+        assertEquals(422, response.getStatus());
+        assertEquals("Idempotency-Key key1 was used for a different request", response.getEntity());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void submitJob_OtherIllegalState_NotUnprocessableEntity() throws Exception {
+        JobSubmitRequest request = mock(JobSubmitRequest.class);
+        OctopusManager manager = mock(OctopusManager.class);
+        HttpClient httpClient = new DefaultHttpClient();
+        when(manager.submitJob(request, httpClient, null, "key1")).thenThrow(new IllegalStateException("Bug"));
+        JobsResource resource = new JobsResource(manager, httpClient, mock(UriInfo.class));
+
+        resource.submitJob(request, "key1");
+    }
+
     @Test
     public void getJobs() throws URISyntaxException {
         // mock manager so it returns a list of jobs
@@ -0,0 +1,193 @@
+package nl.esciencecenter.octopus.webservice.staging;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.exceptions.OctopusException;
+import nl.esciencecenter.octopus.exceptions.OctopusIOException;
+import nl.esciencecenter.octopus.files.FileSystem;
+import nl.esciencecenter.octopus.files.Files;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.yammer.metrics.core.Clock;
+
+public class FileSystemCacheTest {
+    private Octopus octopus;
+    private Files files;
+    private Clock clock;
+    private URI location1 = URI.create("ssh://cluster1/");
+    private URI location2 = URI.create("ssh://cluster2/");
+    private FileSystem fs1;
+    private FileSystem fs2;
+
+    @Before
+    public void setUp() throws OctopusException, OctopusIOException {
+        octopus = mock(Octopus.class);
+        files = mock(Files.class);
+        when(octopus.files()).thenReturn(files);
+        clock = mock(Clock.class);
+        fs1 = mock(FileSystem.class);
+        fs2 = mock(FileSystem.class);
+        when(files.newFileSystem(location1, null, null)).thenReturn(fs1);
+        when(files.newFileSystem(location2, null, null)).thenReturn(fs2);
+        when(files.isOpen(fs1)).thenReturn(true);
+        when(files.isOpen(fs2)).thenReturn(true);
+    }
+
+    @Test
+    public void acquire_Twice_FileSystemReused() throws OctopusException, OctopusIOException {
+        FileSystemCache cache = new FileSystemCache(octopus, 8, 1000, clock);
+
+        FileSystem first = cache.acquire(location1, null);
+        FileSystem second = cache.acquire(location1, null);
+
+        assertThat(first).isSameAs(fs1);
+        assertThat(second).isSameAs(fs1);
+        verify(files, times(1)).newFileSystem(location1, null, null);
+    }
+
+    @Test
+    public void acquire_CachedNotOpen_NewFileSystem() throws OctopusException, OctopusIOException {
+        FileSystemCache cache = new FileSystemCache(octopus, 8, 1000, clock);
+        cache.release(cache.acquire(location1, null));
+        when(files.isOpen(fs1)).thenReturn(false);
+        FileSystem fs1b = mock(FileSystem.class);
+        when(files.newFileSystem(location1, null, null)).thenReturn(fs1b);
+
+        FileSystem result = cache.acquire(location1, null);
+
+        assertThat(result).isSameAs(fs1b);
+        verify(files).close(fs1);
+    }
+
+    @Test
+    public void acquire_OtherLocationOpening_NotBlocked() throws Exception {
+        final CountDownLatch opening = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        when(files.newFileSystem(location1, null, null)).thenAnswer(new Answer<FileSystem>() {
+            public FileSystem answer(InvocationOnMock invocation) throws Throwable {
+                opening.countDown();
+                proceed.await();
+                return fs1;
+            }
+        });
+        final FileSystemCache cache = new FileSystemCache(octopus, 8, 1000, clock);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<FileSystem> slow = executor.submit(new Callable<FileSystem>() {
+            public FileSystem call() throws Exception {
+                return cache.acquire(location1, null);
+            }
+        });
+        opening.await();
+
+        FileSystem result = cache.acquire(location2, null);
+
+        assertThat(result).isSameAs(fs2);
+        assertThat(slow.isDone()).isFalse();
+        proceed.countDown();
+        assertThat(slow.get()).isSameAs(fs1);
+        assertThat(cache.size()).isEqualTo(2);
+        executor.shutdown();
+    }
+
+    @Test
+    public void acquire_IdleTimeoutPassed_IdleFileSystemClosed() throws OctopusException, OctopusIOException {
+        FileSystemCache cache = new FileSystemCache(octopus, 8, 1000, clock);
+        when(clock.time()).thenReturn(0L);
+        cache.release(cache.acquire(location1, null));
+        when(clock.time()).thenReturn(2000L);
+
+        cache.acquire(location2, null);
+
+        verify(files).close(fs1);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void acquire_IdleTimeoutPassedButLeased_NotClosed() throws OctopusException, OctopusIOException {
+        FileSystemCache cache = new FileSystemCache(octopus, 8, 1000, clock);
+        when(clock.time()).thenReturn(0L);
+        cache.acquire(location1, null);
+        when(clock.time()).thenReturn(2000L);
+
+        cache.acquire(location2, null);
+
+        verify(files, never()).close(fs1);
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void acquire_CacheFull_LeastRecentlyUsedClosed() throws OctopusException, OctopusIOException {
+        FileSystemCache cache = new FileSystemCache(octopus, 1, 1000, clock);
+        cache.release(cache.acquire(location1, null));
+
+        cache.acquire(location2, null);
+
+        verify(files).close(fs1);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void release_EvictedWhileLeased_ClosedOnLastRelease() throws OctopusException, OctopusIOException {
+        FileSystemCache cache = new FileSystemCache(octopus, 1, 1000, clock);
+        FileSystem leased = cache.acquire(location1, null);
+        when(files.isOpen(fs1)).thenReturn(false);
+        FileSystem fs1b = mock(FileSystem.class);
+        when(files.newFileSystem(location1, null, null)).thenReturn(fs1b);
+        cache.acquire(location1, null);
+        verify(files, never()).close(fs1);
+
+        cache.release(leased);
+
+        verify(files).close(fs1);
+    }
+
+    @Test
+    public void testClose() throws OctopusException, OctopusIOException {
+        FileSystemCache cache = new FileSystemCache(octopus, 8, 1000, clock);
+        cache.acquire(location1, null);
+        cache.acquire(location2, null);
+
+        cache.close();
+
+        verify(files).close(fs1);
+        verify(files).close(fs2);
+        assertThat(cache.size()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,172 @@
+package nl.esciencecenter.octopus.webservice.staging;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+
+import nl.esciencecenter.octopus.files.AbsolutePath;
+import nl.esciencecenter.octopus.files.FileSystem;
+import nl.esciencecenter.octopus.util.CopyOption;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.Files;
+import com.yammer.metrics.core.MetricsRegistry;
+
+public class LocalCopierTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MetricsRegistry registry;
+    private FileSystem localFS;
+    private File src;
+
+    @Before
+    public void setUp() throws URISyntaxException, IOException {
+        registry = new MetricsRegistry();
+        localFS = mock(FileSystem.class);
+        when(localFS.getUri()).thenReturn(new URI("file:///"));
+        src = folder.newFile("input");
+        Files.write("hello", src, UTF8);
+    }
+
+    private AbsolutePath path(FileSystem fs, File file) {
+        AbsolutePath path = mock(AbsolutePath.class);
+        when(path.getFileSystem()).thenReturn(fs);
+        when(path.getPath()).thenReturn(file.getAbsolutePath());
+        return path;
+    }
+
+    private long counter(String name) {
+        return registry.newCounter(LocalCopier.class, name).count();
+    }
+
+    @Test
+    public void isLocal_FileScheme_True() {
+        assertThat(LocalCopier.isLocal(path(localFS, src))).isTrue();
+    }
+
+    @Test
+    public void isLocal_SshScheme_False() throws URISyntaxException {
+        FileSystem remoteFS = mock(FileSystem.class);
+        when(remoteFS.getUri()).thenReturn(new URI("ssh://example.com/"));
+
+        assertThat(LocalCopier.isLocal(path(remoteFS, src))).isFalse();
+    }
+
+    @Test
+    public void copy_Transfer_ContentCopied() throws IOException {
+        LocalCopier copier = new LocalCopier(false, registry);
+        File dst = new File(folder.getRoot(), "output");
+
+        boolean copied = copier.copy(path(localFS, src), path(localFS, dst), CopyOption.CREATE);
+
+        assertThat(copied).isTrue();
+        assertThat(Files.toString(dst, UTF8)).isEqualTo("hello");
+        assertThat(counter("transfers")).isEqualTo(1);
+        assertThat(counter("links")).isEqualTo(0);
+    }
+
+    @Test
+    public void copy_HardLinks_Linked() throws IOException {
+        LocalCopier copier = new LocalCopier(true, registry);
+        File dst = new File(folder.getRoot(), "output");
+
+        boolean copied = copier.copy(path(localFS, src), path(localFS, dst), CopyOption.CREATE);
+
+        assertThat(copied).isTrue();
+        assertThat(Files.toString(dst, UTF8)).isEqualTo("hello");
+        assertThat(counter("links")).isEqualTo(1);
+        assertThat(java.nio.file.Files.isSameFile(src.toPath(), dst.toPath())).isTrue();
+    }
+
+    @Test
+    public void copy_RemoteTarget_NotCopied() throws URISyntaxException {
+        LocalCopier copier = new LocalCopier(false, registry);
+        FileSystem remoteFS = mock(FileSystem.class);
+        when(remoteFS.getUri()).thenReturn(new URI("ssh://example.com/"));
+        File dst = new File(folder.getRoot(), "output");
+
+        boolean copied = copier.copy(path(localFS, src), path(remoteFS, dst), CopyOption.CREATE);
+
+        assertThat(copied).isFalse();
+        assertThat(dst.exists()).isFalse();
+    }
+
+    @Test
+    public void copy_ExistingTargetWithoutReplace_NotCopied() throws IOException {
+        LocalCopier copier = new LocalCopier(false, registry);
+        File dst = folder.newFile("output");
+        Files.write("old", dst, UTF8);
+
+        boolean copied = copier.copy(path(localFS, src), path(localFS, dst), CopyOption.CREATE);
+
+        assertThat(copied).isFalse();
+        assertThat(Files.toString(dst, UTF8)).isEqualTo("old");
+    }
+
+    @Test
+    public void copy_ExistingTargetWithReplace_Replaced() throws IOException {
+        LocalCopier copier = new LocalCopier(false, registry);
+        File dst = folder.newFile("output");
+        Files.write("old", dst, UTF8);
+
+        boolean copied = copier.copy(path(localFS, src), path(localFS, dst), CopyOption.REPLACE_EXISTING);
+
+        assertThat(copied).isTrue();
+        assertThat(Files.toString(dst, UTF8)).isEqualTo("hello");
+    }
+
+    @Test
+    public void copy_Directory_NotCopied() throws IOException {
+        LocalCopier copier = new LocalCopier(false, registry);
+        File dir = folder.newFolder("dir");
+        File dst = new File(folder.getRoot(), "output");
+
+        boolean copied = copier.copy(path(localFS, dir), path(localFS, dst), CopyOption.CREATE);
+
+        assertThat(copied).isFalse();
+    }
+
+    @Test
+    public void copy_TargetDirectoryMissing_FallsBack() {
+        LocalCopier copier = new LocalCopier(false, registry);
+        File dst = new File(folder.getRoot(), "missing/output");
+
+        boolean copied = copier.copy(path(localFS, src), path(localFS, dst), CopyOption.CREATE);
+
+        assertThat(copied).isFalse();
+        assertThat(counter("fallbacks")).isEqualTo(1);
+    }
+}
@@ -0,0 +1,272 @@
+package nl.esciencecenter.octopus.webservice.staging;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.exceptions.OctopusIOException;
+import nl.esciencecenter.octopus.files.AbsolutePath;
+import nl.esciencecenter.octopus.files.FileAttributes;
+import nl.esciencecenter.octopus.files.Files;
+import nl.esciencecenter.octopus.files.OpenOption;
+import nl.esciencecenter.octopus.jobs.Job;
+import nl.esciencecenter.octopus.jobs.JobStatus;
+import nl.esciencecenter.octopus.util.Sandbox;
+import nl.esciencecenter.octopus.webservice.api.JobSubmitRequest;
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.yammer.metrics.core.MetricsRegistry;
+
+public class OutputSyncTest {
+    private Octopus octopus;
+    private Files files;
+    private Map<String, SandboxedJob> activeJobs;
+    private MetricsRegistry registry;
+    private JobStatus status;
+    private Sandbox.Pair stdout;
+    private Sandbox.Pair stderr;
+    private Sandbox.Pair poststaged;
+    private SandboxedJob job;
+
+    @Before
+    public void setUp() throws OctopusIOException {
+        octopus = mock(Octopus.class);
+        files = mock(Files.class);
+        when(octopus.files()).thenReturn(files);
+        activeJobs = new HashMap<String, SandboxedJob>();
+        registry = new MetricsRegistry();
+        stdout = pair("stdout.txt");
+        stderr = pair("stderr.txt");
+        poststaged = pair("output.dat");
+        Sandbox sandbox = mock(Sandbox.class);
+        List<Sandbox.Pair> pairs = new ArrayList<Sandbox.Pair>();
+        pairs.add(stdout);
+        pairs.add(stderr);
+        pairs.add(poststaged);
+        when(sandbox.getDownloadFiles()).thenReturn(pairs);
+        JobSubmitRequest request = new JobSubmitRequest();
+        Job ojob = mock(Job.class);
+        when(ojob.getUUID()).thenReturn(new UUID(1L, 0L));
+        status = mock(JobStatus.class);
+        when(status.isRunning()).thenReturn(true);
+        job = new SandboxedJob(sandbox, ojob, request, null, status);
+    }
+
+    private Sandbox.Pair pair(String filename) {
+        AbsolutePath source = mock(AbsolutePath.class);
+        when(source.getFileName()).thenReturn(filename);
+        when(source.getPath()).thenReturn("/sandbox/" + filename);
+        return new Sandbox.Pair(source, mock(AbsolutePath.class));
+    }
+
+    private OutputSync outputSync(boolean poststaged) {
+        return new OutputSync(octopus, activeJobs, poststaged, mock(ScheduledExecutorService.class), registry);
+    }
+
+    private void content(Sandbox.Pair pair, String content) throws OctopusIOException {
+        FileAttributes attributes = mock(FileAttributes.class);
+        when(attributes.size()).thenReturn((long) content.length());
+        when(files.exists(pair.getSource())).thenReturn(true);
+        when(files.getAttributes(pair.getSource())).thenReturn(attributes);
+        when(files.newInputStream(pair.getSource())).thenReturn(new ByteArrayInputStream(content.getBytes()));
+    }
+
+    private ByteArrayOutputStream target(Sandbox.Pair pair, OpenOption mode) throws OctopusIOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        when(files.newOutputStream(pair.getDestination(), OpenOption.OPEN_OR_CREATE, mode)).thenReturn(out);
+        return out;
+    }
+
+    @Test
+    public void sync_FirstTime_WholeFileCopied() throws OctopusIOException {
+        content(stdout, "hello");
+        ByteArrayOutputStream out = target(stdout, OpenOption.TRUNCATE);
+        OutputSync sync = outputSync(false);
+
+        sync.sync(job);
+
+        assertThat(out.toString()).isEqualTo("hello");
+        assertThat(sync.size()).isEqualTo(1);
+        assertThat(registry.newCounter(OutputSync.class, "synced-bytes").count()).isEqualTo(5);
+    }
+
+    @Test
+    public void sync_Appended_OnlyAppendedBytesCopied() throws OctopusIOException {
+        content(stdout, "hello");
+        target(stdout, OpenOption.TRUNCATE);
+        OutputSync sync = outputSync(false);
+        sync.sync(job);
+        content(stdout, "hello world");
+        ByteArrayOutputStream out = target(stdout, OpenOption.APPEND);
+
+        sync.sync(job);
+
+        assertThat(out.toString()).isEqualTo(" world");
+    }
+
+    @Test
+    public void sync_Unchanged_NotCopiedAgain() throws OctopusIOException {
+        content(stdout, "hello");
+        target(stdout, OpenOption.TRUNCATE);
+        OutputSync sync = outputSync(false);
+        sync.sync(job);
+
+        sync.sync(job);
+
+        verify(files, times(1)).newInputStream(stdout.getSource());
+    }
+
+    @Test
+    public void sync_Shrunk_CopiedFromStart() throws OctopusIOException {
+        content(stdout, "hello world");
+        target(stdout, OpenOption.TRUNCATE);
+        OutputSync sync = outputSync(false);
+        sync.sync(job);
+        content(stdout, "bye");
+        ByteArrayOutputStream out = target(stdout, OpenOption.TRUNCATE);
+
+        sync.sync(job);
+
+        assertThat(out.toString()).isEqualTo("bye");
+    }
+
+    @Test
+    public void sync_NotExisting_Skipped() throws OctopusIOException {
+        OutputSync sync = outputSync(false);
+
+        sync.sync(job);
+
+        verify(files, never()).newInputStream(any(AbsolutePath.class));
+    }
+
+    @Test
+    public void sync_WithoutPoststaged_PoststagedNotSynced() throws OctopusIOException {
+        content(poststaged, "data");
+        OutputSync sync = outputSync(false);
+
+        sync.sync(job);
+
+        verify(files, never()).exists(poststaged.getSource());
+    }
+
+    @Test
+    public void sync_WithPoststaged_PoststagedSynced() throws OctopusIOException {
+        content(poststaged, "data");
+        ByteArrayOutputStream out = target(poststaged, OpenOption.TRUNCATE);
+        OutputSync sync = outputSync(true);
+
+        sync.sync(job);
+
+        assertThat(out.toString()).isEqualTo("data");
+    }
+
+    @Test
+    public void sync_BeingCleaned_Skipped() throws OctopusIOException {
+        content(stdout, "hello");
+        job.setStagingState(StagingState.RUNNING);
+        OutputSync sync = outputSync(false);
+
+        sync.sync(job);
+
+        verify(files, never()).newInputStream(any(AbsolutePath.class));
+        assertThat(sync.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void finish_Synced_TailCopiedAndUnsyncedReturned() throws OctopusIOException {
+        content(stdout, "hello");
+        target(stdout, OpenOption.TRUNCATE);
+        OutputSync sync = outputSync(false);
+        sync.sync(job);
+        content(stdout, "hello world");
+        ByteArrayOutputStream out = target(stdout, OpenOption.APPEND);
+
+        List<Sandbox.Pair> remaining = sync.finish(job);
+
+        assertThat(out.toString()).isEqualTo(" world");
+        assertThat(remaining).containsExactly(stderr, poststaged);
+        assertThat(sync.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void finish_NeverSynced_AllReturned() throws OctopusIOException {
+        OutputSync sync = outputSync(false);
+
+        List<Sandbox.Pair> remaining = sync.finish(job);
+
+        assertThat(remaining).containsExactly(stdout, stderr, poststaged);
+    }
+
+    @Test
+    public void forget_Synced_NoLongerTracked() throws OctopusIOException {
+        content(stdout, "hello");
+        target(stdout, OpenOption.TRUNCATE);
+        OutputSync sync = outputSync(false);
+        sync.sync(job);
+
+        sync.forget(job);
+
+        assertThat(sync.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void run_RunningJob_Synced() throws OctopusIOException {
+        content(stdout, "hello");
+        ByteArrayOutputStream out = target(stdout, OpenOption.TRUNCATE);
+        activeJobs.put(job.getIdentifier(), job);
+        OutputSync sync = outputSync(false);
+
+        sync.run();
+
+        assertThat(out.toString()).isEqualTo("hello");
+    }
+
+    @Test
+    public void run_PendingJob_NotSynced() throws OctopusIOException {
+        when(status.isRunning()).thenReturn(false);
+        content(stdout, "hello");
+        activeJobs.put(job.getIdentifier(), job);
+        OutputSync sync = outputSync(false);
+
+        sync.run();
+
+        verify(files, never()).newInputStream(any(AbsolutePath.class));
+    }
+}
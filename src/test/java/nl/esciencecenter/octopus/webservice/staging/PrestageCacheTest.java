@@ -0,0 +1,244 @@
+package nl.esciencecenter.octopus.webservice.staging;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.engine.files.AbsolutePathImplementation;
+import nl.esciencecenter.octopus.exceptions.OctopusException;
+import nl.esciencecenter.octopus.exceptions.OctopusIOException;
+import nl.esciencecenter.octopus.files.AbsolutePath;
+import nl.esciencecenter.octopus.files.FileAttributes;
+import nl.esciencecenter.octopus.files.FileSystem;
+import nl.esciencecenter.octopus.files.Files;
+import nl.esciencecenter.octopus.files.OpenOption;
+import nl.esciencecenter.octopus.files.RelativePath;
+import nl.esciencecenter.octopus.util.Sandbox;
+
+import org.hamcrest.BaseMatcher;
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.MetricsRegistry;
+
+public class PrestageCacheTest {
+    private static final String HELLO_SHA1 = "aaf4c61ddcc5e8a2dabede0f3b482cd9aea9434d";
+    private Octopus octopus;
+    private Files files;
+    private FileSystem filesystem;
+    private MetricsRegistry registry;
+    /**
+     * Content of files keyed on path.
+     */
+    private Map<String, String> contents;
+
+    @Before
+    public void setUp() throws OctopusException, OctopusIOException {
+        octopus = mock(Octopus.class);
+        files = mock(Files.class);
+        when(octopus.files()).thenReturn(files);
+        filesystem = mock(FileSystem.class);
+        registry = new MetricsRegistry();
+        contents = new HashMap<String, String>();
+        when(files.newPath(any(FileSystem.class), any(RelativePath.class))).thenAnswer(new Answer<AbsolutePath>() {
+            public AbsolutePath answer(InvocationOnMock invocation) throws Throwable {
+                Object[] args = invocation.getArguments();
+                return new AbsolutePathImplementation((FileSystem) args[0], (RelativePath) args[1]);
+            }
+        });
+        when(files.newInputStream(any(AbsolutePath.class))).thenAnswer(new Answer<ByteArrayInputStream>() {
+            public ByteArrayInputStream answer(InvocationOnMock invocation) throws Throwable {
+                AbsolutePath path = (AbsolutePath) invocation.getArguments()[0];
+                return new ByteArrayInputStream(contents.get(path.getPath()).getBytes("UTF-8"));
+            }
+        });
+        when(files.newOutputStream(any(AbsolutePath.class), any(OpenOption.class), any(OpenOption.class))).thenReturn(
+                new ByteArrayOutputStream());
+    }
+
+    private AbsolutePath file(String path, String content, long lastModified) throws OctopusIOException {
+        AbsolutePath file = new AbsolutePathImplementation(filesystem, new RelativePath(path));
+        contents.put(path, content);
+        FileAttributes attributes = mock(FileAttributes.class);
+        when(attributes.size()).thenReturn((long) content.length());
+        when(attributes.lastModifiedTime()).thenReturn(lastModified);
+        when(files.getAttributes(argThat(hasPath(path)))).thenReturn(attributes);
+        return file;
+    }
+
+    private static Matcher<AbsolutePath> hasPath(final String path) {
+        return new BaseMatcher<AbsolutePath>() {
+            public boolean matches(Object item) {
+                return item instanceof AbsolutePath && path.equals(((AbsolutePath) item).getPath());
+            }
+
+            public void describeTo(Description description) {
+                description.appendText(path);
+            }
+        };
+    }
+
+    private long count(String name) {
+        for (Map.Entry<MetricName, Metric> entry : registry.allMetrics().entrySet()) {
+            if (entry.getKey().getName().equals(name)) {
+                return ((Counter) entry.getValue()).count();
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void stage_FirstTime_MissAndStoredUnderDigest() throws OctopusIOException, OctopusException {
+        PrestageCache cache = new PrestageCache(octopus, "/tmp/.prestage-cache", 1000, registry);
+        AbsolutePath source = file("/home/user/job1/ref.dat", "hello", 1);
+
+        AbsolutePath result = cache.stage(source, filesystem);
+
+        assertThat(result.getPath()).isEqualTo("/tmp/.prestage-cache/" + HELLO_SHA1);
+        verify(files).createDirectories(argThat(hasPath("/tmp/.prestage-cache")));
+        verify(files).move(any(AbsolutePath.class), argThat(hasPath("/tmp/.prestage-cache/" + HELLO_SHA1)));
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.bytes()).isEqualTo(5);
+        assertThat(count("misses")).isEqualTo(1);
+        assertThat(count("hits")).isEqualTo(0);
+    }
+
+    @Test
+    public void stage_SameFileTwice_HitWithoutReadingAgain() throws OctopusIOException, OctopusException {
+        PrestageCache cache = new PrestageCache(octopus, "/tmp/.prestage-cache", 1000, registry);
+        AbsolutePath source = file("/home/user/job1/ref.dat", "hello", 1);
+        cache.stage(source, filesystem);
+
+        AbsolutePath result = cache.stage(source, filesystem);
+
+        assertThat(result.getPath()).isEqualTo("/tmp/.prestage-cache/" + HELLO_SHA1);
+        verify(files, times(1)).newInputStream(source);
+        assertThat(count("hits")).isEqualTo(1);
+        assertThat(count("saved-bytes")).isEqualTo(5);
+    }
+
+    @Test
+    public void stage_SameContentOtherPath_StoredOnce() throws OctopusIOException, OctopusException {
+        PrestageCache cache = new PrestageCache(octopus, "/tmp/.prestage-cache", 1000, registry);
+        cache.stage(file("/home/user/job1/ref.dat", "hello", 1), filesystem);
+
+        AbsolutePath result = cache.stage(file("/home/user/job2/ref.dat", "hello", 2), filesystem);
+
+        assertThat(result.getPath()).isEqualTo("/tmp/.prestage-cache/" + HELLO_SHA1);
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.bytes()).isEqualTo(5);
+        verify(files, times(1)).move(any(AbsolutePath.class), any(AbsolutePath.class));
+    }
+
+    @Test
+    public void stage_ModifiedFile_MissAgain() throws OctopusIOException, OctopusException {
+        PrestageCache cache = new PrestageCache(octopus, "/tmp/.prestage-cache", 1000, registry);
+        cache.stage(file("/home/user/job1/ref.dat", "hello", 1), filesystem);
+
+        cache.stage(file("/home/user/job1/ref.dat", "hello world", 2), filesystem);
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(count("misses")).isEqualTo(2);
+    }
+
+    @Test
+    public void stage_OverMaximumBytes_LeastRecentlyUsedDeleted() throws OctopusIOException, OctopusException {
+        PrestageCache cache = new PrestageCache(octopus, "/tmp/.prestage-cache", 10, registry);
+        AbsolutePath first = file("/home/user/job1/ref.dat", "hello", 1);
+        cache.release(cache.stage(first, filesystem));
+
+        cache.stage(file("/home/user/job1/other.dat", "hello world", 1), filesystem);
+
+        verify(files).delete(argThat(hasPath("/tmp/.prestage-cache/" + HELLO_SHA1)));
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.bytes()).isEqualTo(11);
+        assertThat(count("evictions")).isEqualTo(1);
+        // evicted file is read again
+        cache.stage(first, filesystem);
+        verify(files, times(2)).newInputStream(first);
+    }
+
+    @Test
+    public void stage_CacheSmallerThanInputsOfOneJob_PinnedInputsKept() throws OctopusIOException, OctopusException {
+        PrestageCache cache = new PrestageCache(octopus, "/tmp/.prestage-cache", 10, registry);
+
+        cache.stage(file("/home/user/job1/ref.dat", "hello", 1), filesystem);
+        cache.stage(file("/home/user/job1/other.dat", "hello world", 1), filesystem);
+
+        verify(files, never()).delete(argThat(hasPath("/tmp/.prestage-cache/" + HELLO_SHA1)));
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.bytes()).isEqualTo(16);
+        assertThat(cache.pinned()).isEqualTo(2);
+        assertThat(count("evictions")).isEqualTo(0);
+    }
+
+    @Test
+    public void release_SandboxUploaded_UnpinnedAndOverflowEvicted() throws OctopusIOException, OctopusException {
+        PrestageCache cache = new PrestageCache(octopus, "/tmp/.prestage-cache", 10, registry);
+        AbsolutePath root = new AbsolutePathImplementation(filesystem, new RelativePath("/tmp"));
+        Sandbox sandbox = new Sandbox(octopus, root, "sandbox1");
+        sandbox.addUploadFile(cache.stage(file("/home/user/job1/ref.dat", "hello", 1), filesystem), "ref.dat");
+        sandbox.addUploadFile(cache.stage(file("/home/user/job1/other.dat", "hello world", 1), filesystem), "other.dat");
+        sandbox.addUploadFile(file("/home/user/job1/input.txt", "input", 1), "input.txt");
+
+        cache.release(sandbox);
+
+        assertThat(cache.pinned()).isEqualTo(0);
+        verify(files).delete(argThat(hasPath("/tmp/.prestage-cache/" + HELLO_SHA1)));
+        assertThat(cache.bytes()).isLessThanOrEqualTo(10);
+    }
+
+    @Test
+    public void stage_SameFileForTwoSandboxes_PinnedUntilBothReleased() throws OctopusIOException, OctopusException {
+        PrestageCache cache = new PrestageCache(octopus, "/tmp/.prestage-cache", 1, registry);
+        AbsolutePath source = file("/home/user/job1/ref.dat", "hello", 1);
+        AbsolutePath cached = cache.stage(source, filesystem);
+        cache.stage(source, filesystem);
+
+        cache.release(cached);
+
+        assertThat(cache.pinned()).isEqualTo(1);
+        assertThat(cache.size()).isEqualTo(1);
+        cache.release(cached);
+        assertThat(cache.pinned()).isEqualTo(0);
+        assertThat(cache.size()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,273 @@
+package nl.esciencecenter.octopus.webservice.staging;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.engine.files.AbsolutePathImplementation;
+import nl.esciencecenter.octopus.exceptions.OctopusException;
+import nl.esciencecenter.octopus.exceptions.OctopusIOException;
+import nl.esciencecenter.octopus.files.AbsolutePath;
+import nl.esciencecenter.octopus.files.DirectoryStream;
+import nl.esciencecenter.octopus.files.FileSystem;
+import nl.esciencecenter.octopus.files.Files;
+import nl.esciencecenter.octopus.files.RelativePath;
+import nl.esciencecenter.octopus.util.Sandbox;
+
+import org.hamcrest.BaseMatcher;
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.yammer.metrics.core.MetricsRegistry;
+
+public class SandboxPoolTest {
+    private Octopus octopus;
+    private Files files;
+    private FileSystem filesystem;
+    private MetricsRegistry registry;
+
+    @Before
+    public void setUp() throws OctopusException, OctopusIOException {
+        octopus = mock(Octopus.class);
+        files = mock(Files.class);
+        when(octopus.files()).thenReturn(files);
+        filesystem = mock(FileSystem.class);
+        registry = new MetricsRegistry();
+        when(files.newPath(any(FileSystem.class), any(RelativePath.class))).thenAnswer(new Answer<AbsolutePath>() {
+            public AbsolutePath answer(InvocationOnMock invocation) throws Throwable {
+                Object[] args = invocation.getArguments();
+                return new AbsolutePathImplementation((FileSystem) args[0], (RelativePath) args[1]);
+            }
+        });
+    }
+
+    private SandboxPool pool(int size) {
+        return new SandboxPool(octopus, "/tmp", size, MoreExecutors.sameThreadExecutor(), registry);
+    }
+
+    private static Matcher<AbsolutePath> hasPath(final String path) {
+        return new BaseMatcher<AbsolutePath>() {
+            public boolean matches(Object item) {
+                return item instanceof AbsolutePath && path.equals(((AbsolutePath) item).getPath());
+            }
+
+            public void describeTo(Description description) {
+                description.appendText(path);
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private DirectoryStream<AbsolutePath> stream(AbsolutePath... paths) {
+        DirectoryStream<AbsolutePath> stream = mock(DirectoryStream.class);
+        when(stream.iterator()).thenReturn(Arrays.asList(paths).iterator());
+        return stream;
+    }
+
+    private Sandbox sandbox(String name) {
+        Sandbox sandbox = mock(Sandbox.class);
+        when(sandbox.getPath()).thenReturn(new AbsolutePathImplementation(filesystem, new RelativePath("/tmp/" + name)));
+        return sandbox;
+    }
+
+    /**
+     * Pool of given size whose creation of directories fails, so it stays empty.
+     */
+    private SandboxPool emptyPool(int size) throws OctopusIOException {
+        when(files.createDirectory(any(AbsolutePath.class))).thenThrow(new OctopusIOException("local", "Permission denied"));
+        SandboxPool pool = pool(size);
+        pool.start(filesystem);
+        return pool;
+    }
+
+    @Test
+    public void start_DirectoriesCreated() throws OctopusIOException {
+        SandboxPool pool = pool(2);
+
+        pool.start(filesystem);
+
+        assertThat(pool.size()).isEqualTo(2);
+        verify(files, times(2)).createDirectory(any(AbsolutePath.class));
+    }
+
+    @Test
+    public void take_NotStarted_Null() throws OctopusIOException {
+        SandboxPool pool = pool(2);
+
+        assertThat(pool.take()).isNull();
+        verify(files, never()).createDirectory(any(AbsolutePath.class));
+    }
+
+    @Test
+    public void take_Filled_NameReturnedAndRefilled() throws OctopusIOException {
+        SandboxPool pool = pool(2);
+        pool.start(filesystem);
+
+        String name = pool.take();
+
+        assertThat(name).startsWith("octopus_sandbox_");
+        verify(files).createDirectory(argThat(hasPath("/tmp/" + name)));
+        assertThat(pool.size()).isEqualTo(2);
+        verify(files, times(3)).createDirectory(any(AbsolutePath.class));
+        assertThat(registry.newCounter(SandboxPool.class, "hits").count()).isEqualTo(1);
+    }
+
+    @Test
+    public void take_Provisioning_NullAndNoMoreProvisioned() {
+        ExecutorService executor = mock(ExecutorService.class);
+        SandboxPool pool = new SandboxPool(octopus, "/tmp", 2, executor, registry);
+        pool.start(filesystem);
+
+        String name = pool.take();
+
+        assertThat(name).isNull();
+        verify(executor, times(2)).execute(any(Runnable.class));
+        assertThat(registry.newCounter(SandboxPool.class, "misses").count()).isEqualTo(1);
+    }
+
+    @Test
+    public void start_CreateFails_Empty() throws OctopusIOException {
+        SandboxPool pool = emptyPool(2);
+
+        assertThat(pool.size()).isEqualTo(0);
+        assertThat(pool.take()).isNull();
+    }
+
+    @Test
+    public void reclaim_NotFull_WipedAndReturned() throws OctopusIOException {
+        SandboxPool pool = emptyPool(1);
+        Sandbox sandbox = sandbox("octopus_sandbox_1");
+        AbsolutePath file = mock(AbsolutePath.class);
+        AbsolutePath dir = mock(AbsolutePath.class);
+        AbsolutePath nested = mock(AbsolutePath.class);
+        DirectoryStream<AbsolutePath> sandboxStream = stream(file, dir);
+        DirectoryStream<AbsolutePath> dirStream = stream(nested);
+        when(files.newDirectoryStream(sandbox.getPath())).thenReturn(sandboxStream);
+        when(files.isDirectory(dir)).thenReturn(true);
+        when(files.newDirectoryStream(dir)).thenReturn(dirStream);
+
+        boolean reclaimed = pool.reclaim(sandbox);
+
+        assertThat(reclaimed).isTrue();
+        verify(files).delete(file);
+        verify(files).delete(nested);
+        verify(files).delete(dir);
+        verify(files, never()).delete(sandbox.getPath());
+        assertThat(pool.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void reclaim_Full_NotReturned() throws OctopusIOException {
+        SandboxPool pool = pool(1);
+        pool.start(filesystem);
+        Sandbox sandbox = sandbox("octopus_sandbox_1");
+
+        boolean reclaimed = pool.reclaim(sandbox);
+
+        assertThat(reclaimed).isFalse();
+        verify(files, never()).newDirectoryStream(any(AbsolutePath.class));
+    }
+
+    @Test
+    public void reclaim_WipeFails_NotReturned() throws OctopusIOException {
+        SandboxPool pool = emptyPool(1);
+        Sandbox sandbox = sandbox("octopus_sandbox_1");
+        when(files.newDirectoryStream(sandbox.getPath())).thenThrow(new OctopusIOException("local", "Permission denied"));
+
+        boolean reclaimed = pool.reclaim(sandbox);
+
+        assertThat(reclaimed).isFalse();
+        assertThat(pool.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void reclaim_SandboxOfBackendOnOtherFileSystem_NotReturned() throws OctopusIOException, URISyntaxException {
+        SandboxPool pool = emptyPool(1);
+        when(filesystem.getUri()).thenReturn(new URI("file:///"));
+        FileSystem otherFilesystem = mock(FileSystem.class);
+        when(otherFilesystem.getUri()).thenReturn(new URI("ssh://cluster/"));
+        Sandbox sandbox = mock(Sandbox.class);
+        when(sandbox.getPath()).thenReturn(
+                new AbsolutePathImplementation(otherFilesystem, new RelativePath("/tmp/octopus_sandbox_1")));
+
+        boolean reclaimed = pool.reclaim(sandbox);
+
+        assertThat(reclaimed).isFalse();
+        verify(files, never()).newDirectoryStream(any(AbsolutePath.class));
+        assertThat(pool.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void reclaim_SandboxOfBackendInOtherRoot_NotReturned() throws OctopusIOException {
+        SandboxPool pool = emptyPool(1);
+        Sandbox sandbox = mock(Sandbox.class);
+        when(sandbox.getPath()).thenReturn(
+                new AbsolutePathImplementation(filesystem, new RelativePath("/other/octopus_sandbox_1")));
+
+        boolean reclaimed = pool.reclaim(sandbox);
+
+        assertThat(reclaimed).isFalse();
+        verify(files, never()).newDirectoryStream(any(AbsolutePath.class));
+        assertThat(pool.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void take_Reclaimed_ReclaimedNameReturned() throws OctopusIOException {
+        SandboxPool pool = emptyPool(1);
+        Sandbox sandbox = sandbox("octopus_sandbox_1");
+        DirectoryStream<AbsolutePath> sandboxStream = stream();
+        when(files.newDirectoryStream(sandbox.getPath())).thenReturn(sandboxStream);
+        pool.reclaim(sandbox);
+
+        String name = pool.take();
+
+        assertThat(name).isEqualTo("octopus_sandbox_1");
+    }
+
+    @Test
+    public void stop_PooledDirectoriesDeleted() throws OctopusIOException, InterruptedException {
+        SandboxPool pool = pool(1);
+        pool.start(filesystem);
+
+        pool.stop();
+
+        verify(files).delete(any(AbsolutePath.class));
+        assertThat(pool.size()).isEqualTo(0);
+    }
+}
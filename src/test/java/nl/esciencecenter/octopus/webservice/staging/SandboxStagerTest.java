@@ -0,0 +1,229 @@
+package nl.esciencecenter.octopus.webservice.staging;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import nl.esciencecenter.octopus.exceptions.OctopusIOException;
+import nl.esciencecenter.octopus.exceptions.UnsupportedOperationException;
+import nl.esciencecenter.octopus.files.AbsolutePath;
+import nl.esciencecenter.octopus.files.FileSystem;
+import nl.esciencecenter.octopus.jobs.Job;
+import nl.esciencecenter.octopus.jobs.JobStatus;
+import nl.esciencecenter.octopus.util.CopyOption;
+import nl.esciencecenter.octopus.util.Sandbox;
+import nl.esciencecenter.octopus.webservice.api.SandboxedJob;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class SandboxStagerTest {
+
+    private SandboxedJob sandboxedJob(Sandbox sandbox) {
+        return new SandboxedJob(sandbox, mock(Job.class), null, null, mock(JobStatus.class));
+    }
+
+    @Test
+    public void clean_NotStaged_SandboxCleanedAndWhenDoneRun() throws OctopusIOException, UnsupportedOperationException {
+        Sandbox sandbox = mock(Sandbox.class);
+        SandboxedJob job = sandboxedJob(sandbox);
+        Runnable whenDone = mock(Runnable.class);
+        SandboxStager stager = new SandboxStager(MoreExecutors.sameThreadExecutor());
+
+        boolean queued = stager.clean(job, whenDone);
+
+        assertThat(queued).isTrue();
+        verify(sandbox).delete();
+        verify(whenDone).run();
+        assertThat(job.getStagingState()).isEqualTo(StagingState.DONE);
+    }
+
+    @Test
+    public void clean_AlreadyStaged_NotCleanedAgainAndWhenDoneRun() throws OctopusIOException,
+            UnsupportedOperationException {
+        Sandbox sandbox = mock(Sandbox.class);
+        SandboxedJob job = sandboxedJob(sandbox);
+        job.setStagingState(StagingState.DONE);
+        Runnable whenDone = mock(Runnable.class);
+        SandboxStager stager = new SandboxStager(MoreExecutors.sameThreadExecutor());
+
+        boolean queued = stager.clean(job, whenDone);
+
+        assertThat(queued).isFalse();
+        verify(sandbox, never()).delete();
+        verify(whenDone).run();
+    }
+
+    @Test
+    public void clean_Queued_NotQueuedAgain() {
+        SandboxedJob job = sandboxedJob(mock(Sandbox.class));
+        job.setStagingState(StagingState.QUEUED);
+        Runnable whenDone = mock(Runnable.class);
+        ExecutorService executor = mock(ExecutorService.class);
+        SandboxStager stager = new SandboxStager(executor);
+
+        boolean queued = stager.clean(job, whenDone);
+
+        assertThat(queued).isFalse();
+        verify(whenDone, never()).run();
+    }
+
+    @Test
+    public void clean_DeleteFails_StateFailedAndWhenDoneRun() throws OctopusIOException, UnsupportedOperationException {
+        Sandbox sandbox = mock(Sandbox.class);
+        doThrow(new OctopusIOException("local", "Disk full")).when(sandbox).delete();
+        SandboxedJob job = sandboxedJob(sandbox);
+        Runnable whenDone = mock(Runnable.class);
+        SandboxStager stager = new SandboxStager(MoreExecutors.sameThreadExecutor());
+
+        stager.clean(job, whenDone);
+
+        verify(whenDone).run();
+        assertThat(job.getStagingState()).isEqualTo(StagingState.FAILED);
+    }
+
+    @Test
+    public void clean_FirstSeenDone_DownloadedWithDoneStatus() throws OctopusIOException, UnsupportedOperationException {
+        Sandbox sandbox = mock(Sandbox.class);
+        SandboxedJob job = new SandboxedJob(sandbox, mock(Job.class), null, null);
+        SandboxStager stager = new SandboxStager(MoreExecutors.sameThreadExecutor());
+
+        stager.clean(job, mock(JobStatus.class), null);
+
+        verify(sandbox).download(CopyOption.REPLACE_EXISTING);
+        verify(sandbox).delete();
+        assertThat(job.getStagingState()).isEqualTo(StagingState.DONE);
+    }
+
+    @Test
+    public void clean_DoneStatusWithException_NotDownloaded() throws OctopusIOException, UnsupportedOperationException {
+        Sandbox sandbox = mock(Sandbox.class);
+        SandboxedJob job = sandboxedJob(sandbox);
+        JobStatus doneStatus = mock(JobStatus.class);
+        when(doneStatus.hasException()).thenReturn(true);
+        SandboxStager stager = new SandboxStager(MoreExecutors.sameThreadExecutor());
+
+        stager.clean(job, doneStatus, null);
+
+        verify(sandbox, never()).download(CopyOption.REPLACE_EXISTING);
+        verify(sandbox).delete();
+    }
+
+    @Test
+    public void clean_WithTransfers_DownloadedByTransfers() throws OctopusIOException, UnsupportedOperationException {
+        Sandbox sandbox = mock(Sandbox.class);
+        SandboxTransfers transfers = mock(SandboxTransfers.class);
+        SandboxStager stager = new SandboxStager(MoreExecutors.sameThreadExecutor());
+        stager.setTransfers(transfers);
+
+        stager.clean(sandboxedJob(sandbox), null);
+
+        verify(transfers).download(sandbox, CopyOption.REPLACE_EXISTING);
+        verify(sandbox, never()).download(CopyOption.REPLACE_EXISTING);
+        verify(sandbox).delete();
+    }
+
+    @Test
+    public void clean_WithOutputSync_TailSyncedAndRemainderDownloaded() throws OctopusIOException,
+            UnsupportedOperationException {
+        Sandbox sandbox = mock(Sandbox.class);
+        SandboxedJob job = sandboxedJob(sandbox);
+        SandboxTransfers transfers = mock(SandboxTransfers.class);
+        OutputSync outputSync = mock(OutputSync.class);
+        List<Sandbox.Pair> remaining = new ArrayList<Sandbox.Pair>();
+        when(outputSync.finish(job)).thenReturn(remaining);
+        SandboxStager stager = new SandboxStager(MoreExecutors.sameThreadExecutor());
+        stager.setTransfers(transfers);
+        stager.setOutputSync(outputSync);
+
+        stager.clean(job, null);
+
+        verify(transfers).download(remaining, CopyOption.REPLACE_EXISTING);
+        verify(transfers, never()).download(sandbox, CopyOption.REPLACE_EXISTING);
+        verify(sandbox).delete();
+    }
+
+    @Test
+    public void clean_WithFileSystemCache_FileSystemReleased() {
+        Sandbox sandbox = mock(Sandbox.class);
+        AbsolutePath path = mock(AbsolutePath.class);
+        FileSystem fileSystem = mock(FileSystem.class);
+        when(sandbox.getPath()).thenReturn(path);
+        when(path.getFileSystem()).thenReturn(fileSystem);
+        FileSystemCache fileSystems = mock(FileSystemCache.class);
+        SandboxStager stager = new SandboxStager(MoreExecutors.sameThreadExecutor());
+        stager.setFileSystems(fileSystems);
+
+        stager.clean(sandboxedJob(sandbox), null);
+
+        verify(fileSystems).release(fileSystem);
+    }
+
+    @Test
+    public void clean_QueueFull_NotQueuedAndStateUnset() throws OctopusIOException, UnsupportedOperationException {
+        ExecutorService executor = mock(ExecutorService.class);
+        doThrow(new RejectedExecutionException()).when(executor).execute(any(Runnable.class));
+        SandboxStager stager = new SandboxStager(executor);
+        Sandbox sandbox = mock(Sandbox.class);
+        SandboxedJob job = sandboxedJob(sandbox);
+        Runnable whenDone = mock(Runnable.class);
+
+        boolean queued = stager.clean(job, whenDone);
+
+        assertThat(queued).isFalse();
+        assertThat(job.getStagingState()).isNull();
+        verify(sandbox, never()).delete();
+        verify(whenDone, never()).run();
+    }
+
+    @Test
+    public void testStop() throws InterruptedException {
+        ExecutorService executor = mock(ExecutorService.class);
+        SandboxStager stager = new SandboxStager(executor);
+
+        stager.stop();
+
+        verify(executor).shutdown();
+    }
+
+    @Test
+    public void testSandboxStager_Configuration() throws InterruptedException {
+        SandboxStager stager = new SandboxStager(new StagingConfiguration(1, 1));
+        SandboxedJob job = sandboxedJob(mock(Sandbox.class));
+
+        stager.clean(job, null);
+        stager.stop();
+
+        assertThat(job.getStagingState()).isEqualTo(StagingState.DONE);
+    }
+}
@@ -0,0 +1,218 @@
+package nl.esciencecenter.octopus.webservice.staging;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import nl.esciencecenter.octopus.Octopus;
+import nl.esciencecenter.octopus.exceptions.OctopusException;
+import nl.esciencecenter.octopus.exceptions.OctopusIOException;
+import nl.esciencecenter.octopus.exceptions.UnsupportedOperationException;
+import nl.esciencecenter.octopus.files.AbsolutePath;
+import nl.esciencecenter.octopus.files.FileSystem;
+import nl.esciencecenter.octopus.files.Files;
+import nl.esciencecenter.octopus.files.RelativePath;
+import nl.esciencecenter.octopus.util.CopyOption;
+import nl.esciencecenter.octopus.util.Sandbox;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class SandboxTransfersTest {
+    private Octopus octopus;
+    private Files files;
+    private AbsolutePath root;
+    private AbsolutePath sandboxPath;
+
+    @Before
+    public void setUp() {
+        octopus = mock(Octopus.class);
+        files = mock(Files.class);
+        when(octopus.files()).thenReturn(files);
+        root = mock(AbsolutePath.class);
+        sandboxPath = mock(AbsolutePath.class);
+        when(root.resolve(new RelativePath("sandbox1"))).thenReturn(sandboxPath);
+        when(sandboxPath.resolve(any(RelativePath.class))).thenReturn(mock(AbsolutePath.class));
+    }
+
+    private Sandbox sandbox(int nrFiles) throws OctopusException, OctopusIOException {
+        Sandbox sandbox = new Sandbox(octopus, root, "sandbox1");
+        for (int i = 0; i < nrFiles; i++) {
+            sandbox.addUploadFile(mock(AbsolutePath.class), "input" + i);
+            sandbox.addDownloadFile("output" + i, mock(AbsolutePath.class));
+        }
+        return sandbox;
+    }
+
+    @Test
+    public void upload_OnePerJob_SandboxUploadsItself() throws OctopusException, OctopusIOException,
+            UnsupportedOperationException {
+        Sandbox sandbox = mock(Sandbox.class);
+        SandboxTransfers transfers = new SandboxTransfers(octopus, mock(ExecutorService.class), 1);
+
+        transfers.upload(sandbox);
+
+        verify(sandbox).upload();
+    }
+
+    @Test
+    public void download_OnePerJob_SandboxDownloadsItself() throws OctopusException, OctopusIOException,
+            UnsupportedOperationException {
+        Sandbox sandbox = mock(Sandbox.class);
+        SandboxTransfers transfers = new SandboxTransfers(octopus, mock(ExecutorService.class), 1);
+
+        transfers.download(sandbox, CopyOption.REPLACE_EXISTING);
+
+        verify(sandbox).download(CopyOption.REPLACE_EXISTING);
+    }
+
+    @Test
+    public void upload_FourPerJob_DirectoryCreatedAndAllFilesCopied() throws OctopusException, OctopusIOException,
+            UnsupportedOperationException {
+        Sandbox sandbox = sandbox(10);
+        SandboxTransfers transfers = new SandboxTransfers(octopus, MoreExecutors.sameThreadExecutor(), 4);
+
+        transfers.upload(sandbox);
+
+        verify(files).createDirectories(sandboxPath);
+        for (Sandbox.Pair pair : sandbox.getUploadFiles()) {
+            verify(files).copy(pair.getSource(), pair.getDestination());
+        }
+    }
+
+    @Test
+    public void download_FourPerJobWithPool_AllFilesCopied() throws OctopusException, OctopusIOException,
+            UnsupportedOperationException, InterruptedException {
+        Sandbox sandbox = sandbox(10);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        SandboxTransfers transfers = new SandboxTransfers(octopus, executor, 4);
+
+        transfers.download(sandbox, CopyOption.REPLACE_EXISTING);
+
+        for (Sandbox.Pair pair : sandbox.getDownloadFiles()) {
+            verify(files).copy(pair.getSource(), pair.getDestination(), CopyOption.REPLACE_EXISTING);
+        }
+        transfers.stop();
+        assertThat(executor.awaitTermination(1, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void upload_CopyFails_ExceptionThrownAndRemainingFilesSkipped() throws OctopusException, OctopusIOException,
+            UnsupportedOperationException {
+        Sandbox sandbox = sandbox(3);
+        OctopusIOException exception = new OctopusIOException("ssh", "Connection lost");
+        Sandbox.Pair first = sandbox.getUploadFiles().get(0);
+        when(files.copy(first.getSource(), first.getDestination())).thenThrow(exception);
+        SandboxTransfers transfers = new SandboxTransfers(octopus, MoreExecutors.sameThreadExecutor(), 2);
+
+        try {
+            transfers.upload(sandbox);
+            fail("OctopusIOException not thrown");
+        } catch (OctopusIOException e) {
+            assertThat(e).isEqualTo(exception);
+        }
+        Sandbox.Pair last = sandbox.getUploadFiles().get(2);
+        verify(files, never()).copy(last.getSource(), last.getDestination());
+    }
+
+    private AbsolutePath localPath() throws URISyntaxException {
+        FileSystem localFS = mock(FileSystem.class);
+        when(localFS.getUri()).thenReturn(new URI("file:///"));
+        AbsolutePath path = mock(AbsolutePath.class);
+        when(path.getFileSystem()).thenReturn(localFS);
+        return path;
+    }
+
+    @Test
+    public void upload_LocalPairCopiedByLocalCopier_OctopusCopySkipped() throws OctopusException, OctopusIOException,
+            UnsupportedOperationException, URISyntaxException {
+        AbsolutePath destination = localPath();
+        when(sandboxPath.resolve(any(RelativePath.class))).thenReturn(destination);
+        Sandbox sandbox = new Sandbox(octopus, root, "sandbox1");
+        AbsolutePath source = localPath();
+        sandbox.addUploadFile(source, "input0");
+        LocalCopier localCopier = mock(LocalCopier.class);
+        when(localCopier.copy(source, destination)).thenReturn(true);
+        SandboxTransfers transfers = new SandboxTransfers(octopus, MoreExecutors.sameThreadExecutor(), 1, localCopier);
+
+        transfers.upload(sandbox);
+
+        verify(localCopier).copy(source, destination);
+        verify(files, never()).copy(source, destination);
+    }
+
+    @Test
+    public void upload_LocalCopierFails_FallsBackToOctopusCopy() throws OctopusException, OctopusIOException,
+            UnsupportedOperationException, URISyntaxException {
+        AbsolutePath destination = localPath();
+        when(sandboxPath.resolve(any(RelativePath.class))).thenReturn(destination);
+        Sandbox sandbox = new Sandbox(octopus, root, "sandbox1");
+        AbsolutePath source = localPath();
+        sandbox.addUploadFile(source, "input0");
+        LocalCopier localCopier = mock(LocalCopier.class);
+        when(localCopier.copy(source, destination)).thenReturn(false);
+        SandboxTransfers transfers = new SandboxTransfers(octopus, MoreExecutors.sameThreadExecutor(), 1, localCopier);
+
+        transfers.upload(sandbox);
+
+        verify(files).copy(source, destination);
+    }
+
+    @Test
+    public void upload_NoLocalPairs_SandboxUploadsItself() throws OctopusException, OctopusIOException,
+            UnsupportedOperationException {
+        Sandbox sandbox = mock(Sandbox.class);
+        LocalCopier localCopier = mock(LocalCopier.class);
+        SandboxTransfers transfers = new SandboxTransfers(octopus, mock(ExecutorService.class), 1, localCopier);
+
+        transfers.upload(sandbox);
+
+        verify(sandbox).upload();
+    }
+
+    @Test
+    public void uploadFiles_PooledSandbox_FilesCopiedWithoutCreatingDirectory() throws OctopusException,
+            OctopusIOException, UnsupportedOperationException {
+        Sandbox sandbox = sandbox(2);
+        SandboxTransfers transfers = new SandboxTransfers(octopus, MoreExecutors.sameThreadExecutor(), 1);
+
+        transfers.uploadFiles(sandbox);
+
+        verify(files, never()).createDirectories(any(AbsolutePath.class));
+        for (Sandbox.Pair pair : sandbox.getUploadFiles()) {
+            verify(files).copy(pair.getSource(), pair.getDestination());
+        }
+    }
+}
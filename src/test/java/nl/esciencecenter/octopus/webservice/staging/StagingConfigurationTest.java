@@ -0,0 +1,176 @@
+package nl.esciencecenter.octopus.webservice.staging;
+
+/*
+ * #%L
+ * Octopus Job Webservice
+ * %%
+ * Copyright (C) 2013 Nederlands eScience Center
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class StagingConfigurationTest {
+
+    @Test
+    public void testStagingConfiguration_AllParameters() {
+        StagingConfiguration conf = new StagingConfiguration(4, 10);
+        assertThat(conf.getParallelism()).isEqualTo(4);
+        assertThat(conf.getQueueSize()).isEqualTo(10);
+    }
+
+    @Test
+    public void testStagingConfiguration_NoParameters() {
+        StagingConfiguration conf = new StagingConfiguration();
+        assertThat(conf.getParallelism()).isEqualTo(2);
+        assertThat(conf.getQueueSize()).isEqualTo(1000);
+        assertThat(conf.getFileSystemCacheSize()).isEqualTo(8);
+        assertThat(conf.getFileSystemIdleTimeout()).isEqualTo(10*60*1000);
+        assertThat(conf.getTransfersPerJob()).isEqualTo(1);
+        assertThat(conf.getMaxTransfers()).isEqualTo(8);
+        assertThat(conf.getPrestageCacheSize()).isEqualTo(0);
+        assertThat(conf.isLocalFastPath()).isTrue();
+        assertThat(conf.isHardLinks()).isFalse();
+        assertThat(conf.getSyncInterval()).isEqualTo(0);
+        assertThat(conf.isSyncPoststaged()).isFalse();
+        assertThat(conf.getSandboxPoolSize()).isEqualTo(0);
+    }
+
+    @Test
+    public void testSetParallelism() {
+        StagingConfiguration conf = new StagingConfiguration();
+
+        conf.setParallelism(8);
+
+        assertThat(conf.getParallelism()).isEqualTo(8);
+    }
+
+    @Test
+    public void testSetQueueSize() {
+        StagingConfiguration conf = new StagingConfiguration();
+
+        conf.setQueueSize(50);
+
+        assertThat(conf.getQueueSize()).isEqualTo(50);
+    }
+
+    @Test
+    public void testSetFileSystemCacheSize() {
+        StagingConfiguration conf = new StagingConfiguration();
+
+        conf.setFileSystemCacheSize(2);
+
+        assertThat(conf.getFileSystemCacheSize()).isEqualTo(2);
+    }
+
+    @Test
+    public void testSetFileSystemIdleTimeout() {
+        StagingConfiguration conf = new StagingConfiguration();
+
+        conf.setFileSystemIdleTimeout(60000);
+
+        assertThat(conf.getFileSystemIdleTimeout()).isEqualTo(60000);
+    }
+
+    @Test
+    public void testSetTransfersPerJob() {
+        StagingConfiguration conf = new StagingConfiguration();
+
+        conf.setTransfersPerJob(4);
+
+        assertThat(conf.getTransfersPerJob()).isEqualTo(4);
+    }
+
+    @Test
+    public void testSetMaxTransfers() {
+        StagingConfiguration conf = new StagingConfiguration();
+
+        conf.setMaxTransfers(16);
+
+        assertThat(conf.getMaxTransfers()).isEqualTo(16);
+    }
+
+    @Test
+    public void testSetPrestageCacheSize() {
+        StagingConfiguration conf = new StagingConfiguration();
+
+        conf.setPrestageCacheSize(1024);
+
+        assertThat(conf.getPrestageCacheSize()).isEqualTo(1024);
+    }
+
+    @Test
+    public void testSetLocalFastPath() {
+        StagingConfiguration conf = new StagingConfiguration();
+
+        conf.setLocalFastPath(false);
+
+        assertThat(conf.isLocalFastPath()).isFalse();
+    }
+
+    @Test
+    public void testSetHardLinks() {
+        StagingConfiguration conf = new StagingConfiguration();
+
+        conf.setHardLinks(true);
+
+        assertThat(conf.isHardLinks()).isTrue();
+    }
+
+    @Test
+    public void testSetSyncInterval() {
+        StagingConfiguration conf = new StagingConfiguration();
+
+        conf.setSyncInterval(60000);
+
+        assertThat(conf.getSyncInterval()).isEqualTo(60000);
+    }
+
+    @Test
+    public void testSetSyncPoststaged() {
+        StagingConfiguration conf = new StagingConfiguration();
+
+        conf.setSyncPoststaged(true);
+
+        assertThat(conf.isSyncPoststaged()).isTrue();
+    }
+
+    @Test
+    public void testSetSandboxPoolSize() {
+        StagingConfiguration conf = new StagingConfiguration();
+
+        conf.setSandboxPoolSize(16);
+
+        assertThat(conf.getSandboxPoolSize()).isEqualTo(16);
+    }
+
+    @Test
+    public void testEquals() {
+        assertThat(new StagingConfiguration(4, 10)).isEqualTo(new StagingConfiguration(4, 10));
+        assertThat(new StagingConfiguration(4, 10)).isNotEqualTo(new StagingConfiguration(4, 11));
+    }
+
+    @Test
+    public void testToString() {
+        StagingConfiguration conf = new StagingConfiguration();
+
+        String result = conf.toString();
+
+        String expected = "StagingConfiguration{2, 1000, 8, 600000, 1, 8, 0, true, false, 0, false, 0}";
+        assertThat(result).isEqualTo(expected);
+    }
+}